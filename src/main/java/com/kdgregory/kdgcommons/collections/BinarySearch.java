@@ -14,6 +14,8 @@
 
 package com.kdgregory.kdgcommons.collections;
 
+import com.kdgregory.kdgcommons.buffer.BufferFacade;
+
 
 /**
  *  Static methods for searching array-like data structures: those that can be
@@ -31,10 +33,19 @@ package com.kdgregory.kdgcommons.collections;
  *  compares an actual object instance against the instance stored at a particular
  *  index in your data structure.
  *  <p>
+ *  There are also specialized methods for <code>long</code> keys, which avoid
+ *  boxing: one searches a <code>long[]</code>, the other searches fixed-width
+ *  records in a {@link BufferFacade} (such as a memory-mapped file). Each has
+ *  an interpolation-search variant, which is faster for uniformly distributed
+ *  keys.
+ *  <p>
  *  As with <code>Arrays.binarySearch()</code>, each of these methods returns
  *  the index if successful, <code>(-(insertionPoint) - 1)</code> if not. The
  *  specific meaning of <em>insertionPoint</code> will vary depending on the
  *  method called; see the method docs for details.
+ *  <p>
+ *  For large primitive arrays that are searched repeatedly, {@link EytzingerSearch}
+ *  provides a more cache-friendly alternative.
  */
 public class BinarySearch
 {
@@ -163,10 +174,227 @@ public class BinarySearch
         return search(new IndexedAccessor<T>(index, cmp), value);
     }
 
+
+    /**
+     *  Searches a sorted <code>long[]</code>. Unlike <code>Arrays.binarySearch()</code>,
+     *  this method always returns the lowest matching position if there are duplicate
+     *  values.
+     *
+     *  @since 2.1.0
+     */
+    public static int search(long[] array, long key)
+    {
+        return search(array, 0, array.length, key);
+    }
+
+
+    /**
+     *  Searches a portion of a sorted <code>long[]</code>. The returned position
+     *  or insertion point is relative to the start of the array, not the start
+     *  of the range.
+     *
+     *  @param  array       The array to be searched
+     *  @param  fromIndex   The minimum bound of the search (inclusive)
+     *  @param  toIndex     The maximum bound of the search (exclusive)
+     *  @param  key         The value to find
+     *
+     *  @since 2.1.0
+     */
+    public static int search(long[] array, int fromIndex, int toIndex, long key)
+    {
+        int lo = fromIndex;
+        int hi = toIndex;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (array[mid] < key)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return ((lo < toIndex) && (array[lo] == key)) ? lo : -lo - 1;
+    }
+
+
+    /**
+     *  Searches a sorted sequence of fixed-width records in a {@link BufferFacade}
+     *  (for example, a {@link com.kdgregory.kdgcommons.buffer.MappedFileBuffer}),
+     *  where each record contains a <code>long</code> key. Keys are read directly
+     *  from the buffer, using its byte order; there is no boxing or copying.
+     *
+     *  @param  buffer      The buffer to be searched
+     *  @param  base        The offset of the first record's key in the buffer
+     *  @param  stride      The size of each record, in bytes
+     *  @param  count       The number of records
+     *  @param  key         The value to find
+     *
+     *  @return The record number (not byte offset) of the lowest record with the
+     *          specified key, <code>(-(insertionPoint) - 1)</code> if there is no
+     *          such record.
+     *
+     *  @since 2.1.0
+     */
+    public static long search(BufferFacade buffer, long base, int stride, long count, long key)
+    {
+        long lo = 0;
+        long hi = count;
+        while (lo < hi)
+        {
+            long mid = (lo + hi) >>> 1;
+            if (buffer.getLong(base + mid * stride) < key)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return ((lo < count) && (buffer.getLong(base + lo * stride) == key)) ? lo : -lo - 1;
+    }
+
+
+    /**
+     *  Searches a sorted <code>long[]</code> using interpolation: rather than
+     *  always probing the middle of the remaining range, it estimates the key's
+     *  position from the values at the ends of the range. For uniformly distributed
+     *  keys this takes O(log log N) probes rather than O(log N). For other
+     *  distributions, any probe that fails to halve the range is followed by a
+     *  bisection, so the worst case remains O(log N).
+     *  <p>
+     *  Returns the same values as {@link #search(long[],long)}.
+     *
+     *  @since 2.1.0
+     */
+    public static int interpolationSearch(long[] array, long key)
+    {
+        int lo = 0;
+        int hi = array.length;
+
+        // invariant: the lowest position with a value >= key is in lo .. hi (inclusive)
+        while (hi - lo > INTERPOLATION_CUTOFF)
+        {
+            long first = array[lo];
+            long last = array[hi - 1];
+            if (key <= first)
+            {
+                hi = lo;
+                break;
+            }
+            if (key > last)
+            {
+                lo = hi;
+                break;
+            }
+
+            int size = hi - lo;
+            int probe = lo + 1 + (int)(interpolate(first, last, key) * (size - 2));
+            if (array[probe] < key)
+                lo = probe + 1;
+            else
+                hi = probe;
+
+            if (hi - lo > size / 2)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (array[mid] < key)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+        }
+
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (array[mid] < key)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return ((lo < array.length) && (array[lo] == key)) ? lo : -lo - 1;
+    }
+
+
+    /**
+     *  Searches a sorted sequence of fixed-width records in a {@link BufferFacade}
+     *  using interpolation, as described by {@link #interpolationSearch(long[],long)}.
+     *  Parameters and return value are the same as for {@link
+     *  #search(BufferFacade,long,int,long,long)}.
+     *
+     *  @since 2.1.0
+     */
+    public static long interpolationSearch(BufferFacade buffer, long base, int stride, long count, long key)
+    {
+        long lo = 0;
+        long hi = count;
+
+        while (hi - lo > INTERPOLATION_CUTOFF)
+        {
+            long first = buffer.getLong(base + lo * stride);
+            long last = buffer.getLong(base + (hi - 1) * stride);
+            if (key <= first)
+            {
+                hi = lo;
+                break;
+            }
+            if (key > last)
+            {
+                lo = hi;
+                break;
+            }
+
+            long size = hi - lo;
+            long probe = lo + 1 + (long)(interpolate(first, last, key) * (size - 2));
+            if (buffer.getLong(base + probe * stride) < key)
+                lo = probe + 1;
+            else
+                hi = probe;
+
+            if (hi - lo > size / 2)
+            {
+                long mid = (lo + hi) >>> 1;
+                if (buffer.getLong(base + mid * stride) < key)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+        }
+
+        while (lo < hi)
+        {
+            long mid = (lo + hi) >>> 1;
+            if (buffer.getLong(base + mid * stride) < key)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return ((lo < count) && (buffer.getLong(base + lo * stride) == key)) ? lo : -lo - 1;
+    }
+
 //----------------------------------------------------------------------------
 //  Internals
 //----------------------------------------------------------------------------
 
+    /**
+     *  Interpolation search switches to binary search when the range is
+     *  smaller than this.
+     */
+    private final static int INTERPOLATION_CUTOFF = 16;
+
+
+    /**
+     *  Estimates the relative position of <code>key</code> between two values,
+     *  as a fraction between 0 and 1. The caller guarantees that
+     *  <code>first &lt; key &lt;= last</code>. Uses floating-point to avoid
+     *  overflow when the values span more than half the range of long.
+     */
+    private static double interpolate(long first, long last, long key)
+    {
+        return ((double)key - (double)first) / ((double)last - (double)first);
+    }
+
+
     private static class IndexedAccessor<T>
     implements Accessor<T>
     {
@@ -28,6 +28,14 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 
 /**
@@ -668,6 +676,137 @@ public class CollectionUtil
     }
 
 
+    /**
+     *  Partitions the passed iterable into sublists, each of which has at most
+     *  <code>maxSize</code> elements. Unlike {@link #partition}, the sublists are
+     *  created lazily, as the returned iterable is iterated, so only one sublist
+     *  is held in memory at a time (unless retained by the caller). If the source
+     *  is null, returns an empty iterable.
+     *
+     *  @throws IllegalArgumentException if <code>maxSize</code> is not positive.
+     *
+     *  @since 2.1.0
+     */
+    public static <T> Iterable<List<T>> streamingPartition(Iterable<T> source, int maxSize)
+    {
+        if (source == null) source = Collections.emptyList();
+        return Pipeline.from(source).chunk(maxSize);
+    }
+
+
+    /**
+     *  Partitions the passed iterable into batches of at most <code>batchSize</code>
+     *  elements, and invokes the provided function on each batch using the provided
+     *  <code>ExecutorService</code>. Batches are created lazily, and the number of
+     *  batches that have been submitted but not completed is limited: once that limit
+     *  is reached, the calling thread waits until a batch completes before reading
+     *  more of the source. This keeps memory use proportional to the limit, not to
+     *  the size of the source.
+     *  <p>
+     *  If any batch throws, or the executor rejects a batch, no more batches are
+     *  submitted; this method waits for the in-flight batches to complete, then
+     *  throws the first failure.
+     *
+     *  @param  source      The elements to process.
+     *  @param  batchSize   The maximum number of elements passed to each invocation
+     *                      of the function.
+     *  @param  executor    Used to invoke the function.
+     *  @param  maxInFlight The maximum number of batches that may be submitted to
+     *                      the executor and not yet completed.
+     *  @param  fn          The function to invoke for each batch. Must be thread-safe.
+     *
+     *  @return The results of the function, in the order that the batches were
+     *          created from the source.
+     *
+     *  @throws ExecutionException if any invocation of the function throws; the
+     *          exception's cause is the function's exception.
+     *  @throws InterruptedException if the calling thread is interrupted while
+     *          waiting for batches to complete.
+     *  @throws RejectedExecutionException if the executor rejects a batch (and no
+     *          previously submitted batch has thrown).
+     *
+     *  @since 2.1.0
+     */
+    public static <T,R> List<R> processBatches(
+            Iterable<T> source, int batchSize, ExecutorService executor, int maxInFlight,
+            final Function<? super List<T>, ? extends R> fn)
+    throws InterruptedException, ExecutionException
+    {
+        if (maxInFlight <= 0)
+            throw new IllegalArgumentException("maxInFlight must be > 0, was: " + maxInFlight);
+
+        final Semaphore permits = new Semaphore(maxInFlight);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<R>> futures = new ArrayList<Future<R>>();
+        RejectedExecutionException rejected = null;
+
+        for (final List<T> batch : streamingPartition(source, batchSize))
+        {
+            permits.acquire();
+            if (failed.get())
+            {
+                permits.release();
+                break;
+            }
+
+            Callable<R> task = new Callable<R>()
+            {
+                @Override
+                public R call() throws Exception
+                {
+                    try
+                    {
+                        return fn.apply(batch);
+                    }
+                    catch (Throwable ex)
+                    {
+                        failed.set(true);
+                        throw ex;
+                    }
+                    finally
+                    {
+                        permits.release();
+                    }
+                }
+            };
+
+            try
+            {
+                futures.add(executor.submit(task));
+            }
+            catch (RejectedExecutionException ex)
+            {
+                permits.release();
+                failed.set(true);
+                rejected = ex;
+                break;
+            }
+        }
+
+        List<R> results = new ArrayList<R>(futures.size());
+        ExecutionException failure = null;
+        for (Future<R> future : futures)
+        {
+            try
+            {
+                results.add(future.get());
+            }
+            catch (ExecutionException ex)
+            {
+                if (failure == null)
+                    failure = ex;
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+        if (rejected != null)
+            throw rejected;
+
+        return results;
+    }
+
+
     /**
      *  Returns a map that contains all keys in the specified collection.
      *  <p>
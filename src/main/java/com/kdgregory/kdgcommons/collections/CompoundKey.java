@@ -14,6 +14,8 @@
 
 package com.kdgregory.kdgcommons.collections;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -22,6 +24,9 @@ import java.util.Iterator;
 /**
  *  An N-tuple that provides <code>equals()</code> and <code>hashCode()</code>,
  *  used to hold a multi-element key for <code>HashMap</code>s.
+ *  <p>
+ *  For performance-critical code, {@link FixedKey} provides keys with a fixed
+ *  number of components, that can hold primitive values without boxing.
  */
 public final class CompoundKey
 implements Iterable<Object>, Serializable
@@ -29,7 +34,7 @@ implements Iterable<Object>, Serializable
         private static final long serialVersionUID = 1L;
 
         private Object[] components;
-        private int hashCode;
+        private transient int hashCode;
         private String stringValue;
 
 
@@ -37,11 +42,7 @@ implements Iterable<Object>, Serializable
         {
             // FIXME - make a defensive copy
             this.components = components;
-            for (Object obj : components)
-            {
-                if (obj != null)
-                    this.hashCode = hashCode * 37 + obj.hashCode();
-            }
+            this.hashCode = computeHashCode();
         }
 
 
@@ -98,4 +99,30 @@ implements Iterable<Object>, Serializable
         {
             return hashCode;
         }
+
+
+        /**
+         *  The hash code is not serialized: it depends on the hash function of
+         *  the current release (and on the components' own hash codes, which may
+         *  differ between JVMs), so it's recomputed when deserializing.
+         */
+        private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+        {
+            in.defaultReadObject();
+            hashCode = computeHashCode();
+        }
+
+
+        private int computeHashCode()
+        {
+            // mixing each component (including nulls) gives a much better
+            // distribution than a simple multiply-and-add
+            long hash = components.length;
+            for (Object obj : components)
+            {
+                hash = FixedKey.combine(hash, obj);
+            }
+            return FixedKey.finish(hash);
+        }
 }
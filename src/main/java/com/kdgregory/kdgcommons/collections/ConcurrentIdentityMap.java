@@ -0,0 +1,547 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+
+/**
+ *  A thread-safe map that compares keys by identity rather than <code>equals()</code>.
+ *  This replaces a <code>ConcurrentHashMap</code> keyed by {@link IdentityKey}: there
+ *  is no wrapper object per entry, and lookups do not allocate.
+ *  <p>
+ *  The map is divided into segments, each of which is an open-addressed (linear
+ *  probing) table indexed by <code>System.identityHashCode()</code>. Reads do not
+ *  lock. Writes lock only the segment containing the key, so writes to different
+ *  segments proceed concurrently. Removed entries leave a marker in the table, which
+ *  is purged when the segment is next resized.
+ *  <p>
+ *  Optionally, the map can hold its keys via weak references, in which case an entry
+ *  is removed once its key has been collected; this is useful for "side tables" that
+ *  attach metadata to objects that you don't control. Unlike <code>WeakHashMap</code>,
+ *  the keys are still compared by identity. Note that the map holds its values
+ *  strongly, so a value must not refer to its key.
+ *  <p>
+ *  Null keys and values are not permitted: <code>get()</code> returns null to
+ *  indicate that a key is not present.
+ *  <p>
+ *  Like {@link HashMultimap}, this class does not implement <code>Map</code>; it
+ *  provides only the operations needed for lookup tables. Its size and {@link
+ *  #forEach} are weakly consistent: they reflect the state of each segment at the
+ *  time that segment was examined.
+ *
+ *  @since 2.1.0
+ */
+public class ConcurrentIdentityMap<K,V>
+{
+    /**
+     *  Controls how the map refers to its keys.
+     */
+    public enum KeyReferences { STRONG, WEAK }
+
+    private final static int DEFAULT_CAPACITY = 64;
+    private final static int DEFAULT_CONCURRENCY = 16;
+
+    // the maximum fraction of slots (including removed entries) that may be
+    // used before a segment is resized; same as IdentityHashMap
+    private final static double LOAD_FACTOR = 2.0 / 3.0;
+
+    // marks a slot whose entry has been removed
+    private final static Object TOMBSTONE = new Object();
+
+//----------------------------------------------------------------------------
+//  Instance variables and Constructors
+//----------------------------------------------------------------------------
+
+    private boolean weakKeys;
+    private ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    private Segment[] segments;
+    private int segmentShift;
+
+
+    /**
+     *  Base constructor, lets you control everything.
+     *
+     *  @param  keyReferences       Whether the map holds strong or weak references
+     *                              to its keys.
+     *  @param  initialCapacity     The number of entries that the map can hold
+     *                              before any segment must be resized.
+     *  @param  concurrencyLevel    The expected number of concurrent writers. This
+     *                              is rounded up to a power of 2, and determines the
+     *                              number of segments.
+     */
+    public ConcurrentIdentityMap(KeyReferences keyReferences, int initialCapacity, int concurrencyLevel)
+    {
+        this.weakKeys = (keyReferences == KeyReferences.WEAK);
+
+        int segmentCount = 1;
+        int segmentBits = 0;
+        while (segmentCount < concurrencyLevel)
+        {
+            segmentCount <<= 1;
+            segmentBits++;
+        }
+        this.segmentShift = 32 - segmentBits;
+
+        int segmentCapacity = tableSize((initialCapacity + segmentCount - 1) / segmentCount);
+        this.segments = new Segment[segmentCount];
+        for (int ii = 0 ; ii < segmentCount ; ii++)
+        {
+            segments[ii] = new Segment(segmentCapacity, weakKeys, queue);
+        }
+    }
+
+
+    /**
+     *  Creates a map with the specified key references, default capacity, and
+     *  default concurrency.
+     */
+    public ConcurrentIdentityMap(KeyReferences keyReferences)
+    {
+        this(keyReferences, DEFAULT_CAPACITY, DEFAULT_CONCURRENCY);
+    }
+
+
+    /**
+     *  Creates a map with strong key references, default capacity, and default
+     *  concurrency.
+     */
+    public ConcurrentIdentityMap()
+    {
+        this(KeyReferences.STRONG);
+    }
+
+//----------------------------------------------------------------------------
+//  Public Methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the value associated with the specified key, null if there is no
+     *  such value.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        int hash = hash(key);
+        return (V)segmentFor(hash).get(key, hash);
+    }
+
+
+    /**
+     *  Returns true if the map contains the specified key.
+     */
+    public boolean containsKey(Object key)
+    {
+        return get(key) != null;
+    }
+
+
+    /**
+     *  Associates a value with the specified key, returning the previous value
+     *  (null if there wasn't one).
+     */
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value)
+    {
+        if (value == null)
+            throw new NullPointerException("null values not permitted");
+
+        expungeCollectedKeys();
+        int hash = hash(key);
+        return (V)segmentFor(hash).put(key, hash, value, false);
+    }
+
+
+    /**
+     *  Associates a value with the specified key if there is not already a value
+     *  for that key. Returns the existing value, null if there wasn't one.
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(K key, V value)
+    {
+        if (value == null)
+            throw new NullPointerException("null values not permitted");
+
+        expungeCollectedKeys();
+        int hash = hash(key);
+        return (V)segmentFor(hash).put(key, hash, value, true);
+    }
+
+
+    /**
+     *  Returns the value associated with the specified key; if there isn't one,
+     *  invokes the function to create it, and stores the result. If the function
+     *  returns null, nothing is stored and this method returns null.
+     *  <p>
+     *  The function is called while holding the lock for the key's segment, so it
+     *  must not modify this map. The function is called at most once per call to
+     *  this method.
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> fn)
+    {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+
+        V value = (V)segment.get(key, hash);
+        if (value != null)
+            return value;
+
+        expungeCollectedKeys();
+        synchronized (segment)
+        {
+            value = (V)segment.get(key, hash);
+            if (value == null)
+            {
+                value = fn.apply(key);
+                if (value != null)
+                    segment.put(key, hash, value, true);
+            }
+            return value;
+        }
+    }
+
+
+    /**
+     *  Removes the specified key from the map, returning its value (null if it
+     *  was not present).
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        expungeCollectedKeys();
+        int hash = hash(key);
+        return (V)segmentFor(hash).remove(key, hash);
+    }
+
+
+    /**
+     *  Returns the number of entries in the map. In weak-key mode, this may
+     *  include entries whose keys have been collected but not yet purged.
+     */
+    public int size()
+    {
+        expungeCollectedKeys();
+        int size = 0;
+        for (Segment segment : segments)
+        {
+            size += segment.count;
+        }
+        return size;
+    }
+
+
+    /**
+     *  Returns true if the map contains no entries.
+     */
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+
+    /**
+     *  Removes all entries from the map.
+     */
+    public void clear()
+    {
+        for (Segment segment : segments)
+        {
+            segment.clear();
+        }
+        while (queue.poll() != null)
+            ; // discard any pending references; their entries are gone
+    }
+
+
+    /**
+     *  Invokes the passed function for each entry in the map. Entries that are
+     *  added or removed during the iteration may or may not be reported.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> fn)
+    {
+        for (Segment segment : segments)
+        {
+            AtomicReferenceArray<Object> table = segment.table;
+            for (int ii = 0 ; ii < table.length() ; ii += 2)
+            {
+                Object key = unwrap(table.get(ii));
+                Object value = table.get(ii + 1);
+                if ((key != null) && (value != null))
+                    fn.accept((K)key, (V)value);
+            }
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Computes the hash for a key. Identity hashcodes are randomly distributed,
+     *  but we spread them so that the high bits (used to pick a segment) and the
+     *  low bits (used to pick a slot) are independent.
+     */
+    private static int hash(Object key)
+    {
+        if (key == null)
+            throw new NullPointerException("null keys not permitted");
+
+        int h = System.identityHashCode(key);
+        return (h ^ (h >>> 16)) * 0x9E3779B9;
+    }
+
+
+    /**
+     *  Returns the smallest power-of-2 number of slots that can hold the specified
+     *  number of entries without exceeding the load factor.
+     */
+    private static int tableSize(int entries)
+    {
+        int size = 4;
+        while (size * LOAD_FACTOR < entries + 1)
+        {
+            size <<= 1;
+        }
+        return size;
+    }
+
+
+    private Segment segmentFor(int hash)
+    {
+        // with one segment, the shift is 32, which Java treats as 0
+        return (segments.length == 1) ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+
+    /**
+     *  Returns the key object held in a table slot, or null if the slot is empty,
+     *  removed, or holds a collected weak reference.
+     */
+    private static Object unwrap(Object slotKey)
+    {
+        if ((slotKey == null) || (slotKey == TOMBSTONE))
+            return null;
+        if (slotKey instanceof WeakKey)
+            return ((WeakKey)slotKey).get();
+        return slotKey;
+    }
+
+
+    /**
+     *  In weak-key mode, removes the entries for any keys that have been collected.
+     */
+    private void expungeCollectedKeys()
+    {
+        if (! weakKeys)
+            return;
+
+        WeakKey ref;
+        while ((ref = (WeakKey)queue.poll()) != null)
+        {
+            segmentFor(ref.hash).expunge(ref);
+        }
+    }
+
+
+    /**
+     *  The reference used to hold keys in weak-key mode. It retains the key's
+     *  hash so that its entry can be found after the key has been collected.
+     */
+    private static final class WeakKey
+    extends WeakReference<Object>
+    {
+        private int hash;
+
+        public WeakKey(Object key, int hash, ReferenceQueue<Object> queue)
+        {
+            super(key, queue);
+            this.hash = hash;
+        }
+    }
+
+
+    /**
+     *  A single open-addressed table. Keys and values are interleaved in an atomic
+     *  array, which gives readers volatile semantics without locking: a writer stores
+     *  the value before the key, so any reader that sees the key sees its value.
+     *  <p>
+     *  A slot is assigned to a key only once per table; removing an entry replaces its
+     *  key with a tombstone and nulls its value, and a new entry is never placed in a
+     *  tombstoned slot. This means that a reader that finds its key in a slot can only
+     *  see that key's value, or null if the entry was concurrently removed. Tombstones
+     *  are discarded when the table is rebuilt.
+     */
+    private static final class Segment
+    {
+        private boolean weakKeys;
+        private ReferenceQueue<Object> queue;
+
+        private volatile AtomicReferenceArray<Object> table;
+        private volatile int count;
+        private int usedSlots;
+        private int threshold;
+        private int initialSize;
+
+        public Segment(int tableSize, boolean weakKeys, ReferenceQueue<Object> queue)
+        {
+            this.weakKeys = weakKeys;
+            this.queue = queue;
+            this.initialSize = tableSize;
+            setTable(new AtomicReferenceArray<Object>(tableSize * 2));
+        }
+
+        public Object get(Object key, int hash)
+        {
+            AtomicReferenceArray<Object> tab = table;
+            int slot = find(tab, key, hash);
+            return (slot < 0) ? null : tab.get(slot + 1);
+        }
+
+        public synchronized Object put(Object key, int hash, Object value, boolean onlyIfAbsent)
+        {
+            int slot = find(table, key, hash);
+            if (slot >= 0)
+            {
+                Object oldValue = table.get(slot + 1);
+                if (! onlyIfAbsent)
+                    table.set(slot + 1, value);
+                return oldValue;
+            }
+
+            if (usedSlots + 1 > threshold)
+                rebuild();
+
+            // find() verified that the key isn't present, so we take the first
+            // empty slot in the probe sequence
+            int mask = (table.length() >> 1) - 1;
+            int idx = hash & mask;
+            while (table.get(idx << 1) != null)
+            {
+                idx = (idx + 1) & mask;
+            }
+
+            table.set((idx << 1) + 1, value);
+            table.set(idx << 1, weakKeys ? new WeakKey(key, hash, queue) : key);
+            usedSlots++;
+            count++;
+            return null;
+        }
+
+        public synchronized Object remove(Object key, int hash)
+        {
+            int slot = find(table, key, hash);
+            if (slot < 0)
+                return null;
+
+            Object oldValue = table.get(slot + 1);
+            removeSlot(slot);
+            return oldValue;
+        }
+
+        public synchronized void expunge(WeakKey ref)
+        {
+            AtomicReferenceArray<Object> tab = table;
+            int mask = (tab.length() >> 1) - 1;
+            for (int idx = ref.hash & mask ; ; idx = (idx + 1) & mask)
+            {
+                Object slotKey = tab.get(idx << 1);
+                if (slotKey == null)
+                    return;
+                if (slotKey == ref)
+                {
+                    removeSlot(idx << 1);
+                    return;
+                }
+            }
+        }
+
+        public synchronized void clear()
+        {
+            count = 0;
+            setTable(new AtomicReferenceArray<Object>(initialSize * 2));
+        }
+
+        /**
+         *  Returns the array index of the slot holding the specified key, -1 if
+         *  it isn't in the table. Since the table always has empty slots, the
+         *  search always terminates.
+         */
+        private int find(AtomicReferenceArray<Object> tab, Object key, int hash)
+        {
+            int mask = (tab.length() >> 1) - 1;
+            for (int idx = hash & mask ; ; idx = (idx + 1) & mask)
+            {
+                Object slotKey = tab.get(idx << 1);
+                if (slotKey == null)
+                    return -1;
+                if ((slotKey == key) || ((slotKey instanceof WeakKey) && (((WeakKey)slotKey).get() == key)))
+                    return idx << 1;
+            }
+        }
+
+        private void removeSlot(int slot)
+        {
+            table.set(slot + 1, null);
+            table.set(slot, TOMBSTONE);
+            count--;
+        }
+
+        /**
+         *  Copies all live entries into a new table, sized for the current number
+         *  of entries, and makes it visible to readers. Readers that are examining
+         *  the old table will see its last state.
+         */
+        private void rebuild()
+        {
+            AtomicReferenceArray<Object> oldTable = table;
+            AtomicReferenceArray<Object> newTable = new AtomicReferenceArray<Object>(Math.max(initialSize, tableSize(count * 2)) * 2);
+            int mask = (newTable.length() >> 1) - 1;
+            int newCount = 0;
+
+            for (int ii = 0 ; ii < oldTable.length() ; ii += 2)
+            {
+                Object slotKey = oldTable.get(ii);
+                Object key = unwrap(slotKey);
+                if (key == null)
+                    continue;   // empty, removed, or collected
+
+                int idx = ((slotKey instanceof WeakKey) ? ((WeakKey)slotKey).hash : hash(key)) & mask;
+                while (newTable.get(idx << 1) != null)
+                {
+                    idx = (idx + 1) & mask;
+                }
+                newTable.set((idx << 1) + 1, oldTable.get(ii + 1));
+                newTable.set(idx << 1, slotKey);
+                newCount++;
+            }
+
+            count = newCount;
+            setTable(newTable);
+        }
+
+        private void setTable(AtomicReferenceArray<Object> newTable)
+        {
+            threshold = (int)((newTable.length() >> 1) * LOAD_FACTOR);
+            usedSlots = count;
+            table = newTable;
+        }
+    }
+}
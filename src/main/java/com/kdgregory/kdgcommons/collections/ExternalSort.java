@@ -0,0 +1,699 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.kdgregory.kdgcommons.buffer.MappedFileBuffer;
+import com.kdgregory.kdgcommons.io.IOUtil;
+import com.kdgregory.kdgcommons.lang.NamedThreadFactory;
+
+
+/**
+ *  Sorts fixed-size records that are too large to fit in memory.
+ *  <p>
+ *  The sort happens in two phases. First, the input is read in chunks that fit
+ *  within the configured memory limit; each chunk is sorted in-place using
+ *  {@link InplaceSort}, and written to a temporary file (a "run"). Then the runs
+ *  are combined with a k-way merge, using a heap to select the next record. If
+ *  there are more runs than can be efficiently merged at once, the merge happens
+ *  in multiple passes. If the input fits in a single chunk, it's sorted in memory
+ *  and no temporary files are created.
+ *  <p>
+ *  Run generation may use multiple threads: while one chunk is being sorted and
+ *  written, the next can be read. Each thread requires its own chunk, so the
+ *  memory limit is divided between them. When there are multiple merge passes,
+ *  the intermediate merges also run in parallel.
+ *  <p>
+ *  Records are compared using a {@link RecordComparator}, which is given the
+ *  location of each record within a byte array. It must be thread-safe if the
+ *  sort uses multiple threads.
+ *  <p>
+ *  Instances are configured using chained <code>withXXX()</code> calls, and
+ *  may be reused (including concurrently) once configured:
+ *  <pre>
+ *      ExternalSort sorter = new ExternalSort(24, comparator)
+ *                            .withMemoryLimit(512 * 1024 * 1024)
+ *                            .withParallelism(4);
+ *      sorter.sort(in, out);
+ *  </pre>
+ *  Temporary files are created with {@link IOUtil#createTempFile}, and are deleted
+ *  when no longer needed, even if the sort throws.
+ *
+ *  @since 2.1.0
+ */
+public class ExternalSort
+{
+    /**
+     *  Compares two records, each identified by an array and offset. Returns the
+     *  normal comparator values: &lt; 0, 0, &gt; 0.
+     */
+    public interface RecordComparator
+    {
+        public int compare(byte[] array1, int offset1, byte[] array2, int offset2);
+    }
+
+
+    /**
+     *  The default memory limit: 64 MB.
+     */
+    public final static long DEFAULT_MEMORY_LIMIT = 64 * 1024 * 1024;
+
+    /**
+     *  The maximum number of runs that are merged at one time. A merge has to
+     *  read from all of its runs, so a wide merge turns into random IO.
+     */
+    private final static int MAX_MERGE_WIDTH = 64;
+
+    /**
+     *  Minimum and maximum buffer sizes for reading runs during the merge.
+     */
+    private final static int MIN_MERGE_BUFFER = 8192;
+    private final static int MAX_MERGE_BUFFER = 1024 * 1024;
+
+    private final static String TEMP_FILE_PREFIX = "ExternalSort";
+
+//----------------------------------------------------------------------------
+//  Constructors and instance variables
+//----------------------------------------------------------------------------
+
+    private int recordSize;
+    private RecordComparator comparator;
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+    private int parallelism = 1;
+
+
+    /**
+     *  Creates an instance that uses the default memory limit and a single thread.
+     *
+     *  @param  recordSize  The size of each record, in bytes.
+     *  @param  comparator  Used to order records.
+     *
+     *  @throws IllegalArgumentException if the record size is not positive.
+     */
+    public ExternalSort(int recordSize, RecordComparator comparator)
+    {
+        if (recordSize <= 0)
+            throw new IllegalArgumentException("record size must be > 0, was: " + recordSize);
+
+        this.recordSize = recordSize;
+        this.comparator = comparator;
+    }
+
+
+    /**
+     *  Sets the approximate amount of memory, in bytes, that the sort may use for
+     *  holding records. This is divided between the threads used to create runs,
+     *  and is always large enough to hold one record per thread.
+     *
+     *  @throws IllegalArgumentException if the limit is not positive.
+     */
+    public ExternalSort withMemoryLimit(long value)
+    {
+        if (value <= 0)
+            throw new IllegalArgumentException("memory limit must be > 0, was: " + value);
+
+        memoryLimit = value;
+        return this;
+    }
+
+
+    /**
+     *  Sets the number of threads used to sort. The default is 1, which performs
+     *  all work on the calling thread.
+     *
+     *  @throws IllegalArgumentException if the value is not positive.
+     */
+    public ExternalSort withParallelism(int value)
+    {
+        if (value <= 0)
+            throw new IllegalArgumentException("parallelism must be > 0, was: " + value);
+
+        parallelism = value;
+        return this;
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Reads records from the provided stream until EOF, and writes them in sorted
+     *  order to the output stream. Neither stream is closed. Returns the number of
+     *  records sorted.
+     *
+     *  @throws IOException if unable to read or write the streams or temporary
+     *          files, or if the input contains a partial record.
+     */
+    public long sort(InputStream in, OutputStream out)
+    throws IOException
+    {
+        return new SortOperation().execute(in, out);
+    }
+
+
+    /**
+     *  Sorts the records in a memory-mapped file. The file size must be an exact
+     *  multiple of the record size, and the buffer must be writable. Returns the
+     *  number of records sorted.
+     *
+     *  @throws IllegalArgumentException if the file contains a partial record.
+     *  @throws IOException if unable to read or write temporary files.
+     */
+    public long sort(MappedFileBuffer buffer)
+    throws IOException
+    {
+        if (buffer.limit() % recordSize != 0)
+            throw new IllegalArgumentException(
+                    "buffer size (" + buffer.limit() + ") is not a multiple of record size (" + recordSize + ")");
+
+        // all records are read before the first record is written
+        OutputStream out = new BufferedOutputStream(new MappedFileBufferOutputStream(buffer), MAX_MERGE_BUFFER);
+        long count = new SortOperation().execute(new MappedFileBufferInputStream(buffer), out);
+        out.flush();
+        return count;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Holds the state of a single invocation of <code>sort()</code>, so that
+     *  the configuration object is reusable.
+     */
+    private class SortOperation
+    {
+        private List<File> tempFiles = Collections.synchronizedList(new ArrayList<File>());
+        private ExecutorService executor;
+
+        public long execute(InputStream in, OutputStream out)
+        throws IOException
+        {
+            if (parallelism > 1)
+                executor = Executors.newFixedThreadPool(parallelism, new NamedThreadFactory(TEMP_FILE_PREFIX));
+
+            try
+            {
+                return sortAndMerge(in, out);
+            }
+            finally
+            {
+                if (executor != null)
+                    shutdownExecutor();
+                synchronized (tempFiles)
+                {
+                    for (File file : tempFiles)
+                        file.delete();
+                }
+            }
+        }
+
+
+        /**
+         *  Stops the executor and waits for running tasks to finish, so that no
+         *  task can create a temporary file after the files have been deleted.
+         *  Tasks do not respond to interruption, but each works on a bounded
+         *  set of records (a single chunk, or a group of runs to merge).
+         *  <p>
+         *  This is typically called when the sort has been interrupted, so the
+         *  wait clears the calling thread's interrupt status, and restores it
+         *  once the executor has terminated.
+         */
+        private void shutdownExecutor()
+        {
+            executor.shutdownNow();
+            boolean interrupted = Thread.interrupted();
+            while (true)
+            {
+                try
+                {
+                    if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS))
+                        break;
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+
+        private long sortAndMerge(InputStream in, OutputStream out)
+        throws IOException
+        {
+            int chunkRecords = (int)Math.min(Math.max(1, memoryLimit / parallelism / recordSize),
+                                             (Integer.MAX_VALUE - 8) / recordSize);
+            BlockingQueue<byte[]> freeChunks = new ArrayBlockingQueue<byte[]>(parallelism);
+            int allocatedChunks = 0;
+
+            List<Future<File>> runs = new ArrayList<Future<File>>();
+            long count = 0;
+            while (true)
+            {
+                byte[] chunk = freeChunks.poll();
+                if ((chunk == null) && (allocatedChunks < parallelism))
+                {
+                    chunk = new byte[chunkRecords * recordSize];
+                    allocatedChunks++;
+                }
+                else if (chunk == null)
+                {
+                    chunk = takeChunk(freeChunks);
+                }
+
+                int bytesRead = IOUtil.readFully(in, chunk);
+                if (bytesRead % recordSize != 0)
+                    throw new IOException("input contains partial record: " + (bytesRead % recordSize) + " bytes");
+
+                int recordsRead = bytesRead / recordSize;
+                count += recordsRead;
+
+                if ((bytesRead < chunk.length) && runs.isEmpty())
+                {
+                    // everything fit into memory
+                    sortChunk(chunk, recordsRead);
+                    out.write(chunk, 0, bytesRead);
+                    return count;
+                }
+
+                if (recordsRead == 0)
+                    break;
+
+                runs.add(submit(new RunWriter(chunk, recordsRead, freeChunks)));
+
+                if (bytesRead < chunk.length)
+                    break;
+            }
+
+            List<File> files = new ArrayList<File>(runs.size());
+            for (Future<File> run : runs)
+                files.add(get(run));
+
+            while (files.size() > MAX_MERGE_WIDTH)
+            {
+                List<Future<File>> merged = new ArrayList<Future<File>>();
+                for (int ii = 0 ; ii < files.size() ; ii += MAX_MERGE_WIDTH)
+                {
+                    List<File> group = files.subList(ii, Math.min(ii + MAX_MERGE_WIDTH, files.size()));
+                    merged.add(submit(new IntermediateMerge(new ArrayList<File>(group))));
+                }
+
+                files.clear();
+                for (Future<File> run : merged)
+                    files.add(get(run));
+            }
+
+            merge(files, out);
+            return count;
+        }
+
+
+        /**
+         *  Runs the task on the executor if one exists, otherwise on the current thread.
+         */
+        private Future<File> submit(Callable<File> task)
+        throws IOException
+        {
+            if (executor != null)
+                return executor.submit(task);
+
+            try
+            {
+                File file = task.call();
+                return CompletableFuture.completedFuture(file);
+            }
+            catch (IOException|RuntimeException ex)
+            {
+                throw ex;
+            }
+            catch (Exception ex)
+            {
+                throw new IOException(ex);
+            }
+        }
+
+
+        /**
+         *  Retrieves the result of a task, translating exceptions.
+         */
+        private File get(Future<File> future)
+        throws IOException
+        {
+            try
+            {
+                return future.get();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while sorting");
+            }
+            catch (ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException)cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                if (cause instanceof Error)
+                    throw (Error)cause;
+                throw new IOException(cause);
+            }
+        }
+
+
+        private byte[] takeChunk(BlockingQueue<byte[]> freeChunks)
+        throws IOException
+        {
+            try
+            {
+                return freeChunks.take();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while sorting");
+            }
+        }
+
+
+        private File createTempFile()
+        throws IOException
+        {
+            File file = IOUtil.createTempFile(TEMP_FILE_PREFIX, 0);
+            tempFiles.add(file);
+            return file;
+        }
+
+
+        /**
+         *  Merges the records in the passed files, writing them to the passed stream.
+         *  The buffer size for each file is based on the memory limit.
+         */
+        private void merge(List<File> files, OutputStream out)
+        throws IOException
+        {
+            long perFile = memoryLimit / (files.size() + 1);
+            int bufferSize = (int)Math.max(MIN_MERGE_BUFFER, Math.min(MAX_MERGE_BUFFER, perFile));
+
+            PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>(files.size(), new RunReaderComparator());
+            List<RunReader> readers = new ArrayList<RunReader>(files.size());
+            try
+            {
+                for (File file : files)
+                {
+                    RunReader reader = new RunReader(file, bufferSize);
+                    readers.add(reader);
+                    if (reader.next())
+                        heap.add(reader);
+                }
+
+                while (! heap.isEmpty())
+                {
+                    RunReader reader = heap.poll();
+                    out.write(reader.record, 0, recordSize);
+                    if (reader.next())
+                        heap.add(reader);
+                }
+            }
+            finally
+            {
+                for (RunReader reader : readers)
+                    IOUtil.closeQuietly(reader);
+            }
+        }
+
+
+        /**
+         *  Sorts a chunk and writes it to a temporary file, then returns the chunk
+         *  for reuse.
+         */
+        private class RunWriter
+        implements Callable<File>
+        {
+            private byte[] chunk;
+            private int records;
+            private BlockingQueue<byte[]> freeChunks;
+
+            public RunWriter(byte[] chunk, int records, BlockingQueue<byte[]> freeChunks)
+            {
+                this.chunk = chunk;
+                this.records = records;
+                this.freeChunks = freeChunks;
+            }
+
+            @Override
+            public File call() throws IOException
+            {
+                try
+                {
+                    sortChunk(chunk, records);
+                    File file = createTempFile();
+                    OutputStream out = new FileOutputStream(file);
+                    try
+                    {
+                        out.write(chunk, 0, records * recordSize);
+                    }
+                    finally
+                    {
+                        out.close();
+                    }
+                    return file;
+                }
+                finally
+                {
+                    freeChunks.offer(chunk);
+                }
+            }
+        }
+
+
+        /**
+         *  Merges a group of runs into a new temporary file, deleting the source
+         *  runs once done.
+         */
+        private class IntermediateMerge
+        implements Callable<File>
+        {
+            private List<File> files;
+
+            public IntermediateMerge(List<File> files)
+            {
+                this.files = files;
+            }
+
+            @Override
+            public File call() throws IOException
+            {
+                File file = createTempFile();
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(file), MAX_MERGE_BUFFER);
+                try
+                {
+                    merge(files, out);
+                }
+                finally
+                {
+                    out.close();
+                }
+
+                for (File src : files)
+                {
+                    src.delete();
+                    tempFiles.remove(src);
+                }
+                return file;
+            }
+        }
+    }
+
+
+    /**
+     *  Sorts the first <code>records</code> records in the passed array.
+     */
+    private void sortChunk(final byte[] chunk, final int records)
+    {
+        InplaceSort.sort(new InplaceSort.Accessor()
+        {
+            private byte[] tmp = new byte[recordSize];
+
+            @Override
+            public int start()
+            {
+                return 0;
+            }
+
+            @Override
+            public int end()
+            {
+                return records;
+            }
+
+            @Override
+            public int compare(int index1, int index2)
+            {
+                return comparator.compare(chunk, index1 * recordSize, chunk, index2 * recordSize);
+            }
+
+            @Override
+            public void swap(int index1, int index2)
+            {
+                int off1 = index1 * recordSize;
+                int off2 = index2 * recordSize;
+                System.arraycopy(chunk, off1, tmp, 0, recordSize);
+                System.arraycopy(chunk, off2, chunk, off1, recordSize);
+                System.arraycopy(tmp, 0, chunk, off2, recordSize);
+            }
+        });
+    }
+
+
+    /**
+     *  Reads a single run during the merge, holding its current record.
+     */
+    private class RunReader
+    implements Closeable
+    {
+        private InputStream in;
+        private byte[] record = new byte[recordSize];
+
+        public RunReader(File file, int bufferSize)
+        throws IOException
+        {
+            in = new BufferedInputStream(new FileInputStream(file), bufferSize);
+        }
+
+        /**
+         *  Reads the next record, returning false at the end of the run.
+         */
+        public boolean next()
+        throws IOException
+        {
+            int count = IOUtil.readFully(in, record);
+            if (count == 0)
+                return false;
+            if (count < recordSize)
+                throw new IOException("run contains partial record");
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+
+    private class RunReaderComparator
+    implements Comparator<RunReader>
+    {
+        @Override
+        public int compare(RunReader r1, RunReader r2)
+        {
+            return comparator.compare(r1.record, 0, r2.record, 0);
+        }
+    }
+
+
+    /**
+     *  Reads the contents of a mapped file as a stream.
+     */
+    private static class MappedFileBufferInputStream
+    extends InputStream
+    {
+        private MappedFileBuffer buffer;
+        private long index;
+
+        public MappedFileBufferInputStream(MappedFileBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return (index < buffer.limit()) ? (buffer.get(index++) & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            long remaining = buffer.limit() - index;
+            if (remaining <= 0)
+                return -1;
+
+            int count = (int)Math.min(len, remaining);
+            buffer.getBytes(index, b, off, count);
+            index += count;
+            return count;
+        }
+    }
+
+
+    /**
+     *  Writes a stream into a mapped file, starting at the beginning.
+     */
+    private static class MappedFileBufferOutputStream
+    extends OutputStream
+    {
+        private MappedFileBuffer buffer;
+        private long index;
+
+        public MappedFileBufferOutputStream(MappedFileBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b)
+        {
+            buffer.put(index++, (byte)b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            buffer.putBytes(index, b, off, len);
+            index += len;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.util.Arrays;
+
+
+/**
+ *  Cache-friendly searching of large sorted primitive arrays.
+ *  <p>
+ *  A classic binary search over a large array touches a different cache line
+ *  (and often a different page) on nearly every probe, and the direction of each
+ *  probe is unpredictable, so the CPU can't get ahead of it. The classes in this
+ *  file copy the sorted array into "Eytzinger" order: the order of a breadth-first
+ *  traversal of the implicit binary search tree. In this layout the root is at
+ *  index 1, and the children of the element at index <code>k</code> are at
+ *  <code>2k</code> and <code>2k+1</code>. The first levels of the tree share a
+ *  handful of cache lines that stay hot, and the two possible next probes are
+ *  adjacent to each other.
+ *  <p>
+ *  The search loop always executes the same number of iterations, and selects
+ *  the next probe with a conditional expression rather than a branch, which the
+ *  JIT compiles to a conditional move. Java does not provide explicit prefetch
+ *  instructions, so {@link IntIndex#searchAll} and {@link LongIndex#searchAll}
+ *  instead interleave a batch of lookups, advancing each by one level per pass;
+ *  the loads for different keys are independent, so the CPU overlaps their
+ *  cache misses.
+ *  <p>
+ *  Results follow the conventions of {@link BinarySearch}: the position of the
+ *  key <em>in the original sorted array</em> if found (the lowest position, if
+ *  there are duplicates), <code>(-(insertionPoint) - 1)</code> if not.
+ *  <p>
+ *  Building an index requires a copy of the data (plus one element), so is only
+ *  worthwhile for arrays that will be searched many times.
+ *
+ *  @since 2.1.0
+ */
+public class EytzingerSearch
+{
+    private EytzingerSearch()
+    {
+        // this is here to prevent instantiation
+    }
+
+
+    /**
+     *  The number of lookups interleaved by <code>searchAll()</code>.
+     */
+    private final static int BATCH_SIZE = 16;
+
+
+    /**
+     *  An Eytzinger-ordered copy of a sorted <code>int[]</code>.
+     */
+    public static final class IntIndex
+    {
+        private int[] data;
+        private int size;
+        private int height;
+
+        /**
+         *  Builds the index from a sorted array, which is not modified.
+         *
+         *  @throws IllegalArgumentException if the array is not sorted.
+         */
+        public IntIndex(int[] sorted)
+        {
+            for (int ii = 1 ; ii < sorted.length ; ii++)
+            {
+                if (sorted[ii - 1] > sorted[ii])
+                    throw new IllegalArgumentException("array is not sorted at index " + ii);
+            }
+
+            size = sorted.length;
+            height = height(size);
+            data = new int[size + 1];
+            build(sorted, 0, 1);
+        }
+
+        /**
+         *  Returns the number of elements in the index.
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         *  Searches for a single key.
+         */
+        public int search(int key)
+        {
+            if (size == 0)
+                return -1;
+
+            int k = 1;
+            for (int level = 0 ; level < height ; level++)
+            {
+                k = (k << 1) + ((data[k] < key) ? 1 : 0);
+            }
+            return finish(k, key);
+        }
+
+        /**
+         *  Searches for multiple keys, returning an array of results that
+         *  corresponds to the array of keys. Lookups are interleaved, which
+         *  gives significantly higher throughput than repeated calls to
+         *  {@link #search} for large indexes.
+         */
+        public int[] searchAll(int[] keys)
+        {
+            int[] result = new int[keys.length];
+            if (size == 0)
+            {
+                Arrays.fill(result, -1);
+                return result;
+            }
+
+            int[] probes = new int[BATCH_SIZE];
+            for (int base = 0 ; base < keys.length ; base += BATCH_SIZE)
+            {
+                int count = Math.min(BATCH_SIZE, keys.length - base);
+                for (int ii = 0 ; ii < count ; ii++)
+                {
+                    probes[ii] = 1;
+                }
+
+                for (int level = 0 ; level < height ; level++)
+                {
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int k = probes[ii];
+                        probes[ii] = (k << 1) + ((data[k] < keys[base + ii]) ? 1 : 0);
+                    }
+                }
+
+                for (int ii = 0 ; ii < count ; ii++)
+                {
+                    result[base + ii] = finish(probes[ii], keys[base + ii]);
+                }
+            }
+            return result;
+        }
+
+        /**
+         *  Fills the tree rooted at <code>k</code> with an in-order traversal
+         *  of the source array, starting at <code>idx</code>. Returns the next
+         *  source index.
+         */
+        private int build(int[] sorted, int idx, int k)
+        {
+            if (k <= size)
+            {
+                idx = build(sorted, idx, 2 * k);
+                data[k] = sorted[idx++];
+                idx = build(sorted, idx, 2 * k + 1);
+            }
+            return idx;
+        }
+
+        /**
+         *  Takes the final (possibly incomplete) step of a search, and converts
+         *  the result into the return value.
+         */
+        private int finish(int probe, int key)
+        {
+            // the last level of the tree may be partially filled; if we walked
+            // off the tree we're already done, and the long prevents overflow
+            long k = probe;
+            if (k <= size)
+                k = (k << 1) + ((data[probe] < key) ? 1 : 0);
+
+            // each 1 bit represents a step to the right; stripping trailing ones
+            // (plus the final left step) leaves the lower bound
+            int lowerBound = (int)(k >>> (Long.numberOfTrailingZeros(~k) + 1));
+            if (lowerBound == 0)
+                return -size - 1;
+
+            int pos = position(lowerBound, size, height);
+            return (data[lowerBound] == key) ? pos : -pos - 1;
+        }
+    }
+
+
+    /**
+     *  An Eytzinger-ordered copy of a sorted <code>long[]</code>.
+     */
+    public static final class LongIndex
+    {
+        private long[] data;
+        private int size;
+        private int height;
+
+        /**
+         *  Builds the index from a sorted array, which is not modified.
+         *
+         *  @throws IllegalArgumentException if the array is not sorted.
+         */
+        public LongIndex(long[] sorted)
+        {
+            for (int ii = 1 ; ii < sorted.length ; ii++)
+            {
+                if (sorted[ii - 1] > sorted[ii])
+                    throw new IllegalArgumentException("array is not sorted at index " + ii);
+            }
+
+            size = sorted.length;
+            height = height(size);
+            data = new long[size + 1];
+            build(sorted, 0, 1);
+        }
+
+        /**
+         *  Returns the number of elements in the index.
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         *  Searches for a single key.
+         */
+        public int search(long key)
+        {
+            if (size == 0)
+                return -1;
+
+            int k = 1;
+            for (int level = 0 ; level < height ; level++)
+            {
+                k = (k << 1) + ((data[k] < key) ? 1 : 0);
+            }
+            return finish(k, key);
+        }
+
+        /**
+         *  Searches for multiple keys, returning an array of results that
+         *  corresponds to the array of keys. Lookups are interleaved, which
+         *  gives significantly higher throughput than repeated calls to
+         *  {@link #search} for large indexes.
+         */
+        public int[] searchAll(long[] keys)
+        {
+            int[] result = new int[keys.length];
+            if (size == 0)
+            {
+                Arrays.fill(result, -1);
+                return result;
+            }
+
+            int[] probes = new int[BATCH_SIZE];
+            for (int base = 0 ; base < keys.length ; base += BATCH_SIZE)
+            {
+                int count = Math.min(BATCH_SIZE, keys.length - base);
+                for (int ii = 0 ; ii < count ; ii++)
+                {
+                    probes[ii] = 1;
+                }
+
+                for (int level = 0 ; level < height ; level++)
+                {
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int k = probes[ii];
+                        probes[ii] = (k << 1) + ((data[k] < keys[base + ii]) ? 1 : 0);
+                    }
+                }
+
+                for (int ii = 0 ; ii < count ; ii++)
+                {
+                    result[base + ii] = finish(probes[ii], keys[base + ii]);
+                }
+            }
+            return result;
+        }
+
+        private int build(long[] sorted, int idx, int k)
+        {
+            if (k <= size)
+            {
+                idx = build(sorted, idx, 2 * k);
+                data[k] = sorted[idx++];
+                idx = build(sorted, idx, 2 * k + 1);
+            }
+            return idx;
+        }
+
+        private int finish(int probe, long key)
+        {
+            long k = probe;
+            if (k <= size)
+                k = (k << 1) + ((data[probe] < key) ? 1 : 0);
+
+            int lowerBound = (int)(k >>> (Long.numberOfTrailingZeros(~k) + 1));
+            if (lowerBound == 0)
+                return -size - 1;
+
+            int pos = position(lowerBound, size, height);
+            return (data[lowerBound] == key) ? pos : -pos - 1;
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the number of complete levels in a tree of the given size:
+     *  floor(log2(size)). Every search examines this many levels, and
+     *  possibly one more.
+     */
+    private static int height(int size)
+    {
+        return (size == 0) ? 0 : 31 - Integer.numberOfLeadingZeros(size);
+    }
+
+
+    /**
+     *  Converts an Eytzinger index into a position in the sorted array. For a
+     *  perfect tree, this is a simple function of the node's depth and offset
+     *  within its level. Since the last level may be partially filled, we then
+     *  subtract the number of missing leaves that would precede the node.
+     */
+    private static int position(int k, int size, int height)
+    {
+        int depth = 31 - Integer.numberOfLeadingZeros(k);
+        long offset = k - (1L << depth);
+        long perfect = ((2 * offset + 1) << (height - depth)) - 1;
+        long leavesBefore = (perfect + 1) / 2;
+        long leavesPresent = size - (1L << height) + 1;
+        return (int)(perfect - Math.max(0, leavesBefore - leavesPresent));
+    }
+}
@@ -0,0 +1,582 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+
+/**
+ *  A compound key with a fixed number of components, for use as the key of a
+ *  <code>HashMap</code> in performance-critical code. Compared to {@link CompoundKey},
+ *  these keys store their components in fields rather than an array, can store
+ *  <code>long</code> (and <code>int</code>) components without boxing, and use a
+ *  hash function that mixes all bits of all components (including nulls).
+ *  <p>
+ *  Keys are created with the static <code>of()</code> methods, which support the
+ *  following combinations of components:
+ *  <ul>
+ *  <li> Two, three, or four objects.
+ *  <li> Two <code>long</code>s.
+ *  <li> A <code>long</code> and an object.
+ *  <li> Two <code>long</code>s and an object.
+ *  </ul>
+ *  <code>int</code> values are widened and stored as <code>long</code>s, so a key
+ *  constructed from <code>int</code>s is equal to one constructed from the same
+ *  <code>long</code> values. However, a key constructed from boxed values (eg,
+ *  <code>Integer</code>) is <em>not</em> equal to one constructed from primitives;
+ *  beware of overload resolution when calling <code>of()</code> with variables of
+ *  wrapper types.
+ *  <p>
+ *  For lookups, a {@link Probe} is a mutable key that can be reused for each lookup,
+ *  avoiding allocation entirely. Keys of different classes are equal if they have the
+ *  same component types and values, so a probe will find an entry that was stored
+ *  with an immutable key:
+ *  <pre>
+ *      FixedKey.Probe probe = new FixedKey.Probe();
+ *      for (Record rec : records)
+ *      {
+ *          Counter counter = map.get(probe.set(rec.getAccountId(), rec.getRegion()));
+ *          if (counter == null)
+ *          {
+ *              counter = new Counter();
+ *              map.put(probe.freeze(), counter);
+ *          }
+ *          counter.increment(rec);
+ *      }
+ *  </pre>
+ *  A probe must never be stored in a map; store the result of {@link Probe#freeze}.
+ *  <p>
+ *  Keys are immutable (with the obvious exception of probes), assuming that their
+ *  components are immutable, and are serializable if their components are.
+ *
+ *  @since 2.1.0
+ */
+public abstract class FixedKey
+implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // the shape of a key identifies its arity (upper bits) and which of its
+    // components are primitives (lower bits, one per component)
+
+    private final static int OBJECTS_2      = 0x20;
+    private final static int OBJECTS_3      = 0x30;
+    private final static int OBJECTS_4      = 0x40;
+    private final static int LONGS_2        = 0x23;
+    private final static int LONG_OBJECT    = 0x21;
+    private final static int LONGS_2_OBJECT = 0x33;
+
+    private final static int NULL_HASH = 0x5851F42D;
+
+//----------------------------------------------------------------------------
+//  Factory methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Creates a key from two objects.
+     */
+    public static FixedKey of(Object c0, Object c1)
+    {
+        return new Objects2(c0, c1);
+    }
+
+
+    /**
+     *  Creates a key from three objects.
+     */
+    public static FixedKey of(Object c0, Object c1, Object c2)
+    {
+        return new Objects3(c0, c1, c2);
+    }
+
+
+    /**
+     *  Creates a key from four objects.
+     */
+    public static FixedKey of(Object c0, Object c1, Object c2, Object c3)
+    {
+        return new Objects4(c0, c1, c2, c3);
+    }
+
+
+    /**
+     *  Creates a key from two primitive values.
+     */
+    public static FixedKey of(long c0, long c1)
+    {
+        return new Longs2(c0, c1);
+    }
+
+
+    /**
+     *  Creates a key from a primitive value and an object.
+     */
+    public static FixedKey of(long c0, Object c1)
+    {
+        return new LongObject(c0, c1);
+    }
+
+
+    /**
+     *  Creates a key from two primitive values and an object.
+     */
+    public static FixedKey of(long c0, long c1, Object c2)
+    {
+        return new Longs2Object(c0, c1, c2);
+    }
+
+//----------------------------------------------------------------------------
+//  Constructors and instance variables
+//----------------------------------------------------------------------------
+
+    private int shape;
+    private int hashCode;
+
+
+    private FixedKey(int shape, int hashCode)
+    {
+        this.shape = shape;
+        this.hashCode = hashCode;
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the number of components in this key.
+     */
+    public int size()
+    {
+        return shape >>> 4;
+    }
+
+
+    /**
+     *  Returns the specified component of this key. Primitive components are
+     *  returned as <code>Long</code>s.
+     *
+     *  @throws IndexOutOfBoundsException if the index is not valid for this key.
+     */
+    public Object get(int idx)
+    {
+        if ((idx < 0) || (idx >= size()))
+            throw new IndexOutOfBoundsException("invalid index: " + idx);
+
+        return isPrimitive(idx) ? Long.valueOf(primitive(idx)) : component(idx);
+    }
+
+
+    @Override
+    public final boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+
+        if (! (obj instanceof FixedKey))
+            return false;
+
+        FixedKey that = (FixedKey)obj;
+        if ((shape != that.shape) || (hashCode != that.hashCode))
+            return false;
+
+        for (int ii = 0 ; ii < size() ; ii++)
+        {
+            if (isPrimitive(ii))
+            {
+                if (primitive(ii) != that.primitive(ii))
+                    return false;
+            }
+            else if (! Objects.equals(component(ii), that.component(ii)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    public final int hashCode()
+    {
+        return hashCode;
+    }
+
+
+    /**
+     *  Produces a string of the form "[COMP0,COMP1,...]", per {@link CompoundKey}.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buf = new StringBuilder(size() * 16);
+        buf.append("[");
+        for (int ii = 0 ; ii < size() ; ii++)
+        {
+            if (ii > 0)
+                buf.append(",");
+            buf.append(get(ii));
+        }
+        buf.append("]");
+        return buf.toString();
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the specified object component; undefined if that component is
+     *  a primitive.
+     */
+    protected abstract Object component(int idx);
+
+
+    /**
+     *  Returns the specified primitive component; undefined if that component
+     *  is an object.
+     */
+    protected abstract long primitive(int idx);
+
+
+    private boolean isPrimitive(int idx)
+    {
+        return (shape & (1 << idx)) != 0;
+    }
+
+
+    /**
+     *  Adds a component's value to a running hash.
+     */
+    static long combine(long hash, long value)
+    {
+        hash += value * 0x9E3779B97F4A7C15L;
+        return Long.rotateLeft(hash, 31) * 0xBF58476D1CE4E5B9L;
+    }
+
+
+    /**
+     *  Adds an object component's hashcode to a running hash.
+     */
+    static long combine(long hash, Object value)
+    {
+        return combine(hash, (value == null) ? NULL_HASH : value.hashCode());
+    }
+
+
+    /**
+     *  Applies a final avalanche step to a running hash, so that every bit of
+     *  every component affects the low-order bits used by hashed collections.
+     */
+    static int finish(long hash)
+    {
+        hash ^= hash >>> 30;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 27;
+        hash *= 0x94D049BB133111EBL;
+        hash ^= hash >>> 31;
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+//----------------------------------------------------------------------------
+//  Implementation classes
+//----------------------------------------------------------------------------
+
+    private static final class Objects2
+    extends FixedKey
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Object c0, c1;
+
+        public Objects2(Object c0, Object c1)
+        {
+            super(OBJECTS_2, finish(combine(combine(OBJECTS_2, c0), c1)));
+            this.c0 = c0;
+            this.c1 = c1;
+        }
+
+        @Override
+        protected Object component(int idx)
+        {
+            return (idx == 0) ? c0 : c1;
+        }
+
+        @Override
+        protected long primitive(int idx)
+        {
+            return 0;
+        }
+    }
+
+
+    private static final class Objects3
+    extends FixedKey
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Object c0, c1, c2;
+
+        public Objects3(Object c0, Object c1, Object c2)
+        {
+            super(OBJECTS_3, finish(combine(combine(combine(OBJECTS_3, c0), c1), c2)));
+            this.c0 = c0;
+            this.c1 = c1;
+            this.c2 = c2;
+        }
+
+        @Override
+        protected Object component(int idx)
+        {
+            return (idx == 0) ? c0 : (idx == 1) ? c1 : c2;
+        }
+
+        @Override
+        protected long primitive(int idx)
+        {
+            return 0;
+        }
+    }
+
+
+    private static final class Objects4
+    extends FixedKey
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Object c0, c1, c2, c3;
+
+        public Objects4(Object c0, Object c1, Object c2, Object c3)
+        {
+            super(OBJECTS_4, finish(combine(combine(combine(combine(OBJECTS_4, c0), c1), c2), c3)));
+            this.c0 = c0;
+            this.c1 = c1;
+            this.c2 = c2;
+            this.c3 = c3;
+        }
+
+        @Override
+        protected Object component(int idx)
+        {
+            return (idx == 0) ? c0 : (idx == 1) ? c1 : (idx == 2) ? c2 : c3;
+        }
+
+        @Override
+        protected long primitive(int idx)
+        {
+            return 0;
+        }
+    }
+
+
+    private static final class Longs2
+    extends FixedKey
+    {
+        private static final long serialVersionUID = 1L;
+
+        private long c0, c1;
+
+        public Longs2(long c0, long c1)
+        {
+            super(LONGS_2, finish(combine(combine(LONGS_2, c0), c1)));
+            this.c0 = c0;
+            this.c1 = c1;
+        }
+
+        @Override
+        protected Object component(int idx)
+        {
+            return null;
+        }
+
+        @Override
+        protected long primitive(int idx)
+        {
+            return (idx == 0) ? c0 : c1;
+        }
+    }
+
+
+    private static final class LongObject
+    extends FixedKey
+    {
+        private static final long serialVersionUID = 1L;
+
+        private long c0;
+        private Object c1;
+
+        public LongObject(long c0, Object c1)
+        {
+            super(LONG_OBJECT, finish(combine(combine(LONG_OBJECT, c0), c1)));
+            this.c0 = c0;
+            this.c1 = c1;
+        }
+
+        @Override
+        protected Object component(int idx)
+        {
+            return c1;
+        }
+
+        @Override
+        protected long primitive(int idx)
+        {
+            return c0;
+        }
+    }
+
+
+    private static final class Longs2Object
+    extends FixedKey
+    {
+        private static final long serialVersionUID = 1L;
+
+        private long c0, c1;
+        private Object c2;
+
+        public Longs2Object(long c0, long c1, Object c2)
+        {
+            super(LONGS_2_OBJECT, finish(combine(combine(combine(LONGS_2_OBJECT, c0), c1), c2)));
+            this.c0 = c0;
+            this.c1 = c1;
+            this.c2 = c2;
+        }
+
+        @Override
+        protected Object component(int idx)
+        {
+            return c2;
+        }
+
+        @Override
+        protected long primitive(int idx)
+        {
+            return (idx == 0) ? c0 : c1;
+        }
+    }
+
+
+    /**
+     *  A mutable key, intended to be reused for map lookups. Each <code>set()</code>
+     *  method replaces the key's components (and shape), and returns the probe so
+     *  that it can be passed directly to <code>get()</code>. When a new entry must
+     *  be added to the map, call {@link #freeze} to create an immutable copy.
+     *  <p>
+     *  Probes are not thread-safe; use one per thread.
+     */
+    public static final class Probe
+    extends FixedKey
+    {
+        private static final long serialVersionUID = 1L;
+
+        private long p0, p1;
+        private Object c0, c1, c2, c3;
+
+        /**
+         *  Creates a probe. Its initial value is a key containing two nulls.
+         */
+        public Probe()
+        {
+            super(0, 0);
+            set(null, null);
+        }
+
+        public Probe set(Object v0, Object v1)
+        {
+            return update(OBJECTS_2, 0, 0, v0, v1, null, null,
+                          finish(combine(combine(OBJECTS_2, v0), v1)));
+        }
+
+        public Probe set(Object v0, Object v1, Object v2)
+        {
+            return update(OBJECTS_3, 0, 0, v0, v1, v2, null,
+                          finish(combine(combine(combine(OBJECTS_3, v0), v1), v2)));
+        }
+
+        public Probe set(Object v0, Object v1, Object v2, Object v3)
+        {
+            return update(OBJECTS_4, 0, 0, v0, v1, v2, v3,
+                          finish(combine(combine(combine(combine(OBJECTS_4, v0), v1), v2), v3)));
+        }
+
+        public Probe set(long v0, long v1)
+        {
+            return update(LONGS_2, v0, v1, null, null, null, null,
+                          finish(combine(combine(LONGS_2, v0), v1)));
+        }
+
+        public Probe set(long v0, Object v1)
+        {
+            return update(LONG_OBJECT, v0, 0, null, v1, null, null,
+                          finish(combine(combine(LONG_OBJECT, v0), v1)));
+        }
+
+        public Probe set(long v0, long v1, Object v2)
+        {
+            return update(LONGS_2_OBJECT, v0, v1, null, null, v2, null,
+                          finish(combine(combine(combine(LONGS_2_OBJECT, v0), v1), v2)));
+        }
+
+        /**
+         *  Returns an immutable key with the same value as this probe.
+         */
+        public FixedKey freeze()
+        {
+            switch (super.shape)
+            {
+                case OBJECTS_2 :
+                    return new Objects2(c0, c1);
+                case OBJECTS_3 :
+                    return new Objects3(c0, c1, c2);
+                case OBJECTS_4 :
+                    return new Objects4(c0, c1, c2, c3);
+                case LONGS_2 :
+                    return new Longs2(p0, p1);
+                case LONG_OBJECT :
+                    return new LongObject(p0, c1);
+                default :
+                    return new Longs2Object(p0, p1, c2);
+            }
+        }
+
+        @Override
+        protected Object component(int idx)
+        {
+            return (idx == 0) ? c0 : (idx == 1) ? c1 : (idx == 2) ? c2 : c3;
+        }
+
+        @Override
+        protected long primitive(int idx)
+        {
+            return (idx == 0) ? p0 : p1;
+        }
+
+        private Probe update(int newShape, long v0, long v1, Object o0, Object o1, Object o2, Object o3, int newHash)
+        {
+            // primitive and object components occupy the same logical slots,
+            // but are held in separate fields
+            super.shape = newShape;
+            super.hashCode = newHash;
+            p0 = v0;
+            p1 = v1;
+            c0 = o0;
+            c1 = o1;
+            c2 = o2;
+            c3 = o3;
+            return this;
+        }
+    }
+}
@@ -20,6 +20,9 @@ package com.kdgregory.kdgcommons.collections;
  *  based on identity of the underlying object. Used to store objects in hashed collections
  *  where the object's internal implementations would result in deduplication.
  *  <p>
+ *  For concurrent lookup tables, {@link ConcurrentIdentityMap} avoids the need
+ *  for a wrapper object per entry and per lookup.
+ *  <p>
  *  This class is not serializable. Serialization could create a new instance of the
  *  underlying object, meaning that a serialized <code>IdentityKey</code> would not
  *  provide identity comparisons to the original key.
@@ -15,8 +15,11 @@
 package com.kdgregory.kdgcommons.collections;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -29,9 +32,32 @@ import java.util.List;
  *  <li> Allows a comparator for sorting primitive <code>int</code>s
  *  <li> Supports sorting of arbitrary data structures (eg, records stored in an
  *       of-heap buffer)
- *  <li> May <em>not</em> be stable (the current implementation is heapsort,
+ *  <li> May <em>not</em> be stable (the current implementation is quicksort,
  *       which is not stable)
  *  </u>
+ *  <p>
+ *  The sort is a "pattern-defeating quicksort": a quicksort that uses insertion
+ *  sort for small partitions, and falls back to heapsort if it encounters too
+ *  many unbalanced partitions (preserving O(NlogN) worst-case behavior). It
+ *  recognizes presorted and nearly-sorted ranges, and sorts them in linear time,
+ *  and handles ranges with many duplicate values efficiently. Quicksort accesses
+ *  the data sequentially, which makes it far friendlier to the CPU cache than
+ *  heapsort when the accessor refers to a large backing structure.
+ *  <p>
+ *  There are specialized implementations for <code>long[]</code> and <code>double[]</code>,
+ *  which avoid the overhead of an <code>Accessor</code>, along with variants that
+ *  sort an array of keys while applying the same permutation to a parallel array
+ *  of <code>int</code> values (typically row indexes for columnar data). For data
+ *  in natural order, the <code>radixSort()</code> methods provide a linear-time
+ *  sort, at the cost of a working array the same size as the data.
+ *  <p>
+ *  The <code>parallelSort()</code> methods use multiple threads, via a
+ *  <code>ForkJoinPool</code>. They partition large ranges using parallel tasks,
+ *  then hand off each partition to the sequential sort. Like the sequential methods,
+ *  they sort in place and do not allocate memory proportional to the size of
+ *  the data. They do, however, require that the data structure support
+ *  concurrent access to <em>distinct</em> indexes: no two threads will ever
+ *  compare or swap the same index at the same time.
  */
 public class InplaceSort
 {
@@ -51,6 +77,30 @@ public class InplaceSort
     }
 
 
+    /**
+     *  Implementations of this class compare two primitive <code>long</code>s,
+     *  returning the same values as <code>java.util.Comparator</code>.
+     *
+     *  @since 2.1.0
+     */
+    public interface LongComparator
+    {
+        public int compare(long l1, long l2);
+    }
+
+
+    /**
+     *  Implementations of this class compare two primitive <code>double</code>s,
+     *  returning the same values as <code>java.util.Comparator</code>.
+     *
+     *  @since 2.1.0
+     */
+    public interface DoubleComparator
+    {
+        public int compare(double d1, double d2);
+    }
+
+
     /**
      *  The sort uses an implementation of this interface to access an array-like
      *  structure. There are internal implementations for Java arrays and lists;
@@ -122,6 +172,257 @@ public class InplaceSort
     }
 
 
+    /**
+     *  Sorts a primitive long array using an external comparator.
+     *
+     *  @param  array       The array to be sorted
+     *  @param  comparator  Used to order array elements
+     *
+     *  @since 2.1.0
+     */
+    public static void sort(long[] array, LongComparator comparator)
+    {
+        sort(array, 0, array.length, comparator);
+    }
+
+
+    /**
+     *  Sorts a portion of a primitive long array using an external comparator.
+     *
+     *  @param  array       The array to be sorted
+     *  @param  fromIndex   The minimum bound of the sort (inclusive)
+     *  @param  toIndex     The maximum bound of the sort (exclusive)
+     *  @param  comparator  Used to order array elements
+     *
+     *  @since 2.1.0
+     */
+    public static void sort(long[] array, int fromIndex, int toIndex, LongComparator comparator)
+    {
+        new LongArraySorter(array, null, comparator).sort(fromIndex, toIndex);
+    }
+
+
+    /**
+     *  Sorts a primitive long array of keys using an external comparator, applying
+     *  the same permutation to a parallel array of values. This is useful for sorting
+     *  columnar data: the values may be row indexes, which can be used to rearrange
+     *  the other columns.
+     *
+     *  @param  keys        The array to be sorted
+     *  @param  values      An array whose elements are moved along with the
+     *                      corresponding key; must be the same size as the keys
+     *  @param  comparator  Used to order the keys
+     *
+     *  @throws IllegalArgumentException if the arrays are different sizes.
+     *
+     *  @since 2.1.0
+     */
+    public static void sort(long[] keys, int[] values, LongComparator comparator)
+    {
+        checkParallelArrays(keys.length, values.length);
+        new LongArraySorter(keys, values, comparator).sort(0, keys.length);
+    }
+
+
+    /**
+     *  Sorts a primitive double array using an external comparator.
+     *
+     *  @param  array       The array to be sorted
+     *  @param  comparator  Used to order array elements
+     *
+     *  @since 2.1.0
+     */
+    public static void sort(double[] array, DoubleComparator comparator)
+    {
+        sort(array, 0, array.length, comparator);
+    }
+
+
+    /**
+     *  Sorts a portion of a primitive double array using an external comparator.
+     *
+     *  @param  array       The array to be sorted
+     *  @param  fromIndex   The minimum bound of the sort (inclusive)
+     *  @param  toIndex     The maximum bound of the sort (exclusive)
+     *  @param  comparator  Used to order array elements
+     *
+     *  @since 2.1.0
+     */
+    public static void sort(double[] array, int fromIndex, int toIndex, DoubleComparator comparator)
+    {
+        new DoubleArraySorter(array, null, comparator).sort(fromIndex, toIndex);
+    }
+
+
+    /**
+     *  Sorts a primitive double array of keys using an external comparator, applying
+     *  the same permutation to a parallel array of values.
+     *
+     *  @param  keys        The array to be sorted
+     *  @param  values      An array whose elements are moved along with the
+     *                      corresponding key; must be the same size as the keys
+     *  @param  comparator  Used to order the keys
+     *
+     *  @throws IllegalArgumentException if the arrays are different sizes.
+     *
+     *  @since 2.1.0
+     */
+    public static void sort(double[] keys, int[] values, DoubleComparator comparator)
+    {
+        checkParallelArrays(keys.length, values.length);
+        new DoubleArraySorter(keys, values, comparator).sort(0, keys.length);
+    }
+
+
+    /**
+     *  Sorts a primitive integer array into natural (signed) order, using a
+     *  least-significant-digit radix sort. This is typically faster than a
+     *  comparison sort for large arrays, but is <em>not</em> in-place: it
+     *  allocates a working array the same size as the source.
+     *
+     *  @param  array       The array to be sorted
+     *
+     *  @since 2.1.0
+     */
+    public static void radixSort(int[] array)
+    {
+        radixSort(array, 0, array.length);
+    }
+
+
+    /**
+     *  Sorts a portion of a primitive integer array into natural (signed) order,
+     *  using a least-significant-digit radix sort. Allocates a working array the
+     *  same size as the sorted range.
+     *
+     *  @param  array       The array to be sorted
+     *  @param  fromIndex   The minimum bound of the sort (inclusive)
+     *  @param  toIndex     The maximum bound of the sort (exclusive)
+     *
+     *  @since 2.1.0
+     */
+    public static void radixSort(int[] array, int fromIndex, int toIndex)
+    {
+        int size = toIndex - fromIndex;
+        if (size < 2)
+            return;
+
+        int[][] counts = new int[4][RADIX];
+        for (int ii = fromIndex ; ii < toIndex ; ii++)
+        {
+            int key = array[ii] ^ Integer.MIN_VALUE;
+            for (int digit = 0 ; digit < 4 ; digit++)
+                counts[digit][(key >>> (digit * 8)) & 0xFF]++;
+        }
+
+        int[] src = array;
+        int srcBase = fromIndex;
+        int[] dst = new int[size];
+        int dstBase = 0;
+        for (int digit = 0 ; digit < 4 ; digit++)
+        {
+            int shift = digit * 8;
+            if (!toOffsets(counts[digit], ((src[srcBase] ^ Integer.MIN_VALUE) >>> shift) & 0xFF, size))
+                continue;
+
+            int[] offsets = counts[digit];
+            for (int ii = 0 ; ii < size ; ii++)
+            {
+                int value = src[srcBase + ii];
+                dst[dstBase + offsets[((value ^ Integer.MIN_VALUE) >>> shift) & 0xFF]++] = value;
+            }
+
+            int[] tmp = src; src = dst; dst = tmp;
+            int tmpBase = srcBase; srcBase = dstBase; dstBase = tmpBase;
+        }
+
+        if (src != array)
+            System.arraycopy(src, srcBase, array, fromIndex, size);
+    }
+
+
+    /**
+     *  Sorts a primitive long array into natural (signed) order, using a
+     *  least-significant-digit radix sort. Allocates a working array the same
+     *  size as the source.
+     *
+     *  @param  array       The array to be sorted
+     *
+     *  @since 2.1.0
+     */
+    public static void radixSort(long[] array)
+    {
+        radixSort(array, 0, array.length);
+    }
+
+
+    /**
+     *  Sorts a portion of a primitive long array into natural (signed) order,
+     *  using a least-significant-digit radix sort. Allocates a working array
+     *  the same size as the sorted range.
+     *
+     *  @param  array       The array to be sorted
+     *  @param  fromIndex   The minimum bound of the sort (inclusive)
+     *  @param  toIndex     The maximum bound of the sort (exclusive)
+     *
+     *  @since 2.1.0
+     */
+    public static void radixSort(long[] array, int fromIndex, int toIndex)
+    {
+        radixSort(array, null, fromIndex, toIndex, Long.MIN_VALUE);
+    }
+
+
+    /**
+     *  Sorts a primitive long array of keys into natural (signed) order, applying
+     *  the same permutation to a parallel array of values. The sort is stable:
+     *  values associated with equal keys retain their relative order. Allocates
+     *  working arrays the same size as the sources.
+     *
+     *  @param  keys        The array to be sorted
+     *  @param  values      An array whose elements are moved along with the
+     *                      corresponding key; must be the same size as the keys
+     *
+     *  @throws IllegalArgumentException if the arrays are different sizes.
+     *
+     *  @since 2.1.0
+     */
+    public static void radixSort(long[] keys, int[] values)
+    {
+        checkParallelArrays(keys.length, values.length);
+        radixSort(keys, values, 0, keys.length, Long.MIN_VALUE);
+    }
+
+
+    /**
+     *  Sorts a primitive double array into the order defined by <code>Double.compare()</code>
+     *  (negative zero before positive zero, NaN after positive infinity), using a
+     *  least-significant-digit radix sort. NaN values are replaced by the canonical
+     *  NaN. Allocates two working arrays the same size as the source.
+     *
+     *  @param  array       The array to be sorted
+     *
+     *  @since 2.1.0
+     */
+    public static void radixSort(double[] array)
+    {
+        long[] keys = new long[array.length];
+        for (int ii = 0 ; ii < array.length ; ii++)
+        {
+            long bits = Double.doubleToLongBits(array[ii]);
+            keys[ii] = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+        }
+
+        radixSort(keys, null, 0, keys.length, 0L);
+
+        for (int ii = 0 ; ii < array.length ; ii++)
+        {
+            long key = keys[ii];
+            array[ii] = Double.longBitsToDouble((key < 0) ? (key ^ Long.MIN_VALUE) : ~key);
+        }
+    }
+
+
     /**
      *  Sorts an object array using natural ordering.
      *  <p>
@@ -274,7 +575,375 @@ public class InplaceSort
     {
         int start = acc.start();
         int end = acc.end();
+        pdqsort(acc, start, end, badAllowed(end - start), true);
+    }
+
+
+    /**
+     *  Sorts a primitive integer array using an external comparator, using multiple
+     *  threads from the common <code>ForkJoinPool</code>.
+     *
+     *  @param  array       The array to be sorted
+     *  @param  comparator  Used to order array elements; must be thread-safe
+     *
+     *  @since 2.1.0
+     */
+    public static void parallelSort(int[] array, IntComparator comparator)
+    {
+        parallelSort(new IntArrayAccessor(array, 0, array.length, comparator));
+    }
+
+
+    /**
+     *  Sorts a portion of a primitive integer array using an external comparator,
+     *  using multiple threads from the common <code>ForkJoinPool</code>.
+     *
+     *  @param  array       The array to be sorted
+     *  @param  fromIndex   The minimum bound of the sort (inclusive)
+     *  @param  toIndex     The maximum bound of the sort (exclusive)
+     *  @param  comparator  Used to order array elements; must be thread-safe
+     *
+     *  @since 2.1.0
+     */
+    public static void parallelSort(int[] array, int fromIndex, int toIndex, IntComparator comparator)
+    {
+        parallelSort(new IntArrayAccessor(array, fromIndex, toIndex, comparator));
+    }
+
+
+    /**
+     *  Sorts an object array using the provided comparator, using multiple threads
+     *  from the common <code>ForkJoinPool</code>.
+     *
+     *  @param  array       The array to be sorted
+     *  @param  comparator  Used to order array elements; must be thread-safe
+     *
+     *  @since 2.1.0
+     */
+    public static <T extends Object> void parallelSort(T[] array, Comparator<T> comparator)
+    {
+        parallelSort(new ObjectArrayAccessor<T>(array, 0, array.length, comparator));
+    }
+
 
+    /**
+     *  Sorts a collection encapsulated by the provided {@link InplaceSort.Accessor},
+     *  using multiple threads from the common <code>ForkJoinPool</code>. The accessor
+     *  must allow concurrent calls that reference distinct indexes.
+     *
+     *  @since 2.1.0
+     */
+    public static void parallelSort(Accessor acc)
+    {
+        parallelSort(acc, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     *  Sorts a collection encapsulated by the provided {@link InplaceSort.Accessor},
+     *  using multiple threads from the provided <code>ForkJoinPool</code>. The accessor
+     *  must allow concurrent calls that reference distinct indexes.
+     *
+     *  @since 2.1.0
+     */
+    public static void parallelSort(Accessor acc, ForkJoinPool pool)
+    {
+        int start = acc.start();
+        int end = acc.end();
+        if (end - start < 2)
+            return;
+
+        pool.invoke(new ParallelSortTask(acc, start, end, badAllowed(end - start)));
+    }
+
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Partitions smaller than this are sorted with insertion sort.
+     */
+    private final static int INSERTION_SORT_THRESHOLD = 24;
+
+    /**
+     *  Partitions larger than this choose their pivot as the median of three
+     *  medians-of-three (Tukey's "ninther"), rather than a simple median-of-three.
+     */
+    private final static int NINTHER_THRESHOLD = 128;
+
+    /**
+     *  The maximum number of element moves that a partial insertion sort will
+     *  perform before giving up on a partition that appeared to be sorted.
+     */
+    private final static int PARTIAL_INSERTION_SORT_LIMIT = 8;
+
+    /**
+     *  Partitions smaller than this are sorted by the current thread, rather than
+     *  being forked as a separate task.
+     */
+    private final static int PARALLEL_THRESHOLD = 8192;
+
+
+    /**
+     *  Pattern-defeating quicksort (Orson Peters' "pdqsort"), restricted to the
+     *  compare and swap operations provided by an {@link Accessor}. Compared to
+     *  a textbook quicksort, it has the following enhancements:
+     *  <ul>
+     *  <li> Small partitions are sorted with insertion sort.
+     *  <li> A partition that required no swaps is probably already sorted, so
+     *       we attempt a bounded insertion sort on each side; for presorted and
+     *       nearly-sorted input this completes the sort in linear time.
+     *  <li> If the element preceding a partition is equal to the chosen pivot,
+     *       then all elements equal to the pivot are gathered at the start of
+     *       the partition and skipped, which makes runs of duplicate values
+     *       linear rather than quadratic.
+     *  <li> A highly unbalanced partition causes elements to be swapped around
+     *       to break up whatever pattern caused it. After <code>badAllowed</code>
+     *       such partitions we give up and heapsort the remaining range, which
+     *       preserves O(NlogN) worst-case behavior.
+     *  </ul>
+     *
+     *  @param  acc         Provides access to the data.
+     *  @param  start       The minimum bound of the range (inclusive).
+     *  @param  end         The maximum bound of the range (exclusive).
+     *  @param  badAllowed  The number of unbalanced partitions that are allowed
+     *                      before falling back to heapsort.
+     *  @param  leftmost    Indicates whether this range is at the left edge of
+     *                      the sort. If not, the element at <code>start - 1</code>
+     *                      must compare &le; all elements in the range.
+     */
+    private static void pdqsort(Accessor acc, int start, int end, int badAllowed, boolean leftmost)
+    {
+        while (true)
+        {
+            int size = end - start;
+            if (size < INSERTION_SORT_THRESHOLD)
+            {
+                insertionSort(acc, start, end);
+                return;
+            }
+
+            choosePivot(acc, start, end);
+
+            if (!leftmost && (acc.compare(start - 1, start) >= 0))
+            {
+                start = partitionLeft(acc, start, end) + 1;
+                continue;
+            }
+
+            int partitionResult = partitionRight(acc, start, end);
+            boolean alreadyPartitioned = partitionResult < 0;
+            int pivot = alreadyPartitioned ? -(partitionResult + 1) : partitionResult;
+
+            int leftSize = pivot - start;
+            int rightSize = end - pivot - 1;
+            if ((leftSize < size / 8) || (rightSize < size / 8))
+            {
+                if (--badAllowed == 0)
+                {
+                    heapsort(acc, start, end);
+                    return;
+                }
+                breakPatterns(acc, start, pivot, end);
+            }
+            else if (alreadyPartitioned
+                     && partialInsertionSort(acc, start, pivot)
+                     && partialInsertionSort(acc, pivot + 1, end))
+            {
+                return;
+            }
+
+            pdqsort(acc, start, pivot, badAllowed, leftmost);
+            start = pivot + 1;
+            leftmost = false;
+        }
+    }
+
+
+    /**
+     *  Returns the number of unbalanced partitions that pdqsort will tolerate
+     *  for a range of the given size: floor(log2(size)).
+     */
+    private static int badAllowed(int size)
+    {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(size, 2));
+    }
+
+
+    /**
+     *  Selects a pivot for the range <code>start .. end</code> (exclusive) and
+     *  moves it to <code>start</code>. As a side-effect, the range is guaranteed
+     *  to contain an element &ge; the pivot after <code>start</code>, which lets
+     *  the partitioning scans omit bounds checks.
+     */
+    private static void choosePivot(Accessor acc, int start, int end)
+    {
+        int size = end - start;
+        int mid = start + size / 2;
+        if (size > NINTHER_THRESHOLD)
+        {
+            sort3(acc, start, mid, end - 1);
+            sort3(acc, start + 1, mid - 1, end - 2);
+            sort3(acc, start + 2, mid + 1, end - 3);
+            sort3(acc, mid - 1, mid, mid + 1);
+            acc.swap(start, mid);
+        }
+        else
+        {
+            sort3(acc, mid, start, end - 1);
+        }
+    }
+
+
+    /**
+     *  Orders the elements at the three specified indexes.
+     */
+    private static void sort3(Accessor acc, int a, int b, int c)
+    {
+        sort2(acc, a, b);
+        sort2(acc, b, c);
+        sort2(acc, a, b);
+    }
+
+
+    /**
+     *  Orders the elements at the two specified indexes.
+     */
+    private static void sort2(Accessor acc, int a, int b)
+    {
+        if (acc.compare(b, a) < 0)
+            acc.swap(a, b);
+    }
+
+
+    /**
+     *  Partitions the range <code>start .. end</code> (exclusive) around the pivot
+     *  at <code>start</code>, placing elements equal to the pivot on the right.
+     *  Returns the final position of the pivot; if the range was already
+     *  partitioned (no swaps were needed), returns <code>-(position + 1)</code>.
+     */
+    private static int partitionRight(Accessor acc, int start, int end)
+    {
+        int first = start;
+        int last = end;
+
+        // the pivot selection guarantees that these loops will terminate
+        while (acc.compare(++first, start) < 0)
+            ;
+
+        if (first - 1 == start)
+        {
+            while ((first < last) && (acc.compare(--last, start) >= 0))
+                ;
+        }
+        else
+        {
+            while (acc.compare(--last, start) >= 0)
+                ;
+        }
+
+        boolean alreadyPartitioned = first >= last;
+
+        while (first < last)
+        {
+            acc.swap(first, last);
+            while (acc.compare(++first, start) < 0)
+                ;
+            while (acc.compare(--last, start) >= 0)
+                ;
+        }
+
+        int pivot = first - 1;
+        acc.swap(start, pivot);
+        return alreadyPartitioned ? -(pivot + 1) : pivot;
+    }
+
+
+    /**
+     *  Partitions the range <code>start .. end</code> (exclusive) around the pivot
+     *  at <code>start</code>, placing elements equal to the pivot on the left.
+     *  Returns the final position of the pivot. This is only called when the
+     *  pivot is known to be the smallest value in the range, so the left side
+     *  consists solely of elements equal to the pivot.
+     */
+    private static int partitionLeft(Accessor acc, int start, int end)
+    {
+        int first = start;
+        int last = end;
+
+        while (acc.compare(start, --last) < 0)
+            ;
+
+        if (last + 1 == end)
+        {
+            while ((first < last) && (acc.compare(start, ++first) >= 0))
+                ;
+        }
+        else
+        {
+            while (acc.compare(start, ++first) >= 0)
+                ;
+        }
+
+        while (first < last)
+        {
+            acc.swap(first, last);
+            while (acc.compare(start, --last) < 0)
+                ;
+            while (acc.compare(start, ++first) >= 0)
+                ;
+        }
+
+        acc.swap(start, last);
+        return last;
+    }
+
+
+    /**
+     *  Called after an unbalanced partition: swaps elements from the ends of each
+     *  side with elements from their interior, so that the next pivot selection
+     *  sees different values.
+     */
+    private static void breakPatterns(Accessor acc, int start, int pivot, int end)
+    {
+        int leftSize = pivot - start;
+        if (leftSize >= INSERTION_SORT_THRESHOLD)
+        {
+            int quarter = leftSize / 4;
+            acc.swap(start, start + quarter);
+            acc.swap(pivot - 1, pivot - quarter);
+            if (leftSize > NINTHER_THRESHOLD)
+            {
+                acc.swap(start + 1, start + quarter + 1);
+                acc.swap(start + 2, start + quarter + 2);
+                acc.swap(pivot - 2, pivot - quarter - 1);
+                acc.swap(pivot - 3, pivot - quarter - 2);
+            }
+        }
+
+        int rightSize = end - pivot - 1;
+        if (rightSize >= INSERTION_SORT_THRESHOLD)
+        {
+            int quarter = rightSize / 4;
+            acc.swap(pivot + 1, pivot + quarter + 1);
+            acc.swap(end - 1, end - quarter);
+            if (rightSize > NINTHER_THRESHOLD)
+            {
+                acc.swap(pivot + 2, pivot + quarter + 2);
+                acc.swap(pivot + 3, pivot + quarter + 3);
+                acc.swap(end - 2, end - quarter - 1);
+                acc.swap(end - 3, end - quarter - 2);
+            }
+        }
+    }
+
+
+    /**
+     *  Heapsorts the range <code>start .. end</code> (exclusive).
+     */
+    private static void heapsort(Accessor acc, int start, int end)
+    {
         for (int ii = start+1 ; ii < end ; ii++)
             siftUp(acc, start, ii);
 
@@ -286,9 +955,238 @@ public class InplaceSort
     }
 
 
-//----------------------------------------------------------------------------
-//  Internals
-//----------------------------------------------------------------------------
+    /**
+     *  Sorts the range <code>start .. end</code> (exclusive) by successively
+     *  swapping each element toward the front. Used for small partitions,
+     *  where it outperforms the more complex sorts.
+     */
+    private static void insertionSort(Accessor acc, int start, int end)
+    {
+        for (int ii = start + 1 ; ii < end ; ii++)
+        {
+            for (int jj = ii ; (jj > start) && (acc.compare(jj - 1, jj) > 0) ; jj--)
+            {
+                acc.swap(jj - 1, jj);
+            }
+        }
+    }
+
+
+    /**
+     *  Attempts to insertion-sort the range <code>start .. end</code> (exclusive),
+     *  giving up once it has moved more than a few elements. Returns true if the
+     *  range was successfully sorted.
+     */
+    private static boolean partialInsertionSort(Accessor acc, int start, int end)
+    {
+        int moves = 0;
+        for (int ii = start + 1 ; ii < end ; ii++)
+        {
+            int jj = ii;
+            for ( ; (jj > start) && (acc.compare(jj - 1, jj) > 0) ; jj--)
+            {
+                acc.swap(jj - 1, jj);
+            }
+
+            moves += ii - jj;
+            if (moves > PARTIAL_INSERTION_SORT_LIMIT)
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     *  The number of buckets in each pass of a radix sort (one byte).
+     */
+    private final static int RADIX = 256;
+
+
+    /**
+     *  Verifies that the arrays passed to a key/value sort are the same size.
+     */
+    private static void checkParallelArrays(int keysLength, int valuesLength)
+    {
+        if (keysLength != valuesLength)
+            throw new IllegalArgumentException("keys and values must be the same size:"
+                                               + " keys = " + keysLength + ", values = " + valuesLength);
+    }
+
+
+    /**
+     *  Converts the bucket counts for one radix-sort pass into starting offsets.
+     *  Returns false if all elements fall into the same bucket (identified by
+     *  testing an arbitrary element), in which case the pass can be skipped.
+     */
+    private static boolean toOffsets(int[] counts, int sampleBucket, int size)
+    {
+        if (counts[sampleBucket] == size)
+            return false;
+
+        int offset = 0;
+        for (int ii = 0 ; ii < counts.length ; ii++)
+        {
+            int count = counts[ii];
+            counts[ii] = offset;
+            offset += count;
+        }
+        return true;
+    }
+
+
+    /**
+     *  Radix sort for <code>long</code> keys, optionally moving a parallel array
+     *  of values. The keys are compared as unsigned values after being XORed with
+     *  <code>flip</code>: to sort signed values pass <code>Long.MIN_VALUE</code>.
+     */
+    private static void radixSort(long[] keys, int[] values, int fromIndex, int toIndex, long flip)
+    {
+        int size = toIndex - fromIndex;
+        if (size < 2)
+            return;
+
+        int[][] counts = new int[8][RADIX];
+        for (int ii = fromIndex ; ii < toIndex ; ii++)
+        {
+            long key = keys[ii] ^ flip;
+            for (int digit = 0 ; digit < 8 ; digit++)
+                counts[digit][(int)(key >>> (digit * 8)) & 0xFF]++;
+        }
+
+        long[] src = keys;
+        int[] srcValues = values;
+        int srcBase = fromIndex;
+        long[] dst = new long[size];
+        int[] dstValues = (values == null) ? null : new int[size];
+        int dstBase = 0;
+        for (int digit = 0 ; digit < 8 ; digit++)
+        {
+            int shift = digit * 8;
+            if (!toOffsets(counts[digit], (int)((src[srcBase] ^ flip) >>> shift) & 0xFF, size))
+                continue;
+
+            int[] offsets = counts[digit];
+            for (int ii = 0 ; ii < size ; ii++)
+            {
+                long key = src[srcBase + ii];
+                int dstIndex = dstBase + offsets[(int)((key ^ flip) >>> shift) & 0xFF]++;
+                dst[dstIndex] = key;
+                if (values != null)
+                    dstValues[dstIndex] = srcValues[srcBase + ii];
+            }
+
+            long[] tmp = src; src = dst; dst = tmp;
+            int[] tmpValues = srcValues; srcValues = dstValues; dstValues = tmpValues;
+            int tmpBase = srcBase; srcBase = dstBase; dstBase = tmpBase;
+        }
+
+        if (src != keys)
+        {
+            System.arraycopy(src, srcBase, keys, fromIndex, size);
+            if (values != null)
+                System.arraycopy(srcValues, srcBase, values, fromIndex, size);
+        }
+    }
+
+
+    /**
+     *  The fork-join task for parallel sorting. Each task partitions its range,
+     *  forks a new task for one side if both sides are large, and continues with
+     *  the other side itself. Ranges that are too small to fork are handed off
+     *  to the sequential sort.
+     */
+    private static class ParallelSortTask
+    extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Accessor acc;
+        private int start;
+        private int end;
+        private int badAllowed;
+
+        public ParallelSortTask(Accessor acc, int start, int end, int badAllowed)
+        {
+            this.acc = acc;
+            this.start = start;
+            this.end = end;
+            this.badAllowed = badAllowed;
+        }
+
+        @Override
+        protected void compute()
+        {
+            List<ParallelSortTask> forked = new ArrayList<ParallelSortTask>();
+            int lo = start;
+            int hi = end;
+            int bad = badAllowed;
+
+            while (hi - lo >= 2 * PARALLEL_THRESHOLD)
+            {
+                choosePivot(acc, lo, hi);
+
+                // as in the sequential sort, a pivot equal to its predecessor means
+                // that we can skip all elements equal to it
+                if ((lo != acc.start()) && (acc.compare(lo - 1, lo) >= 0))
+                {
+                    lo = partitionLeft(acc, lo, hi) + 1;
+                    continue;
+                }
+
+                int partitionResult = partitionRight(acc, lo, hi);
+                int pivot = (partitionResult < 0) ? -(partitionResult + 1) : partitionResult;
+                int leftSize = pivot - lo;
+                int rightSize = hi - pivot - 1;
+
+                if ((leftSize < (hi - lo) / 8) || (rightSize < (hi - lo) / 8))
+                {
+                    if (--bad == 0)
+                    {
+                        heapsort(acc, lo, hi);
+                        lo = hi;
+                        break;
+                    }
+                    breakPatterns(acc, lo, pivot, hi);
+                }
+
+                if (Math.min(leftSize, rightSize) >= PARALLEL_THRESHOLD)
+                {
+                    ParallelSortTask task = new ParallelSortTask(acc, lo, pivot, bad);
+                    task.fork();
+                    forked.add(task);
+                    lo = pivot + 1;
+                }
+                else if (leftSize < rightSize)
+                {
+                    sortSequential(lo, pivot, bad);
+                    lo = pivot + 1;
+                }
+                else
+                {
+                    sortSequential(pivot + 1, hi, bad);
+                    hi = pivot;
+                }
+            }
+
+            if (hi > lo)
+            {
+                sortSequential(lo, hi, bad);
+            }
+
+            for (ParallelSortTask task : forked)
+            {
+                task.join();
+            }
+        }
+
+        private void sortSequential(int lo, int hi, int bad)
+        {
+            // every range except the first is preceded by a pivot that compares
+            // less-than-or-equal to all of its elements
+            pdqsort(acc, lo, hi, bad, lo == acc.start());
+        }
+    }
+
 
     /**
      *  Extends an already-constructed max-heap one element to the right.
@@ -327,6 +1225,596 @@ public class InplaceSort
     }
 
 
+//----------------------------------------------------------------------------
+//  Specialized sorts for primitive arrays
+//----------------------------------------------------------------------------
+
+    /**
+     *  A pattern-defeating quicksort specialized for <code>long[]</code>, optionally
+     *  permuting a parallel <code>int[]</code> along with the keys. This is the same
+     *  algorithm as the <code>Accessor</code>-based sort, but operates directly on
+     *  the arrays rather than making interface calls for every swap.
+     */
+    private static final class LongArraySorter
+    {
+        private long[] keys;
+        private int[] values;
+        private LongComparator comparator;
+
+        public LongArraySorter(long[] keys, int[] values, LongComparator comparator)
+        {
+            this.keys = keys;
+            this.values = values;
+            this.comparator = comparator;
+        }
+
+        public void sort(int start, int end)
+        {
+            pdqsort(start, end, badAllowed(end - start), true);
+        }
+
+        private int compare(int index1, int index2)
+        {
+            return comparator.compare(keys[index1], keys[index2]);
+        }
+
+        private void swap(int index1, int index2)
+        {
+            long tmp = keys[index1];
+            keys[index1] = keys[index2];
+            keys[index2] = tmp;
+
+            if (values != null)
+            {
+                int tmpValue = values[index1];
+                values[index1] = values[index2];
+                values[index2] = tmpValue;
+            }
+        }
+
+        private void pdqsort(int start, int end, int badAllowed, boolean leftmost)
+        {
+            while (true)
+            {
+                int size = end - start;
+                if (size < INSERTION_SORT_THRESHOLD)
+                {
+                    insertionSort(start, end);
+                    return;
+                }
+
+                choosePivot(start, end);
+
+                if (!leftmost && (compare(start - 1, start) >= 0))
+                {
+                    start = partitionLeft(start, end) + 1;
+                    continue;
+                }
+
+                int partitionResult = partitionRight(start, end);
+                boolean alreadyPartitioned = partitionResult < 0;
+                int pivot = alreadyPartitioned ? -(partitionResult + 1) : partitionResult;
+
+                int leftSize = pivot - start;
+                int rightSize = end - pivot - 1;
+                if ((leftSize < size / 8) || (rightSize < size / 8))
+                {
+                    if (--badAllowed == 0)
+                    {
+                        heapsort(start, end);
+                        return;
+                    }
+                    breakPatterns(start, pivot, end);
+                }
+                else if (alreadyPartitioned
+                         && partialInsertionSort(start, pivot)
+                         && partialInsertionSort(pivot + 1, end))
+                {
+                    return;
+                }
+
+                pdqsort(start, pivot, badAllowed, leftmost);
+                start = pivot + 1;
+                leftmost = false;
+            }
+        }
+
+        private void choosePivot(int start, int end)
+        {
+            int size = end - start;
+            int mid = start + size / 2;
+            if (size > NINTHER_THRESHOLD)
+            {
+                sort3(start, mid, end - 1);
+                sort3(start + 1, mid - 1, end - 2);
+                sort3(start + 2, mid + 1, end - 3);
+                sort3(mid - 1, mid, mid + 1);
+                swap(start, mid);
+            }
+            else
+            {
+                sort3(mid, start, end - 1);
+            }
+        }
+
+        private void sort3(int a, int b, int c)
+        {
+            sort2(a, b);
+            sort2(b, c);
+            sort2(a, b);
+        }
+
+        private void sort2(int a, int b)
+        {
+            if (compare(b, a) < 0)
+                swap(a, b);
+        }
+
+        private int partitionRight(int start, int end)
+        {
+            int first = start;
+            int last = end;
+
+            // the pivot selection guarantees that these loops will terminate
+            while (compare(++first, start) < 0)
+                ;
+
+            if (first - 1 == start)
+            {
+                while ((first < last) && (compare(--last, start) >= 0))
+                    ;
+            }
+            else
+            {
+                while (compare(--last, start) >= 0)
+                    ;
+            }
+
+            boolean alreadyPartitioned = first >= last;
+
+            while (first < last)
+            {
+                swap(first, last);
+                while (compare(++first, start) < 0)
+                    ;
+                while (compare(--last, start) >= 0)
+                    ;
+            }
+
+            int pivot = first - 1;
+            swap(start, pivot);
+            return alreadyPartitioned ? -(pivot + 1) : pivot;
+        }
+
+        private int partitionLeft(int start, int end)
+        {
+            int first = start;
+            int last = end;
+
+            while (compare(start, --last) < 0)
+                ;
+
+            if (last + 1 == end)
+            {
+                while ((first < last) && (compare(start, ++first) >= 0))
+                    ;
+            }
+            else
+            {
+                while (compare(start, ++first) >= 0)
+                    ;
+            }
+
+            while (first < last)
+            {
+                swap(first, last);
+                while (compare(start, --last) < 0)
+                    ;
+                while (compare(start, ++first) >= 0)
+                    ;
+            }
+
+            swap(start, last);
+            return last;
+        }
+
+        private void breakPatterns(int start, int pivot, int end)
+        {
+            int leftSize = pivot - start;
+            if (leftSize >= INSERTION_SORT_THRESHOLD)
+            {
+                int quarter = leftSize / 4;
+                swap(start, start + quarter);
+                swap(pivot - 1, pivot - quarter);
+                if (leftSize > NINTHER_THRESHOLD)
+                {
+                    swap(start + 1, start + quarter + 1);
+                    swap(start + 2, start + quarter + 2);
+                    swap(pivot - 2, pivot - quarter - 1);
+                    swap(pivot - 3, pivot - quarter - 2);
+                }
+            }
+
+            int rightSize = end - pivot - 1;
+            if (rightSize >= INSERTION_SORT_THRESHOLD)
+            {
+                int quarter = rightSize / 4;
+                swap(pivot + 1, pivot + quarter + 1);
+                swap(end - 1, end - quarter);
+                if (rightSize > NINTHER_THRESHOLD)
+                {
+                    swap(pivot + 2, pivot + quarter + 2);
+                    swap(pivot + 3, pivot + quarter + 3);
+                    swap(end - 2, end - quarter - 1);
+                    swap(end - 3, end - quarter - 2);
+                }
+            }
+        }
+
+        private void heapsort(int start, int end)
+        {
+            for (int ii = start+1 ; ii < end ; ii++)
+                siftUp(start, ii);
+
+            for (int ii = end - 1 ; ii >= start ; )
+            {
+                swap(start, ii);
+                siftDown(start, --ii);
+            }
+        }
+
+        private void insertionSort(int start, int end)
+        {
+            for (int ii = start + 1 ; ii < end ; ii++)
+            {
+                for (int jj = ii ; (jj > start) && (compare(jj - 1, jj) > 0) ; jj--)
+                {
+                    swap(jj - 1, jj);
+                }
+            }
+        }
+
+        private boolean partialInsertionSort(int start, int end)
+        {
+            int moves = 0;
+            for (int ii = start + 1 ; ii < end ; ii++)
+            {
+                int jj = ii;
+                for ( ; (jj > start) && (compare(jj - 1, jj) > 0) ; jj--)
+                {
+                    swap(jj - 1, jj);
+                }
+
+                moves += ii - jj;
+                if (moves > PARTIAL_INSERTION_SORT_LIMIT)
+                    return false;
+            }
+            return true;
+        }
+
+        private void siftUp(int start, int end)
+        {
+            while (end > start)
+            {
+                int parent = start + (end - start - 1) / 2;
+                if (compare(parent, end) > 0)
+                    break;
+                swap(parent, end);
+                end = parent;
+            }
+        }
+
+        private void siftDown(int start, int end)
+        {
+            for (int parent = start ; parent < end ; )
+            {
+                int child1 = start + (parent - start) * 2 + 1;
+                int child2 = child1 + 1;
+                int child = (child2 > end) ? child1
+                          : (compare(child1, child2) < 0) ? child2 : child1;
+                if (child > end)
+                    break;
+                if (compare(parent, child) < 0)
+                    swap(parent, child);
+                parent = child;
+            }
+        }
+    }
+
+
+    /**
+     *  A pattern-defeating quicksort specialized for <code>double[]</code>, optionally
+     *  permuting a parallel <code>int[]</code> along with the keys. This is the same
+     *  algorithm as the <code>Accessor</code>-based sort, but operates directly on
+     *  the arrays rather than making interface calls for every swap.
+     */
+    private static final class DoubleArraySorter
+    {
+        private double[] keys;
+        private int[] values;
+        private DoubleComparator comparator;
+
+        public DoubleArraySorter(double[] keys, int[] values, DoubleComparator comparator)
+        {
+            this.keys = keys;
+            this.values = values;
+            this.comparator = comparator;
+        }
+
+        public void sort(int start, int end)
+        {
+            pdqsort(start, end, badAllowed(end - start), true);
+        }
+
+        private int compare(int index1, int index2)
+        {
+            return comparator.compare(keys[index1], keys[index2]);
+        }
+
+        private void swap(int index1, int index2)
+        {
+            double tmp = keys[index1];
+            keys[index1] = keys[index2];
+            keys[index2] = tmp;
+
+            if (values != null)
+            {
+                int tmpValue = values[index1];
+                values[index1] = values[index2];
+                values[index2] = tmpValue;
+            }
+        }
+
+        private void pdqsort(int start, int end, int badAllowed, boolean leftmost)
+        {
+            while (true)
+            {
+                int size = end - start;
+                if (size < INSERTION_SORT_THRESHOLD)
+                {
+                    insertionSort(start, end);
+                    return;
+                }
+
+                choosePivot(start, end);
+
+                if (!leftmost && (compare(start - 1, start) >= 0))
+                {
+                    start = partitionLeft(start, end) + 1;
+                    continue;
+                }
+
+                int partitionResult = partitionRight(start, end);
+                boolean alreadyPartitioned = partitionResult < 0;
+                int pivot = alreadyPartitioned ? -(partitionResult + 1) : partitionResult;
+
+                int leftSize = pivot - start;
+                int rightSize = end - pivot - 1;
+                if ((leftSize < size / 8) || (rightSize < size / 8))
+                {
+                    if (--badAllowed == 0)
+                    {
+                        heapsort(start, end);
+                        return;
+                    }
+                    breakPatterns(start, pivot, end);
+                }
+                else if (alreadyPartitioned
+                         && partialInsertionSort(start, pivot)
+                         && partialInsertionSort(pivot + 1, end))
+                {
+                    return;
+                }
+
+                pdqsort(start, pivot, badAllowed, leftmost);
+                start = pivot + 1;
+                leftmost = false;
+            }
+        }
+
+        private void choosePivot(int start, int end)
+        {
+            int size = end - start;
+            int mid = start + size / 2;
+            if (size > NINTHER_THRESHOLD)
+            {
+                sort3(start, mid, end - 1);
+                sort3(start + 1, mid - 1, end - 2);
+                sort3(start + 2, mid + 1, end - 3);
+                sort3(mid - 1, mid, mid + 1);
+                swap(start, mid);
+            }
+            else
+            {
+                sort3(mid, start, end - 1);
+            }
+        }
+
+        private void sort3(int a, int b, int c)
+        {
+            sort2(a, b);
+            sort2(b, c);
+            sort2(a, b);
+        }
+
+        private void sort2(int a, int b)
+        {
+            if (compare(b, a) < 0)
+                swap(a, b);
+        }
+
+        private int partitionRight(int start, int end)
+        {
+            int first = start;
+            int last = end;
+
+            // the pivot selection guarantees that these loops will terminate
+            while (compare(++first, start) < 0)
+                ;
+
+            if (first - 1 == start)
+            {
+                while ((first < last) && (compare(--last, start) >= 0))
+                    ;
+            }
+            else
+            {
+                while (compare(--last, start) >= 0)
+                    ;
+            }
+
+            boolean alreadyPartitioned = first >= last;
+
+            while (first < last)
+            {
+                swap(first, last);
+                while (compare(++first, start) < 0)
+                    ;
+                while (compare(--last, start) >= 0)
+                    ;
+            }
+
+            int pivot = first - 1;
+            swap(start, pivot);
+            return alreadyPartitioned ? -(pivot + 1) : pivot;
+        }
+
+        private int partitionLeft(int start, int end)
+        {
+            int first = start;
+            int last = end;
+
+            while (compare(start, --last) < 0)
+                ;
+
+            if (last + 1 == end)
+            {
+                while ((first < last) && (compare(start, ++first) >= 0))
+                    ;
+            }
+            else
+            {
+                while (compare(start, ++first) >= 0)
+                    ;
+            }
+
+            while (first < last)
+            {
+                swap(first, last);
+                while (compare(start, --last) < 0)
+                    ;
+                while (compare(start, ++first) >= 0)
+                    ;
+            }
+
+            swap(start, last);
+            return last;
+        }
+
+        private void breakPatterns(int start, int pivot, int end)
+        {
+            int leftSize = pivot - start;
+            if (leftSize >= INSERTION_SORT_THRESHOLD)
+            {
+                int quarter = leftSize / 4;
+                swap(start, start + quarter);
+                swap(pivot - 1, pivot - quarter);
+                if (leftSize > NINTHER_THRESHOLD)
+                {
+                    swap(start + 1, start + quarter + 1);
+                    swap(start + 2, start + quarter + 2);
+                    swap(pivot - 2, pivot - quarter - 1);
+                    swap(pivot - 3, pivot - quarter - 2);
+                }
+            }
+
+            int rightSize = end - pivot - 1;
+            if (rightSize >= INSERTION_SORT_THRESHOLD)
+            {
+                int quarter = rightSize / 4;
+                swap(pivot + 1, pivot + quarter + 1);
+                swap(end - 1, end - quarter);
+                if (rightSize > NINTHER_THRESHOLD)
+                {
+                    swap(pivot + 2, pivot + quarter + 2);
+                    swap(pivot + 3, pivot + quarter + 3);
+                    swap(end - 2, end - quarter - 1);
+                    swap(end - 3, end - quarter - 2);
+                }
+            }
+        }
+
+        private void heapsort(int start, int end)
+        {
+            for (int ii = start+1 ; ii < end ; ii++)
+                siftUp(start, ii);
+
+            for (int ii = end - 1 ; ii >= start ; )
+            {
+                swap(start, ii);
+                siftDown(start, --ii);
+            }
+        }
+
+        private void insertionSort(int start, int end)
+        {
+            for (int ii = start + 1 ; ii < end ; ii++)
+            {
+                for (int jj = ii ; (jj > start) && (compare(jj - 1, jj) > 0) ; jj--)
+                {
+                    swap(jj - 1, jj);
+                }
+            }
+        }
+
+        private boolean partialInsertionSort(int start, int end)
+        {
+            int moves = 0;
+            for (int ii = start + 1 ; ii < end ; ii++)
+            {
+                int jj = ii;
+                for ( ; (jj > start) && (compare(jj - 1, jj) > 0) ; jj--)
+                {
+                    swap(jj - 1, jj);
+                }
+
+                moves += ii - jj;
+                if (moves > PARTIAL_INSERTION_SORT_LIMIT)
+                    return false;
+            }
+            return true;
+        }
+
+        private void siftUp(int start, int end)
+        {
+            while (end > start)
+            {
+                int parent = start + (end - start - 1) / 2;
+                if (compare(parent, end) > 0)
+                    break;
+                swap(parent, end);
+                end = parent;
+            }
+        }
+
+        private void siftDown(int start, int end)
+        {
+            for (int parent = start ; parent < end ; )
+            {
+                int child1 = start + (parent - start) * 2 + 1;
+                int child2 = child1 + 1;
+                int child = (child2 > end) ? child1
+                          : (compare(child1, child2) < 0) ? child2 : child1;
+                if (child > end)
+                    break;
+                if (compare(parent, child) < 0)
+                    swap(parent, child);
+                parent = child;
+            }
+        }
+    }
+
+
 //----------------------------------------------------------------------------
 //  Accessor implementations to support built-in collection types
 //----------------------------------------------------------------------------
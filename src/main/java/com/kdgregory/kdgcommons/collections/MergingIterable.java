@@ -0,0 +1,219 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+
+/**
+ *  Produces an iterator that merges multiple sorted <code>Iterable</code>s into
+ *  a single sorted sequence. Where {@link CombiningIterable} concatenates its
+ *  sources, this class interleaves them according to a comparator.
+ *  <p>
+ *  The merge uses a heap holding the current element of each source, so retrieving
+ *  each element is O(log K) for K sources. Sources are read lazily: an element is
+ *  not retrieved from a source until the previous element from that source has
+ *  been returned.
+ *  <p>
+ *  The merge is stable: elements that compare equal are returned in the order of
+ *  their sources (and within a source, in the source's order). Optionally, such
+ *  elements can be collapsed, so that only the first is returned.
+ *  <p>
+ *  Each source must already be sorted according to the comparator; if not, the
+ *  output order is undefined. The produced iterators do not support removal.
+ *
+ *  @since 2.1.0
+ */
+public class MergingIterable<T>
+implements Iterable<T>
+{
+    private Comparator<? super T> comparator;
+    private List<Iterable<T>> iterables = new ArrayList<Iterable<T>>();
+    private boolean collapseDuplicates;
+
+
+    /**
+     *  Constructs an instance from zero or more explicit iterable objects.
+     */
+    @SafeVarargs
+    public MergingIterable(Comparator<? super T> comparator, Iterable<T> ... iterables)
+    {
+        this.comparator = comparator;
+        for (Iterable<T> iterable : iterables)
+        {
+            this.iterables.add(iterable);
+        }
+    }
+
+
+    /**
+     *  Constructs an instance from an iterable of iterables.
+     */
+    public MergingIterable(Comparator<? super T> comparator, Iterable<Iterable<T>> iterables)
+    {
+        this.comparator = comparator;
+        for (Iterable<T> iterable : iterables)
+        {
+            this.iterables.add(iterable);
+        }
+    }
+
+
+    /**
+     *  Configures this instance to return only the first of a sequence of elements
+     *  that compare equal, whether they come from the same or different sources.
+     *  Returns the instance as a convenience.
+     */
+    public MergingIterable<T> collapseDuplicates()
+    {
+        collapseDuplicates = true;
+        return this;
+    }
+
+
+    @Override
+    public Iterator<T> iterator()
+    {
+        List<Iterator<T>> iterators = new ArrayList<Iterator<T>>(iterables.size());
+        for (Iterable<T> iterable : iterables)
+            iterators.add(iterable.iterator());
+        return new MergingIterator<T>(comparator, collapseDuplicates, iterators);
+    }
+
+
+    /**
+     *  Merges a list of sorted iterators into a single iterator. Exposed for
+     *  those callers that don't want to stick to <code>Iterable</code>s.
+     */
+    public static class MergingIterator<E>
+    implements Iterator<E>
+    {
+        private Comparator<? super E> comparator;
+        private boolean collapseDuplicates;
+        private PriorityQueue<Head<E>> heap;
+
+        public MergingIterator(Comparator<? super E> comparator, boolean collapseDuplicates, List<? extends Iterator<E>> iterators)
+        {
+            this.comparator = comparator;
+            this.collapseDuplicates = collapseDuplicates;
+            this.heap = new PriorityQueue<Head<E>>(Math.max(1, iterators.size()), new HeadComparator<E>(comparator));
+
+            int index = 0;
+            for (Iterator<E> itx : iterators)
+            {
+                Head<E> head = new Head<E>(itx, index++);
+                if (head.advance())
+                    heap.add(head);
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return ! heap.isEmpty();
+        }
+
+        @Override
+        public E next()
+        {
+            Head<E> head = heap.poll();
+            if (head == null)
+                throw new NoSuchElementException();
+
+            E value = head.value;
+            if (head.advance())
+                heap.add(head);
+
+            if (collapseDuplicates)
+            {
+                while (! heap.isEmpty() && (comparator.compare(heap.peek().value, value) == 0))
+                {
+                    Head<E> dup = heap.poll();
+                    if (dup.advance())
+                        heap.add(dup);
+                }
+            }
+
+            return value;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("MergingIterator does not support removal");
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Holds the current element of a source iterator, along with the position
+     *  of that source (used to break ties).
+     */
+    private static class Head<E>
+    {
+        private Iterator<E> itx;
+        private int index;
+        private E value;
+
+        public Head(Iterator<E> itx, int index)
+        {
+            this.itx = itx;
+            this.index = index;
+        }
+
+        /**
+         *  Retrieves the next value from the source, returning false if there
+         *  are no more values.
+         */
+        public boolean advance()
+        {
+            if (! itx.hasNext())
+            {
+                value = null;
+                return false;
+            }
+
+            value = itx.next();
+            return true;
+        }
+    }
+
+
+    private static class HeadComparator<E>
+    implements Comparator<Head<E>>
+    {
+        private Comparator<? super E> comparator;
+
+        public HeadComparator(Comparator<? super E> comparator)
+        {
+            this.comparator = comparator;
+        }
+
+        @Override
+        public int compare(Head<E> h1, Head<E> h2)
+        {
+            int cmp = comparator.compare(h1.value, h2.value);
+            return (cmp != 0) ? cmp : (h1.index - h2.index);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+
+/**
+ *  A lazy sequence of transformations applied to an <code>Iterable</code>.
+ *  <p>
+ *  Each transformation method returns a new <code>Pipeline</code> that wraps the
+ *  current one; nothing happens until you call {@link #iterator} (directly or via
+ *  a for-each loop). At that point, each stage creates a single iterator that
+ *  pulls from the iterator of the previous stage, one element at a time. There
+ *  are no intermediate collections, so memory use does not depend on the size of
+ *  the source (with the obvious exception of {@link #chunk}, which holds one
+ *  chunk at a time).
+ *  <p>
+ *  Example: the first 100 distinct non-empty lines of a huge sorted file, in
+ *  upper-case:
+ *  <pre>
+ *      for (String line : Pipeline.from(new LineIterable(file))
+ *                                 .filter(s -&gt; ! s.isEmpty())
+ *                                 .dedup()
+ *                                 .map(String::toUpperCase)
+ *                                 .take(100))
+ *      {
+ *          // ...
+ *      }
+ *  </pre>
+ *  A pipeline may be iterated multiple times if its source can be; each call to
+ *  {@link #iterator} starts over from the source. Iterators produced by a pipeline
+ *  do not support <code>remove()</code>. Pipelines are not thread-safe.
+ *
+ *  @since 2.1.0
+ */
+public abstract class Pipeline<T>
+implements Iterable<T>
+{
+//----------------------------------------------------------------------------
+//  Factory methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Creates a pipeline from an <code>Iterable</code>.
+     */
+    public static <T> Pipeline<T> from(final Iterable<T> source)
+    {
+        return new Pipeline<T>()
+        {
+            @Override
+            public Iterator<T> iterator()
+            {
+                return source.iterator();
+            }
+        };
+    }
+
+
+    /**
+     *  Creates a pipeline from an <code>Iterator</code>. Such a pipeline can only
+     *  be iterated once (see {@link IteratorIterable}).
+     */
+    public static <T> Pipeline<T> from(Iterator<T> source)
+    {
+        return from(new IteratorIterable<T>(source));
+    }
+
+
+    /**
+     *  Creates a pipeline that concatenates multiple sources, per {@link
+     *  CombiningIterable}.
+     */
+    @SafeVarargs
+    public static <T> Pipeline<T> concat(Iterable<T>... sources)
+    {
+        List<Iterable<T>> sourceList = new ArrayList<Iterable<T>>(sources.length);
+        for (Iterable<T> source : sources)
+        {
+            sourceList.add(source);
+        }
+        return from(new CombiningIterable<T>(sourceList));
+    }
+
+//----------------------------------------------------------------------------
+//  Transformations
+//----------------------------------------------------------------------------
+
+    /**
+     *  Applies a function to each element.
+     */
+    public <R> Pipeline<R> map(final Function<? super T, ? extends R> fn)
+    {
+        final Pipeline<T> upstream = this;
+        return new Pipeline<R>()
+        {
+            @Override
+            public Iterator<R> iterator()
+            {
+                final Iterator<T> src = upstream.iterator();
+                return new Iterator<R>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return src.hasNext();
+                    }
+
+                    @Override
+                    public R next()
+                    {
+                        return fn.apply(src.next());
+                    }
+                };
+            }
+        };
+    }
+
+
+    /**
+     *  Retains only those elements that match the predicate.
+     */
+    public Pipeline<T> filter(final Predicate<? super T> predicate)
+    {
+        final Pipeline<T> upstream = this;
+        return new Pipeline<T>()
+        {
+            @Override
+            public Iterator<T> iterator()
+            {
+                final Iterator<T> src = upstream.iterator();
+                return new LookaheadIterator<T>()
+                {
+                    @Override
+                    protected boolean advance()
+                    {
+                        while (src.hasNext())
+                        {
+                            T value = src.next();
+                            if (predicate.test(value))
+                                return setNext(value);
+                        }
+                        return false;
+                    }
+                };
+            }
+        };
+    }
+
+
+    /**
+     *  Replaces each element with the elements of the <code>Iterable</code>
+     *  produced by the function, which may be empty. The function is called
+     *  when the preceding <code>Iterable</code> has been exhausted, not in
+     *  advance.
+     */
+    public <R> Pipeline<R> flatMap(final Function<? super T, ? extends Iterable<? extends R>> fn)
+    {
+        final Pipeline<T> upstream = this;
+        return new Pipeline<R>()
+        {
+            @Override
+            public Iterator<R> iterator()
+            {
+                final Iterator<T> src = upstream.iterator();
+                return new LookaheadIterator<R>()
+                {
+                    private Iterator<? extends R> current = Collections.<R>emptyList().iterator();
+
+                    @Override
+                    protected boolean advance()
+                    {
+                        while (! current.hasNext())
+                        {
+                            if (! src.hasNext())
+                                return false;
+                            current = fn.apply(src.next()).iterator();
+                        }
+                        return setNext(current.next());
+                    }
+                };
+            }
+        };
+    }
+
+
+    /**
+     *  Limits the pipeline to at most the specified number of elements. The
+     *  source is not advanced past the last element returned, which makes it
+     *  possible to use this method with infinite sources.
+     */
+    public Pipeline<T> take(final long limit)
+    {
+        final Pipeline<T> upstream = this;
+        return new Pipeline<T>()
+        {
+            @Override
+            public Iterator<T> iterator()
+            {
+                final Iterator<T> src = upstream.iterator();
+                return new Iterator<T>()
+                {
+                    private long remaining = limit;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return (remaining > 0) && src.hasNext();
+                    }
+
+                    @Override
+                    public T next()
+                    {
+                        if (remaining <= 0)
+                            throw new NoSuchElementException();
+                        remaining--;
+                        return src.next();
+                    }
+                };
+            }
+        };
+    }
+
+
+    /**
+     *  Removes consecutive duplicate elements (as determined by <code>equals()</code>),
+     *  retaining the first of each run. This holds only the most recent element, so
+     *  uses constant memory; if the source is sorted, the result contains only unique
+     *  elements.
+     */
+    public Pipeline<T> dedup()
+    {
+        final Pipeline<T> upstream = this;
+        return new Pipeline<T>()
+        {
+            @Override
+            public Iterator<T> iterator()
+            {
+                final Iterator<T> src = upstream.iterator();
+                return new LookaheadIterator<T>()
+                {
+                    private boolean first = true;
+                    private T previous;
+
+                    @Override
+                    protected boolean advance()
+                    {
+                        while (src.hasNext())
+                        {
+                            T value = src.next();
+                            if (first || ! Objects.equals(previous, value))
+                            {
+                                first = false;
+                                previous = value;
+                                return setNext(value);
+                            }
+                        }
+                        return false;
+                    }
+                };
+            }
+        };
+    }
+
+
+    /**
+     *  Groups elements into lists of the specified size; the last list may be
+     *  smaller. Each list is newly allocated, and may be retained or modified
+     *  by the caller.
+     *
+     *  @throws IllegalArgumentException if <code>size</code> is not positive.
+     */
+    public Pipeline<List<T>> chunk(final int size)
+    {
+        if (size <= 0)
+            throw new IllegalArgumentException("chunk size must be > 0, was: " + size);
+
+        final Pipeline<T> upstream = this;
+        return new Pipeline<List<T>>()
+        {
+            @Override
+            public Iterator<List<T>> iterator()
+            {
+                final Iterator<T> src = upstream.iterator();
+                return new Iterator<List<T>>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return src.hasNext();
+                    }
+
+                    @Override
+                    public List<T> next()
+                    {
+                        if (! src.hasNext())
+                            throw new NoSuchElementException();
+
+                        List<T> chunk = new ArrayList<T>(size);
+                        while ((chunk.size() < size) && src.hasNext())
+                        {
+                            chunk.add(src.next());
+                        }
+                        return chunk;
+                    }
+                };
+            }
+        };
+    }
+
+//----------------------------------------------------------------------------
+//  Terminal operations
+//----------------------------------------------------------------------------
+
+    /**
+     *  Adds all elements of the pipeline to the provided collection, returning
+     *  that collection.
+     */
+    public <C extends Collection<? super T>> C into(C dest)
+    {
+        for (T value : this)
+        {
+            dest.add(value);
+        }
+        return dest;
+    }
+
+
+    /**
+     *  Returns the elements of the pipeline as a new <code>ArrayList</code>.
+     */
+    public List<T> toList()
+    {
+        return into(new ArrayList<T>());
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Base class for iterators that have to examine the source to determine
+     *  whether they have a next element. Subclasses implement {@link #advance},
+     *  which either calls {@link #setNext} or returns false.
+     */
+    private static abstract class LookaheadIterator<E>
+    implements Iterator<E>
+    {
+        private boolean hasNext;
+        private boolean advanced;
+        private E next;
+
+        /**
+         *  Attempts to find the next element, returning false if there isn't one.
+         */
+        protected abstract boolean advance();
+
+        protected boolean setNext(E value)
+        {
+            next = value;
+            return true;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (! advanced)
+            {
+                hasNext = advance();
+                advanced = true;
+            }
+            return hasNext;
+        }
+
+        @Override
+        public E next()
+        {
+            if (! hasNext())
+                throw new NoSuchElementException();
+
+            E value = next;
+            next = null;
+            advanced = false;
+            return value;
+        }
+    }
+}
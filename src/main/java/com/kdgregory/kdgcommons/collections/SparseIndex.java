@@ -0,0 +1,154 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import com.kdgregory.kdgcommons.buffer.BufferFacade;
+
+
+/**
+ *  An in-heap sparse index over sorted fixed-width records in a {@link BufferFacade},
+ *  typically a memory-mapped file. Each record contains a <code>long</code> key, as
+ *  described by {@link BinarySearch#search(BufferFacade,long,int,long,long)}.
+ *  <p>
+ *  A binary search over a large mapped file touches a different page for nearly
+ *  every probe. This class samples the key of every Nth record into a small array.
+ *  A lookup first searches that array, which identifies a range of at most N
+ *  records that could contain the key, then searches only that range in the
+ *  buffer. By default N is chosen so that the range fits within a single 4k page,
+ *  so a lookup touches one or two pages of the file.
+ *  <p>
+ *  The index is a snapshot: if the records in the buffer change, you must create
+ *  a new index. Instances are immutable, and may be shared between threads if the
+ *  underlying buffer supports concurrent reads.
+ *
+ *  @since 2.1.0
+ */
+public class SparseIndex
+{
+    /**
+     *  The page size used to pick a default sampling interval.
+     */
+    public final static int DEFAULT_PAGE_SIZE = 4096;
+
+//----------------------------------------------------------------------------
+//  Constructors and instance variables
+//----------------------------------------------------------------------------
+
+    private BufferFacade buffer;
+    private long base;
+    private int stride;
+    private long count;
+    private int interval;
+    private long[] samples;
+
+
+    /**
+     *  Creates an index that samples enough records to fill one page of
+     *  {@link #DEFAULT_PAGE_SIZE} bytes between samples.
+     *
+     *  @param  buffer      The buffer containing sorted records.
+     *  @param  base        The offset of the first record's key in the buffer.
+     *  @param  stride      The size of each record, in bytes.
+     *  @param  count       The number of records.
+     */
+    public SparseIndex(BufferFacade buffer, long base, int stride, long count)
+    {
+        this(buffer, base, stride, count, Math.max(1, DEFAULT_PAGE_SIZE / stride));
+    }
+
+
+    /**
+     *  Creates an index with an explicit sampling interval.
+     *
+     *  @param  buffer      The buffer containing sorted records.
+     *  @param  base        The offset of the first record's key in the buffer.
+     *  @param  stride      The size of each record, in bytes.
+     *  @param  count       The number of records.
+     *  @param  interval    The number of records between samples. Smaller values
+     *                      mean faster lookups but a larger index.
+     *
+     *  @throws IllegalArgumentException if the interval is not positive, or if the
+     *          index would contain more than <code>Integer.MAX_VALUE</code> samples.
+     */
+    public SparseIndex(BufferFacade buffer, long base, int stride, long count, int interval)
+    {
+        if (interval <= 0)
+            throw new IllegalArgumentException("interval must be > 0, was: " + interval);
+
+        long sampleCount = (count + interval - 1) / interval;
+        if (sampleCount > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("interval too small for " + count + " records: " + interval);
+
+        this.buffer = buffer;
+        this.base = base;
+        this.stride = stride;
+        this.count = count;
+        this.interval = interval;
+
+        samples = new long[(int)sampleCount];
+        for (int ii = 0 ; ii < samples.length ; ii++)
+        {
+            samples[ii] = buffer.getLong(base + (long)ii * interval * stride);
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the number of records between samples.
+     */
+    public int getInterval()
+    {
+        return interval;
+    }
+
+
+    /**
+     *  Returns the number of sampled keys held by this index.
+     */
+    public int getSampleCount()
+    {
+        return samples.length;
+    }
+
+
+    /**
+     *  Searches for a key. Returns the same values as {@link
+     *  BinarySearch#search(BufferFacade,long,int,long,long)}: the record number
+     *  of the lowest record with the specified key, or <code>(-(insertionPoint) - 1)</code>
+     *  if there is no such record.
+     */
+    public long search(long key)
+    {
+        // the first sample >= key bounds the search: the preceding sample (and
+        // all records before it) are < key, and the sample itself is >= key;
+        // we have to search even if the sample matches, as it may be preceded
+        // by duplicates
+        int sample = BinarySearch.search(samples, key);
+        if (sample < 0)
+            sample = -sample - 1;
+
+        if (sample == 0)
+            return ((samples.length > 0) && (samples[0] == key)) ? 0 : -1;
+
+        long lo = (long)(sample - 1) * interval + 1;
+        long hi = Math.min((long)sample * interval + 1, count);
+
+        long result = BinarySearch.search(buffer, base + lo * stride, stride, hi - lo, key);
+        return (result >= 0) ? lo + result : result - lo;
+    }
+}
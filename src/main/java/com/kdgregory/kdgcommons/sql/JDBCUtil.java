@@ -20,6 +20,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import com.kdgregory.kdgcommons.util.DataTable;
+import com.kdgregory.kdgcommons.util.DataTableLoader;
+
 
 /**
  * Static utility methods for working at the JDBC level.
@@ -124,6 +127,8 @@ public class JDBCUtil
      *  <code>Map</code>, where keys are the column names as retrieved from metadata,
      *  and values are the result of calling <code>getObject()</code>.
      *  <p>
+     *  For large results, {@link #retrieveTable} is far more memory-efficient.
+     *  <p>
      *  Caller is responsible for closing the <code>ResultSet</code> after use.
      *
      *  @since 1.0.17
@@ -149,6 +154,26 @@ public class JDBCUtil
     }
 
 
+    /**
+     *  Iterates through the passed <code>ResultSet</code>, loading its rows into
+     *  a {@link DataTable}. Values are written directly to the table's columnar
+     *  storage, without creating intermediate objects; see {@link
+     *  DataTableLoader#fromResultSet(ResultSet,int)} for the mapping of SQL types
+     *  to column classes.
+     *  <p>
+     *  Caller is responsible for closing the <code>ResultSet</code> after use.
+     *
+     *  @param  expectedRows    The number of rows to pre-allocate in the table.
+     *
+     *  @since 2.1.0
+     */
+    public static DataTable retrieveTable(ResultSet rslt, int expectedRows)
+    throws SQLException
+    {
+        return DataTableLoader.fromResultSet(rslt, expectedRows);
+    }
+
+
     /**
      *  Closes the passed <code>Connection</code> ignoring exceptions. This is usually
      *  called in a <code>finally</code> block, and throwing an exception there would
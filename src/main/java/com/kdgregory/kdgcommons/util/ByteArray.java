@@ -14,7 +14,13 @@
 
 package com.kdgregory.kdgcommons.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 
 /**
@@ -22,14 +28,40 @@ import java.io.UnsupportedEncodingException;
  * a replacement for <code>StringBuffer</code> for applications that need to
  * deal with 8-bit character strings (eg, those that exchange data with legacy
  * C programs).
+ * <p>
+ * The array grows geometrically, by its expansion factor, so a sequence of
+ * appends takes time proportional to the total number of bytes appended. The
+ * contents can be consumed without copying via {@link #asByteBuffer}, {@link
+ * #asInputStream}, or {@link #writeTo}. For very large contents, where each
+ * expansion would copy hundreds of megabytes, consider {@link ChunkedByteArray}.
+ * <p>
+ * Normally, {@link #insert} and {@link #remove} shift all bytes after the edit
+ * point. For applications that make many edits close to each other, {@link
+ * #setEditMode} switches the array to a "gap buffer": unused capacity is kept
+ * at the most recent edit point, so that an insert or remove costs time
+ * proportional to the size of the edit plus the distance from the previous
+ * edit. Methods that need contiguous content (eg, {@link #add} or {@link
+ * #getArray}) close the gap, so edits should be batched between such calls.
  */
 
 public class ByteArray
 {
+    /**
+     *  The largest array that we'll attempt to allocate; some JVMs reserve
+     *  header words in the array.
+     */
+    private final static int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
     protected byte[]    data;
     protected int       currentSize;
     protected int       expansionFactor;
 
+    // in edit mode, the unused region [gapStart, gapStart + gapLength) may
+    // appear in the middle of data; it's closed before contiguous access
+    private boolean     editMode;
+    private int         gapStart;
+    private int         gapLength;
+
 
     /**
      *  Constructs a new <code>ByteArray</code>, with specified initial
@@ -104,6 +136,7 @@ public class ByteArray
      */
     public void add(byte val)
     {
+        closeGap();
         ensureCapacity(1);
         data[currentSize++] = val;
     }
@@ -123,9 +156,10 @@ public class ByteArray
      */
     public void add(byte[] src, int off, int len)
     {
+        closeGap();
         ensureCapacity(len);
-        for (int ii = 0 ; ii < len ; ii++)
-            data[currentSize++] = src[off + ii];
+        System.arraycopy(src, off, data, currentSize, len);
+        currentSize += len;
     }
 
 
@@ -165,9 +199,7 @@ public class ByteArray
      */
     public void add(ByteArray src)
     {
-        ensureCapacity(src.size());
-        for (int i = 0 ; i < src.currentSize ; i++)
-            data[currentSize++] = src.data[i];
+        add(src.getArray(), 0, src.currentSize);
     }
 
 
@@ -184,7 +216,7 @@ public class ByteArray
         if ((idx < 0) || (idx >= currentSize))
             throw new ArrayIndexOutOfBoundsException(idx);
 
-        return data[idx];
+        return (idx < gapStart) ? data[idx] : data[idx + gapLength];
     }
 
 
@@ -197,6 +229,7 @@ public class ByteArray
      */
     public byte[] getArray()
     {
+        closeGap();
         return data;
     }
 
@@ -219,10 +252,14 @@ public class ByteArray
         if (off + len > currentSize)
             throw new IllegalArgumentException("invalid length: " + len);
 
-        byte[] result = new byte[len];
-        for (int i = 0 ; i < len ; i++)
-            result[i] = data[off + i];
+        if (gapLength == 0)
+            return Arrays.copyOfRange(data, off, off + len);
 
+        // copy around the gap, leaving it in place for further edits
+        byte[] result = new byte[len];
+        int beforeGap = Math.max(0, Math.min(len, gapStart - off));
+        System.arraycopy(data, off, result, 0, beforeGap);
+        System.arraycopy(data, off + beforeGap + gapLength, result, beforeGap, len - beforeGap);
         return result;
     }
 
@@ -333,6 +370,18 @@ public class ByteArray
         if (srcOff + srcLen > src.length)
             throw new IllegalArgumentException("invalid src length: " + srcLen);
 
+        if (editMode)
+        {
+            moveGap(off);
+            if (gapLength < srcLen)
+                expandGap(srcLen);
+            System.arraycopy(src, srcOff, data, gapStart, srcLen);
+            gapStart += srcLen;
+            gapLength -= srcLen;
+            currentSize += srcLen;
+            return;
+        }
+
         ensureCapacity(srcLen);
         System.arraycopy(data, off, data, off + srcLen, currentSize - off);
         System.arraycopy(src, srcOff, data, off, srcLen);
@@ -370,6 +419,15 @@ public class ByteArray
         if ((off < 0) || (off + len >= currentSize))
             throw new IllegalArgumentException("invalid offset/length: " + off + "/" + len);
 
+        if (editMode)
+        {
+            // the removed bytes simply become part of the gap
+            moveGap(off);
+            gapLength += len;
+            currentSize -= len;
+            return;
+        }
+
         int srcPos = off + len;
         int count = currentSize - srcPos;
         System.arraycopy(data, srcPos, data, off, count);
@@ -382,8 +440,17 @@ public class ByteArray
      */
     public void removeLast()
     {
-        if (currentSize > 0)
-            currentSize--;
+        if (currentSize == 0)
+            return;
+
+        // if the gap is at the end, the last byte precedes it; otherwise
+        // the last byte is the last physical byte
+        if ((gapLength > 0) && (gapStart == currentSize))
+        {
+            gapStart--;
+            gapLength++;
+        }
+        currentSize--;
     }
 
 
@@ -405,12 +472,93 @@ public class ByteArray
      */
     public void setSize(int size)
     {
+        closeGap();
         setCapacity(size);
-        for (int ii = currentSize ; ii < size ; ii++)
-            data[ii] = (byte)0;
+        if (size > currentSize)
+            Arrays.fill(data, currentSize, size, (byte)0);
         currentSize = size;
     }
 
+
+    /**
+     *  Returns a <code>ByteBuffer</code> that wraps the current contents of this
+     *  array, without copying. The buffer's position is 0 and its limit and
+     *  capacity are the current size of the array.
+     *  <p>
+     *  The buffer shares storage with this array: changes to existing bytes are
+     *  visible through the buffer, and vice-versa. However, the buffer is not
+     *  affected by changes to this array's size, and will be detached from this
+     *  array if a subsequent add causes it to expand.
+     *
+     *  @since 2.1.0
+     */
+    public ByteBuffer asByteBuffer()
+    {
+        closeGap();
+        return ByteBuffer.wrap(data, 0, currentSize).slice();
+    }
+
+
+    /**
+     *  Returns an <code>InputStream</code> that reads the current contents of this
+     *  array, without copying. As with {@link #asByteBuffer}, the stream shares
+     *  storage with the array, and does not reflect subsequent size changes.
+     *
+     *  @since 2.1.0
+     */
+    public InputStream asInputStream()
+    {
+        closeGap();
+        return new ByteArrayInputStream(data, 0, currentSize);
+    }
+
+
+    /**
+     *  Writes the contents of this array to the passed stream, without copying.
+     *  The stream is not flushed or closed. This does not close the gap if the
+     *  array is in edit mode.
+     *
+     *  @since 2.1.0
+     */
+    public void writeTo(OutputStream out)
+    throws IOException
+    {
+        if (gapLength == 0)
+        {
+            out.write(data, 0, currentSize);
+            return;
+        }
+
+        out.write(data, 0, gapStart);
+        out.write(data, gapStart + gapLength, currentSize - gapStart);
+    }
+
+
+    /**
+     *  Enables or disables edit mode. When enabled, {@link #insert} and {@link
+     *  #remove} maintain a gap buffer at the edit point rather than shifting the
+     *  rest of the array. Disabling edit mode closes the gap.
+     *
+     *  @since 2.1.0
+     */
+    public void setEditMode(boolean value)
+    {
+        if (! value)
+            closeGap();
+        editMode = value;
+    }
+
+
+    /**
+     *  Returns whether this array is in edit mode.
+     *
+     *  @since 2.1.0
+     */
+    public boolean isEditMode()
+    {
+        return editMode;
+    }
+
 //----------------------------------------------------------------------------
 //  Internals
 //----------------------------------------------------------------------------
@@ -439,14 +587,88 @@ public class ByteArray
     /**
      *  Verifies that the array can accept an insert of the specified size,
      *  and expands it if it can't. This should be called before every add.
+     *  <p>
+     *  Expansion is by a percentage of the current capacity, so that repeated
+     *  adds take amortized constant time per byte.
      */
     private void ensureCapacity(int bytes)
     {
-        if ((currentSize + bytes) < data.length)
+        long required = (long)currentSize + bytes;
+        if (required <= data.length)
+            return;
+
+        if (required > MAX_CAPACITY)
+            throw new IllegalStateException("unable to expand array beyond " + MAX_CAPACITY + " bytes");
+
+        long expanded = (long)data.length * (100 + expansionFactor) / 100;
+        setCapacity((int)Math.min(MAX_CAPACITY, Math.max(expanded, required)));
+    }
+
+
+    /**
+     *  Moves the gap so that it starts at the specified logical offset, by
+     *  shifting the bytes between the old and new positions. While the gap is
+     *  open, it always extends to cover all unused space in the array.
+     */
+    private void moveGap(int off)
+    {
+        // a closed gap starts out as the unused space at the end of the array
+        if (gapLength == 0)
+        {
+            gapStart = currentSize;
+            gapLength = data.length - currentSize;
+        }
+
+        if (off < gapStart)
+        {
+            System.arraycopy(data, off, data, off + gapLength, gapStart - off);
+            gapStart = off;
+        }
+        else if (off > gapStart)
+        {
+            System.arraycopy(data, gapStart + gapLength, data, gapStart, off - gapStart);
+            gapStart = off;
+        }
+    }
+
+
+    /**
+     *  Reallocates the underlying array so that the gap can hold at least the
+     *  specified number of bytes. Growth follows the expansion factor, and all
+     *  new space goes into the gap.
+     */
+    private void expandGap(int bytes)
+    {
+        long required = (long)currentSize + bytes;
+        if (required > MAX_CAPACITY)
+            throw new IllegalStateException("unable to expand array beyond " + MAX_CAPACITY + " bytes");
+
+        long expanded = (long)data.length * (100 + expansionFactor) / 100;
+        int newCapacity = (int)Math.min(MAX_CAPACITY, Math.max(expanded, required));
+
+        byte[] newData = new byte[newCapacity];
+        int tailLength = currentSize - gapStart;
+        System.arraycopy(data, 0, newData, 0, gapStart);
+        System.arraycopy(data, gapStart + gapLength, newData, newCapacity - tailLength, tailLength);
+
+        data = newData;
+        gapLength = newCapacity - currentSize;
+    }
+
+
+    /**
+     *  Moves any bytes following the gap so that the array's content is
+     *  contiguous. This must be called before any operation that accesses
+     *  the underlying array directly.
+     */
+    private void closeGap()
+    {
+        if (gapLength == 0)
             return;
 
-        int newSize = data.length * expansionFactor / 100;
-        setCapacity(Math.max(newSize, (currentSize + bytes)));
+        System.arraycopy(data, gapStart + gapLength, data, gapStart, currentSize - gapStart);
+        gapStart = 0;
+        gapLength = 0;
     }
 
 
@@ -460,10 +682,6 @@ public class ByteArray
         if (size < currentSize)
             return;
 
-        byte[] newData = new byte[size];
-        for (int ii = 0 ; ii < currentSize ; ii++)
-            newData[ii] = data[ii];
-
-        data = newData;
+        data = Arrays.copyOf(data, size);
     }
 }
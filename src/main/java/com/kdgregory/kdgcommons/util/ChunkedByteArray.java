@@ -0,0 +1,384 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ *  An append-only sequence of bytes, stored as a list of fixed-size chunks.
+ *  This is intended for assembling very large payloads: unlike {@link ByteArray},
+ *  it never copies existing content when it grows, and its size is limited only
+ *  by available memory rather than the maximum size of a Java array.
+ *  <p>
+ *  The contents can be consumed without copying via {@link #asByteBuffers},
+ *  {@link #asInputStream}, or {@link #writeTo}. These views share storage with
+ *  this object, but reflect only the size at the time they were created.
+ *  <p>
+ *  Instances are not thread-safe.
+ *
+ *  @since 2.1.0
+ */
+public class ChunkedByteArray
+{
+    /**
+     *  The default size of each chunk, 64k.
+     */
+    public final static int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+//----------------------------------------------------------------------------
+//  Constructors and instance variables
+//----------------------------------------------------------------------------
+
+    private int chunkSize;
+    private List<byte[]> chunks = new ArrayList<byte[]>();
+    private long size;
+
+
+    /**
+     *  Creates an instance with the default chunk size.
+     */
+    public ChunkedByteArray()
+    {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+
+    /**
+     *  Creates an instance with the specified chunk size. Larger chunks reduce
+     *  the overhead of managing the list of chunks, at the cost of more unused
+     *  space in the last chunk.
+     *
+     *  @throws IllegalArgumentException if the chunk size is not positive.
+     */
+    public ChunkedByteArray(int chunkSize)
+    {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be > 0, was: " + chunkSize);
+
+        this.chunkSize = chunkSize;
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the number of bytes in this array.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+
+    /**
+     *  Returns the size of the chunks used by this array.
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+
+    /**
+     *  Adds a single byte to the end of this array.
+     */
+    public void add(byte val)
+    {
+        int off = chunkOffset(size);
+        if (off == 0)
+            chunks.add(new byte[chunkSize]);
+
+        chunks.get(chunks.size() - 1)[off] = val;
+        size++;
+    }
+
+
+    /**
+     *  Adds a <code>byte[]</code> to the end of this array.
+     */
+    public void add(byte[] src)
+    {
+        add(src, 0, src.length);
+    }
+
+
+    /**
+     *  Adds a segment of a <code>byte[]</code> to the end of this array.
+     */
+    public void add(byte[] src, int off, int len)
+    {
+        if ((off < 0) || (len < 0) || (off + len > src.length))
+            throw new IllegalArgumentException("invalid offset/length: " + off + "/" + len);
+
+        while (len > 0)
+        {
+            int chunkOff = chunkOffset(size);
+            if (chunkOff == 0)
+                chunks.add(new byte[chunkSize]);
+
+            int count = Math.min(len, chunkSize - chunkOff);
+            System.arraycopy(src, off, chunks.get(chunks.size() - 1), chunkOff, count);
+            off += count;
+            len -= count;
+            size += count;
+        }
+    }
+
+
+    /**
+     *  Adds the contents of a {@link ByteArray} to the end of this array.
+     */
+    public void add(ByteArray src)
+    {
+        add(src.getArray(), 0, src.size());
+    }
+
+
+    /**
+     *  Reads the passed stream to its end, appending its contents to this array.
+     *  Data is read directly into the chunks, without intermediate buffering. The
+     *  stream is not closed.
+     *
+     *  @return The number of bytes read.
+     */
+    public long readFrom(InputStream in)
+    throws IOException
+    {
+        long total = 0;
+        while (true)
+        {
+            int chunkOff = chunkOffset(size);
+            if (chunkOff == 0)
+                chunks.add(new byte[chunkSize]);
+
+            int count = in.read(chunks.get(chunks.size() - 1), chunkOff, chunkSize - chunkOff);
+            if (count < 0)
+            {
+                // don't leave an empty chunk at the end
+                if (chunkOff == 0)
+                    chunks.remove(chunks.size() - 1);
+                return total;
+            }
+
+            size += count;
+            total += count;
+        }
+    }
+
+
+    /**
+     *  Returns a single byte from the array.
+     *
+     *  @throws ArrayIndexOutOfBoundsException if <code>idx</code> is outside
+     *          the current bounds of the array.
+     */
+    public byte get(long idx)
+    {
+        if ((idx < 0) || (idx >= size))
+            throw new ArrayIndexOutOfBoundsException("invalid index: " + idx);
+
+        return chunks.get(chunkIndex(idx))[chunkOffset(idx)];
+    }
+
+
+    /**
+     *  Returns a copy of a specified sub-section of the array.
+     *
+     *  @throws IllegalArgumentException if <code>off</code> and/or <code>
+     *          len</code> specify indexes that are outside the bounds of
+     *          the array.
+     */
+    public byte[] getBytes(long off, int len)
+    {
+        if ((off < 0) || (off > size))
+            throw new IllegalArgumentException("invalid offset: " + off);
+        if ((len < 0) || (off + len > size))
+            throw new IllegalArgumentException("invalid length: " + len);
+
+        byte[] result = new byte[len];
+        int dst = 0;
+        while (dst < len)
+        {
+            int chunkOff = chunkOffset(off);
+            int count = Math.min(len - dst, chunkSize - chunkOff);
+            System.arraycopy(chunks.get(chunkIndex(off)), chunkOff, result, dst, count);
+            off += count;
+            dst += count;
+        }
+        return result;
+    }
+
+
+    /**
+     *  Returns a copy of the entire array.
+     *
+     *  @throws IllegalStateException if the array is too large to be copied
+     *          into a single <code>byte[]</code>.
+     */
+    public byte[] getBytes()
+    {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("array too large to copy: " + size + " bytes");
+
+        return getBytes(0, (int)size);
+    }
+
+
+    /**
+     *  Returns the contents of this array as a sequence of <code>ByteBuffer</code>s,
+     *  one per chunk, without copying. Each buffer's position is 0, and its limit
+     *  and capacity are the number of bytes used in its chunk. The result is
+     *  suitable for a gathering write to a <code>java.nio</code> channel.
+     */
+    public ByteBuffer[] asByteBuffers()
+    {
+        ByteBuffer[] result = new ByteBuffer[chunks.size()];
+        for (int ii = 0 ; ii < result.length ; ii++)
+        {
+            result[ii] = ByteBuffer.wrap(chunks.get(ii), 0, chunkLength(ii, size)).slice();
+        }
+        return result;
+    }
+
+
+    /**
+     *  Returns an <code>InputStream</code> that reads the current contents of
+     *  this array, without copying.
+     */
+    public InputStream asInputStream()
+    {
+        return new ChunkInputStream(size);
+    }
+
+
+    /**
+     *  Writes the contents of this array to the passed stream, one chunk at a
+     *  time, without copying. The stream is not flushed or closed.
+     */
+    public void writeTo(OutputStream out)
+    throws IOException
+    {
+        for (int ii = 0 ; ii < chunks.size() ; ii++)
+        {
+            out.write(chunks.get(ii), 0, chunkLength(ii, size));
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private int chunkIndex(long idx)
+    {
+        return (int)(idx / chunkSize);
+    }
+
+
+    private int chunkOffset(long idx)
+    {
+        return (int)(idx % chunkSize);
+    }
+
+
+    /**
+     *  Returns the number of bytes of the specified chunk that fall within
+     *  the first <code>limit</code> bytes of the array.
+     */
+    private int chunkLength(int chunk, long limit)
+    {
+        long start = (long)chunk * chunkSize;
+        return (int)Math.max(0, Math.min(chunkSize, limit - start));
+    }
+
+
+    /**
+     *  Reads the array as it existed when the stream was created.
+     */
+    private class ChunkInputStream
+    extends InputStream
+    {
+        private long limit;
+        private long pos;
+        private long mark;
+
+        public ChunkInputStream(long limit)
+        {
+            this.limit = limit;
+        }
+
+        @Override
+        public int read()
+        {
+            if (pos >= limit)
+                return -1;
+
+            return get(pos++) & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+                return 0;
+            if (pos >= limit)
+                return -1;
+
+            int chunkOff = chunkOffset(pos);
+            int count = (int)Math.min(Math.min(len, chunkSize - chunkOff), limit - pos);
+            System.arraycopy(chunks.get(chunkIndex(pos)), chunkOff, b, off, count);
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            long count = Math.max(0, Math.min(n, limit - pos));
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return (int)Math.min(Integer.MAX_VALUE, limit - pos);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return true;
+        }
+
+        @Override
+        public void mark(int readlimit)
+        {
+            mark = pos;
+        }
+
+        @Override
+        public void reset()
+        {
+            pos = mark;
+        }
+    }
+}
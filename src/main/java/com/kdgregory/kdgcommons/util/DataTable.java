@@ -14,7 +14,6 @@
 
 package com.kdgregory.kdgcommons.util;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
 
@@ -25,14 +24,34 @@ import java.util.HashMap;
  *  <p>
  *  Note for JDBC: column indexes in <code>DataTable</code> are numbered
  *  from 0, <em>not</em> 1.
+ *  <p>
+ *  Data is stored by column, with the storage for each column determined by
+ *  its declared class: <code>Integer</code>, <code>Long</code>, and <code>
+ *  Double</code> columns are held in primitive arrays (with a bitmap to track
+ *  nulls), and <code>String</code> columns are dictionary-encoded, so that
+ *  each distinct string is stored once. Columns of other classes, or without
+ *  a declared class, hold object references. For primitive columns, {@link
+ *  #getInt}, {@link #getLong}, and {@link #getDouble} retrieve values without
+ *  boxing; {@link #getValue} returns a boxed value.
+ *  <p>
+ *  To find rows without examining the entire table, create a hash or sorted
+ *  {@link DataTableIndex} on a column. To filter and project rows, build a
+ *  {@link DataTableScan}; its predicates operate directly on column storage.
+ *  To compute grouped sums, counts, and the like, use a {@link
+ *  DataTableAggregation}, which runs in parallel.
+ *  <p>
+ *  Tables may be saved to a file, and opened (read-only) via a memory-mapped
+ *  buffer, using {@link DataTableFile}.
  */
 
 public class DataTable
 {
     private String[] colNames;
     private Class<?>[] colClasses;
-    private ArrayList<Object[]> data;
+    private DataTableColumn[] columns;
+    private int rowCount;
     private HashMap<String,Integer> name2Col;
+    private int modCount;
 
 
     /**
@@ -54,6 +73,32 @@ public class DataTable
      *                      class.
      */
     public DataTable(String[] colNames, Class<?>[] colClasses, Object[][] initial)
+    {
+        this(colNames, colClasses, (initial != null) ? initial.length : 16);
+
+        if (initial != null)
+        {
+            for (int row = 0 ; row < initial.length ; row++)
+            {
+                internalAddRow(row, initial[row]);
+            }
+        }
+    }
+
+
+    /**
+     *  Constructs an empty table, with storage pre-sized for the expected number
+     *  of rows. This avoids repeated expansion (and copying) of the column storage
+     *  when the number of rows is known in advance.
+     *
+     *  @param  colNames    The names for each column, as in the base constructor.
+     *  @param  colClasses  The class of each column, as in the base constructor.
+     *  @param  capacity    The number of rows to allocate. The table will expand
+     *                      past this size if needed.
+     *
+     *  @since 2.1.0
+     */
+    public DataTable(String[] colNames, Class<?>[] colClasses, int capacity)
     {
         if ((colClasses != null) && (colClasses.length != colNames.length))
         {
@@ -66,22 +111,27 @@ public class DataTable
         this.colNames = new String[colNames.length];
         this.colClasses = new Class[this.colNames.length];
         this.name2Col = new HashMap<String,Integer>();
-        this.data = new ArrayList<Object[]>();
+        this.columns = new DataTableColumn[this.colNames.length];
 
         for (int col = 0 ; col < colNames.length ; col++)
         {
             this.colNames[col] = colNames[col];
             name2Col.put(colNames[col], Integer.valueOf(col));
             this.colClasses[col] = (colClasses != null) ? colClasses[col] : null;
+            this.columns[col] = DataTableColumn.create(this.colClasses[col], capacity);
         }
+    }
 
-        if (initial != null)
-        {
-            for (int row = 0 ; row < initial.length ; row++)
-            {
-                internalAddRow(row, initial[row]);
-            }
-        }
+
+    /**
+     *  Constructs a table around existing column storage, which must contain
+     *  the specified number of rows. Used by {@link DataTableFile}.
+     */
+    DataTable(String[] colNames, Class<?>[] colClasses, DataTableColumn[] columns, int rowCount)
+    {
+        this(colNames, colClasses, 0);
+        this.columns = columns;
+        this.rowCount = rowCount;
     }
 
 
@@ -104,7 +154,7 @@ public class DataTable
      */
     public int size()
     {
-        return data.size();
+        return rowCount;
     }
 
 
@@ -126,6 +176,18 @@ public class DataTable
     }
 
 
+    /**
+     *  Returns the index of the named column, -1 if there is no such column.
+     *
+     *  @since 2.1.0
+     */
+    public int getColumnIndex(String name)
+    {
+        Integer col = name2Col.get(name);
+        return (col == null) ? -1 : col.intValue();
+    }
+
+
     /**
      *  Returns the class of a column, <code>null</code> if the column can
      *  hold values of any class.
@@ -144,8 +206,77 @@ public class DataTable
      */
     public Object getValue(int row, int col)
     {
-        Object[] rowData = (Object[])data.get(row);
-        return rowData[col];
+        checkRowIndex(row);
+        return columns[col].get(row);
+    }
+
+
+    /**
+     *  Returns true if the value at an existing row/column location is null.
+     *
+     *  @throws IndexOutOfBoundsException if the specified row or column is
+     *          not within the bounds of the table.
+     *
+     *  @since 2.1.0
+     */
+    public boolean isNull(int row, int col)
+    {
+        checkRowIndex(row);
+        return columns[col].isNull(row);
+    }
+
+
+    /**
+     *  Returns the value at an existing row/column location as an <code>int</code>.
+     *  Does not box for <code>Integer</code> columns. As with JDBC, a null value
+     *  is returned as 0; use {@link #isNull} to distinguish.
+     *
+     *  @throws ClassCastException if the column holds non-numeric values.
+     *  @throws IndexOutOfBoundsException if the specified row or column is
+     *          not within the bounds of the table.
+     *
+     *  @since 2.1.0
+     */
+    public int getInt(int row, int col)
+    {
+        checkRowIndex(row);
+        return columns[col].getInt(row);
+    }
+
+
+    /**
+     *  Returns the value at an existing row/column location as a <code>long</code>.
+     *  Does not box for <code>Integer</code> or <code>Long</code> columns. A null
+     *  value is returned as 0.
+     *
+     *  @throws ClassCastException if the column holds non-numeric values.
+     *  @throws IndexOutOfBoundsException if the specified row or column is
+     *          not within the bounds of the table.
+     *
+     *  @since 2.1.0
+     */
+    public long getLong(int row, int col)
+    {
+        checkRowIndex(row);
+        return columns[col].getLong(row);
+    }
+
+
+    /**
+     *  Returns the value at an existing row/column location as a <code>double</code>.
+     *  Does not box for <code>Integer</code>, <code>Long</code>, or <code>Double
+     *  </code> columns. A null value is returned as 0.
+     *
+     *  @throws ClassCastException if the column holds non-numeric values.
+     *  @throws IndexOutOfBoundsException if the specified row or column is
+     *          not within the bounds of the table.
+     *
+     *  @since 2.1.0
+     */
+    public double getDouble(int row, int col)
+    {
+        checkRowIndex(row);
+        return columns[col].getDouble(row);
     }
 
 
@@ -157,14 +288,16 @@ public class DataTable
      *          for the column.
      *  @throws IndexOutOfBoundsException if the specified row or column is
      *          not within the bounds of the table.
+     *  @throws UnsupportedOperationException if the table is read-only (see
+     *          {@link DataTableFile}).
      */
     public Object setValue(int row, int col, Object val)
     {
+        checkRowIndex(row);
         checkClass(row, col, val);
-        Object[] rowData = (Object[])data.get(row);
-        Object oldValue = rowData[col];
-        rowData[col] = val;
-        return oldValue;
+        Object old = columns[col].set(row, val);
+        modCount++;
+        return old;
     }
 
 
@@ -173,7 +306,7 @@ public class DataTable
      */
     public void addRow()
     {
-        internalAddRow(data.size(), new Object[getColumnCount()]);
+        internalAddRow(rowCount, new Object[getColumnCount()]);
     }
 
 
@@ -187,14 +320,117 @@ public class DataTable
      */
     public void addRow(Object[] rowData)
     {
-        internalAddRow(data.size(), rowData);
+        internalAddRow(rowCount, rowData);
+    }
+
+
+    /**
+     *  Creates a new scan of this table.
+     *
+     *  @since 2.1.0
+     */
+    public DataTableScan scan()
+    {
+        return new DataTableScan(this);
+    }
+
+
+    /**
+     *  Creates a new aggregation of this table, grouped by the specified columns.
+     *  If no columns are specified, the aggregation covers the entire table.
+     *
+     *  @throws IndexOutOfBoundsException if any column is not within the bounds
+     *          of the table.
+     *
+     *  @since 2.1.0
+     */
+    public DataTableAggregation groupBy(int... cols)
+    {
+        return new DataTableAggregation(this, cols);
+    }
+
+
+    /**
+     *  Creates a hash index on the specified column, for equality lookups. The
+     *  index is not updated when the table changes.
+     *
+     *  @throws IndexOutOfBoundsException if the column is not within the bounds
+     *          of the table.
+     *
+     *  @since 2.1.0
+     */
+    public DataTableIndex.HashIndex createHashIndex(int col)
+    {
+        return new DataTableIndex.HashIndex(this, col);
+    }
+
+
+    /**
+     *  Creates a sorted index on the specified column, for equality and range
+     *  lookups. The index is not updated when the table changes.
+     *
+     *  @throws IndexOutOfBoundsException if the column is not within the bounds
+     *          of the table.
+     *  @throws ClassCastException if the column's values are not comparable.
+     *
+     *  @since 2.1.0
+     */
+    public DataTableIndex.SortedIndex createSortedIndex(int col)
+    {
+        return new DataTableIndex.SortedIndex(this, col);
     }
 
 
+//----------------------------------------------------------------------------
+//  Package-private methods, for indexes and scans
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the storage for a column.
+     */
+    DataTableColumn column(int col)
+    {
+        return columns[col];
+    }
+
+
+    /**
+     *  Records that a row has been appended directly to the column storage, by
+     *  a loader that has already checked its values. Every column must have had
+     *  exactly one value added.
+     */
+    void rowAppended()
+    {
+        rowCount++;
+        modCount++;
+    }
+
+
+    /**
+     *  Returns a counter that is incremented whenever the table is modified.
+     */
+    int getModCount()
+    {
+        return modCount;
+    }
+
 //----------------------------------------------------------------------------
 //  Internal methods
 //----------------------------------------------------------------------------
 
+    /**
+     *  Verifies that a row index is within the bounds of the table. Column
+     *  storage may have excess capacity, so we can't rely on it to check.
+     *
+     *  @throws IndexOutOfBoundsException if it is not.
+     */
+    private void checkRowIndex(int row)
+    {
+        if ((row < 0) || (row >= rowCount))
+            throw new IndexOutOfBoundsException("invalid row: " + row + " (size: " + rowCount + ")");
+    }
+
+
     /**
      *  Verifies that a passed row is the correct size for this table.
      *
@@ -238,13 +474,19 @@ public class DataTable
      */
     private void internalAddRow(int row, Object[] rowData)
     {
+        // all values are checked before any are stored, so that a bad
+        // row doesn't leave the columns with different sizes
         checkRowSize(row, rowData);
-        Object[] lclData = new Object[colNames.length];
         for (int col = 0 ; col < colNames.length ; col++)
         {
             checkClass(row, col, rowData[col]);
-            lclData[col] = rowData[col];
         }
-        data.add(lclData);
+
+        for (int col = 0 ; col < colNames.length ; col++)
+        {
+            columns[col].add(rowData[col]);
+        }
+        rowCount++;
+        modCount++;
     }
 }
@@ -0,0 +1,996 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.kdgregory.kdgcommons.collections.CompoundKey;
+import com.kdgregory.kdgcommons.collections.FixedKey;
+import com.kdgregory.kdgcommons.collections.InplaceSort;
+
+
+/**
+ *  Groups the rows of a {@link DataTable} and computes aggregate values for
+ *  each group; created by {@link DataTable#groupBy}. Aggregates are added with
+ *  the builder methods, and {@link #execute} produces a new table containing
+ *  the grouping columns followed by one column per aggregate. Groups appear in
+ *  the order of their first row in the source table. If there are no grouping
+ *  columns, the result has exactly one row, which aggregates the entire table.
+ *  <p>
+ *  As in SQL, aggregates other than {@link #count()} ignore null values, and
+ *  aggregates of a group with no non-null values are null. Null grouping values
+ *  are grouped together.
+ *  <p>
+ *  Execution divides the rows into ranges, processed as tasks in a <code>
+ *  ForkJoinPool</code>. Each task builds its own partial aggregates, with no
+ *  shared state; partials are merged as the tasks are joined. Grouping does not
+ *  box values when grouping by one or two <code>Integer</code>, <code>Long</code>,
+ *  <code>Double</code>, or <code>String</code> columns (strings are grouped by
+ *  dictionary code); other combinations use a {@link CompoundKey} of the boxed
+ *  values.
+ *  <p>
+ *  The table must not be modified during execution. Instances are not thread-safe,
+ *  but may be executed repeatedly.
+ *
+ *  @since 2.1.0
+ */
+public class DataTableAggregation
+{
+    /**
+     *  Tables smaller than this are aggregated by the calling thread; larger tables
+     *  are split into tasks of at least this size.
+     */
+    private final static int MIN_TASK_SIZE = 16384;
+
+    /**
+     *  The source column for aggregates that aren't based on a column (ie,
+     *  <code>count()</code>).
+     */
+    private final static int NO_COLUMN = -1;
+
+    private DataTable table;
+    private int[] groupCols;
+    private int[] restriction;
+    private List<Aggregate> aggregates = new ArrayList<Aggregate>();
+
+
+    DataTableAggregation(DataTable table, int[] groupCols)
+    {
+        this.table = table;
+        for (int col : groupCols)
+        {
+            checkColumn(col);
+        }
+
+        this.groupCols = groupCols.clone();
+    }
+
+//----------------------------------------------------------------------------
+//  Builder methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Limits the aggregation to the specified rows; for example, the result of
+     *  {@link DataTableScan#rows} or an index lookup.
+     */
+    public DataTableAggregation restrict(int[] rows)
+    {
+        restriction = rows.clone();
+        return this;
+    }
+
+
+    /**
+     *  Adds a count of the rows in each group, as a <code>Long</code> column named
+     *  "count".
+     */
+    public DataTableAggregation count()
+    {
+        aggregates.add(new Aggregate("count", Long.class, NO_COLUMN)
+        {
+            @Override
+            public Accumulator newAccumulator()
+            {
+                return new CountAccumulator(null);
+            }
+        });
+        return this;
+    }
+
+
+    /**
+     *  Adds a count of the non-null values of a column in each group, as a
+     *  <code>Long</code> column named "count(NAME)".
+     */
+    public DataTableAggregation count(int col)
+    {
+        checkColumn(col);
+        aggregates.add(new Aggregate("count", Long.class, col)
+        {
+            @Override
+            public Accumulator newAccumulator()
+            {
+                return new CountAccumulator(table.column(col));
+            }
+        });
+        return this;
+    }
+
+
+    /**
+     *  Adds the sum of a column's values in each group, in a column named
+     *  "sum(NAME)". <code>Integer</code> and <code>Long</code> columns are summed
+     *  as <code>long</code>, producing a <code>Long</code> result (overflow is not
+     *  detected); all other columns are summed as <code>double</code>, producing a
+     *  <code>Double</code> result.
+     *
+     *  @throws IllegalArgumentException if the column's class is not numeric.
+     */
+    public DataTableAggregation sum(int col)
+    {
+        checkColumn(col);
+        checkColumnClass(col, Number.class, "numeric");
+        final boolean integral = isIntegral(col);
+        aggregates.add(new Aggregate("sum", integral ? Long.class : Double.class, col)
+        {
+            @Override
+            public Accumulator newAccumulator()
+            {
+                return integral
+                     ? new LongSumAccumulator(table.column(col))
+                     : new DoubleSumAccumulator(table.column(col), false);
+            }
+        });
+        return this;
+    }
+
+
+    /**
+     *  Adds the average of a column's values in each group, as a <code>Double</code>
+     *  column named "avg(NAME)".
+     *
+     *  @throws IllegalArgumentException if the column's class is not numeric.
+     */
+    public DataTableAggregation avg(int col)
+    {
+        checkColumn(col);
+        checkColumnClass(col, Number.class, "numeric");
+        aggregates.add(new Aggregate("avg", Double.class, col)
+        {
+            @Override
+            public Accumulator newAccumulator()
+            {
+                return new DoubleSumAccumulator(table.column(col), true);
+            }
+        });
+        return this;
+    }
+
+
+    /**
+     *  Adds the minimum of a column's values in each group, in a column named
+     *  "min(NAME)" with the same class as the source column. Non-numeric values
+     *  must be <code>Comparable</code>.
+     *
+     *  @throws IllegalArgumentException if the column's class is not <code>Comparable</code>.
+     */
+    public DataTableAggregation min(int col)
+    {
+        return addMinMax("min", col, false);
+    }
+
+
+    /**
+     *  Adds the maximum of a column's values in each group, in a column named
+     *  "max(NAME)" with the same class as the source column. Non-numeric values
+     *  must be <code>Comparable</code>.
+     *
+     *  @throws IllegalArgumentException if the column's class is not <code>Comparable</code>.
+     */
+    public DataTableAggregation max(int col)
+    {
+        return addMinMax("max", col, true);
+    }
+
+//----------------------------------------------------------------------------
+//  Execution
+//----------------------------------------------------------------------------
+
+    /**
+     *  Executes the aggregation using the common <code>ForkJoinPool</code>.
+     *
+     *  @throws ConcurrentModificationException if the table is modified during
+     *          execution (this is not guaranteed to be detected).
+     */
+    public DataTable execute()
+    {
+        return execute(ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     *  Executes the aggregation using the provided <code>ForkJoinPool</code>.
+     *
+     *  @throws ConcurrentModificationException if the table is modified during
+     *          execution (this is not guaranteed to be detected).
+     */
+    public DataTable execute(ForkJoinPool pool)
+    {
+        int modCount = table.getModCount();
+
+        int[] rows = restriction;
+        if (rows != null)
+        {
+            for (int row : rows)
+            {
+                if ((row < 0) || (row >= table.size()))
+                    throw new IndexOutOfBoundsException("invalid row: " + row + " (size: " + table.size() + ")");
+            }
+        }
+        int count = (rows != null) ? rows.length : table.size();
+
+        Partial result;
+        if (count < 2 * MIN_TASK_SIZE)
+        {
+            result = new Partial();
+            result.addRows(rows, 0, count);
+        }
+        else
+        {
+            int taskSize = Math.max(MIN_TASK_SIZE, count / (pool.getParallelism() * 4));
+            result = pool.invoke(new AggregationTask(rows, 0, count, taskSize));
+        }
+
+        if (modCount != table.getModCount())
+            throw new ConcurrentModificationException("table modified during aggregation");
+
+        return result.toTable();
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- general
+//----------------------------------------------------------------------------
+
+    private void checkColumn(int col)
+    {
+        if ((col < 0) || (col >= table.getColumnCount()))
+            throw new IndexOutOfBoundsException("invalid column: " + col);
+    }
+
+
+    /**
+     *  Verifies that a column's declared class is compatible with an aggregate.
+     *  Untyped columns are accepted; their values are checked during execution.
+     */
+    private void checkColumnClass(int col, Class<?> required, String description)
+    {
+        Class<?> colClass = table.getColumnClass(col);
+        if ((colClass != null) && ! required.isAssignableFrom(colClass))
+            throw new IllegalArgumentException(
+                    "column " + col + " (" + table.getColumnName(col) + ") is not " + description
+                    + ": " + colClass.getName());
+    }
+
+
+    private boolean isIntegral(int col)
+    {
+        Class<?> colClass = table.getColumnClass(col);
+        return (colClass == Integer.class) || (colClass == Long.class);
+    }
+
+
+    private DataTableAggregation addMinMax(String name, final int col, final boolean isMax)
+    {
+        checkColumn(col);
+        checkColumnClass(col, Comparable.class, "comparable");
+        final DataTableColumn column = table.column(col);
+        final Class<?> colClass = table.getColumnClass(col);
+        aggregates.add(new Aggregate(name, colClass, col)
+        {
+            @Override
+            public Accumulator newAccumulator()
+            {
+                if ((colClass == Integer.class) || (colClass == Long.class))
+                    return new LongMinMaxAccumulator(column, isMax, colClass == Integer.class);
+                if (colClass == Double.class)
+                    return new DoubleMinMaxAccumulator(column, isMax);
+                return new ObjectMinMaxAccumulator(column, isMax);
+            }
+        });
+        return this;
+    }
+
+
+    /**
+     *  Creates the grouping strategy that's appropriate for the grouping columns.
+     */
+    private Grouper newGrouper()
+    {
+        if (groupCols.length == 0)
+            return new SingleGroupGrouper();
+
+        boolean allTokens = true;
+        for (int col : groupCols)
+        {
+            DataTableColumn column = table.column(col);
+            allTokens &= (column instanceof DataTableColumn.StringColumn)
+                      || (column instanceof DataTableColumn.PrimitiveColumn);
+        }
+
+        if (allTokens && (groupCols.length == 1))
+            return new OneTokenGrouper(table.column(groupCols[0]));
+        if (allTokens && (groupCols.length == 2))
+            return new TwoTokenGrouper(table.column(groupCols[0]), table.column(groupCols[1]));
+        return new CompoundKeyGrouper();
+    }
+
+
+    /**
+     *  Returns a <code>long</code> that identifies a non-null value within the
+     *  specified column (which must be a string or primitive column).
+     */
+    private static long token(DataTableColumn column, int row)
+    {
+        return (column instanceof DataTableColumn.StringColumn)
+             ? ((DataTableColumn.StringColumn)column).getCode(row)
+             : ((DataTableColumn.PrimitiveColumn)column).bits(row);
+    }
+
+
+    /**
+     *  Computes one range of rows, splitting it if it's too large.
+     */
+    private class AggregationTask
+    extends RecursiveTask<Partial>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private int[] rows;
+        private int start;
+        private int end;
+        private int taskSize;
+
+        public AggregationTask(int[] rows, int start, int end, int taskSize)
+        {
+            this.rows = rows;
+            this.start = start;
+            this.end = end;
+            this.taskSize = taskSize;
+        }
+
+        @Override
+        protected Partial compute()
+        {
+            if (end - start <= taskSize)
+            {
+                Partial partial = new Partial();
+                partial.addRows(rows, start, end);
+                return partial;
+            }
+
+            int mid = start + (end - start) / 2;
+            AggregationTask left = new AggregationTask(rows, start, mid, taskSize);
+            AggregationTask right = new AggregationTask(rows, mid, end, taskSize);
+            right.fork();
+            Partial result = left.compute();
+            result.merge(right.join());
+            return result;
+        }
+    }
+
+
+    /**
+     *  The groups and aggregates for some subset of rows. Each group is identified
+     *  by its first row, which is used when merging partials and to retrieve the
+     *  group's values when producing the result.
+     */
+    private class Partial
+    {
+        private Grouper grouper = newGrouper();
+        private Accumulator[] accumulators = new Accumulator[aggregates.size()];
+        private IntArray firstRows = new IntArray();
+        private int capacity;
+
+        public Partial()
+        {
+            for (int ii = 0 ; ii < accumulators.length ; ii++)
+            {
+                accumulators[ii] = aggregates.get(ii).newAccumulator();
+            }
+
+            // an aggregate without grouping columns always produces a row
+            if (groupCols.length == 0)
+                newGroup(0, Integer.MAX_VALUE);
+        }
+
+        public void addRows(int[] rows, int start, int end)
+        {
+            for (int ii = start ; ii < end ; ii++)
+            {
+                int row = (rows != null) ? rows[ii] : ii;
+                int group = grouper.groupOf(row, firstRows.size());
+                if (group == firstRows.size())
+                    newGroup(group, row);
+                else if (row < firstRows.get(group))
+                    firstRows.set(group, row);
+
+                for (Accumulator acc : accumulators)
+                {
+                    acc.add(group, row);
+                }
+            }
+        }
+
+        public void merge(Partial that)
+        {
+            for (int thatGroup = 0 ; thatGroup < that.firstRows.size() ; thatGroup++)
+            {
+                int row = that.firstRows.get(thatGroup);
+                int group = (groupCols.length == 0) ? 0 : grouper.groupOf(row, firstRows.size());
+                if (group == firstRows.size())
+                    newGroup(group, row);
+                else if (row < firstRows.get(group))
+                    firstRows.set(group, row);
+
+                for (int ii = 0 ; ii < accumulators.length ; ii++)
+                {
+                    accumulators[ii].merge(group, that.accumulators[ii], thatGroup);
+                }
+            }
+        }
+
+        public DataTable toTable()
+        {
+            int groupCount = firstRows.size();
+            final int[] firstRowValues = firstRows.getArray();
+            int[] order = new int[groupCount];
+            for (int ii = 0 ; ii < groupCount ; ii++)
+            {
+                order[ii] = ii;
+            }
+            InplaceSort.sort(order, new InplaceSort.IntComparator()
+            {
+                @Override
+                public int compare(int g1, int g2)
+                {
+                    return Integer.compare(firstRowValues[g1], firstRowValues[g2]);
+                }
+            });
+
+            int width = groupCols.length + aggregates.size();
+            String[] names = new String[width];
+            Class<?>[] classes = new Class<?>[width];
+            for (int ii = 0 ; ii < groupCols.length ; ii++)
+            {
+                names[ii] = table.getColumnName(groupCols[ii]);
+                classes[ii] = table.getColumnClass(groupCols[ii]);
+            }
+            for (int ii = 0 ; ii < aggregates.size() ; ii++)
+            {
+                Aggregate agg = aggregates.get(ii);
+                names[groupCols.length + ii] = agg.getColumnName();
+                classes[groupCols.length + ii] = agg.resultClass;
+            }
+
+            Object[][] data = new Object[groupCount][width];
+            for (int ii = 0 ; ii < groupCount ; ii++)
+            {
+                int group = order[ii];
+                for (int jj = 0 ; jj < groupCols.length ; jj++)
+                {
+                    data[ii][jj] = table.column(groupCols[jj]).get(firstRowValues[group]);
+                }
+                for (int jj = 0 ; jj < accumulators.length ; jj++)
+                {
+                    data[ii][groupCols.length + jj] = accumulators[jj].result(group);
+                }
+            }
+
+            return new DataTable(names, classes, data);
+        }
+
+        private void newGroup(int group, int row)
+        {
+            firstRows.add(row);
+            if (group >= capacity)
+            {
+                capacity = Math.max(16, capacity * 2);
+                for (Accumulator acc : accumulators)
+                {
+                    acc.grow(capacity);
+                }
+            }
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- grouping
+//----------------------------------------------------------------------------
+
+    /**
+     *  Assigns rows to groups. Each partial has its own grouper.
+     */
+    private interface Grouper
+    {
+        /**
+         *  Returns the group for the specified row's values. If those values
+         *  have not been seen before, they are assigned the passed group.
+         */
+        public int groupOf(int row, int nextGroup);
+    }
+
+
+    private static class SingleGroupGrouper
+    implements Grouper
+    {
+        @Override
+        public int groupOf(int row, int nextGroup)
+        {
+            return 0;
+        }
+    }
+
+
+    private static class OneTokenGrouper
+    implements Grouper
+    {
+        private DataTableColumn column;
+        private DataTableIndex.LongGroupTable groups = new DataTableIndex.LongGroupTable(16);
+        private int nullGroup = -1;
+
+        public OneTokenGrouper(DataTableColumn column)
+        {
+            this.column = column;
+        }
+
+        @Override
+        public int groupOf(int row, int nextGroup)
+        {
+            if (column.isNull(row))
+            {
+                if (nullGroup < 0)
+                    nullGroup = nextGroup;
+                return nullGroup;
+            }
+            return groups.putIfAbsent(token(column, row), nextGroup);
+        }
+    }
+
+
+    private static class TwoTokenGrouper
+    implements Grouper
+    {
+        // a key's third component identifies which values are null, so that a
+        // null is distinguished from a value that has the same token
+        private final static Integer[] NULL_MASKS = new Integer[] { 0, 1, 2, 3 };
+
+        private DataTableColumn column0;
+        private DataTableColumn column1;
+        private Map<FixedKey,Integer> groups = new HashMap<FixedKey,Integer>();
+        private FixedKey.Probe probe = new FixedKey.Probe();
+
+        public TwoTokenGrouper(DataTableColumn column0, DataTableColumn column1)
+        {
+            this.column0 = column0;
+            this.column1 = column1;
+        }
+
+        @Override
+        public int groupOf(int row, int nextGroup)
+        {
+            boolean null0 = column0.isNull(row);
+            boolean null1 = column1.isNull(row);
+            long token0 = null0 ? 0 : token(column0, row);
+            long token1 = null1 ? 0 : token(column1, row);
+            Integer mask = NULL_MASKS[(null0 ? 1 : 0) | (null1 ? 2 : 0)];
+
+            Integer group = groups.get(probe.set(token0, token1, mask));
+            if (group == null)
+            {
+                group = Integer.valueOf(nextGroup);
+                groups.put(probe.freeze(), group);
+            }
+            return group.intValue();
+        }
+    }
+
+
+    private class CompoundKeyGrouper
+    implements Grouper
+    {
+        private Map<CompoundKey,Integer> groups = new HashMap<CompoundKey,Integer>();
+
+        @Override
+        public int groupOf(int row, int nextGroup)
+        {
+            Object[] values = new Object[groupCols.length];
+            for (int ii = 0 ; ii < values.length ; ii++)
+            {
+                values[ii] = table.column(groupCols[ii]).get(row);
+            }
+
+            CompoundKey key = new CompoundKey(values);
+            Integer group = groups.get(key);
+            if (group == null)
+            {
+                group = Integer.valueOf(nextGroup);
+                groups.put(key, group);
+            }
+            return group.intValue();
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- aggregates
+//----------------------------------------------------------------------------
+
+    /**
+     *  Describes an aggregate column, and creates the accumulators that compute
+     *  its values.
+     */
+    private abstract class Aggregate
+    {
+        protected String name;
+        protected Class<?> resultClass;
+        protected int col;
+
+        protected Aggregate(String name, Class<?> resultClass, int col)
+        {
+            this.name = name;
+            this.resultClass = resultClass;
+            this.col = col;
+        }
+
+        public String getColumnName()
+        {
+            return (col == NO_COLUMN) ? name : name + "(" + table.getColumnName(col) + ")";
+        }
+
+        public abstract Accumulator newAccumulator();
+    }
+
+
+    /**
+     *  Holds the per-group state of a single aggregate within a single partial.
+     */
+    private static abstract class Accumulator
+    {
+        /**
+         *  Increases the number of groups that can be held.
+         */
+        public abstract void grow(int capacity);
+
+        /**
+         *  Adds a row's value to a group.
+         */
+        public abstract void add(int group, int row);
+
+        /**
+         *  Merges a group from another accumulator of the same type into a
+         *  group of this accumulator.
+         */
+        public abstract void merge(int group, Accumulator other, int otherGroup);
+
+        /**
+         *  Returns the final value of a group.
+         */
+        public abstract Object result(int group);
+    }
+
+
+    private static class CountAccumulator
+    extends Accumulator
+    {
+        private DataTableColumn column;
+        private long[] counts = new long[0];
+
+        public CountAccumulator(DataTableColumn column)
+        {
+            this.column = column;
+        }
+
+        @Override
+        public void grow(int capacity)
+        {
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        @Override
+        public void add(int group, int row)
+        {
+            if ((column == null) || ! column.isNull(row))
+                counts[group]++;
+        }
+
+        @Override
+        public void merge(int group, Accumulator other, int otherGroup)
+        {
+            counts[group] += ((CountAccumulator)other).counts[otherGroup];
+        }
+
+        @Override
+        public Object result(int group)
+        {
+            return Long.valueOf(counts[group]);
+        }
+    }
+
+
+    private static class LongSumAccumulator
+    extends Accumulator
+    {
+        private DataTableColumn column;
+        private long[] sums = new long[0];
+        private long[] counts = new long[0];
+
+        public LongSumAccumulator(DataTableColumn column)
+        {
+            this.column = column;
+        }
+
+        @Override
+        public void grow(int capacity)
+        {
+            sums = Arrays.copyOf(sums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        @Override
+        public void add(int group, int row)
+        {
+            if (! column.isNull(row))
+            {
+                sums[group] += column.getLong(row);
+                counts[group]++;
+            }
+        }
+
+        @Override
+        public void merge(int group, Accumulator other, int otherGroup)
+        {
+            LongSumAccumulator that = (LongSumAccumulator)other;
+            sums[group] += that.sums[otherGroup];
+            counts[group] += that.counts[otherGroup];
+        }
+
+        @Override
+        public Object result(int group)
+        {
+            return (counts[group] == 0) ? null : Long.valueOf(sums[group]);
+        }
+    }
+
+
+    private static class DoubleSumAccumulator
+    extends Accumulator
+    {
+        private DataTableColumn column;
+        private boolean average;
+        private double[] sums = new double[0];
+        private long[] counts = new long[0];
+
+        public DoubleSumAccumulator(DataTableColumn column, boolean average)
+        {
+            this.column = column;
+            this.average = average;
+        }
+
+        @Override
+        public void grow(int capacity)
+        {
+            sums = Arrays.copyOf(sums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        @Override
+        public void add(int group, int row)
+        {
+            if (! column.isNull(row))
+            {
+                sums[group] += column.getDouble(row);
+                counts[group]++;
+            }
+        }
+
+        @Override
+        public void merge(int group, Accumulator other, int otherGroup)
+        {
+            DoubleSumAccumulator that = (DoubleSumAccumulator)other;
+            sums[group] += that.sums[otherGroup];
+            counts[group] += that.counts[otherGroup];
+        }
+
+        @Override
+        public Object result(int group)
+        {
+            if (counts[group] == 0)
+                return null;
+            return Double.valueOf(average ? sums[group] / counts[group] : sums[group]);
+        }
+    }
+
+
+    private static class LongMinMaxAccumulator
+    extends Accumulator
+    {
+        private DataTableColumn column;
+        private boolean isMax;
+        private boolean isInteger;
+        private long[] values = new long[0];
+        private boolean[] present = new boolean[0];
+
+        public LongMinMaxAccumulator(DataTableColumn column, boolean isMax, boolean isInteger)
+        {
+            this.column = column;
+            this.isMax = isMax;
+            this.isInteger = isInteger;
+        }
+
+        @Override
+        public void grow(int capacity)
+        {
+            values = Arrays.copyOf(values, capacity);
+            present = Arrays.copyOf(present, capacity);
+        }
+
+        @Override
+        public void add(int group, int row)
+        {
+            if (! column.isNull(row))
+                update(group, column.getLong(row));
+        }
+
+        @Override
+        public void merge(int group, Accumulator other, int otherGroup)
+        {
+            LongMinMaxAccumulator that = (LongMinMaxAccumulator)other;
+            if (that.present[otherGroup])
+                update(group, that.values[otherGroup]);
+        }
+
+        @Override
+        public Object result(int group)
+        {
+            if (! present[group])
+                return null;
+            return isInteger ? (Object)Integer.valueOf((int)values[group]) : (Object)Long.valueOf(values[group]);
+        }
+
+        private void update(int group, long value)
+        {
+            if (! present[group] || (isMax ? value > values[group] : value < values[group]))
+                values[group] = value;
+            present[group] = true;
+        }
+    }
+
+
+    private static class DoubleMinMaxAccumulator
+    extends Accumulator
+    {
+        private DataTableColumn column;
+        private boolean isMax;
+        private double[] values = new double[0];
+        private boolean[] present = new boolean[0];
+
+        public DoubleMinMaxAccumulator(DataTableColumn column, boolean isMax)
+        {
+            this.column = column;
+            this.isMax = isMax;
+        }
+
+        @Override
+        public void grow(int capacity)
+        {
+            values = Arrays.copyOf(values, capacity);
+            present = Arrays.copyOf(present, capacity);
+        }
+
+        @Override
+        public void add(int group, int row)
+        {
+            if (! column.isNull(row))
+                update(group, column.getDouble(row));
+        }
+
+        @Override
+        public void merge(int group, Accumulator other, int otherGroup)
+        {
+            DoubleMinMaxAccumulator that = (DoubleMinMaxAccumulator)other;
+            if (that.present[otherGroup])
+                update(group, that.values[otherGroup]);
+        }
+
+        @Override
+        public Object result(int group)
+        {
+            return present[group] ? Double.valueOf(values[group]) : null;
+        }
+
+        private void update(int group, double value)
+        {
+            // Double.compare() gives a total order, so results don't depend on
+            // how rows were divided between tasks
+            int cmp = Double.compare(value, values[group]);
+            if (! present[group] || (isMax ? cmp > 0 : cmp < 0))
+                values[group] = value;
+            present[group] = true;
+        }
+    }
+
+
+    private static class ObjectMinMaxAccumulator
+    extends Accumulator
+    {
+        private DataTableColumn column;
+        private boolean isMax;
+        private Object[] values = new Object[0];
+
+        public ObjectMinMaxAccumulator(DataTableColumn column, boolean isMax)
+        {
+            this.column = column;
+            this.isMax = isMax;
+        }
+
+        @Override
+        public void grow(int capacity)
+        {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        public void add(int group, int row)
+        {
+            update(group, column.get(row));
+        }
+
+        @Override
+        public void merge(int group, Accumulator other, int otherGroup)
+        {
+            update(group, ((ObjectMinMaxAccumulator)other).values[otherGroup]);
+        }
+
+        @Override
+        public Object result(int group)
+        {
+            return values[group];
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private void update(int group, Object value)
+        {
+            if (value == null)
+                return;
+
+            Object current = values[group];
+            if (current == null)
+            {
+                values[group] = value;
+                return;
+            }
+
+            int cmp = ((Comparable)value).compareTo(current);
+            if (isMax ? cmp > 0 : cmp < 0)
+                values[group] = value;
+        }
+    }
+}
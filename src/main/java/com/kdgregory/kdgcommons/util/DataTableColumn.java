@@ -0,0 +1,608 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *  Storage for a single column of a {@link DataTable}. The factory method picks an
+ *  implementation based on the column's declared class: <code>Integer</code>,
+ *  <code>Long</code>, and <code>Double</code> columns are stored as primitive
+ *  arrays with a separate null bitmap; <code>String</code> columns are dictionary
+ *  encoded; all other columns hold object references.
+ *  <p>
+ *  Values passed to <code>add()</code> and <code>set()</code> have already been
+ *  checked against the column class. Row indexes are not checked.
+ *
+ *  @since 2.1.0
+ */
+abstract class DataTableColumn
+{
+    /**
+     *  Creates the appropriate column implementation for a class, which may be
+     *  null.
+     */
+    public static DataTableColumn create(Class<?> colClass, int capacity)
+    {
+        if (colClass == Integer.class)
+            return new IntColumn(capacity);
+        if (colClass == Long.class)
+            return new LongColumn(capacity);
+        if (colClass == Double.class)
+            return new DoubleColumn(capacity);
+        if (colClass == String.class)
+            return new StringColumn(capacity);
+        return new ObjectColumn(capacity);
+    }
+
+//----------------------------------------------------------------------------
+//  Common API
+//----------------------------------------------------------------------------
+
+    /**
+     *  Appends a value (which may be null) to the column.
+     */
+    public abstract void add(Object value);
+
+
+    /**
+     *  Returns a value, boxed if necessary.
+     */
+    public abstract Object get(int row);
+
+
+    /**
+     *  Replaces a value, returning the old value.
+     */
+    public abstract Object set(int row, Object value);
+
+
+    /**
+     *  Returns true if the specified value is null.
+     */
+    public boolean isNull(int row)
+    {
+        return get(row) == null;
+    }
+
+
+    /**
+     *  Returns a value as an <code>int</code>; null is returned as 0.
+     *
+     *  @throws ClassCastException if the value is not a <code>Number</code>.
+     */
+    public int getInt(int row)
+    {
+        Number value = (Number)get(row);
+        return (value == null) ? 0 : value.intValue();
+    }
+
+
+    /**
+     *  Returns a value as a <code>long</code>; null is returned as 0.
+     *
+     *  @throws ClassCastException if the value is not a <code>Number</code>.
+     */
+    public long getLong(int row)
+    {
+        Number value = (Number)get(row);
+        return (value == null) ? 0 : value.longValue();
+    }
+
+
+    /**
+     *  Returns a value as a <code>double</code>; null is returned as 0.
+     *
+     *  @throws ClassCastException if the value is not a <code>Number</code>.
+     */
+    public double getDouble(int row)
+    {
+        Number value = (Number)get(row);
+        return (value == null) ? 0 : value.doubleValue();
+    }
+
+
+    /**
+     *  Compares the values of two rows, ordering nulls before all other values.
+     *
+     *  @throws ClassCastException if the column's values are not comparable.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public int compareRows(int row1, int row2)
+    {
+        Object v1 = get(row1);
+        Object v2 = get(row2);
+        if (v1 == null)
+            return (v2 == null) ? 0 : -1;
+        if (v2 == null)
+            return 1;
+        return ((Comparable)v1).compareTo(v2);
+    }
+
+
+    /**
+     *  Compares a non-null value, which must be an instance of the column's
+     *  class, to the value of a row, ordering nulls before all other values.
+     *
+     *  @throws ClassCastException if the column's values are not comparable.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public int compareValue(Object value, int row)
+    {
+        Object rowValue = get(row);
+        return (rowValue == null) ? 1 : ((Comparable)value).compareTo(rowValue);
+    }
+
+//----------------------------------------------------------------------------
+//  Implementations
+//----------------------------------------------------------------------------
+
+    /**
+     *  Common code for columns of primitive values, which track nulls in a
+     *  bitmap. Null values are stored as 0.
+     */
+    static abstract class PrimitiveColumn
+    extends DataTableColumn
+    {
+        protected BitSet nulls = new BitSet();
+
+        @Override
+        public boolean isNull(int row)
+        {
+            return nulls.get(row);
+        }
+
+        /**
+         *  Returns true if there are no nulls in the column, in which case scans
+         *  can skip checking the bitmap.
+         */
+        public boolean hasNulls()
+        {
+            return ! nulls.isEmpty();
+        }
+
+        /**
+         *  Returns a row's value as bits suitable for hashing and equality
+         *  comparison (consistent with the boxed value's <code>equals()</code>).
+         */
+        public abstract long bits(int row);
+
+        /**
+         *  Converts a non-null value, which must be an instance of the column's
+         *  class, into the form returned by {@link #bits(int)}.
+         */
+        public abstract long bits(Object value);
+    }
+
+
+    static final class IntColumn
+    extends PrimitiveColumn
+    {
+        protected IntArray values;
+
+        public IntColumn(int capacity)
+        {
+            values = new IntArray(capacity, 50);
+        }
+
+        @Override
+        public void add(Object value)
+        {
+            if (value == null)
+                nulls.set(values.size());
+            values.add((value == null) ? 0 : ((Integer)value).intValue());
+        }
+
+        /**
+         *  Appends a non-null value without boxing.
+         */
+        public void addInt(int value)
+        {
+            values.add(value);
+        }
+
+        @Override
+        public Object get(int row)
+        {
+            return nulls.get(row) ? null : Integer.valueOf(values.get(row));
+        }
+
+        @Override
+        public Object set(int row, Object value)
+        {
+            Object old = get(row);
+            nulls.set(row, value == null);
+            values.set(row, (value == null) ? 0 : ((Integer)value).intValue());
+            return old;
+        }
+
+        @Override
+        public int getInt(int row)
+        {
+            return values.get(row);
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            return values.get(row);
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            return values.get(row);
+        }
+
+        @Override
+        public int compareRows(int row1, int row2)
+        {
+            boolean null1 = nulls.get(row1);
+            boolean null2 = nulls.get(row2);
+            if (null1 || null2)
+                return Boolean.compare(null2, null1);
+            return Integer.compare(values.get(row1), values.get(row2));
+        }
+
+        @Override
+        public int compareValue(Object value, int row)
+        {
+            return nulls.get(row) ? 1 : Integer.compare(((Integer)value).intValue(), values.get(row));
+        }
+
+        @Override
+        public long bits(int row)
+        {
+            return values.get(row);
+        }
+
+        @Override
+        public long bits(Object value)
+        {
+            return ((Integer)value).intValue();
+        }
+
+        /**
+         *  Returns the underlying array, for tight loops.
+         */
+        public int[] array()
+        {
+            return values.getArray();
+        }
+    }
+
+
+    static final class LongColumn
+    extends PrimitiveColumn
+    {
+        protected LongArray values;
+
+        public LongColumn(int capacity)
+        {
+            values = new LongArray(capacity, 50);
+        }
+
+        @Override
+        public void add(Object value)
+        {
+            if (value == null)
+                nulls.set(values.size());
+            values.add((value == null) ? 0 : ((Long)value).longValue());
+        }
+
+        /**
+         *  Appends a non-null value without boxing.
+         */
+        public void addLong(long value)
+        {
+            values.add(value);
+        }
+
+        @Override
+        public Object get(int row)
+        {
+            return nulls.get(row) ? null : Long.valueOf(values.get(row));
+        }
+
+        @Override
+        public Object set(int row, Object value)
+        {
+            Object old = get(row);
+            nulls.set(row, value == null);
+            values.set(row, (value == null) ? 0 : ((Long)value).longValue());
+            return old;
+        }
+
+        @Override
+        public int getInt(int row)
+        {
+            return (int)values.get(row);
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            return values.get(row);
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            return values.get(row);
+        }
+
+        @Override
+        public int compareRows(int row1, int row2)
+        {
+            boolean null1 = nulls.get(row1);
+            boolean null2 = nulls.get(row2);
+            if (null1 || null2)
+                return Boolean.compare(null2, null1);
+            return Long.compare(values.get(row1), values.get(row2));
+        }
+
+        @Override
+        public int compareValue(Object value, int row)
+        {
+            return nulls.get(row) ? 1 : Long.compare(((Long)value).longValue(), values.get(row));
+        }
+
+        @Override
+        public long bits(int row)
+        {
+            return values.get(row);
+        }
+
+        @Override
+        public long bits(Object value)
+        {
+            return ((Long)value).longValue();
+        }
+
+        public long[] array()
+        {
+            return values.getArray();
+        }
+    }
+
+
+    static final class DoubleColumn
+    extends PrimitiveColumn
+    {
+        protected DoubleArray values;
+
+        public DoubleColumn(int capacity)
+        {
+            values = new DoubleArray(capacity, 50);
+        }
+
+        @Override
+        public void add(Object value)
+        {
+            if (value == null)
+                nulls.set(values.size());
+            values.add((value == null) ? 0 : ((Double)value).doubleValue());
+        }
+
+        /**
+         *  Appends a non-null value without boxing.
+         */
+        public void addDouble(double value)
+        {
+            values.add(value);
+        }
+
+        @Override
+        public Object get(int row)
+        {
+            return nulls.get(row) ? null : Double.valueOf(values.get(row));
+        }
+
+        @Override
+        public Object set(int row, Object value)
+        {
+            Object old = get(row);
+            nulls.set(row, value == null);
+            values.set(row, (value == null) ? 0 : ((Double)value).doubleValue());
+            return old;
+        }
+
+        @Override
+        public int getInt(int row)
+        {
+            return (int)values.get(row);
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            return (long)values.get(row);
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            return values.get(row);
+        }
+
+        @Override
+        public int compareRows(int row1, int row2)
+        {
+            boolean null1 = nulls.get(row1);
+            boolean null2 = nulls.get(row2);
+            if (null1 || null2)
+                return Boolean.compare(null2, null1);
+            return Double.compare(values.get(row1), values.get(row2));
+        }
+
+        @Override
+        public int compareValue(Object value, int row)
+        {
+            return nulls.get(row) ? 1 : Double.compare(((Double)value).doubleValue(), values.get(row));
+        }
+
+        @Override
+        public long bits(int row)
+        {
+            return Double.doubleToLongBits(values.get(row));
+        }
+
+        @Override
+        public long bits(Object value)
+        {
+            return Double.doubleToLongBits(((Double)value).doubleValue());
+        }
+
+        public double[] array()
+        {
+            return values.getArray();
+        }
+    }
+
+
+    /**
+     *  Stores each distinct string once, with each row holding an index into the
+     *  dictionary (-1 for null). Dictionary entries are not removed when values
+     *  are replaced.
+     */
+    static final class StringColumn
+    extends DataTableColumn
+    {
+        protected IntArray codes;
+        protected List<String> dictionary = new ArrayList<String>();
+        protected Map<String,Integer> lookup = new HashMap<String,Integer>();
+
+        public StringColumn(int capacity)
+        {
+            codes = new IntArray(capacity, 50);
+        }
+
+        @Override
+        public void add(Object value)
+        {
+            codes.add(encode((String)value));
+        }
+
+        @Override
+        public Object get(int row)
+        {
+            int code = codes.get(row);
+            return (code < 0) ? null : dictionary.get(code);
+        }
+
+        @Override
+        public Object set(int row, Object value)
+        {
+            Object old = get(row);
+            codes.set(row, encode((String)value));
+            return old;
+        }
+
+        @Override
+        public boolean isNull(int row)
+        {
+            return codes.get(row) < 0;
+        }
+
+        /**
+         *  Returns the dictionary code for a row, -1 if the row's value is null.
+         */
+        public int getCode(int row)
+        {
+            return codes.get(row);
+        }
+
+        /**
+         *  Returns the dictionary code for a value, -1 if the value does not
+         *  appear in the column (or is null).
+         */
+        public int lookupCode(String value)
+        {
+            Integer code = (value == null) ? null : lookup.get(value);
+            return (code == null) ? -1 : code.intValue();
+        }
+
+        /**
+         *  Returns the number of distinct values that have been stored in the column.
+         */
+        public int dictionarySize()
+        {
+            return dictionary.size();
+        }
+
+        /**
+         *  Returns the value for a dictionary code.
+         */
+        public String decode(int code)
+        {
+            return (code < 0) ? null : dictionary.get(code);
+        }
+
+        public int[] array()
+        {
+            return codes.getArray();
+        }
+
+        private int encode(String value)
+        {
+            if (value == null)
+                return -1;
+
+            Integer code = lookup.get(value);
+            if (code == null)
+            {
+                code = Integer.valueOf(dictionary.size());
+                dictionary.add(value);
+                lookup.put(value, code);
+            }
+            return code.intValue();
+        }
+    }
+
+
+    static final class ObjectColumn
+    extends DataTableColumn
+    {
+        protected ArrayList<Object> values;
+
+        public ObjectColumn(int capacity)
+        {
+            values = new ArrayList<Object>(capacity);
+        }
+
+        @Override
+        public void add(Object value)
+        {
+            values.add(value);
+        }
+
+        @Override
+        public Object get(int row)
+        {
+            return values.get(row);
+        }
+
+        @Override
+        public Object set(int row, Object value)
+        {
+            return values.set(row, value);
+        }
+    }
+}
@@ -0,0 +1,738 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.kdgregory.kdgcommons.buffer.BufferFacade;
+import com.kdgregory.kdgcommons.buffer.BufferFacadeFactory;
+import com.kdgregory.kdgcommons.buffer.MappedFileBuffer;
+import com.kdgregory.kdgcommons.io.IOUtil;
+
+
+/**
+ *  Reads and writes a binary file format for {@link DataTable}s. A table that's
+ *  been written with {@link #write} can be opened with {@link #open}, which maps
+ *  the file into memory using {@link MappedFileBuffer}: opening the table only
+ *  reads its header, and values are read from the OS page cache as they're
+ *  accessed. Multiple processes that open the same file share its pages.
+ *  <p>
+ *  Opened tables are read-only: <code>addRow()</code> and <code>setValue()</code>
+ *  throw <code>UnsupportedOperationException</code>. They support all other table
+ *  operations (including indexes, scans, and aggregations), and may be read by
+ *  multiple threads concurrently.
+ *  <p>
+ *  Only columns declared as <code>Integer</code>, <code>Long</code>, <code>Double
+ *  </code>, or <code>String</code> can be written.
+ *  <p>
+ *  The file consists of a header followed by a section for each column. All
+ *  values are big-endian, and each section starts on an 8-byte boundary.
+ *  <ul>
+ *  <li> The header contains a magic number, format version, row count, and
+ *       column count (all 4-byte integers); a directory entry for each column
+ *       (32 bytes: type, dictionary size, and the offsets of the column's
+ *       values, null bitmap, and dictionary); and the column names (each a
+ *       4-byte length followed by UTF-8 bytes).
+ *  <li> Fixed-width columns hold a 4- or 8-byte value per row. A column that
+ *       contains nulls also has a bitmap with one bit per row (bit 0 of byte
+ *       0 is row 0); the value of a null row is 0.
+ *  <li> String columns are dictionary-encoded: a 4-byte code per row (-1 for
+ *       null), followed by the dictionary as N+1 8-byte offsets and the UTF-8
+ *       bytes of the N distinct strings.
+ *  </ul>
+ *
+ *  @since 2.1.0
+ */
+public class DataTableFile
+{
+    private final static int MAGIC = 0x4B445442;     // "KDTB"
+    private final static int VERSION = 1;
+
+    private final static int HEADER_SIZE = 16;
+    private final static int DIRECTORY_ENTRY_SIZE = 32;
+
+    private final static int TYPE_INT    = 1;
+    private final static int TYPE_LONG   = 2;
+    private final static int TYPE_DOUBLE = 3;
+    private final static int TYPE_STRING = 4;
+
+
+    private DataTableFile()
+    {
+        // this is here to prevent instantiation
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Writes a table to the specified file, replacing any existing content.
+     *
+     *  @throws IllegalArgumentException if the table contains a column whose
+     *          class is not supported.
+     */
+    public static void write(DataTable table, File file)
+    throws IOException
+    {
+        int rowCount = table.size();
+        int colCount = table.getColumnCount();
+
+        // all offsets are computed before writing, so the file can be written
+        // in a single sequential pass
+
+        ColumnLayout[] layouts = new ColumnLayout[colCount];
+        long pos = HEADER_SIZE + (long)colCount * DIRECTORY_ENTRY_SIZE;
+        for (int col = 0 ; col < colCount ; col++)
+        {
+            layouts[col] = new ColumnLayout(table, col);
+            pos += 4 + layouts[col].name.length;
+        }
+
+        for (ColumnLayout layout : layouts)
+        {
+            pos = layout.assignOffsets(align(pos), rowCount);
+        }
+
+        OutputStream fos = new FileOutputStream(file);
+        try
+        {
+            SectionWriter out = new SectionWriter(new BufferedOutputStream(fos, 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rowCount);
+            out.writeInt(colCount);
+            for (ColumnLayout layout : layouts)
+            {
+                out.writeInt(layout.type);
+                out.writeInt(layout.dictionary.size());
+                out.writeLong(layout.valuesOffset);
+                out.writeLong(layout.nullsOffset);
+                out.writeLong(layout.dictOffset);
+            }
+            for (ColumnLayout layout : layouts)
+            {
+                out.writeInt(layout.name.length);
+                out.write(layout.name);
+            }
+            for (ColumnLayout layout : layouts)
+            {
+                layout.write(out, rowCount);
+            }
+            out.flush();
+        }
+        finally
+        {
+            IOUtil.closeQuietly(fos);
+        }
+    }
+
+
+    /**
+     *  Opens a file that was written by {@link #write}, mapping it read-only.
+     *
+     *  @throws IllegalArgumentException if the file is not a valid table file.
+     */
+    public static DataTable open(File file)
+    throws IOException
+    {
+        return open(new MappedFileBuffer(file));
+    }
+
+
+    /**
+     *  Creates a table from a buffer that holds the content of a file written
+     *  by {@link #write}. The buffer must use big-endian byte order (its default).
+     *  The table accesses the buffer through thread-local clones, so the passed
+     *  buffer may continue to be used by the caller's thread.
+     *
+     *  @throws IllegalArgumentException if the buffer does not contain a valid
+     *          table file.
+     */
+    public static DataTable open(MappedFileBuffer mapped)
+    {
+        if (mapped.capacity() < HEADER_SIZE)
+            throw new IllegalArgumentException("not a table file: too small");
+        if (mapped.getByteOrder() != ByteOrder.BIG_ENDIAN)
+            throw new IllegalArgumentException("buffer must be big-endian");
+
+        BufferFacade buf = BufferFacadeFactory.createThreadsafe(mapped);
+        if (buf.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("not a table file: invalid magic number");
+        if (buf.getInt(4) != VERSION)
+            throw new IllegalArgumentException("unsupported file version: " + buf.getInt(4));
+
+        int rowCount = buf.getInt(8);
+        int colCount = buf.getInt(12);
+
+        String[] names = new String[colCount];
+        long pos = HEADER_SIZE + (long)colCount * DIRECTORY_ENTRY_SIZE;
+        for (int col = 0 ; col < colCount ; col++)
+        {
+            int len = buf.getInt(pos);
+            names[col] = new String(buf.getBytes(pos + 4, len), StandardCharsets.UTF_8);
+            pos += 4 + len;
+        }
+
+        Class<?>[] classes = new Class<?>[colCount];
+        DataTableColumn[] columns = new DataTableColumn[colCount];
+        for (int col = 0 ; col < colCount ; col++)
+        {
+            long entry = HEADER_SIZE + (long)col * DIRECTORY_ENTRY_SIZE;
+            int type = buf.getInt(entry);
+            int dictSize = buf.getInt(entry + 4);
+            long valuesOffset = buf.getLong(entry + 8);
+            long nullsOffset = buf.getLong(entry + 16);
+            long dictOffset = buf.getLong(entry + 24);
+            switch (type)
+            {
+                case TYPE_INT :
+                    classes[col] = Integer.class;
+                    columns[col] = new MappedIntColumn(buf, valuesOffset, nullsOffset);
+                    break;
+                case TYPE_LONG :
+                    classes[col] = Long.class;
+                    columns[col] = new MappedLongColumn(buf, valuesOffset, nullsOffset);
+                    break;
+                case TYPE_DOUBLE :
+                    classes[col] = Double.class;
+                    columns[col] = new MappedDoubleColumn(buf, valuesOffset, nullsOffset);
+                    break;
+                case TYPE_STRING :
+                    classes[col] = String.class;
+                    columns[col] = new MappedStringColumn(buf, valuesOffset, dictOffset, dictSize);
+                    break;
+                default :
+                    throw new IllegalArgumentException("invalid type for column " + col + ": " + type);
+            }
+        }
+
+        return new DataTable(names, classes, columns, rowCount);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- writing
+//----------------------------------------------------------------------------
+
+    private static long align(long pos)
+    {
+        return (pos + 7) & ~7L;
+    }
+
+
+    /**
+     *  Writes primitive values, tracking the current position in the file so
+     *  that sections can be padded to their assigned offsets.
+     */
+    private static class SectionWriter
+    {
+        private DataOutputStream out;
+        private long position;
+
+        public SectionWriter(OutputStream out)
+        {
+            this.out = new DataOutputStream(out);
+        }
+
+        public void write(int b)
+        throws IOException
+        {
+            out.write(b);
+            position++;
+        }
+
+        public void write(byte[] b)
+        throws IOException
+        {
+            out.write(b);
+            position += b.length;
+        }
+
+        public void writeInt(int value)
+        throws IOException
+        {
+            out.writeInt(value);
+            position += 4;
+        }
+
+        public void writeLong(long value)
+        throws IOException
+        {
+            out.writeLong(value);
+            position += 8;
+        }
+
+        public void writeDouble(double value)
+        throws IOException
+        {
+            out.writeDouble(value);
+            position += 8;
+        }
+
+        public void flush()
+        throws IOException
+        {
+            out.flush();
+        }
+
+        /**
+         *  Pads the file with zeros until it reaches the specified offset.
+         */
+        public void seek(long offset)
+        throws IOException
+        {
+            if (offset < position)
+                throw new IllegalStateException("section overlaps previous: " + offset + " < " + position);
+            while (position < offset)
+                write(0);
+        }
+    }
+
+
+    /**
+     *  Determines the size and placement of a column's sections, then writes
+     *  them.
+     */
+    private static class ColumnLayout
+    {
+        public byte[] name;
+        public int type;
+        public DataTableColumn column;
+        public boolean hasNulls;
+        public int[] codes;
+        public List<byte[]> dictionary = new ArrayList<byte[]>();
+
+        public long valuesOffset;
+        public long nullsOffset;
+        public long dictOffset;
+
+        public ColumnLayout(DataTable table, int col)
+        {
+            name = table.getColumnName(col).getBytes(StandardCharsets.UTF_8);
+            column = table.column(col);
+
+            Class<?> colClass = table.getColumnClass(col);
+            type = (colClass == Integer.class) ? TYPE_INT
+                 : (colClass == Long.class)    ? TYPE_LONG
+                 : (colClass == Double.class)  ? TYPE_DOUBLE
+                 : (colClass == String.class)  ? TYPE_STRING
+                                               : 0;
+            if (type == 0)
+                throw new IllegalArgumentException(
+                        "unsupported class for column " + col + ": "
+                        + ((colClass == null) ? "null" : colClass.getName()));
+
+            int rowCount = table.size();
+            if (type == TYPE_STRING)
+                encodeStrings(rowCount);
+            else
+            {
+                for (int row = 0 ; (row < rowCount) && ! hasNulls ; row++)
+                {
+                    hasNulls = column.isNull(row);
+                }
+            }
+        }
+
+        /**
+         *  Assigns the offsets of each section, starting at the passed position,
+         *  and returns the position after the last section.
+         */
+        public long assignOffsets(long pos, int rowCount)
+        {
+            valuesOffset = pos;
+            pos = align(pos + (long)rowCount * valueSize());
+
+            if (hasNulls)
+            {
+                nullsOffset = pos;
+                pos = align(pos + (rowCount + 7) / 8);
+            }
+
+            if (type == TYPE_STRING)
+            {
+                dictOffset = pos;
+                pos += (dictionary.size() + 1) * 8L;
+                for (byte[] value : dictionary)
+                {
+                    pos += value.length;
+                }
+                pos = align(pos);
+            }
+
+            return pos;
+        }
+
+        public void write(SectionWriter out, int rowCount)
+        throws IOException
+        {
+            out.seek(valuesOffset);
+            for (int row = 0 ; row < rowCount ; row++)
+            {
+                switch (type)
+                {
+                    case TYPE_INT :
+                        out.writeInt(column.getInt(row));
+                        break;
+                    case TYPE_LONG :
+                        out.writeLong(column.getLong(row));
+                        break;
+                    case TYPE_DOUBLE :
+                        out.writeDouble(column.getDouble(row));
+                        break;
+                    default :
+                        out.writeInt(codes[row]);
+                }
+            }
+
+            if (hasNulls)
+            {
+                out.seek(nullsOffset);
+                for (int base = 0 ; base < rowCount ; base += 8)
+                {
+                    int bits = 0;
+                    for (int bit = 0 ; (bit < 8) && (base + bit < rowCount) ; bit++)
+                    {
+                        if (column.isNull(base + bit))
+                            bits |= 1 << bit;
+                    }
+                    out.write(bits);
+                }
+            }
+
+            if (type == TYPE_STRING)
+            {
+                out.seek(dictOffset);
+                long offset = 0;
+                out.writeLong(offset);
+                for (byte[] value : dictionary)
+                {
+                    offset += value.length;
+                    out.writeLong(offset);
+                }
+                for (byte[] value : dictionary)
+                {
+                    out.write(value);
+                }
+            }
+        }
+
+        private int valueSize()
+        {
+            return ((type == TYPE_LONG) || (type == TYPE_DOUBLE)) ? 8 : 4;
+        }
+
+        /**
+         *  Builds the dictionary and per-row codes. For in-memory columns, this
+         *  reuses the column's own dictionary.
+         */
+        private void encodeStrings(int rowCount)
+        {
+            if (column instanceof DataTableColumn.StringColumn)
+            {
+                DataTableColumn.StringColumn strings = (DataTableColumn.StringColumn)column;
+                codes = strings.array();
+                for (int code = 0 ; code < strings.dictionarySize() ; code++)
+                {
+                    dictionary.add(strings.decode(code).getBytes(StandardCharsets.UTF_8));
+                }
+                return;
+            }
+
+            codes = new int[rowCount];
+            Map<Object,Integer> lookup = new HashMap<Object,Integer>();
+            for (int row = 0 ; row < rowCount ; row++)
+            {
+                String value = (String)column.get(row);
+                if (value == null)
+                {
+                    codes[row] = -1;
+                    continue;
+                }
+
+                Integer code = lookup.get(value);
+                if (code == null)
+                {
+                    code = Integer.valueOf(dictionary.size());
+                    dictionary.add(value.getBytes(StandardCharsets.UTF_8));
+                    lookup.put(value, code);
+                }
+                codes[row] = code.intValue();
+            }
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- mapped columns
+//----------------------------------------------------------------------------
+
+    /**
+     *  Common code for fixed-width columns. These extend the in-memory primitive
+     *  column so that indexes and aggregations can group their values without
+     *  boxing.
+     */
+    private static abstract class MappedPrimitiveColumn
+    extends DataTableColumn.PrimitiveColumn
+    {
+        protected BufferFacade buf;
+        protected long valuesOffset;
+        protected long nullsOffset;
+
+        protected MappedPrimitiveColumn(BufferFacade buf, long valuesOffset, long nullsOffset)
+        {
+            this.buf = buf;
+            this.valuesOffset = valuesOffset;
+            this.nullsOffset = nullsOffset;
+        }
+
+        @Override
+        public boolean isNull(int row)
+        {
+            return (nullsOffset != 0)
+                && ((buf.get(nullsOffset + (row >>> 3)) & (1 << (row & 7))) != 0);
+        }
+
+        @Override
+        public boolean hasNulls()
+        {
+            return nullsOffset != 0;
+        }
+
+        @Override
+        public void add(Object value)
+        {
+            throw new UnsupportedOperationException("table is read-only");
+        }
+
+        @Override
+        public Object set(int row, Object value)
+        {
+            throw new UnsupportedOperationException("table is read-only");
+        }
+    }
+
+
+    private static class MappedIntColumn
+    extends MappedPrimitiveColumn
+    {
+        public MappedIntColumn(BufferFacade buf, long valuesOffset, long nullsOffset)
+        {
+            super(buf, valuesOffset, nullsOffset);
+        }
+
+        @Override
+        public Object get(int row)
+        {
+            return isNull(row) ? null : Integer.valueOf(getInt(row));
+        }
+
+        @Override
+        public int getInt(int row)
+        {
+            return buf.getInt(valuesOffset + row * 4L);
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            return getInt(row);
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            return getInt(row);
+        }
+
+        @Override
+        public long bits(int row)
+        {
+            return getInt(row);
+        }
+
+        @Override
+        public long bits(Object value)
+        {
+            return ((Integer)value).intValue();
+        }
+    }
+
+
+    private static class MappedLongColumn
+    extends MappedPrimitiveColumn
+    {
+        public MappedLongColumn(BufferFacade buf, long valuesOffset, long nullsOffset)
+        {
+            super(buf, valuesOffset, nullsOffset);
+        }
+
+        @Override
+        public Object get(int row)
+        {
+            return isNull(row) ? null : Long.valueOf(getLong(row));
+        }
+
+        @Override
+        public int getInt(int row)
+        {
+            return (int)getLong(row);
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            return buf.getLong(valuesOffset + row * 8L);
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            return getLong(row);
+        }
+
+        @Override
+        public long bits(int row)
+        {
+            return getLong(row);
+        }
+
+        @Override
+        public long bits(Object value)
+        {
+            return ((Long)value).longValue();
+        }
+    }
+
+
+    private static class MappedDoubleColumn
+    extends MappedPrimitiveColumn
+    {
+        public MappedDoubleColumn(BufferFacade buf, long valuesOffset, long nullsOffset)
+        {
+            super(buf, valuesOffset, nullsOffset);
+        }
+
+        @Override
+        public Object get(int row)
+        {
+            return isNull(row) ? null : Double.valueOf(getDouble(row));
+        }
+
+        @Override
+        public int getInt(int row)
+        {
+            return (int)getDouble(row);
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            return (long)getDouble(row);
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            return buf.getDouble(valuesOffset + row * 8L);
+        }
+
+        @Override
+        public long bits(int row)
+        {
+            return Double.doubleToLongBits(getDouble(row));
+        }
+
+        @Override
+        public long bits(Object value)
+        {
+            return Double.doubleToLongBits(((Double)value).doubleValue());
+        }
+    }
+
+
+    /**
+     *  A dictionary-encoded string column. Dictionary entries are decoded on first
+     *  access and cached; concurrent threads may decode the same entry, but will
+     *  produce equal strings.
+     */
+    private static class MappedStringColumn
+    extends DataTableColumn
+    {
+        private BufferFacade buf;
+        private long codesOffset;
+        private long dictOffset;
+        private long dictDataOffset;
+        private String[] decoded;
+
+        public MappedStringColumn(BufferFacade buf, long codesOffset, long dictOffset, int dictSize)
+        {
+            this.buf = buf;
+            this.codesOffset = codesOffset;
+            this.dictOffset = dictOffset;
+            this.dictDataOffset = dictOffset + (dictSize + 1) * 8L;
+            this.decoded = new String[dictSize];
+        }
+
+        @Override
+        public Object get(int row)
+        {
+            int code = buf.getInt(codesOffset + row * 4L);
+            return (code < 0) ? null : decode(code);
+        }
+
+        @Override
+        public boolean isNull(int row)
+        {
+            return buf.getInt(codesOffset + row * 4L) < 0;
+        }
+
+        @Override
+        public void add(Object value)
+        {
+            throw new UnsupportedOperationException("table is read-only");
+        }
+
+        @Override
+        public Object set(int row, Object value)
+        {
+            throw new UnsupportedOperationException("table is read-only");
+        }
+
+        private String decode(int code)
+        {
+            String value = decoded[code];
+            if (value == null)
+            {
+                long start = buf.getLong(dictOffset + code * 8L);
+                long end = buf.getLong(dictOffset + (code + 1) * 8L);
+                byte[] bytes = buf.getBytes(dictDataOffset + start, (int)(end - start));
+                value = new String(bytes, StandardCharsets.UTF_8);
+                decoded[code] = value;
+            }
+            return value;
+        }
+    }
+}
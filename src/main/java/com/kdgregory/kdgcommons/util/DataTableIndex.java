@@ -0,0 +1,530 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.kdgregory.kdgcommons.collections.BinarySearch;
+import com.kdgregory.kdgcommons.collections.InplaceSort;
+
+
+/**
+ *  A secondary index on a single column of a {@link DataTable}, created by
+ *  {@link DataTable#createHashIndex} or {@link DataTable#createSortedIndex}.
+ *  An index maps column values to row numbers, so that finding matching rows
+ *  does not require examining every row of the table.
+ *  <p>
+ *  Indexes are snapshots: they are not updated when the table changes. Using
+ *  an index after its table has been modified (via <code>addRow()</code> or
+ *  <code>setValue()</code>) throws <code>ConcurrentModificationException</code>.
+ *  <p>
+ *  Instances are not thread-safe.
+ *
+ *  @since 2.1.0
+ */
+public abstract class DataTableIndex
+{
+    protected DataTable table;
+    protected int col;
+    protected int modCount;
+
+
+    protected DataTableIndex(DataTable table, int col)
+    {
+        this.table = table;
+        this.col = col;
+        this.modCount = table.getModCount();
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the table that this index was built from.
+     */
+    public DataTable getTable()
+    {
+        return table;
+    }
+
+
+    /**
+     *  Returns the indexed column.
+     */
+    public int getColumn()
+    {
+        return col;
+    }
+
+
+    /**
+     *  Returns true if the table has not been modified since this index was
+     *  built.
+     */
+    public boolean isValid()
+    {
+        return modCount == table.getModCount();
+    }
+
+
+    /**
+     *  Returns the rows whose value in the indexed column equals the passed
+     *  value (which may be null), in ascending order. Returns an empty array
+     *  if there are no matches, including when the value is not an instance
+     *  of the column's class.
+     *
+     *  @throws ConcurrentModificationException if the table has been modified
+     *          since the index was built.
+     */
+    public abstract int[] lookup(Object value);
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    protected void checkValid()
+    {
+        if (! isValid())
+            throw new ConcurrentModificationException("table modified after index built");
+    }
+
+
+    /**
+     *  Determines whether a non-null value could appear in the indexed column.
+     */
+    protected boolean isCompatible(Object value)
+    {
+        Class<?> colClass = table.getColumnClass(col);
+        return (colClass == null) || colClass.isInstance(value);
+    }
+
+//----------------------------------------------------------------------------
+//  Implementations
+//----------------------------------------------------------------------------
+
+    /**
+     *  An index that supports equality lookups. Each distinct value is assigned
+     *  a group, and the rows for each group are stored contiguously in a single
+     *  array (so a lookup is a hash probe followed by an array copy).
+     *  <p>
+     *  Dictionary-encoded <code>String</code> columns use the dictionary code as
+     *  the group, so building the index does not hash any strings. Primitive
+     *  columns use an open-addressed table of <code>long</code> keys, so do not
+     *  box their values.
+     */
+    public static final class HashIndex
+    extends DataTableIndex
+    {
+        private DataTableColumn column;
+        private LongGroupTable primitiveGroups;
+        private Map<Object,Integer> objectGroups;
+        private int nullGroup;
+        private int[] groupStart;
+        private int[] groupRows;
+
+
+        HashIndex(DataTable table, int col)
+        {
+            super(table, col);
+            column = table.column(col);
+
+            int size = table.size();
+            int[] rowGroups = new int[size];
+            int groupCount = assignGroups(size, rowGroups);
+
+            // counting sort of rows by group; rows within a group remain ascending
+            groupStart = new int[groupCount + 1];
+            for (int row = 0 ; row < size ; row++)
+            {
+                groupStart[rowGroups[row] + 1]++;
+            }
+            for (int group = 0 ; group < groupCount ; group++)
+            {
+                groupStart[group + 1] += groupStart[group];
+            }
+
+            int[] next = Arrays.copyOf(groupStart, groupCount);
+            groupRows = new int[size];
+            for (int row = 0 ; row < size ; row++)
+            {
+                groupRows[next[rowGroups[row]]++] = row;
+            }
+        }
+
+
+        @Override
+        public int[] lookup(Object value)
+        {
+            checkValid();
+            int group = findGroup(value);
+            return (group < 0)
+                 ? new int[0]
+                 : Arrays.copyOfRange(groupRows, groupStart[group], groupStart[group + 1]);
+        }
+
+
+        /**
+         *  Returns the number of rows that would be returned by {@link #lookup},
+         *  without copying them.
+         */
+        public int count(Object value)
+        {
+            checkValid();
+            int group = findGroup(value);
+            return (group < 0) ? 0 : groupStart[group + 1] - groupStart[group];
+        }
+
+
+        /**
+         *  Returns the number of distinct values (including null, if present)
+         *  in the indexed column.
+         */
+        public int distinctCount()
+        {
+            checkValid();
+            int count = 0;
+            for (int group = 0 ; group < groupStart.length - 1 ; group++)
+            {
+                if (groupStart[group + 1] > groupStart[group])
+                    count++;
+            }
+            return count;
+        }
+
+
+        /**
+         *  Fills the passed array with a group number for each row, and returns
+         *  the number of groups. Null values get their own group.
+         */
+        private int assignGroups(int size, int[] rowGroups)
+        {
+            if (column instanceof DataTableColumn.StringColumn)
+            {
+                DataTableColumn.StringColumn strings = (DataTableColumn.StringColumn)column;
+                int[] codes = strings.array();
+                nullGroup = strings.dictionarySize();
+                for (int row = 0 ; row < size ; row++)
+                {
+                    int code = codes[row];
+                    rowGroups[row] = (code < 0) ? nullGroup : code;
+                }
+                return nullGroup + 1;
+            }
+
+            if (column instanceof DataTableColumn.PrimitiveColumn)
+            {
+                DataTableColumn.PrimitiveColumn primitives = (DataTableColumn.PrimitiveColumn)column;
+                boolean hasNulls = primitives.hasNulls();
+                // sized for the distinct values, not the rows; the table grows as needed
+                primitiveGroups = new LongGroupTable(16);
+                nullGroup = -1;
+                int groupCount = 0;
+                for (int row = 0 ; row < size ; row++)
+                {
+                    if (hasNulls && primitives.isNull(row))
+                    {
+                        if (nullGroup < 0)
+                            nullGroup = groupCount++;
+                        rowGroups[row] = nullGroup;
+                    }
+                    else
+                    {
+                        int group = primitiveGroups.putIfAbsent(primitives.bits(row), groupCount);
+                        if (group == groupCount)
+                            groupCount++;
+                        rowGroups[row] = group;
+                    }
+                }
+                return groupCount;
+            }
+
+            objectGroups = new HashMap<Object,Integer>();
+            nullGroup = -1;
+            int groupCount = 0;
+            for (int row = 0 ; row < size ; row++)
+            {
+                Object value = column.get(row);
+                if (value == null)
+                {
+                    if (nullGroup < 0)
+                        nullGroup = groupCount++;
+                    rowGroups[row] = nullGroup;
+                }
+                else
+                {
+                    Integer group = objectGroups.get(value);
+                    if (group == null)
+                    {
+                        group = Integer.valueOf(groupCount++);
+                        objectGroups.put(value, group);
+                    }
+                    rowGroups[row] = group.intValue();
+                }
+            }
+            return groupCount;
+        }
+
+
+        /**
+         *  Returns the group for a value, -1 if there are no rows with that value.
+         */
+        private int findGroup(Object value)
+        {
+            if (value == null)
+                return nullGroup;
+            if (! isCompatible(value))
+                return -1;
+
+            if (column instanceof DataTableColumn.StringColumn)
+                return ((DataTableColumn.StringColumn)column).lookupCode((String)value);
+
+            if (primitiveGroups != null)
+                return primitiveGroups.get(((DataTableColumn.PrimitiveColumn)column).bits(value));
+
+            Integer group = objectGroups.get(value);
+            return (group == null) ? -1 : group.intValue();
+        }
+    }
+
+
+    /**
+     *  An index that supports equality and range lookups. Holds the table's row
+     *  numbers sorted by the value of the indexed column, with nulls first and
+     *  ties broken by row number; lookups are binary searches of this array.
+     *  <p>
+     *  The column's values must be <code>Comparable</code>.
+     */
+    public static final class SortedIndex
+    extends DataTableIndex
+    {
+        private DataTableColumn column;
+        private int[] sortedRows;
+        private int nullCount;
+
+
+        SortedIndex(DataTable table, int col)
+        {
+            super(table, col);
+            column = table.column(col);
+
+            int size = table.size();
+            sortedRows = new int[size];
+            for (int row = 0 ; row < size ; row++)
+            {
+                sortedRows[row] = row;
+                if (column.isNull(row))
+                    nullCount++;
+            }
+
+            InplaceSort.sort(sortedRows, new InplaceSort.IntComparator()
+            {
+                @Override
+                public int compare(int row1, int row2)
+                {
+                    int cmp = column.compareRows(row1, row2);
+                    return (cmp != 0) ? cmp : Integer.compare(row1, row2);
+                }
+            });
+        }
+
+
+        @Override
+        public int[] lookup(Object value)
+        {
+            checkValid();
+            if (value == null)
+                return Arrays.copyOf(sortedRows, nullCount);
+            if (! isCompatible(value))
+                return new int[0];
+
+            return Arrays.copyOfRange(sortedRows, lowerBound(value), upperBound(value));
+        }
+
+
+        /**
+         *  Returns the rows whose values fall within a range, ordered by value
+         *  (ties in ascending row order). Rows with null values are never part
+         *  of a range.
+         *
+         *  @param  from            The lower bound of the range; null for no
+         *                          lower bound.
+         *  @param  fromInclusive   If true, rows equal to <code>from</code> are
+         *                          included.
+         *  @param  to              The upper bound of the range; null for no
+         *                          upper bound.
+         *  @param  toInclusive     If true, rows equal to <code>to</code> are
+         *                          included.
+         *
+         *  @throws ConcurrentModificationException if the table has been modified
+         *          since the index was built.
+         */
+        public int[] range(Object from, boolean fromInclusive, Object to, boolean toInclusive)
+        {
+            checkValid();
+            if (((from != null) && ! isCompatible(from)) || ((to != null) && ! isCompatible(to)))
+                return new int[0];
+
+            int start = (from == null) ? nullCount
+                      : fromInclusive  ? lowerBound(from)
+                                       : upperBound(from);
+            int end   = (to == null)   ? sortedRows.length
+                      : toInclusive    ? upperBound(to)
+                                       : lowerBound(to);
+
+            return (end > start) ? Arrays.copyOfRange(sortedRows, start, end) : new int[0];
+        }
+
+
+        /**
+         *  Returns all rows of the table, ordered by the indexed column.
+         */
+        public int[] sortedRows()
+        {
+            checkValid();
+            return sortedRows.clone();
+        }
+
+
+        /**
+         *  Returns the position of the first row whose value is &gt;= the passed
+         *  value.
+         */
+        private int lowerBound(Object value)
+        {
+            int pos = BinarySearch.search(sortedRows, value, new BinarySearch.IndexedComparator<Object>()
+            {
+                @Override
+                public int compare(Object v, int row)
+                {
+                    return column.compareValue(v, row);
+                }
+            });
+            return (pos >= 0) ? pos : -pos - 1;
+        }
+
+
+        /**
+         *  Returns the position of the first row whose value is &gt; the passed
+         *  value. The comparator never reports equality, so the search always
+         *  returns an insertion point.
+         */
+        private int upperBound(Object value)
+        {
+            int pos = BinarySearch.search(sortedRows, value, new BinarySearch.IndexedComparator<Object>()
+            {
+                @Override
+                public int compare(Object v, int row)
+                {
+                    int cmp = column.compareValue(v, row);
+                    return (cmp == 0) ? 1 : cmp;
+                }
+            });
+            return -pos - 1;
+        }
+    }
+
+
+    /**
+     *  An open-addressed map from <code>long</code> keys to non-negative group
+     *  numbers, used to group primitive columns without boxing. Also used by
+     *  {@link DataTableAggregation}.
+     */
+    static class LongGroupTable
+    {
+        private long[] keys;
+        private int[] groups;
+        private int mask;
+        private int count;
+
+        public LongGroupTable(int expectedSize)
+        {
+            int capacity = 16;
+            while (capacity < expectedSize * 2)
+                capacity <<= 1;
+            allocate(capacity);
+        }
+
+        /**
+         *  Returns the group for a key, -1 if the key is not present.
+         */
+        public int get(long key)
+        {
+            for (int slot = slot(key) ; ; slot = (slot + 1) & mask)
+            {
+                if (groups[slot] < 0)
+                    return -1;
+                if (keys[slot] == key)
+                    return groups[slot];
+            }
+        }
+
+        /**
+         *  Returns the existing group for a key, or stores and returns the
+         *  passed group if the key is not present.
+         */
+        public int putIfAbsent(long key, int group)
+        {
+            for (int slot = slot(key) ; ; slot = (slot + 1) & mask)
+            {
+                if (groups[slot] < 0)
+                {
+                    keys[slot] = key;
+                    groups[slot] = group;
+                    if (++count * 2 > keys.length)
+                        rehash();
+                    return group;
+                }
+                if (keys[slot] == key)
+                    return groups[slot];
+            }
+        }
+
+        private int slot(long key)
+        {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int)(hash ^ (hash >>> 32)) & mask;
+        }
+
+        private void allocate(int capacity)
+        {
+            keys = new long[capacity];
+            groups = new int[capacity];
+            Arrays.fill(groups, -1);
+            mask = capacity - 1;
+        }
+
+        private void rehash()
+        {
+            long[] oldKeys = keys;
+            int[] oldGroups = groups;
+            allocate(keys.length * 2);
+            for (int ii = 0 ; ii < oldKeys.length ; ii++)
+            {
+                if (oldGroups[ii] >= 0)
+                {
+                    int slot = slot(oldKeys[ii]);
+                    while (groups[slot] >= 0)
+                        slot = (slot + 1) & mask;
+                    keys[slot] = oldKeys[ii];
+                    groups[slot] = oldGroups[ii];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,566 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ *  Static methods to create a {@link DataTable} from a JDBC <code>ResultSet</code>
+ *  or a CSV file. These methods stream values directly into the table's column
+ *  storage: they don't build intermediate rows or maps, and values of <code>
+ *  Integer</code>, <code>Long</code>, and <code>Double</code> columns are never
+ *  boxed. The table's storage may be pre-sized by passing the expected number of
+ *  rows.
+ *
+ *  @since 2.1.0
+ */
+public class DataTableLoader
+{
+    /**
+     *  The number of rows allocated when the caller doesn't provide an estimate.
+     */
+    private final static int DEFAULT_CAPACITY = 1024;
+
+    // identifies how values are retrieved/parsed for a column
+    private final static int KIND_INT    = 0;
+    private final static int KIND_LONG   = 1;
+    private final static int KIND_DOUBLE = 2;
+    private final static int KIND_STRING = 3;
+    private final static int KIND_OBJECT = 4;
+
+
+    private DataTableLoader()
+    {
+        // this is here to prevent instantiation
+    }
+
+//----------------------------------------------------------------------------
+//  JDBC
+//----------------------------------------------------------------------------
+
+    /**
+     *  Reads the remaining rows of a <code>ResultSet</code> into a new table,
+     *  using a default initial capacity.
+     *
+     *  @see #fromResultSet(ResultSet,int)
+     */
+    public static DataTable fromResultSet(ResultSet rslt)
+    throws SQLException
+    {
+        return fromResultSet(rslt, DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     *  Reads the remaining rows of a <code>ResultSet</code> into a new table.
+     *  Column names are the column labels from the result's metadata (which
+     *  reflect any aliases in the query), and column classes are determined
+     *  from the SQL type:
+     *  <ul>
+     *  <li> <code>TINYINT</code>, <code>SMALLINT</code>, and <code>INTEGER</code>
+     *       columns are <code>Integer</code>.
+     *  <li> <code>BIGINT</code> columns are <code>Long</code>.
+     *  <li> <code>REAL</code>, <code>FLOAT</code>, and <code>DOUBLE</code>
+     *       columns are <code>Double</code>.
+     *  <li> Character columns (including the national character types, but
+     *       not <code>CLOB</code>s) are <code>String</code>.
+     *  <li> All other columns hold whatever is returned by <code>getObject()
+     *       </code>, without a declared class.
+     *  </ul>
+     *  <p>
+     *  Caller is responsible for closing the <code>ResultSet</code> after use.
+     *
+     *  @param  rslt            The source of the data.
+     *  @param  expectedRows    The number of rows to pre-allocate.
+     */
+    public static DataTable fromResultSet(ResultSet rslt, int expectedRows)
+    throws SQLException
+    {
+        ResultSetMetaData meta = rslt.getMetaData();
+        int colCount = meta.getColumnCount();
+
+        String[] names = new String[colCount];
+        Class<?>[] classes = new Class<?>[colCount];
+        int[] kinds = new int[colCount];
+        for (int col = 0 ; col < colCount ; col++)
+        {
+            names[col] = meta.getColumnLabel(col + 1);
+            kinds[col] = kindForSqlType(meta.getColumnType(col + 1));
+            classes[col] = classForKind(kinds[col]);
+        }
+
+        DataTable table = new DataTable(names, classes, expectedRows);
+        DataTableColumn[] columns = columns(table);
+        while (rslt.next())
+        {
+            for (int col = 0 ; col < colCount ; col++)
+            {
+                int idx = col + 1;
+                DataTableColumn column = columns[col];
+                switch (kinds[col])
+                {
+                    case KIND_INT :
+                        int intValue = rslt.getInt(idx);
+                        if (rslt.wasNull())
+                            column.add(null);
+                        else
+                            ((DataTableColumn.IntColumn)column).addInt(intValue);
+                        break;
+                    case KIND_LONG :
+                        long longValue = rslt.getLong(idx);
+                        if (rslt.wasNull())
+                            column.add(null);
+                        else
+                            ((DataTableColumn.LongColumn)column).addLong(longValue);
+                        break;
+                    case KIND_DOUBLE :
+                        double doubleValue = rslt.getDouble(idx);
+                        if (rslt.wasNull())
+                            column.add(null);
+                        else
+                            ((DataTableColumn.DoubleColumn)column).addDouble(doubleValue);
+                        break;
+                    case KIND_STRING :
+                        column.add(rslt.getString(idx));
+                        break;
+                    default :
+                        column.add(rslt.getObject(idx));
+                }
+            }
+            table.rowAppended();
+        }
+
+        return table;
+    }
+
+//----------------------------------------------------------------------------
+//  CSV
+//----------------------------------------------------------------------------
+
+    /**
+     *  Reads a comma-separated file from an <code>InputStream</code>, using a
+     *  default initial capacity.
+     *
+     *  @see #fromCSV(Reader,char,Class[],int)
+     */
+    public static DataTable fromCSV(InputStream in, Charset charset, Class<?>[] colClasses)
+    throws IOException
+    {
+        return fromCSV(new InputStreamReader(in, charset), ',', colClasses, DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     *  Reads a delimited file into a new table. The file follows RFC 4180:
+     *  <ul>
+     *  <li> The first record is a header that provides the column names.
+     *  <li> Records are separated by LF or CRLF; blank lines are ignored.
+     *  <li> Fields may be quoted with double-quotes, in which case they may
+     *       contain separators, line breaks, and (doubled) quotes.
+     *  </ul>
+     *  An empty field is null; a quoted empty field in a <code>String</code>
+     *  column is an empty string. Numeric fields are parsed as they're read;
+     *  string fields are stored in the table's dictionary, so repeated values
+     *  do not consume additional memory.
+     *  <p>
+     *  The reader is not closed.
+     *
+     *  @param  in              The source of the data.
+     *  @param  separator       The character that separates fields; typically
+     *                          a comma or tab.
+     *  @param  colClasses      The classes of the columns, which must match the
+     *                          number of columns in the header. May be <code>
+     *                          null</code>, in which case all columns are strings.
+     *                          Supported classes are <code>Integer</code>, <code>
+     *                          Long</code>, <code>Double</code>, and <code>String
+     *                          </code>; a <code>null</code> element is treated as
+     *                          <code>String</code>.
+     *  @param  expectedRows    The number of rows to pre-allocate.
+     *
+     *  @throws IllegalArgumentException if a column class is not supported, or
+     *          if the file is malformed (incorrect number of fields, unterminated
+     *          quote, or an unparseable number); the message identifies the line.
+     */
+    public static DataTable fromCSV(Reader in, char separator, Class<?>[] colClasses, int expectedRows)
+    throws IOException
+    {
+        CSVParser parser = new CSVParser(in, separator);
+
+        String[] names = parser.readHeader();
+        if (names == null)
+            throw new IllegalArgumentException("missing header");
+        if ((colClasses != null) && (colClasses.length != names.length))
+            throw new IllegalArgumentException(
+                    "header has " + names.length + " columns, " + colClasses.length + " classes provided");
+
+        Class<?>[] classes = new Class<?>[names.length];
+        int[] kinds = new int[names.length];
+        for (int col = 0 ; col < names.length ; col++)
+        {
+            Class<?> colClass = (colClasses != null) ? colClasses[col] : null;
+            kinds[col] = (colClass == null) ? KIND_STRING : kindForClass(colClass);
+            if (kinds[col] == KIND_OBJECT)
+                throw new IllegalArgumentException("unsupported class for column " + col + ": " + colClass.getName());
+            classes[col] = classForKind(kinds[col]);
+        }
+
+        DataTable table = new DataTable(names, classes, expectedRows);
+        DataTableColumn[] columns = columns(table);
+        while (parser.startRecord())
+        {
+            int col = 0;
+            int term;
+            do
+            {
+                term = parser.nextField();
+                if (col >= columns.length)
+                    throw parser.error("expected " + columns.length + " fields, got more");
+
+                StringBuilder field = parser.field;
+                DataTableColumn column = columns[col];
+                if ((field.length() == 0) && ! ((kinds[col] == KIND_STRING) && parser.quoted))
+                {
+                    column.add(null);
+                }
+                else
+                {
+                    switch (kinds[col])
+                    {
+                        case KIND_INT :
+                            ((DataTableColumn.IntColumn)column).addInt(
+                                    (int)parser.parseLong(Integer.MIN_VALUE, Integer.MAX_VALUE));
+                            break;
+                        case KIND_LONG :
+                            ((DataTableColumn.LongColumn)column).addLong(
+                                    parser.parseLong(Long.MIN_VALUE, Long.MAX_VALUE));
+                            break;
+                        case KIND_DOUBLE :
+                            ((DataTableColumn.DoubleColumn)column).addDouble(parser.parseDouble());
+                            break;
+                        default :
+                            column.add(field.toString());
+                    }
+                }
+                col++;
+            }
+            while (term == CSVParser.SEPARATOR);
+
+            if (col != columns.length)
+                throw parser.error("expected " + columns.length + " fields, got " + col);
+
+            table.rowAppended();
+        }
+
+        return table;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private static int kindForSqlType(int sqlType)
+    {
+        switch (sqlType)
+        {
+            case Types.TINYINT :
+            case Types.SMALLINT :
+            case Types.INTEGER :
+                return KIND_INT;
+            case Types.BIGINT :
+                return KIND_LONG;
+            case Types.REAL :
+            case Types.FLOAT :
+            case Types.DOUBLE :
+                return KIND_DOUBLE;
+            case Types.CHAR :
+            case Types.VARCHAR :
+            case Types.LONGVARCHAR :
+            case Types.NCHAR :
+            case Types.NVARCHAR :
+            case Types.LONGNVARCHAR :
+                return KIND_STRING;
+            default :
+                return KIND_OBJECT;
+        }
+    }
+
+
+    private static int kindForClass(Class<?> colClass)
+    {
+        return (colClass == Integer.class) ? KIND_INT
+             : (colClass == Long.class)    ? KIND_LONG
+             : (colClass == Double.class)  ? KIND_DOUBLE
+             : (colClass == String.class)  ? KIND_STRING
+                                           : KIND_OBJECT;
+    }
+
+
+    private static Class<?> classForKind(int kind)
+    {
+        switch (kind)
+        {
+            case KIND_INT :
+                return Integer.class;
+            case KIND_LONG :
+                return Long.class;
+            case KIND_DOUBLE :
+                return Double.class;
+            case KIND_STRING :
+                return String.class;
+            default :
+                return null;
+        }
+    }
+
+
+    private static DataTableColumn[] columns(DataTable table)
+    {
+        DataTableColumn[] columns = new DataTableColumn[table.getColumnCount()];
+        for (int col = 0 ; col < columns.length ; col++)
+        {
+            columns[col] = table.column(col);
+        }
+        return columns;
+    }
+
+
+    /**
+     *  A minimal RFC 4180 tokenizer. Reads one field at a time into a reusable
+     *  buffer, and tracks the current line number for error messages.
+     */
+    private static class CSVParser
+    {
+        public final static int SEPARATOR = 0;
+        public final static int END_OF_RECORD = 1;
+
+        private Reader in;
+        private char separator;
+        private char[] buf = new char[8192];
+        private int pos;
+        private int limit;
+        private int line = 1;
+        private int recordLine;
+
+        public StringBuilder field = new StringBuilder();
+        public boolean quoted;
+
+        public CSVParser(Reader in, char separator)
+        {
+            this.in = in;
+            this.separator = separator;
+        }
+
+        /**
+         *  Reads the first record, returning its fields; null if the file is empty.
+         */
+        public String[] readHeader()
+        throws IOException
+        {
+            if (! startRecord())
+                return null;
+
+            List<String> names = new ArrayList<String>();
+            int term;
+            do
+            {
+                term = nextField();
+                names.add(field.toString());
+            }
+            while (term == SEPARATOR);
+            return names.toArray(new String[names.size()]);
+        }
+
+        /**
+         *  Skips blank lines, and returns true if there's another record.
+         */
+        public boolean startRecord()
+        throws IOException
+        {
+            while (true)
+            {
+                int c = peek();
+                if (c < 0)
+                    return false;
+                if ((c != '\r') && (c != '\n'))
+                {
+                    recordLine = line;
+                    return true;
+                }
+                read();
+                if ((c == '\r') && (peek() == '\n'))
+                    read();
+                line++;
+            }
+        }
+
+        /**
+         *  Reads the next field, returning whether it was followed by a separator
+         *  or the end of the record (or file).
+         */
+        public int nextField()
+        throws IOException
+        {
+            field.setLength(0);
+            quoted = false;
+
+            int c = read();
+            if (c == '"')
+            {
+                quoted = true;
+                while (true)
+                {
+                    c = read();
+                    if (c < 0)
+                        throw error("unterminated quoted field");
+                    if (c == '"')
+                    {
+                        c = read();
+                        if (c != '"')
+                            break;
+                    }
+                    else if (c == '\n')
+                    {
+                        line++;
+                    }
+                    field.append((char)c);
+                }
+            }
+            else
+            {
+                while ((c >= 0) && (c != separator) && (c != '\r') && (c != '\n'))
+                {
+                    field.append((char)c);
+                    c = read();
+                }
+            }
+
+            if (c == separator)
+                return SEPARATOR;
+            if (c == '\r')
+            {
+                if (peek() == '\n')
+                    read();
+                line++;
+                return END_OF_RECORD;
+            }
+            if (c == '\n')
+            {
+                line++;
+                return END_OF_RECORD;
+            }
+            if (c < 0)
+                return END_OF_RECORD;
+
+            throw error("unexpected character after quoted field: '" + (char)c + "'");
+        }
+
+        /**
+         *  Parses the current field as an integer value within the specified
+         *  range, without creating a string.
+         */
+        public long parseLong(long min, long max)
+        {
+            int len = field.length();
+            int idx = 0;
+            boolean negative = false;
+            if ((field.charAt(0) == '-') || (field.charAt(0) == '+'))
+            {
+                negative = field.charAt(0) == '-';
+                idx++;
+            }
+            if (idx == len)
+                throw numberError();
+
+            // accumulate as a negative number, so that MIN_VALUE can be represented
+            long limitValue = negative ? min : -max;
+            long multLimit = limitValue / 10;
+            long value = 0;
+            for ( ; idx < len ; idx++)
+            {
+                int digit = field.charAt(idx) - '0';
+                if ((digit < 0) || (digit > 9) || (value < multLimit))
+                    throw numberError();
+                value *= 10;
+                if (value < limitValue + digit)
+                    throw numberError();
+                value -= digit;
+            }
+            return negative ? value : -value;
+        }
+
+        /**
+         *  Parses the current field as a <code>double</code>.
+         */
+        public double parseDouble()
+        {
+            try
+            {
+                return Double.parseDouble(field.toString());
+            }
+            catch (NumberFormatException ex)
+            {
+                throw numberError();
+            }
+        }
+
+        public IllegalArgumentException error(String message)
+        {
+            return new IllegalArgumentException("line " + recordLine + ": " + message);
+        }
+
+        private NumberFormatException numberError()
+        {
+            return new NumberFormatException("line " + recordLine + ": invalid number: \"" + field + "\"");
+        }
+
+        private int peek()
+        throws IOException
+        {
+            if ((pos >= limit) && ! fill())
+                return -1;
+            return buf[pos];
+        }
+
+        private int read()
+        throws IOException
+        {
+            if ((pos >= limit) && ! fill())
+                return -1;
+            return buf[pos++];
+        }
+
+        private boolean fill()
+        throws IOException
+        {
+            int count = in.read(buf, 0, buf.length);
+            if (count <= 0)
+                return false;
+            pos = 0;
+            limit = count;
+            return true;
+        }
+    }
+}
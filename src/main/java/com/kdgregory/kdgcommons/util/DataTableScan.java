@@ -0,0 +1,494 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+
+/**
+ *  A query over a {@link DataTable}, created by {@link DataTable#scan}. A scan
+ *  is built by adding predicates on individual columns, optionally restricting
+ *  it to a set of rows (typically the result of a {@link DataTableIndex} lookup),
+ *  and selecting the columns to return. Nothing is evaluated until one of the
+ *  terminal methods ({@link #rows}, {@link #count}, {@link #toTable}) is called.
+ *  <p>
+ *  Evaluation maintains a "selection vector" of candidate rows; each predicate
+ *  is applied in the order it was added, in a loop over the column's storage,
+ *  compacting the vector to the rows that pass. Typed predicates on primitive
+ *  columns examine unboxed values, and predicates on <code>String</code> columns
+ *  are evaluated once per distinct value rather than once per row. Typed
+ *  predicates never match null values; use {@link #where} to test for nulls.
+ *  <p>
+ *  Instances are not thread-safe, and a scan must not be evaluated while the
+ *  table is being modified.
+ *
+ *  @since 2.1.0
+ */
+public class DataTableScan
+{
+    private DataTable table;
+    private int[] restriction;
+    private List<Filter> filters = new ArrayList<Filter>();
+    private int[] selectedColumns;
+
+
+    DataTableScan(DataTable table)
+    {
+        this.table = table;
+    }
+
+//----------------------------------------------------------------------------
+//  Builder methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Limits the scan to the specified rows. The rows are examined (and
+     *  returned) in the order given, so passing the result of a {@link
+     *  DataTableIndex.SortedIndex} range produces rows ordered by that index.
+     */
+    public DataTableScan restrict(int[] rows)
+    {
+        restriction = rows.clone();
+        return this;
+    }
+
+
+    /**
+     *  Adds a predicate on an <code>int</code> value. Values are retrieved as
+     *  if by {@link DataTable#getInt}.
+     */
+    public DataTableScan whereInt(int col, final IntPredicate predicate)
+    {
+        final DataTableColumn column = table.column(col);
+        if (column instanceof DataTableColumn.IntColumn)
+        {
+            final DataTableColumn.IntColumn ints = (DataTableColumn.IntColumn)column;
+            filters.add(new Filter()
+            {
+                @Override
+                public int apply(int[] sel, int count)
+                {
+                    int[] values = ints.array();
+                    boolean hasNulls = ints.hasNulls();
+                    int out = 0;
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int row = sel[ii];
+                        if (! (hasNulls && ints.isNull(row)) && predicate.test(values[row]))
+                            sel[out++] = row;
+                    }
+                    return out;
+                }
+            });
+        }
+        else
+        {
+            filters.add(new Filter()
+            {
+                @Override
+                public int apply(int[] sel, int count)
+                {
+                    int out = 0;
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int row = sel[ii];
+                        if (! column.isNull(row) && predicate.test(column.getInt(row)))
+                            sel[out++] = row;
+                    }
+                    return out;
+                }
+            });
+        }
+        return this;
+    }
+
+
+    /**
+     *  Adds a predicate on a <code>long</code> value. Values are retrieved as
+     *  if by {@link DataTable#getLong}.
+     */
+    public DataTableScan whereLong(int col, final LongPredicate predicate)
+    {
+        final DataTableColumn column = table.column(col);
+        if (column instanceof DataTableColumn.LongColumn)
+        {
+            final DataTableColumn.LongColumn longs = (DataTableColumn.LongColumn)column;
+            filters.add(new Filter()
+            {
+                @Override
+                public int apply(int[] sel, int count)
+                {
+                    long[] values = longs.array();
+                    boolean hasNulls = longs.hasNulls();
+                    int out = 0;
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int row = sel[ii];
+                        if (! (hasNulls && longs.isNull(row)) && predicate.test(values[row]))
+                            sel[out++] = row;
+                    }
+                    return out;
+                }
+            });
+        }
+        else
+        {
+            filters.add(new Filter()
+            {
+                @Override
+                public int apply(int[] sel, int count)
+                {
+                    int out = 0;
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int row = sel[ii];
+                        if (! column.isNull(row) && predicate.test(column.getLong(row)))
+                            sel[out++] = row;
+                    }
+                    return out;
+                }
+            });
+        }
+        return this;
+    }
+
+
+    /**
+     *  Adds a predicate on a <code>double</code> value. Values are retrieved as
+     *  if by {@link DataTable#getDouble}.
+     */
+    public DataTableScan whereDouble(int col, final DoublePredicate predicate)
+    {
+        final DataTableColumn column = table.column(col);
+        if (column instanceof DataTableColumn.DoubleColumn)
+        {
+            final DataTableColumn.DoubleColumn doubles = (DataTableColumn.DoubleColumn)column;
+            filters.add(new Filter()
+            {
+                @Override
+                public int apply(int[] sel, int count)
+                {
+                    double[] values = doubles.array();
+                    boolean hasNulls = doubles.hasNulls();
+                    int out = 0;
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int row = sel[ii];
+                        if (! (hasNulls && doubles.isNull(row)) && predicate.test(values[row]))
+                            sel[out++] = row;
+                    }
+                    return out;
+                }
+            });
+        }
+        else
+        {
+            filters.add(new Filter()
+            {
+                @Override
+                public int apply(int[] sel, int count)
+                {
+                    int out = 0;
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int row = sel[ii];
+                        if (! column.isNull(row) && predicate.test(column.getDouble(row)))
+                            sel[out++] = row;
+                    }
+                    return out;
+                }
+            });
+        }
+        return this;
+    }
+
+
+    /**
+     *  Adds a predicate on a <code>String</code> value. For columns declared
+     *  as <code>String</code>, the predicate is evaluated once per distinct
+     *  value.
+     *
+     *  @throws ClassCastException (during evaluation) if the column contains
+     *          non-string values.
+     */
+    public DataTableScan whereString(int col, final Predicate<String> predicate)
+    {
+        final DataTableColumn column = table.column(col);
+        if (column instanceof DataTableColumn.StringColumn)
+        {
+            final DataTableColumn.StringColumn strings = (DataTableColumn.StringColumn)column;
+            filters.add(new Filter()
+            {
+                @Override
+                public int apply(int[] sel, int count)
+                {
+                    boolean[] matches = new boolean[strings.dictionarySize()];
+                    for (int code = 0 ; code < matches.length ; code++)
+                    {
+                        matches[code] = predicate.test(strings.decode(code));
+                    }
+
+                    int[] codes = strings.array();
+                    int out = 0;
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int row = sel[ii];
+                        int code = codes[row];
+                        if ((code >= 0) && matches[code])
+                            sel[out++] = row;
+                    }
+                    return out;
+                }
+            });
+        }
+        else
+        {
+            filters.add(new Filter()
+            {
+                @Override
+                public int apply(int[] sel, int count)
+                {
+                    int out = 0;
+                    for (int ii = 0 ; ii < count ; ii++)
+                    {
+                        int row = sel[ii];
+                        String value = (String)column.get(row);
+                        if ((value != null) && predicate.test(value))
+                            sel[out++] = row;
+                    }
+                    return out;
+                }
+            });
+        }
+        return this;
+    }
+
+
+    /**
+     *  Adds a predicate on a column's (boxed) value. This is the only predicate
+     *  that is passed null values.
+     */
+    public DataTableScan where(int col, final Predicate<Object> predicate)
+    {
+        final DataTableColumn column = table.column(col);
+        filters.add(new Filter()
+        {
+            @Override
+            public int apply(int[] sel, int count)
+            {
+                int out = 0;
+                for (int ii = 0 ; ii < count ; ii++)
+                {
+                    int row = sel[ii];
+                    if (predicate.test(column.get(row)))
+                        sel[out++] = row;
+                }
+                return out;
+            }
+        });
+        return this;
+    }
+
+
+    /**
+     *  Specifies the columns, in order, that will be returned by {@link #toTable}.
+     *  By default, all columns are returned.
+     *
+     *  @throws IndexOutOfBoundsException if any column is not part of the table.
+     */
+    public DataTableScan select(int... cols)
+    {
+        for (int col : cols)
+        {
+            if ((col < 0) || (col >= table.getColumnCount()))
+                throw new IndexOutOfBoundsException("invalid column: " + col);
+        }
+        selectedColumns = cols.clone();
+        return this;
+    }
+
+//----------------------------------------------------------------------------
+//  Terminal methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Evaluates the scan, returning the matching row numbers. Unless the scan
+     *  is restricted, these are in ascending order.
+     *
+     *  @throws IndexOutOfBoundsException if a restriction contains a row that
+     *          is not part of the table.
+     *  @throws ConcurrentModificationException if the table is modified during
+     *          evaluation (this is not guaranteed to be detected).
+     */
+    public int[] rows()
+    {
+        int modCount = table.getModCount();
+
+        int[] sel;
+        if (restriction != null)
+        {
+            sel = restriction.clone();
+            for (int row : sel)
+            {
+                if ((row < 0) || (row >= table.size()))
+                    throw new IndexOutOfBoundsException("invalid row: " + row + " (size: " + table.size() + ")");
+            }
+        }
+        else
+        {
+            sel = new int[table.size()];
+            for (int row = 0 ; row < sel.length ; row++)
+            {
+                sel[row] = row;
+            }
+        }
+
+        int count = sel.length;
+        for (Filter filter : filters)
+        {
+            if (count == 0)
+                break;
+            count = filter.apply(sel, count);
+        }
+
+        if (modCount != table.getModCount())
+            throw new ConcurrentModificationException("table modified during scan");
+
+        return (count == sel.length) ? sel : Arrays.copyOf(sel, count);
+    }
+
+
+    /**
+     *  Evaluates the scan, returning the number of matching rows.
+     */
+    public int count()
+    {
+        return rows().length;
+    }
+
+
+    /**
+     *  Evaluates the scan, returning a new table that contains the selected
+     *  columns of the matching rows.
+     */
+    public DataTable toTable()
+    {
+        int[] rows = rows();
+        int[] cols = selectedColumns;
+        if (cols == null)
+        {
+            cols = new int[table.getColumnCount()];
+            for (int col = 0 ; col < cols.length ; col++)
+            {
+                cols[col] = col;
+            }
+        }
+
+        String[] names = new String[cols.length];
+        Class<?>[] classes = new Class<?>[cols.length];
+        for (int ii = 0 ; ii < cols.length ; ii++)
+        {
+            names[ii] = table.getColumnName(cols[ii]);
+            classes[ii] = table.getColumnClass(cols[ii]);
+        }
+
+        // the result has the same column classes, so values can be copied
+        // column by column without boxing or revalidation
+        DataTable result = new DataTable(names, classes, rows.length);
+        for (int ii = 0 ; ii < cols.length ; ii++)
+        {
+            copyRows(table.column(cols[ii]), result.column(ii), rows);
+        }
+        for (int rr = 0 ; rr < rows.length ; rr++)
+        {
+            result.rowAppended();
+        }
+
+        return result;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  A predicate on a single column, applied to a selection vector.
+     */
+    private interface Filter
+    {
+        /**
+         *  Examines the first <code>count</code> rows in the passed array,
+         *  moving those that pass to the front of the array (preserving their
+         *  order), and returns the number that passed.
+         */
+        public int apply(int[] sel, int count);
+    }
+
+
+    /**
+     *  Appends the specified rows of one column to another column of the
+     *  same type.
+     */
+    private static void copyRows(DataTableColumn src, DataTableColumn dst, int[] rows)
+    {
+        if (src instanceof DataTableColumn.IntColumn)
+        {
+            DataTableColumn.IntColumn intDst = (DataTableColumn.IntColumn)dst;
+            for (int row : rows)
+            {
+                if (src.isNull(row))
+                    dst.add(null);
+                else
+                    intDst.addInt(src.getInt(row));
+            }
+        }
+        else if (src instanceof DataTableColumn.LongColumn)
+        {
+            DataTableColumn.LongColumn longDst = (DataTableColumn.LongColumn)dst;
+            for (int row : rows)
+            {
+                if (src.isNull(row))
+                    dst.add(null);
+                else
+                    longDst.addLong(src.getLong(row));
+            }
+        }
+        else if (src instanceof DataTableColumn.DoubleColumn)
+        {
+            DataTableColumn.DoubleColumn doubleDst = (DataTableColumn.DoubleColumn)dst;
+            for (int row : rows)
+            {
+                if (src.isNull(row))
+                    dst.add(null);
+                else
+                    doubleDst.addDouble(src.getDouble(row));
+            }
+        }
+        else
+        {
+            for (int row : rows)
+            {
+                dst.add(src.get(row));
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import com.kdgregory.kdgcommons.buffer.BufferFacade;
+import com.kdgregory.kdgcommons.buffer.BufferFacadeFactory;
+import com.kdgregory.kdgcommons.collections.InplaceSort;
+
+
+/**
+ *  This class manages a variable-length array of <code>int</code>s. It follows
+ *  the API of {@link ByteArray}, and is intended as a replacement for <code>
+ *  List&lt;Integer&gt;</code> in applications that manage large numbers of
+ *  values: it avoids the memory overhead of boxed values, and the cost of
+ *  unboxing them.
+ *  <p>
+ *  Instances are not thread-safe.
+ *
+ *  @since 2.1.0
+ */
+public class IntArray
+{
+    /**
+     *  The largest array that we'll attempt to allocate.
+     */
+    private final static int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    protected int[]     data;
+    protected int       currentSize;
+    protected int       expansionFactor;
+
+
+    /**
+     *  Constructs a new instance, with specified initial capacity and expansion
+     *  factor. This is the basic constructor.
+     *
+     *  @param  capacity    The initial size of the underlying array.
+     *  @param  factor      The expansion factor. This is the percentage by
+     *                      which the array should be expanded, whenever
+     *                      additions run out of space.
+     */
+    public IntArray(int capacity, int factor)
+    {
+        this.data = new int[capacity];
+        this.currentSize = 0;
+        this.expansionFactor = factor;
+    }
+
+
+    /**
+     *  Constructs a new instance from an <code>int[]</code>. The source array
+     *  is copied into the new object, with some room to grow, and it is given
+     *  a default expansion factor.
+     */
+    public IntArray(int[] src)
+    {
+        this(src.length + src.length / 4, 25);
+        add(src);
+    }
+
+
+    /**
+     *  Creates a new, empty instance, using a default capacity and expansion
+     *  factor.
+     */
+    public IntArray()
+    {
+        this(64, 25);
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Adds a single value to the end of this array.
+     */
+    public void add(int val)
+    {
+        ensureCapacity(1);
+        data[currentSize++] = val;
+    }
+
+
+    /**
+     *  Adds an <code>int[]</code> to the end of this array.
+     */
+    public void add(int[] src)
+    {
+        add(src, 0, src.length);
+    }
+
+
+    /**
+     *  Adds a segment of an <code>int[]</code> to the end of this array.
+     */
+    public void add(int[] src, int off, int len)
+    {
+        ensureCapacity(len);
+        System.arraycopy(src, off, data, currentSize, len);
+        currentSize += len;
+    }
+
+
+    /**
+     *  Adds another instance to the end of this array.
+     */
+    public void add(IntArray src)
+    {
+        add(src.data, 0, src.currentSize);
+    }
+
+
+    /**
+     *  Adds the remaining values from the passed buffer to the end of this
+     *  array. The buffer's position is advanced to its limit.
+     */
+    public void add(IntBuffer src)
+    {
+        int len = src.remaining();
+        ensureCapacity(len);
+        src.get(data, currentSize, len);
+        currentSize += len;
+    }
+
+
+    /**
+     *  Adds values read from a {@link BufferFacade} to the end of this array.
+     *
+     *  @param  src     The source buffer.
+     *  @param  index   The byte offset of the first value in the buffer.
+     *  @param  count   The number of values to add.
+     */
+    public void add(BufferFacade src, long index, int count)
+    {
+        ensureCapacity(count);
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            data[currentSize++] = src.getInt(index + ii * 4L);
+        }
+    }
+
+
+    /**
+     *  Returns a single value from the array.
+     *
+     *  @throws ArrayIndexOutOfBoundsException if <code>idx</code> is outside
+     *          the current bounds of the array.
+     */
+    public int get(int idx)
+    {
+        if ((idx < 0) || (idx >= currentSize))
+            throw new ArrayIndexOutOfBoundsException(idx);
+
+        return data[idx];
+    }
+
+
+    /**
+     *  Replaces a single value in the array.
+     *
+     *  @throws ArrayIndexOutOfBoundsException if <code>idx</code> is outside
+     *          the current bounds of the array.
+     */
+    public void set(int idx, int val)
+    {
+        if ((idx < 0) || (idx >= currentSize))
+            throw new ArrayIndexOutOfBoundsException(idx);
+
+        data[idx] = val;
+    }
+
+
+    /**
+     *  Returns the underlying array. This method exists for efficiency; most
+     *  callers should use {@link #toArray} instead.
+     *  <p>
+     *  Note that the returned array may be significantly larger than what is
+     *  reported by {@link #size}.
+     */
+    public int[] getArray()
+    {
+        return data;
+    }
+
+
+    /**
+     *  Returns a copy of a specified sub-section of the array.
+     *
+     *  @throws IllegalArgumentException if <code>off</code> and/or <code>
+     *          len</code> specify indexes that are outside the bounds of
+     *          the array.
+     */
+    public int[] toArray(int off, int len)
+    {
+        if ((off < 0) || (off > currentSize))
+            throw new IllegalArgumentException("invalid offset: " + off);
+        if ((len < 0) || (off + len > currentSize))
+            throw new IllegalArgumentException("invalid length: " + len);
+
+        return Arrays.copyOfRange(data, off, off + len);
+    }
+
+
+    /**
+     *  Returns a copy of all values in this array.
+     */
+    public int[] toArray()
+    {
+        return toArray(0, currentSize);
+    }
+
+
+    /**
+     *  Inserts the passed array at an arbitrary point in this array. All
+     *  existing contents are moved up to make room.
+     */
+    public void insert(int off, int[] src)
+    {
+        insert(off, src, 0, src.length);
+    }
+
+
+    /**
+     *  Inserts the contents of another instance at an arbitrary point in this
+     *  array. All existing contents are moved up to make room.
+     */
+    public void insert(int off, IntArray src)
+    {
+        insert(off, src.data, 0, src.currentSize);
+    }
+
+
+    /**
+     *  Inserts a segment of the passed array at an arbitrary point in this
+     *  array. All existing contents are moved up to make room.
+     *
+     *  @throws IllegalArgumentException if <code>off</code> is larger than the
+     *          current size of the array, or if <code>srcOff</code> or <code>
+     *          srcOff + srcLen</code> is outside the bounds of the source
+     *          array. These are checked prior to performing any moves, so this
+     *          array will not be corrupted.
+     */
+    public void insert(int off, int[] src, int srcOff, int srcLen)
+    {
+        if ((off < 0) || (off > currentSize))
+            throw new IllegalArgumentException("invalid dst offset: " + off);
+        if ((srcOff < 0) || (srcOff > src.length))
+            throw new IllegalArgumentException("invalid src offset: " + srcOff);
+        if ((srcLen < 0) || (srcOff + srcLen > src.length))
+            throw new IllegalArgumentException("invalid src length: " + srcLen);
+
+        ensureCapacity(srcLen);
+        System.arraycopy(data, off, data, off + srcLen, currentSize - off);
+        System.arraycopy(src, srcOff, data, off, srcLen);
+        currentSize += srcLen;
+    }
+
+
+    /**
+     *  Removes a specified value from this array, shifting subsequent values
+     *  down and reducing the size of the array.
+     *
+     *  @throws IllegalArgumentException if <code>idx</code> is outside the
+     *          current bounds of the array.
+     */
+    public void remove(int idx)
+    {
+        remove(idx, 1);
+    }
+
+
+    /**
+     *  Removes a subset of the values in this array, shifting subsequent values
+     *  down and reducing the size of the array.
+     *
+     *  @throws IllegalArgumentException if any of the values defined by <code>
+     *          off</code> and <code>len</code> are outside the current bounds
+     *          of the array.
+     */
+    public void remove(int off, int len)
+    {
+        if ((off < 0) || (len < 0) || (off + len > currentSize))
+            throw new IllegalArgumentException("invalid offset/length: " + off + "/" + len);
+
+        System.arraycopy(data, off + len, data, off, currentSize - off - len);
+        currentSize -= len;
+    }
+
+
+    /**
+     *  Removes the last value in the array.
+     */
+    public void removeLast()
+    {
+        if (currentSize > 0)
+            currentSize--;
+    }
+
+
+    /**
+     *  Returns the current size of this array.
+     */
+    public int size()
+    {
+        return currentSize;
+    }
+
+
+    /**
+     *  Resizes the array. If the specified size is less than the current
+     *  size, the array is truncated. If it is greater than the current size,
+     *  the array is expanded and the new space is filled with zeros.
+     */
+    public void setSize(int size)
+    {
+        setCapacity(size);
+        if (size > currentSize)
+            Arrays.fill(data, currentSize, size, 0);
+        currentSize = size;
+    }
+
+
+    /**
+     *  Sorts the array into ascending order, in place.
+     */
+    public void sort()
+    {
+        InplaceSort.sort(data, 0, currentSize, Integer::compare);
+    }
+
+
+    /**
+     *  Sorts the array using the passed comparator, in place.
+     */
+    public void sort(InplaceSort.IntComparator comparator)
+    {
+        InplaceSort.sort(data, 0, currentSize, comparator);
+    }
+
+
+    /**
+     *  Returns a {@link BufferFacade} containing a copy of this array's values,
+     *  in big-endian order, with the first value at index 0.
+     *
+     *  @throws IllegalStateException if the array's values will not fit in a
+     *          <code>ByteBuffer</code> (more than 536870911 elements).
+     */
+    public BufferFacade toBufferFacade()
+    {
+        long bufSize = (long)currentSize * 4;
+        if (bufSize > Integer.MAX_VALUE)
+            throw new IllegalStateException(
+                    "array is too large for a buffer: " + currentSize + " elements (max " + (Integer.MAX_VALUE / 4) + ")");
+
+        ByteBuffer buf = ByteBuffer.allocate((int)bufSize);
+        buf.asIntBuffer().put(data, 0, currentSize);
+        return BufferFacadeFactory.create(buf);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Verifies that the array can accept an insert of the specified size,
+     *  and expands it if it can't. This should be called before every add.
+     */
+    private void ensureCapacity(int count)
+    {
+        long required = (long)currentSize + count;
+        if (required <= data.length)
+            return;
+
+        if (required > MAX_CAPACITY)
+            throw new IllegalStateException("unable to expand array beyond " + MAX_CAPACITY + " elements");
+
+        long expanded = (long)data.length * (100 + expansionFactor) / 100;
+        setCapacity((int)Math.min(MAX_CAPACITY, Math.max(expanded, required)));
+    }
+
+
+    /**
+     *  Expands or contracts the underlying array to a specified size. If
+     *  the requested size is less than the current size of the array's
+     *  data, this request is ignored.
+     */
+    private void setCapacity(int size)
+    {
+        if (size < currentSize)
+            return;
+
+        data = Arrays.copyOf(data, size);
+    }
+}
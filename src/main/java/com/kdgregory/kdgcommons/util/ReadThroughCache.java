@@ -14,17 +14,69 @@
 
 package com.kdgregory.kdgcommons.util;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+import com.kdgregory.kdgcommons.lang.NamedThreadFactory;
 
 
 /**
  *  A size-limited LRU cache that uses a retriever function to load values. Instances are
  *  thread-safe (provided the retriever is thread-safe) and provide a variety of blocking
  *  options for retrieval.
+ *  <p>
+ *  Cache hits do not acquire any locks: values are held in a <code>ConcurrentHashMap</code>,
+ *  and each hit simply records its access time. When an insert pushes the cache over its
+ *  size limit, the inserting thread evicts the least-recently-used entry from a sample of
+ *  entries (the sample covers the entire cache when it holds fewer than 16 entries, so
+ *  small caches follow strict LRU order).
+ *  <p>
+ *  In addition to single-key retrieval, the cache supports bulk retrieval, via {@link
+ *  #retrieveAll}, and asynchronous retrieval, via {@link #retrieveAsync}. Both of these
+ *  combine cache misses into a single call to a batch retriever: a function that takes
+ *  a set of keys and returns a map of values. Asynchronous requests that arrive within
+ *  a configurable time window are merged into a single batch. If you construct the cache
+ *  with a single-key retriever, batches invoke that retriever once per key; if you
+ *  construct it with a batch retriever, single-key retrieval invokes the batch retriever
+ *  with a single key. Keys that are not present in the map returned by a batch retriever
+ *  are cached with a <code>null</code> value.
+ *  <p>
+ *  Bulk and asynchronous retrievals always coordinate with other in-progress retrievals
+ *  of the same key; the {@link Synchronization} option controls how single-key retrievals
+ *  behave. When using <code>SINGLE_THREADED</code>, calls to the batch retriever are
+ *  serialized with calls to the single-key retriever.
+ *  <p>
+ *  By default, the cache is limited by the number of entries. You can also limit it by
+ *  the total weight of its values (typically their approximate size in bytes), and add
+ *  an off-heap tier that holds serialized copies of evicted values; see {@link
+ *  #withMaxWeight} and {@link #withOffHeapStorage}.
+ *  <p>
+ *  Retrievals that return <code>null</code> may be cached for a limited time, and keys
+ *  whose retrieval throws may be subject to exponential backoff; see {@link
+ *  #withNegativeCaching} and {@link #withFailureBackoff}.
+ *  <p>
+ *  The cache maintains statistics about its operation, such as hit count and time spent
+ *  in the retriever; see {@link #getStatistics}.
+ *  <p>
+ *  Keys may not be <code>null</code>; values may be.
  *
  *  @since 1.0.15
  */
@@ -42,9 +94,10 @@ public class ReadThroughCache<K,V>
         NONE,
 
         /**
-         *  Per-key synchronization: each retrieval request establishes a lock that is cleared
-         *  when the retrieval completes. Subsequent retrieves for the same key will block until
-         *  the first returns. This is the default behavior.
+         *  Per-key synchronization: the first retrieval request for a key publishes a
+         *  future that is completed when the retrieval completes. Subsequent retrieves
+         *  for the same key will wait on that future rather than invoking the retriever.
+         *  This is the default behavior.
          */
         BY_KEY,
 
@@ -57,13 +110,251 @@ public class ReadThroughCache<K,V>
     }
 
 
+    /**
+     *  An immutable snapshot of cache statistics, retrieved by {@link #getStatistics}.
+     *  All counts are cumulative since the cache was created.
+     *
+     *  @since 2.1.0
+     */
+    public static final class Statistics
+    {
+        private final long hitCount;
+        private final long missCount;
+        private final long offHeapHitCount;
+        private final long loadSuccessCount;
+        private final long loadFailureCount;
+        private final long totalLoadNanos;
+        private final long evictionCount;
+        private final long lockWaitNanos;
+        private final long backoffRejectionCount;
+
+        private Statistics(
+            long hitCount, long missCount, long offHeapHitCount,
+            long loadSuccessCount, long loadFailureCount, long totalLoadNanos,
+            long evictionCount, long lockWaitNanos, long backoffRejectionCount)
+        {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.offHeapHitCount = offHeapHitCount;
+            this.loadSuccessCount = loadSuccessCount;
+            this.loadFailureCount = loadFailureCount;
+            this.totalLoadNanos = totalLoadNanos;
+            this.evictionCount = evictionCount;
+            this.lockWaitNanos = lockWaitNanos;
+            this.backoffRejectionCount = backoffRejectionCount;
+        }
+
+        /**
+         *  Returns the number of requests that were satisfied from the cache, including
+         *  those satisfied from off-heap storage.
+         */
+        public long getHitCount()
+        {
+            return hitCount;
+        }
+
+        /**
+         *  Returns the number of requests that were not satisfied from the cache. These
+         *  requests either invoked the retriever or waited for another thread to do so.
+         */
+        public long getMissCount()
+        {
+            return missCount;
+        }
+
+        /**
+         *  Returns the total number of requests (hits plus misses).
+         */
+        public long getRequestCount()
+        {
+            return hitCount + missCount;
+        }
+
+        /**
+         *  Returns the ratio of hits to requests; 1.0 if there have been no requests.
+         */
+        public double getHitRate()
+        {
+            long requests = getRequestCount();
+            return (requests == 0) ? 1.0 : (double)hitCount / requests;
+        }
+
+        /**
+         *  Returns the number of hits that were satisfied by promoting a value from
+         *  off-heap storage.
+         */
+        public long getOffHeapHitCount()
+        {
+            return offHeapHitCount;
+        }
+
+        /**
+         *  Returns the number of retriever invocations that completed normally. Each
+         *  invocation of a batch retriever is counted once, regardless of the number
+         *  of keys it retrieved.
+         */
+        public long getLoadSuccessCount()
+        {
+            return loadSuccessCount;
+        }
+
+        /**
+         *  Returns the number of retriever invocations that threw.
+         */
+        public long getLoadFailureCount()
+        {
+            return loadFailureCount;
+        }
+
+        /**
+         *  Returns the total time spent in retriever invocations, both successful and
+         *  failed, in nanoseconds.
+         */
+        public long getTotalLoadNanos()
+        {
+            return totalLoadNanos;
+        }
+
+        /**
+         *  Returns the average time for a retriever invocation, in nanoseconds; 0 if
+         *  there have been no invocations.
+         */
+        public double getAverageLoadNanos()
+        {
+            long loads = loadSuccessCount + loadFailureCount;
+            return (loads == 0) ? 0.0 : (double)totalLoadNanos / loads;
+        }
+
+        /**
+         *  Returns the number of entries evicted from the on-heap cache to satisfy
+         *  the size or weight limit. This does not include entries removed by
+         *  {@link ReadThroughCache#clear}.
+         */
+        public long getEvictionCount()
+        {
+            return evictionCount;
+        }
+
+        /**
+         *  Returns the total time that threads spent waiting for other threads: either
+         *  for another thread's retrieval of the same key, or (with single-threaded
+         *  synchronization) for access to the retriever. In nanoseconds.
+         */
+        public long getLockWaitNanos()
+        {
+            return lockWaitNanos;
+        }
+
+        /**
+         *  Returns the number of retrievals that were rejected with a {@link
+         *  BackoffException} rather than invoking the retriever.
+         */
+        public long getBackoffRejectionCount()
+        {
+            return backoffRejectionCount;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Statistics["
+                 + "hits=" + hitCount
+                 + ", misses=" + missCount
+                 + ", offHeapHits=" + offHeapHitCount
+                 + ", loadSuccesses=" + loadSuccessCount
+                 + ", loadFailures=" + loadFailureCount
+                 + ", totalLoadNanos=" + totalLoadNanos
+                 + ", evictions=" + evictionCount
+                 + ", lockWaitNanos=" + lockWaitNanos
+                 + ", backoffRejections=" + backoffRejectionCount
+                 + "]";
+        }
+    }
+
+
+    /**
+     *  Thrown when a key is requested during the backoff period that follows a failed
+     *  retrieval. The cause is the exception thrown by the most recent failure.
+     *
+     *  @since 2.1.0
+     */
+    public static class BackoffException
+    extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public BackoffException(String message, Throwable cause)
+        {
+            super(message, cause);
+        }
+    }
+
+
+    /**
+     *  The number of entries examined when choosing an eviction victim.
+     */
+    private final static int EVICTION_SAMPLE_SIZE = 16;
+
+    /**
+     *  The largest capacity that will be preallocated for the underlying map.
+     */
+    private final static int MAX_INITIAL_CAPACITY = 1 << 20;
+
+    /**
+     *  The most failure records that will be retained, regardless of cache size.
+     */
+    private final static int MAX_FAILURE_RECORDS = 1 << 16;
+
+    /**
+     *  The failure-record count that triggers the first prune.
+     */
+    private final static int MIN_FAILURE_PRUNE_THRESHOLD = 64;
+
+    /**
+     *  The default maximum number of keys passed to the batch retriever by
+     *  {@link #retrieveAsync}.
+     */
+    public final static int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+
 //----------------------------------------------------------------------------
 //  Constructors and instance variables
 //----------------------------------------------------------------------------
 
+    private int maxSize;
     private Function<K,V> retriever;
-    private Object cacheLock = new Object();
-    private Map<K,V> cache = null;
+    private Function<Set<K>,Map<K,V>> batchRetriever;
+    private Synchronization syncOpt;
+    private AbstractRetriever syncRetriever;
+
+    private ConcurrentHashMap<K,CacheEntry<V>> cache;
+    private ConcurrentHashMap<K,CompletableFuture<V>> inFlight = new ConcurrentHashMap<K,CompletableFuture<V>>();
+
+    private ReentrantLock evictionLock = new ReentrantLock();
+    private Iterator<Map.Entry<K,CacheEntry<V>>> evictionCursor;    // guarded by evictionLock
+
+    private long batchWindowMillis;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private Batcher batcher = new Batcher();
+    private volatile ScheduledThreadPoolExecutor asyncExecutor;
+
+    private long maxWeight = Long.MAX_VALUE;
+    private ToLongBiFunction<K,V> weigher;
+    private AtomicLong totalWeight = new AtomicLong();
+
+    private OffHeapStore<K> offHeap;
+
+    private StatisticsCounters stats = new StatisticsCounters();
+
+    private long negativeTtlNanos;
+    private long initialBackoffNanos;
+    private long maxBackoffNanos;
+    private ConcurrentHashMap<K,FailureRecord> failures = new ConcurrentHashMap<K,FailureRecord>();
+    private ReentrantLock failurePruneLock = new ReentrantLock();
+    private volatile int failurePruneThreshold = MIN_FAILURE_PRUNE_THRESHOLD;
+    private Function<V,byte[]> serializer;
+    private Function<byte[],V> deserializer;
+
 
     /**
      *  Base constructor.
@@ -77,31 +368,30 @@ public class ReadThroughCache<K,V>
      */
     public ReadThroughCache(final int size, Function<K,V> retriever, Synchronization syncOpt)
     {
+        this.maxSize = size;
+        this.retriever = retriever;
+        this.batchRetriever = new IterativeBatchRetriever();
+        this.syncOpt = syncOpt;
+
         switch (syncOpt)
         {
             case NONE :
-                this.retriever = new UnsynchronizedRetriever(retriever);
+                this.syncRetriever = new UnsynchronizedRetriever();
                 break;
             case BY_KEY :
-                this.retriever = new ByKeyRetriever(retriever);
+                this.syncRetriever = new ByKeyRetriever();
                 break;
             case SINGLE_THREADED:
-                this.retriever = new SingleThreadedRetriever(retriever);
+                this.syncRetriever = new SingleThreadedRetriever();
                 break;
             default :
                 throw new IllegalArgumentException("invalid synchronization option: " + syncOpt);
         }
 
-
-        cache = new LinkedHashMap<K,V>(size, 0.75f, true)
-        {
-             private static final long serialVersionUID = 1L;
-
-             @Override
-             protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
-                return super.size() > size;
-             }
-        };
+        // the map can briefly exceed its size limit while an eviction is pending; the
+        // upper bound on capacity applies to caches that are primarily limited by weight
+        int capacity = (int)Math.min((long)size + 1, MAX_INITIAL_CAPACITY);
+        cache = new ConcurrentHashMap<K,CacheEntry<V>>(capacity);
     }
 
 
@@ -114,191 +404,1235 @@ public class ReadThroughCache<K,V>
         this(size, retriever, Synchronization.BY_KEY);
     }
 
+
+    /**
+     *  Creates an instance that uses a batch retriever, with per-key synchronization.
+     *
+     *  @param size                 Maximum number of items in the cache.
+     *  @param batchRetriever       The function to retrieve items. This is passed a set of
+     *                              keys, and returns a map containing values for those keys.
+     *  @param batchWindowMillis    The number of milliseconds that {@link #retrieveAsync}
+     *                              will wait for additional requests before invoking the
+     *                              batch retriever. May be 0, in which case the retriever
+     *                              is invoked as soon as an executor thread is available.
+     *  @param maxBatchSize         The maximum number of keys that {@link #retrieveAsync}
+     *                              will pass to a single invocation of the batch retriever;
+     *                              a batch that reaches this size is dispatched immediately.
+     *
+     *  @since 2.1.0
+     */
+    public ReadThroughCache(int size, Function<Set<K>,Map<K,V>> batchRetriever, long batchWindowMillis, int maxBatchSize)
+    {
+        this(size, (Function<K,V>)null, Synchronization.BY_KEY);
+        this.retriever = new SingleKeyRetriever();
+        this.batchRetriever = batchRetriever;
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+
+    /**
+     *  Convenience constructor: creates an instance that uses a batch retriever, with
+     *  per-key synchronization and the default maximum batch size.
+     *
+     *  @since 2.1.0
+     */
+    public ReadThroughCache(int size, Function<Set<K>,Map<K,V>> batchRetriever, long batchWindowMillis)
+    {
+        this(size, batchRetriever, batchWindowMillis, DEFAULT_MAX_BATCH_SIZE);
+    }
+
 //----------------------------------------------------------------------------
-//  Public methods
+//  Configuration: these methods should be called before the cache is used
 //----------------------------------------------------------------------------
 
-    public V retrieve(K key) throws InterruptedException
+    /**
+     *  Limits the cache by the total weight of its values, in addition to the count
+     *  limit specified at construction (which may be <code>Integer.MAX_VALUE</code>
+     *  to rely solely on weight). Weight is typically an estimate of the value's size
+     *  in bytes. A value's weight is computed when it is added to the cache, and is
+     *  not recomputed.
+     *
+     *  @param  maxWeight   The maximum total weight of cached values; least recently
+     *                      used entries are evicted to stay within this limit.
+     *  @param  weigher     A function that computes the weight of a key-value pair.
+     *                      This function must not return a negative value.
+     *
+     *  @return The cache, so that calls may be chained.
+     *
+     *  @since 2.1.0
+     */
+    public ReadThroughCache<K,V> withMaxWeight(long maxWeight, ToLongBiFunction<K,V> weigher)
     {
-        // all the intelligence happens in the retriever decorators
-        return retriever.apply(key);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        return this;
     }
 
 
     /**
-     *  Returns the count of mappings currently in the cache.
+     *  Enables an off-heap second tier. Values that are evicted from the on-heap cache
+     *  are serialized into a pre-allocated region of direct buffers, and are deserialized
+     *  and returned to the on-heap cache on a subsequent retrieve. This region is managed
+     *  as a ring: when it is full, the oldest values are overwritten.
+     *  <p>
+     *  <code>null</code> values are not stored off-heap, nor are values whose serialized
+     *  form is larger than 64 MB (or the entire region, if that is smaller).
+     *
+     *  @param  capacity        The size of the off-heap region, in bytes. This is
+     *                          allocated immediately.
+     *  @param  serializer      Converts a value into a byte array.
+     *  @param  deserializer    Converts a byte array produced by the serializer back
+     *                          into a value.
+     *
+     *  @return The cache, so that calls may be chained.
+     *
+     *  @since 2.1.0
      */
-    public int size()
+    public ReadThroughCache<K,V> withOffHeapStorage(long capacity, Function<V,byte[]> serializer, Function<byte[],V> deserializer)
     {
-        synchronized (cacheLock)
-        {
-            return cache.size();
-        }
+        this.offHeap = new OffHeapStore<K>(capacity);
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        return this;
+    }
+
+    /**
+     *  Limits the time that <code>null</code> values are cached. By default, a retriever
+     *  that returns <code>null</code> (or a batch retriever that omits a key from its
+     *  result) causes <code>null</code> to be cached like any other value. This method
+     *  causes those "negative" entries to expire, so that a key that did not exist when
+     *  first requested will eventually be retrieved again. Non-null values do not expire.
+     *
+     *  @param  ttlMillis   The number of milliseconds that a <code>null</code> value
+     *                      remains in the cache. 0 restores the default behavior.
+     *
+     *  @return The cache, so that calls may be chained.
+     *
+     *  @since 2.1.0
+     */
+    public ReadThroughCache<K,V> withNegativeCaching(long ttlMillis)
+    {
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        return this;
     }
 
 
     /**
-     * Removes all cached values.
+     *  Enables exponential backoff for keys whose retrieval throws. After a failure,
+     *  requests for that key throw {@link BackoffException} (with the original failure
+     *  as its cause) rather than invoking the retriever, until the backoff period has
+     *  elapsed. Each consecutive failure doubles the backoff period, up to a maximum; a
+     *  successful retrieval resets it. This protects a failing backend from repeated
+     *  requests for the same key.
+     *  <p>
+     *  When a batch retriever throws, all keys in the batch are subject to backoff.
+     *
+     *  @param  initialMillis   The backoff period after the first failure.
+     *  @param  maxMillis       The maximum backoff period. Failure history is also
+     *                          discarded for keys that have not been retried within
+     *                          this period after their backoff expired.
+     *
+     *  @return The cache, so that calls may be chained.
+     *
+     *  @since 2.1.0
      */
-    public void clear()
+    public ReadThroughCache<K,V> withFailureBackoff(long initialMillis, long maxMillis)
     {
-        synchronized (cacheLock)
-        {
-            cache.clear();
-        }
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(initialMillis, maxMillis));
+        return this;
     }
 
 //----------------------------------------------------------------------------
-//  Internals
+//  Public methods
 //----------------------------------------------------------------------------
 
-    private abstract class AbstractDelegatingRetriever
-    implements Function<K,V>
+    /**
+     *  Returns the value associated with the specified key, invoking the retriever
+     *  if the key is not already cached.
+     *
+     *  @throws InterruptedException if the calling thread is interrupted while waiting
+     *          for another thread's retrieval of the same key.
+     */
+    public V retrieve(K key) throws InterruptedException
     {
-        protected Function<K,V> delegate;
+        CacheEntry<V> entry = lookup(key);
+        recordLookup(entry);
+        if (entry != null)
+            return entry.value;
 
-        protected AbstractDelegatingRetriever(Function<K,V> delegate)
-        {
-            this.delegate = delegate;
-        }
+        // all the intelligence happens in the retriever decorators
+        return syncRetriever.retrieve(key);
+    }
 
-        @Override
-        public V apply(K key)
-        {
-            synchronized (cacheLock)
-            {
-                if (cache.containsKey(key))
-                    return cache.get(key);
-            }
-            return delegate.apply(key);
-        }
 
+    /**
+     *  Returns the values associated with the specified keys. Keys that are not already
+     *  cached, and not currently being retrieved by another thread, are passed to a single
+     *  invocation of the batch retriever, on the calling thread.
+     *
+     *  @return A map containing an entry for every distinct key in the passed collection.
+     *
+     *  @throws InterruptedException if the calling thread is interrupted while waiting
+     *          for another thread's retrieval of one of the keys.
+     *  @throws BackoffException if failure backoff is enabled and any of the keys is
+     *          in its backoff period. The other keys are retrieved and cached.
+     *
+     *  @since 2.1.0
+     */
+    public Map<K,V> retrieveAll(Collection<K> keys) throws InterruptedException
+    {
+        Map<K,V> result = new HashMap<K,V>();
+        Map<K,CompletableFuture<V>> claimed = new LinkedHashMap<K,CompletableFuture<V>>();
+        Map<K,CompletableFuture<V>> waiting = new HashMap<K,CompletableFuture<V>>();
 
-        protected V cache(K key, V value)
+        for (K key : keys)
         {
-            synchronized (cacheLock)
+            if (result.containsKey(key) || claimed.containsKey(key) || waiting.containsKey(key))
+                continue;
+
+            CacheEntry<V> entry = lookup(key);
+            recordLookup(entry);
+            if (entry != null)
             {
-                cache.put(key, value);
-                return value;
+                result.put(key, entry.value);
+                continue;
             }
-        }
-    }
 
+            CompletableFuture<V> future = new CompletableFuture<V>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+            if (existing == null)
+                claimed.put(key, future);
+            else
+                waiting.put(key, existing);
+        }
 
-    private class UnsynchronizedRetriever
-    extends AbstractDelegatingRetriever
-    {
-        public UnsynchronizedRetriever(Function<K,V> delegate)
+        if (! claimed.isEmpty())
         {
-            super(delegate);
+            result.putAll(loadBatch(claimed));
         }
 
-        @Override
-        public V apply(K key)
+        for (Map.Entry<K,CompletableFuture<V>> entry : waiting.entrySet())
         {
-            V value = super.apply(key);
-
-            synchronized (cacheLock)
+            K key = entry.getKey();
+            try
             {
-                if (cache.containsKey(key))
-                    return cache.get(key);
-                else
-                    return cache(key, value);
+                result.put(key, waitFor(entry.getValue()));
+            }
+            catch (ExecutionException ignored)
+            {
+                // the other thread's retrieval failed; try again on our own, bypassing
+                // retrieve() because this key has already been counted as a miss
+                result.put(key, syncRetriever.retrieve(key));
             }
         }
+
+        return result;
     }
 
 
-    private class ByKeyRetriever
-    extends AbstractDelegatingRetriever
+    /**
+     *  Returns a future that will be completed with the value associated with the specified
+     *  key. If the key is already cached, the future is already completed. Otherwise, the
+     *  key is added to a pending batch, which is passed to the batch retriever on a background
+     *  thread after the configured batch window or when the batch reaches its maximum size.
+     *  If the retriever throws, the future is completed exceptionally.
+     *  <p>
+     *  Background threads are daemon threads, and are shut down when idle.
+     *
+     *  @since 2.1.0
+     */
+    public CompletableFuture<V> retrieveAsync(K key)
     {
-        private Object internalLock = new Object();
-        private Map<K,ReentrantLock> keyLocks = new HashMap<K,ReentrantLock>();
+        CacheEntry<V> entry = lookup(key);
+        recordLookup(entry);
+        if (entry != null)
+            return CompletableFuture.completedFuture(entry.value);
 
-        public ByKeyRetriever(Function<K,V> delegate)
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing == null)
         {
-            super(delegate);
+            batcher.add(key, future);
+            existing = future;
         }
 
-        @Override
-        public V apply(K key)
-        {
-            ReentrantLock lock = null;
-            try
-            {
-                lock = acquireLock(key);
-            }
-            catch (InterruptedException ex)
-            {
-                throw new RuntimeException("interrupted while waiting for lock");
-            }
+        // the in-flight future is shared, so we don't want the caller to complete it
+        return existing.thenApply(Function.identity());
+    }
 
-            try
-            {
-                V value = super.apply(key);
-                return cache(key, value);
-            }
-            finally
-            {
-                releaseLock(lock, key);
-            }
-        }
 
-        private ReentrantLock acquireLock(K key) throws InterruptedException
-        {
-            ReentrantLock lock = null;
-            synchronized (internalLock)
-            {
-                lock = keyLocks.get(key);
-                if (lock == null)
-                {
-                    lock = new ReentrantLock();
-                    keyLocks.put(key, lock);
-                    lock.lock();
-                    return lock;
-                }
-            }
+    /**
+     *  Returns the count of mappings currently in the cache.
+     */
+    public int size()
+    {
+        return cache.size();
+    }
 
-            // here's a race condition here that I don't think I can fix: if T1 deletes
-            // the map entry between the time that T2 gets the lock and locks it, then
-            // T3 can come in and think that nobody is locking the key.
-            //
-            // the only guaranteed solution is to make the keylocks have the same lifetime as
-            // entries in the cache, but that would mean that the cache could no longer be
-            // written to take a Function for retrieval; it would have to be a custom class
 
-            lock.lockInterruptibly();
-            return lock;
+    /**
+     * Removes all cached values.
+     */
+    public void clear()
+    {
+        for (Map.Entry<K,CacheEntry<V>> entry : cache.entrySet())
+        {
+            remove(entry.getKey(), entry.getValue());
         }
+        failures.clear();
 
+        if (offHeap != null)
+            offHeap.clear();
+    }
 
-        private void releaseLock(ReentrantLock lock, K key)
-        {
-            synchronized (internalLock)
-            {
-                if (! lock.hasQueuedThreads())
-                {
-                    keyLocks.remove(key);
-                }
-                lock.unlock();
-            }
-        }
+
+    /**
+     *  Returns the total weight of the values currently in the cache, as reported by
+     *  the weigher configured with {@link #withMaxWeight}. Returns 0 if there is no
+     *  configured weigher.
+     *
+     *  @since 2.1.0
+     */
+    public long weight()
+    {
+        return totalWeight.get();
     }
 
 
-    private class SingleThreadedRetriever
-    extends AbstractDelegatingRetriever
+    /**
+     *  Returns a snapshot of the cache's statistics. Counters are updated without
+     *  synchronization, so a snapshot taken while the cache is in use may not be
+     *  internally consistent (for example, a load may be reflected in the miss
+     *  count but not yet in the load count).
+     *
+     *  @since 2.1.0
+     */
+    public Statistics getStatistics()
     {
-        public SingleThreadedRetriever(Function<K,V> delegate)
-        {
-            super(delegate);
-        }
+        return stats.snapshot();
+    }
 
-        @Override
-        public synchronized V apply(K key)
-        {
-            V value = super.apply(key);
-            return cache(key, value);
+
+    /**
+     *  Returns the number of values that are held in off-heap storage (some of which
+     *  may also be in the on-heap cache). Returns 0 if off-heap storage has not been
+     *  configured.
+     *
+     *  @since 2.1.0
+     */
+    public int offHeapSize()
+    {
+        return (offHeap != null) ? offHeap.size() : 0;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Holds a cached value along with the information needed for eviction.
+     */
+    private static class CacheEntry<V>
+    {
+        public final V value;
+        public final long weight;
+        public final boolean copiedOffHeap;
+        public final long expiresAt;        // as System.nanoTime(); only valid if isExpiring
+        public final boolean isExpiring;
+
+        // not volatile: eviction only needs approximate recency, and we don't
+        // want to pay for a memory barrier on every cache hit
+        public long lastAccess;
+
+        public CacheEntry(V value, long weight, boolean copiedOffHeap, long ttlNanos)
+        {
+            this.value = value;
+            this.weight = weight;
+            this.copiedOffHeap = copiedOffHeap;
+            this.lastAccess = System.nanoTime();
+            this.isExpiring = (ttlNanos > 0);
+            this.expiresAt = lastAccess + ttlNanos;
+        }
+
+        public void touch()
+        {
+            lastAccess = System.nanoTime();
+        }
+
+        public boolean isExpired()
+        {
+            return isExpiring && (System.nanoTime() - expiresAt >= 0);
+        }
+    }
+
+
+    /**
+     *  Returns the entry for the specified key, <code>null</code> if it's not cached.
+     *  Entries found in off-heap storage are promoted to the on-heap cache. The entry's
+     *  access time is updated.
+     */
+    private CacheEntry<V> lookup(K key)
+    {
+        CacheEntry<V> entry = cache.get(key);
+        if ((entry != null) && entry.isExpired())
+        {
+            remove(key, entry);
+            entry = null;
+        }
+
+        if (entry != null)
+        {
+            entry.touch();
+            return entry;
+        }
+
+        if (offHeap == null)
+            return null;
+
+        byte[] serialized = offHeap.get(key);
+        if (serialized == null)
+            return null;
+
+        stats.offHeapHitCount.increment();
+        V value = deserializer.apply(serialized);
+        return storeIfAbsent(key, createEntry(key, value, true));
+    }
+
+
+    /**
+     *  Creates a new entry, applying the weigher if one is configured.
+     */
+    private CacheEntry<V> createEntry(K key, V value, boolean copiedOffHeap)
+    {
+        long weight = ((weigher != null) && (value != null)) ? weigher.applyAsLong(key, value) : 0;
+        long ttl = (value == null) ? negativeTtlNanos : 0;
+        return new CacheEntry<V>(value, weight, copiedOffHeap, ttl);
+    }
+
+
+    /**
+     *  Removes an entry from the cache if it is still mapped to the specified key,
+     *  updating the total weight. Returns <code>true</code> if the entry was removed.
+     */
+    private boolean remove(K key, CacheEntry<V> entry)
+    {
+        if (! cache.remove(key, entry))
+            return false;
+
+        totalWeight.addAndGet(-entry.weight);
+        return true;
+    }
+
+
+    /**
+     *  Adds a value to the cache, replacing any existing value, and evicts entries
+     *  if necessary. Returns the passed value.
+     */
+    private V store(K key, V value)
+    {
+        CacheEntry<V> entry = createEntry(key, value, false);
+        CacheEntry<V> existing = cache.put(key, entry);
+        totalWeight.addAndGet(entry.weight - ((existing != null) ? existing.weight : 0));
+        evictIfNeeded();
+        return value;
+    }
+
+
+    /**
+     *  Adds an entry to the cache if there is not already an entry for the key.
+     *  Returns the entry that is in the cache after this call.
+     */
+    private CacheEntry<V> storeIfAbsent(K key, CacheEntry<V> entry)
+    {
+        CacheEntry<V> existing = cache.putIfAbsent(key, entry);
+        if (existing != null)
+        {
+            existing.touch();
+            return existing;
+        }
+
+        totalWeight.addAndGet(entry.weight);
+        evictIfNeeded();
+        return entry;
+    }
+
+
+    /**
+     *  Determines whether the cache exceeds either its size or weight limit.
+     */
+    private boolean isOverLimit()
+    {
+        return (cache.size() > maxSize) || (totalWeight.get() > maxWeight);
+    }
+
+
+    /**
+     *  Removes entries until the cache is within its size limit. Only one thread
+     *  performs eviction at a time; others return immediately, leaving the work
+     *  to that thread. The outer loop catches inserts that happened after the
+     *  evicting thread last checked the size but before it released the lock.
+     */
+    private void evictIfNeeded()
+    {
+        while (isOverLimit() && evictionLock.tryLock())
+        {
+            try
+            {
+                while (isOverLimit())
+                {
+                    if (! evictOne())
+                        return;
+                }
+            }
+            finally
+            {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     *  Removes the least-recently-used entry from a sample of the cache. The sample
+     *  is taken from a cursor that persists between calls, so that successive calls
+     *  examine different parts of the map. If off-heap storage is configured, the
+     *  evicted value is copied there. Must be called with the eviction lock held.
+     *  <p>
+     *  Returns <code>false</code> if the cache is empty.
+     */
+    private boolean evictOne()
+    {
+        int sampleSize = cache.size();
+        if (sampleSize <= EVICTION_SAMPLE_SIZE)
+        {
+            // small enough to examine every entry, so start from the beginning
+            evictionCursor = null;
+        }
+        else
+        {
+            sampleSize = EVICTION_SAMPLE_SIZE;
+        }
+
+        Map.Entry<K,CacheEntry<V>> victim = null;
+        for (int ii = 0 ; ii < sampleSize ; ii++)
+        {
+            if ((evictionCursor == null) || ! evictionCursor.hasNext())
+            {
+                evictionCursor = cache.entrySet().iterator();
+                if (! evictionCursor.hasNext())
+                    return false;
+            }
+
+            Map.Entry<K,CacheEntry<V>> candidate = evictionCursor.next();
+            if ((victim == null) || (candidate.getValue().lastAccess < victim.getValue().lastAccess))
+                victim = candidate;
+        }
+
+        if ((victim != null) && remove(victim.getKey(), victim.getValue()))
+        {
+            CacheEntry<V> entry = victim.getValue();
+            stats.evictionCount.increment();
+            if (offHeap != null)
+                moveOffHeap(victim.getKey(), entry);
+        }
+        return true;
+    }
+
+
+    /**
+     *  Writes an evicted entry to off-heap storage, unless it was itself promoted
+     *  from off-heap storage and that copy is still available. Null values are not
+     *  stored.
+     */
+    private void moveOffHeap(K key, CacheEntry<V> entry)
+    {
+        if (entry.copiedOffHeap && offHeap.contains(key))
+            return;
+
+        if (entry.value == null)
+        {
+            offHeap.remove(key);
+            return;
+        }
+
+        offHeap.put(key, serializer.apply(entry.value));
+    }
+
+
+    /**
+     *  Invokes the batch retriever for keys that the calling thread has claimed in the
+     *  in-flight map, caches the results, and completes the claimed futures. If the
+     *  retriever throws, all futures are completed exceptionally and the exception is
+     *  rethrown.
+     */
+    private Map<K,V> loadBatch(Map<K,CompletableFuture<V>> claimed)
+    {
+        try
+        {
+            // some of the keys may have been loaded between our cache miss and claiming
+            // them; others may be backing off from an earlier failure
+            Map<K,V> result = new HashMap<K,V>();
+            Map<K,BackoffException> rejected = new HashMap<K,BackoffException>();
+            Set<K> keysToLoad = new LinkedHashSet<K>();
+            for (K key : claimed.keySet())
+            {
+                CacheEntry<V> entry = lookup(key);
+                BackoffException backoff = (entry == null) ? checkBackoff(key) : null;
+                if (entry != null)
+                    result.put(key, entry.value);
+                else if (backoff != null)
+                    rejected.put(key, backoff);
+                else
+                    keysToLoad.add(key);
+            }
+
+            if (! keysToLoad.isEmpty())
+            {
+                Map<K,V> loaded;
+                try
+                {
+                    loaded = invokeBatchRetriever(Collections.unmodifiableSet(keysToLoad));
+                }
+                catch (Throwable ex)
+                {
+                    for (K key : keysToLoad)
+                        recordFailure(key, ex);
+                    throw ex;
+                }
+
+                for (K key : keysToLoad)
+                {
+                    recordSuccess(key);
+                    result.put(key, store(key, (loaded != null) ? loaded.get(key) : null));
+                }
+            }
+
+            for (Map.Entry<K,CompletableFuture<V>> entry : claimed.entrySet())
+            {
+                K key = entry.getKey();
+                inFlight.remove(key, entry.getValue());
+                if (rejected.containsKey(key))
+                    entry.getValue().completeExceptionally(rejected.get(key));
+                else
+                    entry.getValue().complete(result.get(key));
+            }
+
+            if (! rejected.isEmpty())
+                throw rejected.values().iterator().next();
+
+            return result;
+        }
+        catch (Throwable ex)
+        {
+            for (Map.Entry<K,CompletableFuture<V>> entry : claimed.entrySet())
+            {
+                inFlight.remove(entry.getKey(), entry.getValue());
+                entry.getValue().completeExceptionally(ex);
+            }
+            throw ex;
+        }
+    }
+
+
+    /**
+     *  Invokes the batch retriever, respecting single-threaded synchronization.
+     */
+    private Map<K,V> invokeBatchRetriever(Set<K> keys)
+    {
+        if (syncOpt == Synchronization.SINGLE_THREADED)
+        {
+            long waitStart = System.nanoTime();
+            synchronized (syncRetriever)
+            {
+                stats.lockWaitNanos.add(System.nanoTime() - waitStart);
+                return timedInvoke(batchRetriever, keys);
+            }
+        }
+        return timedInvoke(batchRetriever, keys);
+    }
+
+
+    /**
+     *  Invokes the single-key retriever, recording statistics and applying failure
+     *  backoff.
+     */
+    private V invokeRetriever(K key)
+    {
+        BackoffException backoff = checkBackoff(key);
+        if (backoff != null)
+            throw backoff;
+
+        try
+        {
+            V value = timedInvoke(retriever, key);
+            recordSuccess(key);
+            return value;
+        }
+        catch (Throwable ex)
+        {
+            recordFailure(key, ex);
+            throw ex;
+        }
+    }
+
+
+    /**
+     *  If the specified key is backing off from a previous failure, returns the exception
+     *  that should be thrown to the caller. Returns <code>null</code> if the retriever may
+     *  be invoked.
+     */
+    private BackoffException checkBackoff(K key)
+    {
+        if ((initialBackoffNanos == 0) || failures.isEmpty())
+            return null;
+
+        long now = System.nanoTime();
+        FailureRecord record = failures.get(key);
+        if ((record == null) || (now - record.retryAt >= 0))
+            return null;
+
+        stats.backoffRejectionCount.increment();
+        return new BackoffException(
+                "retrieval of " + key + " failed " + record.failureCount + " times; not retrying for "
+                + TimeUnit.NANOSECONDS.toMillis(record.retryAt - now) + " milliseconds",
+                record.lastFailure);
+    }
+
+
+    /**
+     *  Records a failed retrieval, extending the key's backoff period.
+     */
+    private void recordFailure(K key, Throwable ex)
+    {
+        if (initialBackoffNanos == 0)
+            return;
+
+        final long now = System.nanoTime();
+        failures.compute(key, (k, previous) ->
+        {
+            // a key that hasn't failed in a long time starts over
+            int failureCount = ((previous == null) || (now - previous.retryAt > maxBackoffNanos))
+                             ? 1
+                             : previous.failureCount + 1;
+
+            long delay = initialBackoffNanos;
+            for (int ii = 1 ; (ii < failureCount) && (delay < maxBackoffNanos) ; ii++)
+                delay *= 2;
+
+            return new FailureRecord(failureCount, now + Math.min(delay, maxBackoffNanos), ex);
+        });
+
+        // failing keys may never be requested again; don't let them accumulate
+        if ((failures.size() > failurePruneThreshold) && failurePruneLock.tryLock())
+        {
+            try
+            {
+                pruneFailures(now);
+            }
+            finally
+            {
+                failurePruneLock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     *  Discards failure records whose backoff has long expired and, if that
+     *  isn't enough, arbitrary records to bring the count to half the limit
+     *  (those keys lose their backoff). The next prune happens once the count
+     *  has doubled (or reached the limit), so the cost is amortized across
+     *  the failures that got us there. Caller must hold failurePruneLock.
+     */
+    private void pruneFailures(long now)
+    {
+        int limit = Math.max(MIN_FAILURE_PRUNE_THRESHOLD, Math.min(maxSize, MAX_FAILURE_RECORDS));
+
+        failures.values().removeIf(record -> now - record.retryAt > maxBackoffNanos);
+
+        Iterator<FailureRecord> itx = failures.values().iterator();
+        while ((failures.size() > limit / 2) && itx.hasNext())
+        {
+            itx.next();
+            itx.remove();
+        }
+
+        failurePruneThreshold = Math.min(limit, Math.max(MIN_FAILURE_PRUNE_THRESHOLD, 2 * failures.size()));
+    }
+
+
+    /**
+     *  Records a successful retrieval, clearing any backoff.
+     */
+    private void recordSuccess(K key)
+    {
+        if (! failures.isEmpty())
+            failures.remove(key);
+    }
+
+
+    /**
+     *  Returns the number of retained failure records. Exposed for testing.
+     */
+    int getFailureRecordCount()
+    {
+        return failures.size();
+    }
+
+
+    /**
+     *  Invokes a retriever function, recording its success or failure and the
+     *  elapsed time.
+     */
+    private <T,R> R timedInvoke(Function<T,R> fn, T arg)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            R result = fn.apply(arg);
+            stats.loadSuccessCount.increment();
+            return result;
+        }
+        catch (Throwable ex)
+        {
+            stats.loadFailureCount.increment();
+            throw ex;
+        }
+        finally
+        {
+            stats.totalLoadNanos.add(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     *  Waits for another thread's retrieval to complete, recording the wait time.
+     */
+    private V waitFor(CompletableFuture<V> future)
+    throws InterruptedException, ExecutionException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            return future.get();
+        }
+        finally
+        {
+            stats.lockWaitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     *  Records a hit or miss for a top-level lookup.
+     */
+    private void recordLookup(CacheEntry<V> entry)
+    {
+        if (entry != null)
+            stats.hitCount.increment();
+        else
+            stats.missCount.increment();
+    }
+
+
+    /**
+     *  Returns the executor used for asynchronous retrieval, creating it if necessary.
+     */
+    private ScheduledThreadPoolExecutor getAsyncExecutor()
+    {
+        if (asyncExecutor == null)
+        {
+            synchronized (batcher)
+            {
+                if (asyncExecutor == null)
+                {
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, new NamedThreadFactory("ReadThroughCache"));
+                    executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+                    executor.allowCoreThreadTimeOut(true);
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return asyncExecutor;
+    }
+
+
+    /**
+     *  Accumulates keys requested by {@link #retrieveAsync} and dispatches them to the
+     *  executor as a batch.
+     */
+    private class Batcher
+    {
+        private Map<K,CompletableFuture<V>> pending = new LinkedHashMap<K,CompletableFuture<V>>();
+
+        public void add(K key, CompletableFuture<V> future)
+        {
+            Map<K,CompletableFuture<V>> batch = null;
+            boolean scheduleFlush = false;
+            synchronized (this)
+            {
+                pending.put(key, future);
+                if (pending.size() >= maxBatchSize)
+                {
+                    batch = pending;
+                    pending = new LinkedHashMap<K,CompletableFuture<V>>();
+                }
+                else
+                {
+                    scheduleFlush = (pending.size() == 1);
+                }
+            }
+
+            // note: a flush scheduled for a batch that was dispatched because it reached
+            // maximum size will dispatch the next batch early; this is harmless
+
+            if (batch != null)
+                dispatch(batch);
+            else if (scheduleFlush)
+                getAsyncExecutor().schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void flush()
+        {
+            Map<K,CompletableFuture<V>> batch;
+            synchronized (this)
+            {
+                batch = pending;
+                pending = new LinkedHashMap<K,CompletableFuture<V>>();
+            }
+
+            if (! batch.isEmpty())
+                dispatch(batch);
+        }
+
+        private void dispatch(final Map<K,CompletableFuture<V>> batch)
+        {
+            getAsyncExecutor().execute(() ->
+            {
+                try
+                {
+                    loadBatch(batch);
+                }
+                catch (Throwable ignored)
+                {
+                    // the exception has been reported via the futures
+                }
+            });
+        }
+    }
+
+
+    /**
+     *  The batch retriever used when the cache is constructed with a single-key
+     *  retriever: invokes that retriever for each key.
+     */
+    private class IterativeBatchRetriever
+    implements Function<Set<K>,Map<K,V>>
+    {
+        @Override
+        public Map<K,V> apply(Set<K> keys)
+        {
+            Map<K,V> result = new HashMap<K,V>();
+            for (K key : keys)
+            {
+                result.put(key, retriever.apply(key));
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     *  The single-key retriever used when the cache is constructed with a batch
+     *  retriever: invokes that retriever with a single key.
+     */
+    private class SingleKeyRetriever
+    implements Function<K,V>
+    {
+        @Override
+        public V apply(K key)
+        {
+            Map<K,V> result = batchRetriever.apply(Collections.singleton(key));
+            return (result != null) ? result.get(key) : null;
+        }
+    }
+
+
+    /**
+     *  Tracks consecutive retrieval failures for a single key.
+     */
+    private static class FailureRecord
+    {
+        public final int failureCount;
+        public final long retryAt;          // as System.nanoTime()
+        public final Throwable lastFailure;
+
+        public FailureRecord(int failureCount, long retryAt, Throwable lastFailure)
+        {
+            this.failureCount = failureCount;
+            this.retryAt = retryAt;
+            this.lastFailure = lastFailure;
+        }
+    }
+
+
+    /**
+     *  Holds the live statistics. These are <code>LongAdder</code>s, which spread
+     *  updates across multiple cells, so that counting hits does not introduce a
+     *  point of contention.
+     */
+    private static class StatisticsCounters
+    {
+        public final LongAdder hitCount = new LongAdder();
+        public final LongAdder missCount = new LongAdder();
+        public final LongAdder offHeapHitCount = new LongAdder();
+        public final LongAdder loadSuccessCount = new LongAdder();
+        public final LongAdder loadFailureCount = new LongAdder();
+        public final LongAdder totalLoadNanos = new LongAdder();
+        public final LongAdder evictionCount = new LongAdder();
+        public final LongAdder lockWaitNanos = new LongAdder();
+        public final LongAdder backoffRejectionCount = new LongAdder();
+
+        public Statistics snapshot()
+        {
+            return new Statistics(
+                    hitCount.sum(), missCount.sum(), offHeapHitCount.sum(),
+                    loadSuccessCount.sum(), loadFailureCount.sum(), totalLoadNanos.sum(),
+                    evictionCount.sum(), lockWaitNanos.sum(), backoffRejectionCount.sum());
+        }
+    }
+
+
+    /**
+     *  Off-heap storage for serialized values. This is a ring of fixed-size direct
+     *  buffers: values are appended at the head, overwriting the oldest values once
+     *  the ring is full. A value never spans buffers.
+     *  <p>
+     *  Positions are tracked as a logical offset that increases forever; the physical
+     *  location is that offset modulo the ring's capacity. A value is valid until the
+     *  head advances more than one capacity beyond the value's position.
+     *  <p>
+     *  All methods are synchronized. This is acceptable because the store is only
+     *  accessed on an on-heap miss or eviction.
+     */
+    private static class OffHeapStore<K>
+    {
+        private final static int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+        private ByteBuffer[] segments;
+        private int segmentSize;
+        private long capacity;
+        private long head;
+
+        private Map<K,Location<K>> index = new HashMap<K,Location<K>>();
+        private ArrayDeque<Location<K>> writeOrder = new ArrayDeque<Location<K>>();
+
+        public OffHeapStore(long requestedCapacity)
+        {
+            if (requestedCapacity <= 0)
+                throw new IllegalArgumentException("invalid off-heap capacity: " + requestedCapacity);
+
+            segmentSize = (int)Math.min(requestedCapacity, MAX_SEGMENT_SIZE);
+            int numSegments = (int)((requestedCapacity + segmentSize - 1) / segmentSize);
+            segments = new ByteBuffer[numSegments];
+            for (int ii = 0 ; ii < numSegments ; ii++)
+            {
+                segments[ii] = ByteBuffer.allocateDirect(segmentSize);
+            }
+            capacity = (long)segmentSize * numSegments;
+        }
+
+        public synchronized int size()
+        {
+            return index.size();
+        }
+
+        public synchronized boolean contains(K key)
+        {
+            return index.containsKey(key);
+        }
+
+        public synchronized byte[] get(K key)
+        {
+            Location<K> loc = index.get(key);
+            if (loc == null)
+                return null;
+
+            ByteBuffer buf = segmentFor(loc.position);
+            buf.position(offsetFor(loc.position));
+            byte[] data = new byte[loc.length];
+            buf.get(data);
+            return data;
+        }
+
+        public synchronized void put(K key, byte[] data)
+        {
+            if (data.length > segmentSize)
+            {
+                // don't leave an older version of the value in place
+                index.remove(key);
+                return;
+            }
+
+            long position = head;
+            int offset = offsetFor(position);
+            if (offset + data.length > segmentSize)
+            {
+                position += segmentSize - offset;
+                offset = 0;
+            }
+
+            ByteBuffer buf = segmentFor(position);
+            buf.position(offset);
+            buf.put(data);
+            head = position + data.length;
+
+            Location<K> loc = new Location<K>(key, position, data.length);
+            index.put(key, loc);
+            writeOrder.addLast(loc);
+
+            while (writeOrder.peekFirst().position + capacity < head)
+            {
+                Location<K> overwritten = writeOrder.removeFirst();
+                index.remove(overwritten.key, overwritten);
+            }
+        }
+
+        public synchronized void remove(K key)
+        {
+            index.remove(key);
+        }
+
+        public synchronized void clear()
+        {
+            index.clear();
+            writeOrder.clear();
+        }
+
+        private ByteBuffer segmentFor(long position)
+        {
+            return segments[(int)((position / segmentSize) % segments.length)];
+        }
+
+        private int offsetFor(long position)
+        {
+            return (int)(position % segmentSize);
+        }
+    }
+
+
+    /**
+     *  Identifies a value in off-heap storage.
+     */
+    private static class Location<K>
+    {
+        public final K key;
+        public final long position;
+        public final int length;
+
+        public Location(K key, long position, int length)
+        {
+            this.key = key;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     *  Base class for the synchronization strategies. These are invoked only after
+     *  a cache miss.
+     */
+    private abstract class AbstractRetriever
+    {
+        public abstract V retrieve(K key) throws InterruptedException;
+    }
+
+
+    private class UnsynchronizedRetriever
+    extends AbstractRetriever
+    {
+        @Override
+        public V retrieve(K key)
+        {
+            return storeIfAbsent(key, createEntry(key, invokeRetriever(key), false)).value;
+        }
+    }
+
+
+    private class ByKeyRetriever
+    extends AbstractRetriever
+    {
+        @Override
+        public V retrieve(K key) throws InterruptedException
+        {
+            while (true)
+            {
+                CompletableFuture<V> future = new CompletableFuture<V>();
+                CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+                if (existing == null)
+                    return load(key, future);
+
+                try
+                {
+                    return waitFor(existing);
+                }
+                catch (ExecutionException ignored)
+                {
+                    // the other thread's retrieval threw; it's reported the exception to
+                    // its own caller, and we'll make our own attempt
+                }
+            }
+        }
+
+
+        private V load(K key, CompletableFuture<V> future)
+        {
+            try
+            {
+                // another thread may have finished loading between our cache miss
+                // and claiming the key
+                CacheEntry<V> entry = lookup(key);
+                V value = (entry != null)
+                        ? entry.value
+                        : store(key, invokeRetriever(key));
+
+                // order is important: the value must be visible in the cache before
+                // we stop advertising the in-flight load
+                inFlight.remove(key, future);
+                future.complete(value);
+                return value;
+            }
+            catch (Throwable ex)
+            {
+                inFlight.remove(key, future);
+                future.completeExceptionally(ex);
+                throw ex;
+            }
+        }
+    }
+
+
+    private class SingleThreadedRetriever
+    extends AbstractRetriever
+    {
+        @Override
+        public V retrieve(K key)
+        {
+            long waitStart = System.nanoTime();
+            synchronized (this)
+            {
+                stats.lockWaitNanos.add(System.nanoTime() - waitStart);
+
+                CacheEntry<V> entry = lookup(key);
+                if (entry != null)
+                    return entry.value;
+
+                return store(key, invokeRetriever(key));
+            }
         }
     }
 }
@@ -14,9 +14,15 @@
 
 package com.kdgregory.kdgcommons.collections;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import com.kdgregory.kdgcommons.buffer.BufferFacade;
+import com.kdgregory.kdgcommons.buffer.BufferFacadeFactory;
 import com.kdgregory.kdgcommons.collections.BinarySearch.IndexedComparator;
 
 
@@ -168,10 +174,124 @@ public class TestBinarySearch
         assertEquals(-6, BinarySearch.search(index, 'K', cmp));
     }
 
+
+    @Test
+    public void testLongArraySearch() throws Exception
+    {
+        for (int size = 0 ; size < 100 ; size++)
+        {
+            long[] array = createLongArray(size, 3);
+            for (long key = -1 ; key <= size * 3 + 1 ; key++)
+            {
+                int expected = expectedPosition(array, key);
+                assertEquals("size " + size + ", key " + key, expected, BinarySearch.search(array, key));
+                assertEquals("size " + size + ", key " + key, expected, BinarySearch.interpolationSearch(array, key));
+            }
+        }
+    }
+
+
+    @Test
+    public void testLongArraySearchWithDuplicates() throws Exception
+    {
+        long[] array = new long[] { Long.MIN_VALUE, 1, 1, 1, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5,
+                                    5, 5, 5, 5, 5, 5, 7, 9, 9, 9, Long.MAX_VALUE };
+
+        for (long key : new long[] { Long.MIN_VALUE, 0, 1, 2, 5, 6, 7, 8, 9, 10, Long.MAX_VALUE })
+        {
+            int expected = expectedPosition(array, key);
+            assertEquals("key " + key, expected, BinarySearch.search(array, key));
+            assertEquals("key " + key, expected, BinarySearch.interpolationSearch(array, key));
+        }
+    }
+
+
+    @Test
+    public void testLongArraySearchPortionOfArray() throws Exception
+    {
+        long[] array = new long[] { 1, 3, 5, 7, 9, 11 };
+
+        assertEquals(-2, BinarySearch.search(array, 1, 4, 1));
+        assertEquals(2,  BinarySearch.search(array, 1, 4, 5));
+        assertEquals(-4, BinarySearch.search(array, 1, 4, 6));
+        assertEquals(-5, BinarySearch.search(array, 1, 4, 9));
+    }
+
+
+    @Test
+    public void testInterpolationSearchDistributions() throws Exception
+    {
+        Random rnd = new Random(42);
+        long[] uniform = new long[100000];
+        long[] skewed = new long[100000];
+        for (int ii = 0 ; ii < uniform.length ; ii++)
+        {
+            uniform[ii] = rnd.nextLong();
+            skewed[ii] = (long)Math.pow(ii, 3);
+        }
+        Arrays.sort(uniform);
+
+        for (long[] array : Arrays.asList(uniform, skewed))
+        {
+            for (int ii = 0 ; ii < 1000 ; ii++)
+            {
+                long key = ((ii % 2) == 0) ? array[rnd.nextInt(array.length)] : rnd.nextLong() % 1000000000000000L;
+                assertEquals("key " + key, expectedPosition(array, key), BinarySearch.interpolationSearch(array, key));
+            }
+        }
+    }
+
+
+    @Test
+    public void testBufferFacadeSearch() throws Exception
+    {
+        // records are 16 bytes: a 4-byte header, 8-byte key, and 4-byte payload;
+        // and we put some junk at the start of the buffer to exercise base
+        final int base = 20;
+        final int stride = 16;
+        long[] keys = createLongArray(1000, 10);
+
+        ByteBuffer buf = ByteBuffer.allocate(base + keys.length * stride);
+        for (int ii = 0 ; ii < keys.length ; ii++)
+            buf.putLong(base + ii * stride + 4, keys[ii]);
+        BufferFacade facade = BufferFacadeFactory.create(buf);
+
+        for (long key = -5 ; key < keys.length * 10 + 5 ; key++)
+        {
+            long expected = expectedPosition(keys, key);
+            assertEquals("key " + key, expected, BinarySearch.search(facade, base + 4, stride, keys.length, key));
+            assertEquals("key " + key, expected, BinarySearch.interpolationSearch(facade, base + 4, stride, keys.length, key));
+        }
+
+        assertEquals("empty buffer", -1, BinarySearch.search(facade, base + 4, stride, 0, 123));
+        assertEquals("empty buffer", -1, BinarySearch.interpolationSearch(facade, base + 4, stride, 0, 123));
+    }
+
 //----------------------------------------------------------------------------
 //  Support Code
 //----------------------------------------------------------------------------
 
+    // sorted long[] with values 0, step, 2*step, ...
+    private static long[] createLongArray(int size, int step)
+    {
+        long[] array = new long[size];
+        for (int ii = 0 ; ii < size ; ii++)
+            array[ii] = ii * step;
+        return array;
+    }
+
+
+    // expected result for the long[] searches: position of first match, or
+    // insertion point
+    private static int expectedPosition(long[] array, long key)
+    {
+        int pos = 0;
+        while ((pos < array.length) && (array[pos] < key))
+            pos++;
+        return ((pos < array.length) && (array[pos] == key)) ? pos : -pos - 1;
+    }
+
+
     // we'll test with character arrays, in keeping with the examples in the
     // method doc ... it's also really easy to implement
     private static class CharacterArrayAccessor
@@ -20,11 +20,20 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -710,6 +719,163 @@ public class TestCollectionUtil
     }
 
 
+    @Test
+    public void testStreamingPartition() throws Exception
+    {
+        assertFalse(
+                "null source",
+                CollectionUtil.streamingPartition(null, 2).iterator().hasNext());
+
+        assertEquals(
+                "non-empty source",
+                Arrays.asList(Arrays.asList(1,2), Arrays.asList(3,4), Arrays.asList(5)),
+                Pipeline.from(CollectionUtil.streamingPartition(Arrays.asList(1,2,3,4,5), 2)).toList());
+
+        // an infinite source demonstrates laziness
+        Iterator<Integer> infinite = new Iterator<Integer>()
+        {
+            private int value;
+
+            @Override
+            public boolean hasNext()
+            {
+                return true;
+            }
+
+            @Override
+            public Integer next()
+            {
+                return value++;
+            }
+        };
+
+        Iterator<List<Integer>> chunks = CollectionUtil.streamingPartition(new IteratorIterable<Integer>(infinite), 3).iterator();
+        assertEquals("first chunk from infinite source",  Arrays.asList(0,1,2), chunks.next());
+        assertEquals("second chunk from infinite source", Arrays.asList(3,4,5), chunks.next());
+    }
+
+
+    @Test
+    public void testProcessBatches() throws Exception
+    {
+        List<Integer> source = new ArrayList<Integer>();
+        for (int ii = 0 ; ii < 1000 ; ii++)
+            source.add(ii);
+
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Integer> sums = CollectionUtil.processBatches(source, 10, executor, 3, batch ->
+            {
+                int current = inFlight.incrementAndGet();
+                maxInFlight.accumulateAndGet(current, Math::max);
+                try
+                {
+                    Thread.sleep(1);
+                }
+                catch (InterruptedException ignored)
+                {
+                    // won't happen
+                }
+                inFlight.decrementAndGet();
+
+                int sum = 0;
+                for (Integer value : batch)
+                    sum += value.intValue();
+                return Integer.valueOf(sum);
+            });
+
+            assertEquals("number of batches", 100, sums.size());
+            for (int ii = 0 ; ii < sums.size() ; ii++)
+            {
+                // each batch is 10 consecutive numbers starting at 10*ii
+                assertEquals("sum of batch " + ii, Integer.valueOf(100 * ii + 45), sums.get(ii));
+            }
+
+            assertTrue("max in-flight batches (was " + maxInFlight.get() + ")", maxInFlight.get() <= 3);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testProcessBatchesWithFailure() throws Exception
+    {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            CollectionUtil.processBatches(Arrays.asList(1,2,3,4,5,6,7,8,9,10), 1, executor, 1, batch ->
+            {
+                invocations.incrementAndGet();
+                if (batch.get(0).intValue() == 3)
+                    throw new IllegalStateException("batch 3");
+                return batch;
+            });
+            fail("should have thrown");
+        }
+        catch (ExecutionException ex)
+        {
+            assertEquals("cause", IllegalStateException.class, ex.getCause().getClass());
+            assertEquals("message", "batch 3", ex.getCause().getMessage());
+
+            // with a single in-flight batch, the failure is seen before submitting another
+            assertEquals("invocations", 3, invocations.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testProcessBatchesWithRejection() throws Exception
+    {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        // one thread and a one-element queue: the third batch will be rejected
+        // while the first is still running
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                                        1, 1, 0, TimeUnit.MILLISECONDS,
+                                        new ArrayBlockingQueue<Runnable>(1),
+                                        new ThreadPoolExecutor.AbortPolicy());
+        try
+        {
+            CollectionUtil.processBatches(Arrays.asList(1,2,3,4,5,6,7,8,9,10), 1, executor, 3, batch ->
+            {
+                invocations.incrementAndGet();
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException ignored)
+                {
+                    // nothing to do
+                }
+                return batch;
+            });
+            fail("should have thrown");
+        }
+        catch (RejectedExecutionException ex)
+        {
+            // the rejection is reported after the submitted batches complete
+            assertEquals("invocations", 2, invocations.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
     @Test
     public void testSubmap() throws Exception
     {
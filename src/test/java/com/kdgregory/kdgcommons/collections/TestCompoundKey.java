@@ -120,6 +120,9 @@ public class TestCompoundKey
 
         CompoundKey ret = (CompoundKey)ois.readObject();
         assertEquals(key, ret);
+
+        // the hash code isn't serialized; it's recomputed on deserialization
+        assertEquals("hash code", key.hashCode(), ret.hashCode());
     }
 
 
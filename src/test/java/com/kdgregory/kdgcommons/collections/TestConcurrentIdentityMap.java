@@ -0,0 +1,232 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.kdgregory.kdgcommons.collections.ConcurrentIdentityMap.KeyReferences;
+
+
+public class TestConcurrentIdentityMap
+{
+    @Test
+    public void testBasicOperation() throws Exception
+    {
+        ConcurrentIdentityMap<String,Integer> map = new ConcurrentIdentityMap<String,Integer>();
+        String key1 = new String("foo");
+        String key2 = new String("foo");
+
+        assertTrue("initially empty", map.isEmpty());
+        assertNull("put returns null for new key", map.put(key1, 1));
+        assertNull("put of equal key is new key", map.put(key2, 2));
+        assertEquals("size", 2, map.size());
+
+        assertEquals("get(key1)", Integer.valueOf(1), map.get(key1));
+        assertEquals("get(key2)", Integer.valueOf(2), map.get(key2));
+        assertNull("get(equal but not identical)", map.get("foo"));
+        assertTrue("containsKey", map.containsKey(key1));
+        assertFalse("containsKey", map.containsKey("foo"));
+
+        assertEquals("put returns old value", Integer.valueOf(1), map.put(key1, 11));
+        assertEquals("get after replace", Integer.valueOf(11), map.get(key1));
+
+        assertEquals("remove returns value", Integer.valueOf(11), map.remove(key1));
+        assertNull("remove of missing key", map.remove(key1));
+        assertNull("get after remove", map.get(key1));
+        assertEquals("size after remove", 1, map.size());
+
+        map.clear();
+        assertTrue("empty after clear", map.isEmpty());
+        assertNull("get after clear", map.get(key2));
+    }
+
+
+    @Test
+    public void testPutIfAbsentAndCompute() throws Exception
+    {
+        ConcurrentIdentityMap<Object,String> map = new ConcurrentIdentityMap<Object,String>();
+        Object key = new Object();
+
+        assertNull("putIfAbsent, new key", map.putIfAbsent(key, "foo"));
+        assertEquals("putIfAbsent, existing key", "foo", map.putIfAbsent(key, "bar"));
+        assertEquals("value not replaced", "foo", map.get(key));
+
+        final AtomicInteger calls = new AtomicInteger();
+        Object key2 = new Object();
+        assertEquals("computeIfAbsent, new key", "baz", map.computeIfAbsent(key2, k -> { calls.incrementAndGet(); return "baz"; }));
+        assertEquals("computeIfAbsent, existing key", "baz", map.computeIfAbsent(key2, k -> { calls.incrementAndGet(); return "biff"; }));
+        assertEquals("function calls", 1, calls.get());
+
+        assertNull("computeIfAbsent, null result", map.computeIfAbsent(new Object(), k -> null));
+        assertEquals("size", 2, map.size());
+    }
+
+
+    @Test
+    public void testNullsRejected() throws Exception
+    {
+        ConcurrentIdentityMap<Object,Object> map = new ConcurrentIdentityMap<Object,Object>();
+
+        try
+        {
+            map.put(null, "foo");
+            fail("accepted null key");
+        }
+        catch (NullPointerException ex)
+        {
+            // success
+        }
+
+        try
+        {
+            map.put("foo", null);
+            fail("accepted null value");
+        }
+        catch (NullPointerException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testGrowthAndChurn() throws Exception
+    {
+        // small initial capacity and a single segment to force many rebuilds
+        ConcurrentIdentityMap<Object,Integer> map = new ConcurrentIdentityMap<Object,Integer>(KeyReferences.STRONG, 1, 1);
+        Map<Object,Integer> expected = new IdentityHashMap<Object,Integer>();
+        List<Object> keys = new ArrayList<Object>();
+
+        for (int ii = 0 ; ii < 10000 ; ii++)
+        {
+            Object key = new Object();
+            keys.add(key);
+            map.put(key, ii);
+            expected.put(key, ii);
+
+            // remove every third key, leaving tombstones behind
+            if (ii % 3 == 0)
+            {
+                Object victim = keys.get(ii / 2);
+                assertEquals("remove at " + ii, expected.remove(victim), map.remove(victim));
+            }
+        }
+
+        assertEquals("size", expected.size(), map.size());
+        for (Object key : keys)
+        {
+            assertEquals("value", expected.get(key), map.get(key));
+        }
+
+        final Map<Object,Integer> actual = new IdentityHashMap<Object,Integer>();
+        map.forEach((k, v) -> actual.put(k, v));
+        assertEquals("forEach count", expected.size(), actual.size());
+        for (Map.Entry<Object,Integer> entry : expected.entrySet())
+        {
+            assertEquals("forEach value", entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+
+    @Test
+    public void testConcurrentAccess() throws Exception
+    {
+        final ConcurrentIdentityMap<Object,Integer> map = new ConcurrentIdentityMap<Object,Integer>(KeyReferences.STRONG, 16, 4);
+        final int threadCount = 4;
+        final int keysPerThread = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int tt = 0 ; tt < threadCount ; tt++)
+        {
+            final int threadNum = tt;
+            Thread thread = new Thread(() ->
+            {
+                try
+                {
+                    start.await();
+                    Object[] keys = new Object[keysPerThread];
+                    for (int ii = 0 ; ii < keysPerThread ; ii++)
+                    {
+                        keys[ii] = new Object();
+                        map.put(keys[ii], threadNum * keysPerThread + ii);
+                    }
+                    for (int ii = 0 ; ii < keysPerThread ; ii++)
+                    {
+                        Integer value = map.get(keys[ii]);
+                        if ((value == null) || (value.intValue() != threadNum * keysPerThread + ii))
+                            failure.compareAndSet(null, "thread " + threadNum + " key " + ii + " value " + value);
+                        if (ii % 2 == 0)
+                            map.remove(keys[ii]);
+                    }
+                    for (int ii = 0 ; ii < keysPerThread ; ii++)
+                    {
+                        boolean present = (map.get(keys[ii]) != null);
+                        if (present != (ii % 2 == 1))
+                            failure.compareAndSet(null, "thread " + threadNum + " key " + ii + " present " + present);
+                    }
+                }
+                catch (Exception ex)
+                {
+                    failure.compareAndSet(null, ex.toString());
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull("failure: " + failure.get(), failure.get());
+        assertEquals("final size", threadCount * keysPerThread / 2, map.size());
+    }
+
+
+    @Test
+    public void testWeakKeys() throws Exception
+    {
+        ConcurrentIdentityMap<Object,String> map = new ConcurrentIdentityMap<Object,String>(KeyReferences.WEAK);
+
+        Object retained = new Object();
+        map.put(retained, "retained");
+        for (int ii = 0 ; ii < 100 ; ii++)
+        {
+            map.put(new Object(), "garbage");
+        }
+        assertEquals("retained value", "retained", map.get(retained));
+
+        // GC is not deterministic, so we give it several chances
+        for (int ii = 0 ; (ii < 50) && (map.size() > 1) ; ii++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals("size after GC", 1, map.size());
+        assertEquals("retained value after GC", "retained", map.get(retained));
+    }
+}
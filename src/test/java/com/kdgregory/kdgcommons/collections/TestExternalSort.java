@@ -0,0 +1,327 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.kdgregory.kdgcommons.buffer.MappedFileBuffer;
+import com.kdgregory.kdgcommons.io.IOUtil;
+
+
+public class TestExternalSort
+{
+    // records are 12 bytes: an 8-byte key followed by a 4-byte sequence number
+    private final static int RECORD_SIZE = 12;
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    @Test
+    public void testEmptyInput() throws Exception
+    {
+        assertStreamSort(new ExternalSort(RECORD_SIZE, new KeyComparator()), 0);
+    }
+
+
+    @Test
+    public void testInMemorySort() throws Exception
+    {
+        assertStreamSort(new ExternalSort(RECORD_SIZE, new KeyComparator()), 10000);
+    }
+
+
+    @Test
+    public void testSingleMergePass() throws Exception
+    {
+        // 1,000 records per run, 20 runs
+        ExternalSort sorter = new ExternalSort(RECORD_SIZE, new KeyComparator())
+                              .withMemoryLimit(1000 * RECORD_SIZE);
+        assertStreamSort(sorter, 20000);
+    }
+
+
+    @Test
+    public void testMultipleMergePasses() throws Exception
+    {
+        // 100 records per run, 500 runs
+        ExternalSort sorter = new ExternalSort(RECORD_SIZE, new KeyComparator())
+                              .withMemoryLimit(100 * RECORD_SIZE);
+        assertStreamSort(sorter, 50000);
+    }
+
+
+    @Test
+    public void testParallelSort() throws Exception
+    {
+        // 4 threads each get 250 records per run, 400 runs
+        ExternalSort sorter = new ExternalSort(RECORD_SIZE, new KeyComparator())
+                              .withMemoryLimit(1000 * RECORD_SIZE)
+                              .withParallelism(4);
+        assertStreamSort(sorter, 100000);
+
+        // verify that the configured instance can be reused
+        assertStreamSort(sorter, 12345);
+    }
+
+
+    @Test
+    public void testInterruptedParallelSortRemovesTempFiles() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        ExternalSort sorter = new ExternalSort(RECORD_SIZE, new KeyComparator()
+                              {
+                                  @Override
+                                  public int compare(byte[] array1, int offset1, byte[] array2, int offset2)
+                                  {
+                                      // hold the tasks until after the calling thread has been
+                                      // interrupted, ignoring the executor's attempt to stop them
+                                      while (release.getCount() > 0)
+                                      {
+                                          try
+                                          {
+                                              release.await();
+                                          }
+                                          catch (InterruptedException ignored)
+                                          {
+                                              // keep waiting
+                                          }
+                                      }
+                                      return super.compare(array1, offset1, array2, offset2);
+                                  }
+                              })
+                              .withMemoryLimit(1000 * RECORD_SIZE)
+                              .withParallelism(2);
+
+        // each thread gets a 500-record chunk; the calling thread is interrupted while
+        // reading the second chunk, so it fails while waiting for a free chunk
+        final int interruptAt = 750 * RECORD_SIZE;
+        InputStream in = new ByteArrayInputStream(toRecords(createKeys(5000)))
+        {
+            @Override
+            public synchronized int read(byte[] b, int off, int len)
+            {
+                if (pos + len > interruptAt)
+                    Thread.currentThread().interrupt();
+                return super.read(b, off, len);
+            }
+        };
+
+        Thread releaser = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException ignored)
+                {
+                    // release immediately
+                }
+                release.countDown();
+            }
+        });
+
+        Set<String> existingFiles = listTempFiles();
+        releaser.start();
+        try
+        {
+            sorter.sort(in, new ByteArrayOutputStream());
+            fail("sort should have been interrupted");
+        }
+        catch (InterruptedIOException ex)
+        {
+            assertTrue("interrupt status restored", Thread.interrupted());
+        }
+
+        // give any task that outlived the sort a chance to create its file
+        releaser.join();
+        Thread.sleep(200);
+
+        Set<String> remainingFiles = listTempFiles();
+        remainingFiles.removeAll(existingFiles);
+        assertEquals("temporary files remaining", Collections.emptySet(), remainingFiles);
+    }
+
+
+    @Test
+    public void testMemoryLimitSmallerThanRecord() throws Exception
+    {
+        ExternalSort sorter = new ExternalSort(RECORD_SIZE, new KeyComparator())
+                              .withMemoryLimit(1);
+        assertStreamSort(sorter, 100);
+    }
+
+
+    @Test
+    public void testPartialRecord() throws Exception
+    {
+        byte[] data = Arrays.copyOf(toRecords(createKeys(100)), 100 * RECORD_SIZE - 1);
+        try
+        {
+            new ExternalSort(RECORD_SIZE, new KeyComparator())
+                .sort(new ByteArrayInputStream(data), new ByteArrayOutputStream());
+            fail("sort should have thrown");
+        }
+        catch (IOException ex)
+        {
+            assertTrue("exception message: " + ex.getMessage(),
+                       ex.getMessage().contains("partial record"));
+        }
+    }
+
+
+    @Test
+    public void testMappedFileBuffer() throws Exception
+    {
+        long[] keys = createKeys(10000);
+        byte[] records = toRecords(keys);
+
+        File file = IOUtil.createTempFile("TestExternalSort", records.length);
+        try
+        {
+            MappedFileBuffer buffer = new MappedFileBuffer(file, true);
+            buffer.putBytes(0, records);
+
+            ExternalSort sorter = new ExternalSort(RECORD_SIZE, new KeyComparator())
+                                  .withMemoryLimit(1000 * RECORD_SIZE)
+                                  .withParallelism(2);
+            assertEquals("returned record count", keys.length, sorter.sort(buffer));
+
+            assertSorted(keys, buffer.getBytes(0, records.length));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMappedFileBufferWithPartialRecord() throws Exception
+    {
+        File file = IOUtil.createTempFile("TestExternalSort", RECORD_SIZE * 10 + 1);
+        try
+        {
+            new ExternalSort(RECORD_SIZE, new KeyComparator())
+                .sort(new MappedFileBuffer(file, true));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static class KeyComparator
+    implements ExternalSort.RecordComparator
+    {
+        @Override
+        public int compare(byte[] array1, int offset1, byte[] array2, int offset2)
+        {
+            long key1 = ByteBuffer.wrap(array1, offset1, 8).getLong();
+            long key2 = ByteBuffer.wrap(array2, offset2, 8).getLong();
+            return (key1 < key2) ? -1
+                 : (key1 > key2) ? 1
+                 : 0;
+        }
+    }
+
+
+    private static Set<String> listTempFiles()
+    {
+        Set<String> result = new HashSet<String>();
+        for (String name : new File(System.getProperty("java.io.tmpdir")).list())
+        {
+            if (name.startsWith("ExternalSort"))
+                result.add(name);
+        }
+        return result;
+    }
+
+
+    private static long[] createKeys(int count)
+    {
+        Random rnd = new Random(count);
+        long[] keys = new long[count];
+        for (int ii = 0 ; ii < count ; ii++)
+            keys[ii] = rnd.nextLong();
+        return keys;
+    }
+
+
+    private static byte[] toRecords(long[] keys)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(keys.length * RECORD_SIZE);
+        for (int ii = 0 ; ii < keys.length ; ii++)
+        {
+            buf.putLong(keys[ii]);
+            buf.putInt(ii);
+        }
+        return buf.array();
+    }
+
+
+    private static void assertSorted(long[] keys, byte[] records)
+    {
+        assertEquals("number of bytes", keys.length * RECORD_SIZE, records.length);
+
+        long[] expected = Arrays.copyOf(keys, keys.length);
+        Arrays.sort(expected);
+
+        ByteBuffer buf = ByteBuffer.wrap(records);
+        for (int ii = 0 ; ii < expected.length ; ii++)
+        {
+            long key = buf.getLong();
+            int seqno = buf.getInt();
+            assertEquals("key at " + ii, expected[ii], key);
+            assertEquals("record intact at " + ii, keys[seqno], key);
+        }
+    }
+
+
+    private static void assertStreamSort(ExternalSort sorter, int count)
+    throws Exception
+    {
+        long[] keys = createKeys(count);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long result = sorter.sort(new ByteArrayInputStream(toRecords(keys)), out);
+
+        assertEquals("returned record count", count, result);
+        assertSorted(keys, out.toByteArray());
+    }
+}
@@ -0,0 +1,168 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestEytzingerSearch
+{
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    @Test
+    public void testIntIndexEmpty() throws Exception
+    {
+        EytzingerSearch.IntIndex index = new EytzingerSearch.IntIndex(new int[0]);
+
+        assertEquals("size",        0,  index.size());
+        assertEquals("search",      -1, index.search(12));
+        assertArrayEquals("searchAll", new int[] { -1, -1 }, index.searchAll(new int[] { 1, 2 }));
+    }
+
+
+    @Test
+    public void testIntIndexSmall() throws Exception
+    {
+        int[] sorted = new int[] { 2, 4, 6 };
+        EytzingerSearch.IntIndex index = new EytzingerSearch.IntIndex(sorted);
+
+        assertEquals(-1, index.search(1));
+        assertEquals(0,  index.search(2));
+        assertEquals(-2, index.search(3));
+        assertEquals(1,  index.search(4));
+        assertEquals(-3, index.search(5));
+        assertEquals(2,  index.search(6));
+        assertEquals(-4, index.search(7));
+    }
+
+
+    @Test
+    public void testIntIndexAllSizes() throws Exception
+    {
+        // every size up to a few complete levels, to exercise partially-filled trees
+        for (int size = 1 ; size < 300 ; size++)
+        {
+            int[] sorted = new int[size];
+            for (int ii = 0 ; ii < size ; ii++)
+                sorted[ii] = ii * 2 + 1;
+
+            EytzingerSearch.IntIndex index = new EytzingerSearch.IntIndex(sorted);
+            for (int key = -1 ; key <= size * 2 + 1 ; key++)
+            {
+                assertEquals("size " + size + ", key " + key,
+                             expected(sorted, key), index.search(key));
+            }
+        }
+    }
+
+
+    @Test
+    public void testIntIndexDuplicatesAndExtremes() throws Exception
+    {
+        int[] sorted = new int[] { Integer.MIN_VALUE, 3, 3, 3, 3, 7, 7, Integer.MAX_VALUE };
+        EytzingerSearch.IntIndex index = new EytzingerSearch.IntIndex(sorted);
+
+        assertEquals("min value",               0,  index.search(Integer.MIN_VALUE));
+        assertEquals("first of duplicates",     1,  index.search(3));
+        assertEquals("first of duplicates",     5,  index.search(7));
+        assertEquals("between duplicates",      -6, index.search(5));
+        assertEquals("max value",               7,  index.search(Integer.MAX_VALUE));
+    }
+
+
+    @Test
+    public void testIntIndexSearchAll() throws Exception
+    {
+        Random rnd = new Random(12345);
+        int[] sorted = new int[100000];
+        for (int ii = 0 ; ii < sorted.length ; ii++)
+            sorted[ii] = rnd.nextInt(1000000);
+        Arrays.sort(sorted);
+
+        // key count deliberately not a multiple of the batch size
+        int[] keys = new int[10007];
+        for (int ii = 0 ; ii < keys.length ; ii++)
+            keys[ii] = rnd.nextInt(1000002) - 1;
+
+        EytzingerSearch.IntIndex index = new EytzingerSearch.IntIndex(sorted);
+        int[] results = index.searchAll(keys);
+
+        assertEquals("number of results", keys.length, results.length);
+        for (int ii = 0 ; ii < keys.length ; ii++)
+        {
+            assertEquals("key " + keys[ii], expected(sorted, keys[ii]), results[ii]);
+            assertEquals("search agrees",   index.search(keys[ii]), results[ii]);
+        }
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testIntIndexUnsortedArray() throws Exception
+    {
+        new EytzingerSearch.IntIndex(new int[] { 1, 3, 2 });
+    }
+
+
+    @Test
+    public void testLongIndex() throws Exception
+    {
+        Random rnd = new Random(54321);
+        long[] sorted = new long[12345];
+        for (int ii = 0 ; ii < sorted.length ; ii++)
+            sorted[ii] = rnd.nextLong() / 2;
+        sorted[0] = Long.MIN_VALUE;
+        sorted[1] = Long.MAX_VALUE;
+        Arrays.sort(sorted);
+
+        long[] keys = new long[1000];
+        for (int ii = 0 ; ii < keys.length ; ii += 2)
+        {
+            keys[ii] = sorted[rnd.nextInt(sorted.length)];
+            keys[ii + 1] = rnd.nextLong();
+        }
+
+        EytzingerSearch.LongIndex index = new EytzingerSearch.LongIndex(sorted);
+        int[] results = index.searchAll(keys);
+        for (int ii = 0 ; ii < keys.length ; ii++)
+        {
+            int expected = Arrays.binarySearch(sorted, keys[ii]);
+            assertEquals("key " + keys[ii], expected, results[ii]);
+            assertEquals("search agrees",   expected, index.search(keys[ii]));
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    /**
+     *  Lower-bound search, which is the documented behavior when there are
+     *  duplicates (the JDK's search doesn't define which duplicate it returns).
+     */
+    private static int expected(int[] sorted, int key)
+    {
+        int pos = 0;
+        while ((pos < sorted.length) && (sorted[pos] < key))
+            pos++;
+        return ((pos < sorted.length) && (sorted[pos] == key)) ? pos : -pos - 1;
+    }
+}
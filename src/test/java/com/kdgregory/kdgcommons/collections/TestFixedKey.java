@@ -0,0 +1,194 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestFixedKey
+{
+    @Test
+    public void testObjectKeys() throws Exception
+    {
+        assertEquals("2 components",  FixedKey.of("foo", "bar"),               FixedKey.of("foo", "bar"));
+        assertEquals("3 components",  FixedKey.of("foo", "bar", "baz"),        FixedKey.of("foo", "bar", "baz"));
+        assertEquals("4 components",  FixedKey.of("foo", "bar", "baz", "biff"), FixedKey.of("foo", "bar", "baz", "biff"));
+
+        assertEquals("hashcode",      FixedKey.of("foo", "bar").hashCode(),    FixedKey.of("foo", "bar").hashCode());
+
+        assertFalse("different value",  FixedKey.of("foo", "bar").equals(FixedKey.of("foo", "baz")));
+        assertFalse("different order",  FixedKey.of("foo", "bar").equals(FixedKey.of("bar", "foo")));
+        assertFalse("different arity",  FixedKey.of("foo", "bar").equals(FixedKey.of("foo", "bar", null)));
+        assertFalse("different hash",   FixedKey.of("foo", "bar").hashCode() == FixedKey.of("bar", "foo").hashCode());
+    }
+
+
+    @Test
+    public void testNulls() throws Exception
+    {
+        assertEquals("equal with nulls", FixedKey.of(null, "bar", null), FixedKey.of(null, "bar", null));
+        assertFalse("null position matters", FixedKey.of(null, "bar").equals(FixedKey.of("bar", null)));
+        assertFalse("null position affects hash", FixedKey.of(null, "bar").hashCode() == FixedKey.of("bar", null).hashCode());
+    }
+
+
+    @Test
+    public void testPrimitiveKeys() throws Exception
+    {
+        assertEquals("longs",         FixedKey.of(1L, 2L),         FixedKey.of(1L, 2L));
+        assertEquals("long/object",   FixedKey.of(1L, "foo"),      FixedKey.of(1L, "foo"));
+        assertEquals("longs/object",  FixedKey.of(1L, 2L, "foo"),  FixedKey.of(1L, 2L, "foo"));
+        assertEquals("ints widened",  FixedKey.of(1, 2),           FixedKey.of(1L, 2L));
+
+        assertFalse("different values",     FixedKey.of(1L, 2L).equals(FixedKey.of(2L, 1L)));
+        assertFalse("primitive vs boxed",   FixedKey.of(1L, 2L).equals(FixedKey.of(Long.valueOf(1), Long.valueOf(2))));
+        assertFalse("long/object vs objects", FixedKey.of(1L, "foo").equals(FixedKey.of(Long.valueOf(1), "foo")));
+    }
+
+
+    @Test
+    public void testAccessors() throws Exception
+    {
+        FixedKey key = FixedKey.of(12L, 34L, "foo");
+        assertEquals("size",    3, key.size());
+        assertEquals("get(0)",  Long.valueOf(12), key.get(0));
+        assertEquals("get(1)",  Long.valueOf(34), key.get(1));
+        assertEquals("get(2)",  "foo", key.get(2));
+
+        assertEquals("toString", "[12,34,foo]", key.toString());
+        assertEquals("toString", "[foo,null,bar,baz]", FixedKey.of("foo", null, "bar", "baz").toString());
+
+        try
+        {
+            key.get(3);
+            fail("able to retrieve invalid component");
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testHashDistribution() throws Exception
+    {
+        // sequential values are the worst case for a multiply-and-add hash; we look
+        // at the low-order bits, because that's what a HashMap uses
+        Set<Integer> buckets = new HashSet<Integer>();
+        for (int ii = 0 ; ii < 64 ; ii++)
+        {
+            for (int jj = 0 ; jj < 64 ; jj++)
+            {
+                buckets.add(FixedKey.of(ii, jj).hashCode() & 0xFFF);
+            }
+        }
+        assertTrue("distinct buckets: " + buckets.size(), buckets.size() > 2400);
+    }
+
+
+    @Test
+    public void testProbe() throws Exception
+    {
+        Map<FixedKey,String> map = new HashMap<FixedKey,String>();
+        map.put(FixedKey.of("foo", "bar"), "objects2");
+        map.put(FixedKey.of("foo", "bar", "baz"), "objects3");
+        map.put(FixedKey.of("foo", "bar", "baz", "biff"), "objects4");
+        map.put(FixedKey.of(1L, 2L), "longs2");
+        map.put(FixedKey.of(1L, "foo"), "longObject");
+        map.put(FixedKey.of(1L, 2L, "foo"), "longs2Object");
+
+        FixedKey.Probe probe = new FixedKey.Probe();
+        assertEquals("objects2",     map.get(probe.set("foo", "bar")));
+        assertEquals("objects3",     map.get(probe.set("foo", "bar", "baz")));
+        assertEquals("objects4",     map.get(probe.set("foo", "bar", "baz", "biff")));
+        assertEquals("longs2",       map.get(probe.set(1L, 2L)));
+        assertEquals("longObject",   map.get(probe.set(1L, "foo")));
+        assertEquals("longs2Object", map.get(probe.set(1L, 2L, "foo")));
+
+        assertNull("missing value",  map.get(probe.set(2L, 1L)));
+        assertNull("missing shape",  map.get(probe.set("foo", "bar", null)));
+
+        // the probe equals the stored key, in both directions
+        probe.set(1L, "foo");
+        assertTrue("probe.equals(key)", probe.equals(FixedKey.of(1L, "foo")));
+        assertTrue("key.equals(probe)", FixedKey.of(1L, "foo").equals(probe));
+    }
+
+
+    @Test
+    public void testProbeFreeze() throws Exception
+    {
+        FixedKey.Probe probe = new FixedKey.Probe();
+
+        Object[][] values = new Object[][]
+        {
+            { "foo", "bar" },
+            { "foo", "bar", "baz" },
+            { "foo", "bar", "baz", "biff" },
+        };
+        for (Object[] value : values)
+        {
+            switch (value.length)
+            {
+                case 2 : probe.set(value[0], value[1]); break;
+                case 3 : probe.set(value[0], value[1], value[2]); break;
+                default : probe.set(value[0], value[1], value[2], value[3]); break;
+            }
+
+            FixedKey frozen = probe.freeze();
+            assertNotSame("frozen key is a new object", probe, frozen);
+            assertEquals("frozen key equals probe", probe, frozen);
+            assertEquals("frozen key hashcode", probe.hashCode(), frozen.hashCode());
+            assertFalse("frozen key is not a probe", frozen instanceof FixedKey.Probe);
+
+            // changing the probe doesn't change the frozen key
+            probe.set("x", "y");
+            assertEquals("frozen key size after probe change", value.length, frozen.size());
+        }
+
+        assertEquals("longs2",       FixedKey.of(3L, 4L),        probe.set(3L, 4L).freeze());
+        assertEquals("longObject",   FixedKey.of(3L, "x"),       probe.set(3L, "x").freeze());
+        assertEquals("longs2Object", FixedKey.of(3L, 4L, "x"),   probe.set(3L, 4L, "x").freeze());
+    }
+
+
+    @Test
+    public void testSerialization() throws Exception
+    {
+        FixedKey key = FixedKey.of(1L, 2L, "foo");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos))
+        {
+            oos.writeObject(key);
+        }
+
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())))
+        {
+            assertEquals(key, ois.readObject());
+        }
+    }
+}
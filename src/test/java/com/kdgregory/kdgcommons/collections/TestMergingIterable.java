@@ -0,0 +1,165 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestMergingIterable
+{
+    private final static Comparator<Integer> NATURAL = Comparator.naturalOrder();
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEmptyConstructor() throws Exception
+    {
+        MergingIterable<Integer> iterable = new MergingIterable<Integer>(NATURAL);
+        Iterator<Integer> itx = iterable.iterator();
+        assertFalse(itx.hasNext());
+
+        try
+        {
+            itx.next();
+            fail("next() should have thrown");
+        }
+        catch (NoSuchElementException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMultipleLists() throws Exception
+    {
+        List<Integer> list1 = Arrays.asList(1, 4, 7, 10);
+        List<Integer> list2 = Collections.emptyList();
+        List<Integer> list3 = Arrays.asList(2, 3, 11);
+        List<Integer> list4 = Arrays.asList(5);
+
+        MergingIterable<Integer> iterable = new MergingIterable<Integer>(NATURAL, list1, list2, list3, list4);
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 7, 10, 11), Pipeline.from(iterable).toList());
+
+        // and it should be re-iterable
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 7, 10, 11), Pipeline.from(iterable).toList());
+    }
+
+
+    @Test
+    public void testIterableOfIterables() throws Exception
+    {
+        List<Iterable<String>> sources = new ArrayList<Iterable<String>>();
+        sources.add(Arrays.asList("c", "b", "a"));
+        sources.add(Arrays.asList("d", "b"));
+
+        // reversed comparator, to verify that it's actually used
+        MergingIterable<String> iterable = new MergingIterable<String>(Comparator.<String>reverseOrder(), sources);
+
+        assertEquals(Arrays.asList("d", "c", "b", "b", "a"), Pipeline.from(iterable).toList());
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStability() throws Exception
+    {
+        // compare only on first character, so we can tell which source an element came from
+        Comparator<String> cmp = (s1, s2) -> s1.charAt(0) - s2.charAt(0);
+
+        List<String> list1 = Arrays.asList("a1", "b1", "b1x");
+        List<String> list2 = Arrays.asList("a2", "b2");
+
+        MergingIterable<String> iterable = new MergingIterable<String>(cmp, list1, list2);
+        assertEquals(Arrays.asList("a1", "a2", "b1", "b1x", "b2"), Pipeline.from(iterable).toList());
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCollapseDuplicates() throws Exception
+    {
+        List<Integer> list1 = Arrays.asList(1, 1, 2, 5, 5);
+        List<Integer> list2 = Arrays.asList(1, 3, 5, 6);
+        List<Integer> list3 = Arrays.asList(2, 2, 6);
+
+        MergingIterable<Integer> iterable = new MergingIterable<Integer>(NATURAL, list1, list2, list3).collapseDuplicates();
+        assertEquals(Arrays.asList(1, 2, 3, 5, 6), Pipeline.from(iterable).toList());
+    }
+
+
+    @Test
+    public void testLazyRetrieval() throws Exception
+    {
+        final List<Integer> retrieved = new ArrayList<Integer>();
+        Iterable<Integer> tracked = Pipeline.from(Arrays.asList(10, 20, 30)).map(i -> { retrieved.add(i); return i; });
+
+        List<Iterator<Integer>> iterators = new ArrayList<Iterator<Integer>>();
+        iterators.add(tracked.iterator());
+        iterators.add(Arrays.asList(1, 2, 3).iterator());
+
+        Iterator<Integer> itx = new MergingIterable.MergingIterator<Integer>(NATURAL, false, iterators);
+        assertEquals("only first element retrieved at start", Arrays.asList(10), retrieved);
+
+        for (int ii = 0 ; ii < 3 ; ii++)
+            itx.next();
+        assertEquals("still only first element", Arrays.asList(10), retrieved);
+
+        assertEquals(Integer.valueOf(10), itx.next());
+        assertEquals("second element after first returned", Arrays.asList(10, 20), retrieved);
+    }
+
+
+    @Test
+    public void testManySources() throws Exception
+    {
+        Random rnd = new Random(64);
+        List<Iterable<Integer>> sources = new ArrayList<Iterable<Integer>>();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int ii = 0 ; ii < 64 ; ii++)
+        {
+            List<Integer> shard = new ArrayList<Integer>();
+            for (int jj = rnd.nextInt(1000) ; jj > 0 ; jj--)
+                shard.add(rnd.nextInt(100000));
+            Collections.sort(shard);
+            sources.add(shard);
+            expected.addAll(shard);
+        }
+        Collections.sort(expected);
+
+        assertEquals(expected, Pipeline.from(new MergingIterable<Integer>(NATURAL, sources)).toList());
+    }
+
+
+    @Test(expected=UnsupportedOperationException.class)
+    @SuppressWarnings("unchecked")
+    public void testRemoveNotSupported() throws Exception
+    {
+        Iterator<Integer> itx = new MergingIterable<Integer>(NATURAL, Arrays.asList(1)).iterator();
+        itx.next();
+        itx.remove();
+    }
+}
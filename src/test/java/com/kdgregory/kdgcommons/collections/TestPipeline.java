@@ -0,0 +1,201 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestPipeline
+{
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    @Test
+    public void testFromIterable() throws Exception
+    {
+        List<String> src = Arrays.asList("foo", "bar", "baz");
+        Pipeline<String> pipeline = Pipeline.from(src);
+
+        assertEquals("first iteration",     src, pipeline.toList());
+        assertEquals("second iteration",    src, pipeline.toList());
+    }
+
+
+    @Test
+    public void testFromIterator() throws Exception
+    {
+        Pipeline<String> pipeline = Pipeline.from(Arrays.asList("foo", "bar").iterator());
+
+        assertEquals("first iteration",     Arrays.asList("foo", "bar"), pipeline.toList());
+        assertEquals("second iteration",    Collections.emptyList(), pipeline.toList());
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConcat() throws Exception
+    {
+        Pipeline<Integer> pipeline = Pipeline.concat(Arrays.asList(1, 2), Collections.<Integer>emptyList(), Arrays.asList(3));
+
+        assertEquals(Arrays.asList(1, 2, 3), pipeline.toList());
+    }
+
+
+    @Test
+    public void testMapAndFilter() throws Exception
+    {
+        List<Integer> result = Pipeline.from(Arrays.asList(1, 2, 3, 4, 5, 6))
+                               .filter(i -> (i % 2) == 0)
+                               .map(i -> i * 10)
+                               .toList();
+
+        assertEquals(Arrays.asList(20, 40, 60), result);
+    }
+
+
+    @Test
+    public void testFlatMap() throws Exception
+    {
+        List<String> result = Pipeline.from(Arrays.asList(2, 0, 1, 3))
+                              .flatMap(i -> Collections.nCopies(i, "x" + i))
+                              .toList();
+
+        assertEquals(Arrays.asList("x2", "x2", "x1", "x3", "x3", "x3"), result);
+    }
+
+
+    @Test
+    public void testTakeDoesNotOverreadSource() throws Exception
+    {
+        CountingIterator src = new CountingIterator();
+        List<Integer> result = Pipeline.from(src).take(5).toList();
+
+        assertEquals("result",              Arrays.asList(0, 1, 2, 3, 4), result);
+        assertEquals("source elements read", 5, src.count);
+    }
+
+
+    @Test
+    public void testTakeMoreThanAvailable() throws Exception
+    {
+        assertEquals(Arrays.asList(1, 2), Pipeline.from(Arrays.asList(1, 2)).take(10).toList());
+        assertEquals(Collections.emptyList(), Pipeline.from(Arrays.asList(1, 2)).take(0).toList());
+    }
+
+
+    @Test
+    public void testDedup() throws Exception
+    {
+        List<String> result = Pipeline.from(Arrays.asList("a", "a", null, null, "b", "a", "a", "c", "c"))
+                              .dedup()
+                              .toList();
+
+        assertEquals(Arrays.asList("a", null, "b", "a", "c"), result);
+    }
+
+
+    @Test
+    public void testChunk() throws Exception
+    {
+        List<List<Integer>> result = Pipeline.from(Arrays.asList(1, 2, 3, 4, 5, 6, 7))
+                                     .chunk(3)
+                                     .toList();
+
+        assertEquals(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(4, 5, 6), Arrays.asList(7)), result);
+        assertEquals("empty source", 0, Pipeline.from(Collections.emptyList()).chunk(3).toList().size());
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testChunkInvalidSize() throws Exception
+    {
+        Pipeline.from(Arrays.asList(1, 2, 3)).chunk(0);
+    }
+
+
+    @Test
+    public void testLongPipelineOverInfiniteSource() throws Exception
+    {
+        // if any stage were eager this would never complete
+        TreeSet<Integer> result = Pipeline.from(new CountingIterator())
+                                  .map(i -> i / 3)
+                                  .dedup()
+                                  .filter(i -> (i % 2) == 1)
+                                  .flatMap(i -> Arrays.asList(i, -i))
+                                  .take(6)
+                                  .into(new TreeSet<Integer>());
+
+        assertEquals(new TreeSet<Integer>(Arrays.asList(-5, -3, -1, 1, 3, 5)), result);
+    }
+
+
+    @Test
+    public void testIteratorContract() throws Exception
+    {
+        Iterator<Integer> itx = Pipeline.from(Arrays.asList(1, 2, 3, 4)).filter(i -> i > 2).iterator();
+
+        // repeated calls to hasNext() must not advance
+        assertTrue(itx.hasNext());
+        assertTrue(itx.hasNext());
+        assertEquals(Integer.valueOf(3), itx.next());
+
+        // next() without hasNext()
+        assertEquals(Integer.valueOf(4), itx.next());
+        assertFalse(itx.hasNext());
+
+        try
+        {
+            itx.next();
+            fail("next() should have thrown at end of iteration");
+        }
+        catch (NoSuchElementException ex)
+        {
+            // success
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    // an infinite source that tracks how many elements have been read
+    private static class CountingIterator
+    implements Iterator<Integer>
+    {
+        public int count;
+
+        @Override
+        public boolean hasNext()
+        {
+            return true;
+        }
+
+        @Override
+        public Integer next()
+        {
+            return count++;
+        }
+    }
+}
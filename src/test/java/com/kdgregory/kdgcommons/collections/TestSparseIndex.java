@@ -0,0 +1,144 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.collections;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.kdgregory.kdgcommons.buffer.BufferFacade;
+import com.kdgregory.kdgcommons.buffer.BufferFacadeFactory;
+
+
+public class TestSparseIndex
+{
+    // records are 8-byte key followed by 8-byte payload
+    private final static int STRIDE = 16;
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    @Test
+    public void testEmptyBuffer() throws Exception
+    {
+        SparseIndex index = new SparseIndex(createBuffer(new long[0]), 0, STRIDE, 0, 10);
+
+        assertEquals("sample count",    0,  index.getSampleCount());
+        assertEquals("search",          -1, index.search(123));
+    }
+
+
+    @Test
+    public void testDefaultInterval() throws Exception
+    {
+        long[] keys = createKeys(10000, 3);
+        SparseIndex index = new SparseIndex(createBuffer(keys), 0, STRIDE, keys.length);
+
+        assertEquals("interval",        256, index.getInterval());
+        assertEquals("sample count",    40,  index.getSampleCount());
+        assertSearches(keys, index);
+    }
+
+
+    @Test
+    public void testVariousIntervals() throws Exception
+    {
+        long[] keys = createKeys(1000, 2);
+        BufferFacade buffer = createBuffer(keys);
+
+        for (int interval : new int[] { 1, 2, 7, 100, 999, 1000, 5000 })
+        {
+            assertSearches(keys, new SparseIndex(buffer, 0, STRIDE, keys.length, interval));
+        }
+    }
+
+
+    @Test
+    public void testDuplicatesSpanningSamples() throws Exception
+    {
+        long[] keys = new long[100];
+        for (int ii = 0 ; ii < keys.length ; ii++)
+            keys[ii] = (ii < 13) ? 1 : (ii < 67) ? 5 : 9;
+
+        SparseIndex index = new SparseIndex(createBuffer(keys), 0, STRIDE, keys.length, 10);
+
+        assertEquals("before start",            -1,   index.search(0));
+        assertEquals("first of first run",      0,    index.search(1));
+        assertEquals("first of run spanning",   13,   index.search(5));
+        assertEquals("first of last run",       67,   index.search(9));
+        assertEquals("between runs",            -68,  index.search(7));
+        assertEquals("after end",               -101, index.search(10));
+    }
+
+
+    @Test
+    public void testNonZeroBase() throws Exception
+    {
+        long[] keys = createKeys(500, 5);
+
+        // the key is in the second half of each record, and the buffer is preceded
+        // by a 16-byte header; we shift the records to make this happen
+        ByteBuffer buf = ByteBuffer.allocate(16 + keys.length * STRIDE);
+        for (int ii = 0 ; ii < keys.length ; ii++)
+            buf.putLong(16 + ii * STRIDE + 8, keys[ii]);
+
+        SparseIndex index = new SparseIndex(BufferFacadeFactory.create(buf), 24, STRIDE, keys.length, 16);
+        assertSearches(keys, index);
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidInterval() throws Exception
+    {
+        new SparseIndex(createBuffer(new long[10]), 0, STRIDE, 10, 0);
+    }
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static long[] createKeys(int count, int step)
+    {
+        long[] keys = new long[count];
+        for (int ii = 0 ; ii < count ; ii++)
+            keys[ii] = ii * step;
+        return keys;
+    }
+
+
+    private static BufferFacade createBuffer(long[] keys)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(keys.length * STRIDE);
+        for (int ii = 0 ; ii < keys.length ; ii++)
+        {
+            buf.putLong(ii * STRIDE, keys[ii]);
+            buf.putLong(ii * STRIDE + 8, -ii);
+        }
+        return BufferFacadeFactory.create(buf);
+    }
+
+
+    private static void assertSearches(long[] keys, SparseIndex index)
+    {
+        long max = (keys.length == 0) ? 0 : keys[keys.length - 1];
+        for (long key = -2 ; key <= max + 2 ; key++)
+        {
+            assertEquals("interval " + index.getInterval() + ", key " + key,
+                         BinarySearch.search(keys, key), index.search(key));
+        }
+    }
+}
@@ -14,6 +14,11 @@
 
 package com.kdgregory.kdgcommons.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -486,4 +491,182 @@ public class TestByteArray
         assertEquals(1, array.get(1));
         assertEquals(2, array.get(2));
     }
+
+
+    @Test
+    public void testGeometricGrowth() throws Exception
+    {
+        ByteArray array = new ByteArray(1, 25);
+        byte[] lastData = array.getArray();
+        int reallocations = 0;
+        for (int ii = 0 ; ii < 100000 ; ii++)
+        {
+            array.add((byte)ii);
+            if (array.getArray() != lastData)
+            {
+                reallocations++;
+                lastData = array.getArray();
+            }
+        }
+
+        assertEquals("size", 100000, array.size());
+        assertTrue("reallocations should be logarithmic, was " + reallocations, reallocations < 60);
+        for (int ii = 0 ; ii < 100000 ; ii++)
+        {
+            assertEquals("byte at " + ii, (byte)ii, array.get(ii));
+        }
+    }
+
+
+    @Test
+    public void testZeroCapacity() throws Exception
+    {
+        ByteArray array = new ByteArray(0, 25);
+        array.add(new byte[] { 1, 2, 3 });
+        array.add((byte)4);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, array.getBytes());
+    }
+
+
+    @Test
+    public void testAsByteBuffer() throws Exception
+    {
+        ByteArray array = new ByteArray("ABCDEFGHIJKL");
+
+        ByteBuffer buf = array.asByteBuffer();
+        assertEquals("position", 0, buf.position());
+        assertEquals("limit", 12, buf.limit());
+        assertEquals("capacity", 12, buf.capacity());
+        assertEquals("content", 'A', buf.get(0));
+        assertEquals("content", 'L', buf.get(11));
+
+        // shared storage
+        buf.put(0, (byte)'Z');
+        assertEquals("change visible in array", 'Z', array.get(0));
+    }
+
+
+    @Test
+    public void testAsInputStream() throws Exception
+    {
+        ByteArray array = new ByteArray("ABCDEFGHIJKL");
+        InputStream in = array.asInputStream();
+
+        byte[] buf = new byte[20];
+        assertEquals("bytes read", 12, in.read(buf));
+        assertEquals("content", 'A', buf[0]);
+        assertEquals("content", 'L', buf[11]);
+        assertEquals("at end", -1, in.read());
+    }
+
+
+    @Test
+    public void testWriteTo() throws Exception
+    {
+        ByteArray array = new ByteArray("ABCDEFGHIJKL");
+        array.removeLast();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        array.writeTo(out);
+        assertEquals("ABCDEFGHIJK", new String(out.toByteArray(), "ISO-8859-1"));
+    }
+
+
+    @Test
+    public void testEditMode() throws Exception
+    {
+        ByteArray array = new ByteArray("ABCDEFGHIJKL");
+        assertFalse("edit mode initially disabled", array.isEditMode());
+
+        array.setEditMode(true);
+        assertTrue("edit mode enabled", array.isEditMode());
+
+        array.insert(4, new byte[] { '1', '2' });
+        array.insert(6, new byte[] { '3' });
+        array.remove(2, 1);
+        array.insert(0, new ByteArray("xyz"), 1, 2);
+
+        // these don't close the gap
+        assertEquals("size", 16, array.size());
+        assertEquals("get before gap", 'y', array.get(0));
+        assertEquals("get after gap", 'E', array.get(8));
+        assertEquals("get last", 'L', array.get(15));
+        assertEquals("getBytes spanning gap", "BD123E", new String(array.getBytes(3, 6), "ISO-8859-1"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        array.writeTo(out);
+        assertEquals("writeTo", "yzABD123EFGHIJKL", new String(out.toByteArray(), "ISO-8859-1"));
+
+        // further edits after an operation that closes the gap
+        array.add('!');
+        array.removeLast();
+        array.remove(0, 2);
+        assertEquals("getBytes", "ABD123EFGHIJKL", new String(array.getBytes(), "ISO-8859-1"));
+
+        array.setEditMode(false);
+        assertFalse("edit mode disabled", array.isEditMode());
+        assertEquals("getArray", 'A', array.getArray()[0]);
+        assertEquals("getArray", 'L', array.getArray()[13]);
+    }
+
+
+    @Test
+    public void testEditModeRemoveLast() throws Exception
+    {
+        ByteArray array = new ByteArray("ABCDEF");
+        array.setEditMode(true);
+
+        // gap in the middle
+        array.remove(2, 1);
+        array.removeLast();
+        assertEquals("ABDE", new String(array.getBytes(), "ISO-8859-1"));
+
+        // gap at the end
+        array.insert(4, new byte[] { 'X' });
+        array.removeLast();
+        array.removeLast();
+        assertEquals("ABD", new String(array.getBytes(), "ISO-8859-1"));
+    }
+
+
+    @Test
+    public void testEditModeMatchesNormalMode() throws Exception
+    {
+        Random rnd = new Random(42);
+        ByteArray expected = new ByteArray(createBytes(rnd, 1000));
+        ByteArray actual = new ByteArray(expected.getBytes());
+        actual.setEditMode(true);
+
+        // edits cluster around a wandering cursor
+        int cursor = 500;
+        for (int ii = 0 ; ii < 5000 ; ii++)
+        {
+            cursor = Math.max(0, Math.min(expected.size() - 1, cursor + rnd.nextInt(21) - 10));
+            if (rnd.nextBoolean() || (expected.size() < 50))
+            {
+                byte[] bytes = createBytes(rnd, rnd.nextInt(20));
+                expected.insert(cursor, bytes);
+                actual.insert(cursor, bytes);
+            }
+            else
+            {
+                int len = Math.min(rnd.nextInt(10), expected.size() - cursor - 1);
+                expected.remove(cursor, len);
+                actual.remove(cursor, len);
+            }
+
+            assertEquals("size after edit " + ii, expected.size(), actual.size());
+            assertEquals("byte at cursor after edit " + ii, expected.get(cursor), actual.get(cursor));
+        }
+
+        assertArrayEquals("final contents", expected.getBytes(), actual.getBytes());
+    }
+
+
+    private static byte[] createBytes(Random rnd, int size)
+    {
+        byte[] bytes = new byte[size];
+        rnd.nextBytes(bytes);
+        return bytes;
+    }
 }
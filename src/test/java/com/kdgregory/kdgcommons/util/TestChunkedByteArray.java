@@ -0,0 +1,198 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestChunkedByteArray
+{
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    @Test
+    public void testEmpty() throws Exception
+    {
+        ChunkedByteArray array = new ChunkedByteArray();
+        assertEquals("size", 0, array.size());
+        assertEquals("getBytes", 0, array.getBytes().length);
+        assertEquals("buffers", 0, array.asByteBuffers().length);
+        assertEquals("stream", -1, array.asInputStream().read());
+    }
+
+
+    @Test
+    public void testAddAcrossChunks() throws Exception
+    {
+        byte[] data = createData(1000);
+        ChunkedByteArray array = new ChunkedByteArray(64);
+
+        array.add(data[0]);
+        array.add(data, 1, 99);
+        array.add(new ByteArray(createData(1000)).getBytes(100, 900));
+
+        assertEquals("size", 1000, array.size());
+        assertArrayEquals("getBytes()", data, array.getBytes());
+        for (int ii = 0 ; ii < data.length ; ii++)
+        {
+            assertEquals("get(" + ii + ")", data[ii], array.get(ii));
+        }
+
+        byte[] segment = array.getBytes(60, 200);
+        for (int ii = 0 ; ii < segment.length ; ii++)
+        {
+            assertEquals("getBytes(60,200) at " + ii, data[60 + ii], segment[ii]);
+        }
+    }
+
+
+    @Test
+    public void testAddByteArray() throws Exception
+    {
+        ByteArray src = new ByteArray("ABCDEFGHIJKL");
+        ChunkedByteArray array = new ChunkedByteArray(5);
+        array.add(src);
+        assertArrayEquals(src.getBytes(), array.getBytes());
+    }
+
+
+    @Test(expected=ArrayIndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() throws Exception
+    {
+        ChunkedByteArray array = new ChunkedByteArray(16);
+        array.add(createData(16));
+        array.get(16);
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testGetBytesOutOfBounds() throws Exception
+    {
+        ChunkedByteArray array = new ChunkedByteArray(16);
+        array.add(createData(20));
+        array.getBytes(10, 11);
+    }
+
+
+    @Test
+    public void testReadFrom() throws Exception
+    {
+        byte[] data = createData(1000);
+        ChunkedByteArray array = new ChunkedByteArray(128);
+        array.add(data, 0, 10);
+
+        assertEquals("bytes read", 990, array.readFrom(new ByteArrayInputStream(data, 10, 990)));
+        assertEquals("size", 1000, array.size());
+        assertArrayEquals(data, array.getBytes());
+
+        // an exact multiple of the chunk size shouldn't leave an empty chunk
+        ChunkedByteArray array2 = new ChunkedByteArray(100);
+        array2.readFrom(new ByteArrayInputStream(data));
+        assertEquals("number of chunks", 10, array2.asByteBuffers().length);
+    }
+
+
+    @Test
+    public void testAsByteBuffers() throws Exception
+    {
+        byte[] data = createData(250);
+        ChunkedByteArray array = new ChunkedByteArray(100);
+        array.add(data);
+
+        ByteBuffer[] buffers = array.asByteBuffers();
+        assertEquals("number of buffers", 3, buffers.length);
+        assertEquals("last buffer limit", 50, buffers[2].limit());
+
+        int pos = 0;
+        for (ByteBuffer buf : buffers)
+        {
+            while (buf.hasRemaining())
+                assertEquals("byte at " + pos, data[pos++], buf.get());
+        }
+        assertEquals("total bytes", 250, pos);
+    }
+
+
+    @Test
+    public void testAsInputStream() throws Exception
+    {
+        byte[] data = createData(1000);
+        ChunkedByteArray array = new ChunkedByteArray(64);
+        array.add(data);
+
+        InputStream in = array.asInputStream();
+
+        // subsequent adds are not visible to the stream
+        array.add(data);
+
+        assertEquals("available", 1000, in.available());
+        assertEquals("single byte read", data[0] & 0xFF, in.read());
+
+        in.mark(0);
+        assertEquals("skip", 9, in.skip(9));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(data[0]);
+        out.write(data, 1, 9);
+
+        byte[] buf = new byte[100];
+        int count;
+        while ((count = in.read(buf)) > 0)
+            out.write(buf, 0, count);
+        assertArrayEquals("stream contents", data, out.toByteArray());
+
+        in.reset();
+        assertEquals("after reset", data[1] & 0xFF, in.read());
+    }
+
+
+    @Test
+    public void testWriteTo() throws Exception
+    {
+        byte[] data = createData(1000);
+        ChunkedByteArray array = new ChunkedByteArray(64);
+        array.add(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        array.writeTo(out);
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidChunkSize() throws Exception
+    {
+        new ChunkedByteArray(0);
+    }
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static byte[] createData(int size)
+    {
+        byte[] data = new byte[size];
+        for (int ii = 0 ; ii < size ; ii++)
+            data[ii] = (byte)(ii * 7);
+        return data;
+    }
+}
@@ -136,4 +136,164 @@ public class TestDataTable
         assertEquals("bar", table.getValue(1, 1));
         assertEquals("bargle", table.getValue(1, 2));
     }
+
+
+    @Test
+    public void testTypedColumns() throws Exception
+    {
+        DataTable table = new DataTable(
+                new String[]   { "int", "long", "double", "string", "other" },
+                new Class<?>[] { Integer.class, Long.class, Double.class, String.class, Number.class },
+                new Object[][]
+                {
+                    new Object[] { 1, 10L, 1.5, "foo", 100 },
+                    new Object[] { null, null, null, null, null },
+                    new Object[] { -3, Long.MAX_VALUE, -2.25, "bar", 2.5 },
+                });
+
+        assertEquals("size", 3, table.size());
+
+        assertEquals("getValue(int)",    Integer.valueOf(1),    table.getValue(0, 0));
+        assertEquals("getValue(long)",   Long.valueOf(10),      table.getValue(0, 1));
+        assertEquals("getValue(double)", Double.valueOf(1.5),   table.getValue(0, 2));
+        assertEquals("getValue(string)", "foo",                 table.getValue(0, 3));
+        assertEquals("getValue(other)",  Integer.valueOf(100),  table.getValue(0, 4));
+
+        assertEquals("getInt(int)",       -3,             table.getInt(2, 0));
+        assertEquals("getLong(int)",      -3L,            table.getLong(2, 0));
+        assertEquals("getDouble(int)",    -3.0,           table.getDouble(2, 0), 0.0);
+        assertEquals("getLong(long)",     Long.MAX_VALUE, table.getLong(2, 1));
+        assertEquals("getDouble(double)", -2.25,          table.getDouble(2, 2), 0.0);
+        assertEquals("getInt(double)",    -2,             table.getInt(2, 2));
+        assertEquals("getDouble(other)",  2.5,            table.getDouble(2, 4), 0.0);
+
+        for (int col = 0 ; col < table.getColumnCount() ; col++)
+        {
+            assertFalse("isNull(0," + col + ")", table.isNull(0, col));
+            assertTrue("isNull(1," + col + ")", table.isNull(1, col));
+            assertNull("getValue(1," + col + ")", table.getValue(1, col));
+        }
+
+        assertEquals("getInt() of null", 0, table.getInt(1, 0));
+        assertEquals("getDouble() of null", 0.0, table.getDouble(1, 4), 0.0);
+
+        try
+        {
+            table.getInt(0, 3);
+            fail("getInt() of string column");
+        }
+        catch (ClassCastException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testSetValueTypedColumns() throws Exception
+    {
+        DataTable table = new DataTable(
+                new String[]   { "int", "string" },
+                new Class<?>[] { Integer.class, String.class },
+                new Object[][] { new Object[] { 1, "foo" } });
+
+        assertEquals("setValue(int) returns old", Integer.valueOf(1), table.setValue(0, 0, null));
+        assertTrue("null after setValue", table.isNull(0, 0));
+        assertNull("setValue(int) returns null", table.setValue(0, 0, 12));
+        assertEquals("after setValue", 12, table.getInt(0, 0));
+        assertFalse("not null after setValue", table.isNull(0, 0));
+
+        assertEquals("setValue(string) returns old", "foo", table.setValue(0, 1, "bar"));
+        assertEquals("after setValue", "bar", table.getValue(0, 1));
+
+        try
+        {
+            table.setValue(0, 0, 12L);
+            fail("able to set long in int column");
+        }
+        catch (ClassCastException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testStringDictionary() throws Exception
+    {
+        DataTable table = new DataTable(new String[] { "s" }, new Class<?>[] { String.class }, null);
+        table.addRow(new Object[] { new String("foo") });
+        table.addRow(new Object[] { new String("foo") });
+
+        assertEquals("value", "foo", table.getValue(1, 0));
+        assertSame("equal strings stored once", table.getValue(0, 0), table.getValue(1, 0));
+    }
+
+
+    @Test
+    public void testManyRows() throws Exception
+    {
+        DataTable table = new DataTable(new String[] { "i", "d" }, new Class<?>[] { Integer.class, Double.class }, null);
+        for (int ii = 0 ; ii < 10000 ; ii++)
+        {
+            table.addRow(new Object[] { ii, (ii % 7 == 0) ? null : ii / 2.0 });
+        }
+
+        assertEquals("size", 10000, table.size());
+        for (int ii = 0 ; ii < 10000 ; ii++)
+        {
+            assertEquals("int at " + ii, ii, table.getInt(ii, 0));
+            assertEquals("null at " + ii, ii % 7 == 0, table.isNull(ii, 1));
+            if (ii % 7 != 0)
+                assertEquals("double at " + ii, ii / 2.0, table.getDouble(ii, 1), 0.0);
+        }
+    }
+
+
+    @Test
+    public void testInvalidRowIndex() throws Exception
+    {
+        DataTable table = new DataTable(HEADERS, CLASSES, GOOD_DATA);
+
+        try
+        {
+            table.getValue(GOOD_DATA.length, 0);
+            fail("able to read past end of table");
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            // success
+        }
+
+        try
+        {
+            table.setValue(-1, 0, "foo");
+            fail("able to write before start of table");
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testFailedAddRowLeavesTableUnchanged() throws Exception
+    {
+        DataTable table = new DataTable(HEADERS, CLASSES, GOOD_DATA);
+
+        try
+        {
+            table.addRow(BAD_DATA[0]);
+            fail("able to add invalid row");
+        }
+        catch (ClassCastException ex)
+        {
+            // success
+        }
+
+        assertEquals("size", GOOD_DATA.length, table.size());
+        table.addRow(BAD_DATA[1]);
+        assertEquals("added row", "D", table.getValue(GOOD_DATA.length, 0));
+    }
 }
@@ -0,0 +1,285 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.kdgregory.kdgcommons.collections.CompoundKey;
+
+
+public class TestDataTableAggregation
+{
+
+//------------------------------------------------------------------------------
+//  Setup
+//------------------------------------------------------------------------------
+
+    private static DataTable createTable()
+    {
+        return new DataTable(
+                new String[]   { "region", "year", "units", "price", "amount" },
+                new Class<?>[] { String.class, Integer.class, Long.class, Double.class, BigDecimal.class },
+                new Object[][]
+                {
+                    new Object[] { "east", 2020, 10L,  1.5,  new BigDecimal("1.10") },
+                    new Object[] { "west", 2020, 20L,  2.5,  new BigDecimal("2.20") },
+                    new Object[] { "east", 2021, null, 3.5,  null                   },
+                    new Object[] { null,   2021, 40L,  null, new BigDecimal("4.40") },
+                    new Object[] { "east", 2020, 50L,  5.5,  new BigDecimal("5.50") },
+                    new Object[] { "west", null, 60L,  6.5,  new BigDecimal("0.60") },
+                });
+    }
+
+//------------------------------------------------------------------------------
+//  Test Methods
+//------------------------------------------------------------------------------
+
+    @Test
+    public void testSingleColumnGrouping() throws Exception
+    {
+        DataTable table = createTable();
+        DataTable result = table.groupBy(0)
+                           .count()
+                           .count(2)
+                           .sum(2)
+                           .sum(3)
+                           .avg(3)
+                           .min(3)
+                           .max(2)
+                           .execute();
+
+        assertEquals("columns", 8, result.getColumnCount());
+        assertEquals("group column name",  "region",      result.getColumnName(0));
+        assertEquals("count name",         "count",       result.getColumnName(1));
+        assertEquals("count(col) name",    "count(units)", result.getColumnName(2));
+        assertEquals("sum name",           "sum(units)",  result.getColumnName(3));
+        assertEquals("sum(long) class",    Long.class,    result.getColumnClass(3));
+        assertEquals("sum(double) class",  Double.class,  result.getColumnClass(4));
+        assertEquals("min(double) class",  Double.class,  result.getColumnClass(6));
+        assertEquals("max(long) class",    Long.class,    result.getColumnClass(7));
+
+        // groups appear in order of first row
+        assertEquals("groups", 3, result.size());
+        assertEquals("group 0", "east", result.getValue(0, 0));
+        assertEquals("group 1", "west", result.getValue(1, 0));
+        assertEquals("group 2", null,   result.getValue(2, 0));
+
+        assertEquals("east count",        3L,     result.getValue(0, 1));
+        assertEquals("east count(units)", 2L,     result.getValue(0, 2));
+        assertEquals("east sum(units)",   60L,    result.getValue(0, 3));
+        assertEquals("east sum(price)",   10.5,   result.getDouble(0, 4), 0.0);
+        assertEquals("east avg(price)",   3.5,    result.getDouble(0, 5), 0.0);
+        assertEquals("east min(price)",   1.5,    result.getDouble(0, 6), 0.0);
+        assertEquals("east max(units)",   50L,    result.getValue(0, 7));
+
+        assertEquals("null count",        1L,     result.getValue(2, 1));
+        assertEquals("null sum(units)",   40L,    result.getValue(2, 3));
+        assertNull("null sum(price)",             result.getValue(2, 4));
+        assertNull("null avg(price)",             result.getValue(2, 5));
+        assertNull("null min(price)",             result.getValue(2, 6));
+    }
+
+
+    @Test
+    public void testMultiColumnGrouping() throws Exception
+    {
+        DataTable table = createTable();
+        DataTable result = table.groupBy(0, 1).count().max(4).execute();
+
+        assertEquals("groups", 5, result.size());
+        assertEquals("group 0", "east", result.getValue(0, 0));
+        assertEquals("group 0", 2020,   result.getValue(0, 1));
+        assertEquals("group 0 count", 2L, result.getValue(0, 2));
+        assertEquals("group 0 max", new BigDecimal("5.50"), result.getValue(0, 3));
+        assertEquals("max(decimal) class", BigDecimal.class, result.getColumnClass(3));
+
+        assertEquals("group 3", null,   result.getValue(3, 0));
+        assertEquals("group 4", "west", result.getValue(4, 0));
+        assertEquals("group 4", null,   result.getValue(4, 1));
+
+        DataTable result3 = table.groupBy(0, 1, 4).count().execute();
+        assertEquals("groups, three columns", 6, result3.size());
+    }
+
+
+    @Test
+    public void testNoGroupingColumns() throws Exception
+    {
+        DataTable table = createTable();
+        DataTable result = table.groupBy().count().sum(2).min(0).max(0).execute();
+
+        assertEquals("rows", 1, result.size());
+        assertEquals("count", 6L, result.getValue(0, 0));
+        assertEquals("sum", 180L, result.getValue(0, 1));
+        assertEquals("min", "east", result.getValue(0, 2));
+        assertEquals("max", "west", result.getValue(0, 3));
+
+        DataTable empty = new DataTable(new String[] { "x" }, new Class<?>[] { Long.class }, null);
+        DataTable emptyResult = empty.groupBy().count().sum(0).execute();
+        assertEquals("rows, empty table", 1, emptyResult.size());
+        assertEquals("count, empty table", 0L, emptyResult.getValue(0, 0));
+        assertNull("sum, empty table", emptyResult.getValue(0, 1));
+
+        assertEquals("grouped empty table", 0, empty.groupBy(0).count().execute().size());
+    }
+
+
+    @Test
+    public void testRestrict() throws Exception
+    {
+        DataTable table = createTable();
+        int[] rows = table.scan().whereInt(1, v -> v == 2020).rows();
+        DataTable result = table.groupBy(0).restrict(rows).sum(2).execute();
+
+        assertEquals("groups", 2, result.size());
+        assertEquals("east", 60L, result.getValue(0, 1));
+        assertEquals("west", 20L, result.getValue(1, 1));
+    }
+
+
+    @Test
+    public void testInvalidColumn() throws Exception
+    {
+        DataTable table = createTable();
+
+        try
+        {
+            table.groupBy(5);
+            fail("able to group by invalid column");
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            // success
+        }
+
+        for (int col : new int[] { -1, 5 })
+        {
+            DataTableAggregation agg = table.groupBy(0);
+            assertInvalidColumn("count(" + col + ")", () -> agg.count(col));
+            assertInvalidColumn("sum(" + col + ")",   () -> agg.sum(col));
+            assertInvalidColumn("avg(" + col + ")",   () -> agg.avg(col));
+            assertInvalidColumn("min(" + col + ")",   () -> agg.min(col));
+            assertInvalidColumn("max(" + col + ")",   () -> agg.max(col));
+        }
+
+        DataTable mixed = new DataTable(
+                new String[]   { "name", "thing", "untyped" },
+                new Class<?>[] { String.class, Object.class, null },
+                new Object[][] { new Object[] { "foo", new Object(), 12 } });
+        DataTableAggregation agg = mixed.groupBy();
+        assertInvalidColumnClass("sum(String)",    "name",  () -> agg.sum(0));
+        assertInvalidColumnClass("avg(String)",    "name",  () -> agg.avg(0));
+        assertInvalidColumnClass("min(Object)",    "thing", () -> agg.min(1));
+        assertInvalidColumnClass("max(Object)",    "thing", () -> agg.max(1));
+
+        // untyped columns can't be checked until execution; strings are comparable
+        agg.sum(2).avg(2).min(2).max(0);
+        assertEquals("aggregates on untyped column", 12L, ((Number)agg.execute().getValue(0, 0)).longValue());
+    }
+
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception
+    {
+        Random rnd = new Random(98765);
+        DataTable table = new DataTable(
+                new String[]   { "key", "sub", "value" },
+                new Class<?>[] { String.class, Long.class, Long.class },
+                null);
+
+        Map<CompoundKey,long[]> expected = new HashMap<CompoundKey,long[]>();
+        for (int ii = 0 ; ii < 200000 ; ii++)
+        {
+            String key = "key" + rnd.nextInt(100);
+            Long sub = (ii % 1000 == 0) ? null : Long.valueOf(rnd.nextInt(10));
+            long value = rnd.nextInt(1000);
+            table.addRow(new Object[] { key, sub, value });
+
+            CompoundKey ck = new CompoundKey(key, sub);
+            long[] acc = expected.get(ck);
+            if (acc == null)
+            {
+                acc = new long[] { 0, 0, Long.MAX_VALUE };
+                expected.put(ck, acc);
+            }
+            acc[0]++;
+            acc[1] += value;
+            acc[2] = Math.min(acc[2], value);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            DataTable result = table.groupBy(0, 1).count().sum(2).min(2).execute(pool);
+            assertEquals("groups", expected.size(), result.size());
+            for (int row = 0 ; row < result.size() ; row++)
+            {
+                CompoundKey ck = new CompoundKey(result.getValue(row, 0), result.getValue(row, 1));
+                long[] acc = expected.get(ck);
+                assertNotNull("unexpected group: " + ck, acc);
+                assertEquals("count for " + ck, acc[0], result.getLong(row, 2));
+                assertEquals("sum for " + ck,   acc[1], result.getLong(row, 3));
+                assertEquals("min for " + ck,   acc[2], result.getLong(row, 4));
+            }
+
+            DataTable total = table.groupBy().count().execute(pool);
+            assertEquals("total count", 200000L, total.getValue(0, 0));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+//------------------------------------------------------------------------------
+//  Support Code
+//------------------------------------------------------------------------------
+
+    private static void assertInvalidColumnClass(String message, String colName, Runnable builderCall)
+    {
+        try
+        {
+            builderCall.run();
+            fail(message + ": accepted invalid column class");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertTrue(message + ": exception identifies column (was: " + ex.getMessage() + ")",
+                       ex.getMessage().contains("(" + colName + ")"));
+        }
+    }
+
+
+    private static void assertInvalidColumn(String message, Runnable builderCall)
+    {
+        try
+        {
+            builderCall.run();
+            fail(message + ": accepted invalid column");
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            assertTrue(message + ": exception identifies column (was: " + ex.getMessage() + ")",
+                       ex.getMessage().startsWith("invalid column"));
+        }
+    }
+}
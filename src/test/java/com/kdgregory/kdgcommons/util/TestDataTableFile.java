@@ -0,0 +1,231 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigDecimal;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestDataTableFile
+{
+
+//------------------------------------------------------------------------------
+//  Setup
+//------------------------------------------------------------------------------
+
+    private final static String[] NAMES = new String[] { "id", "total", "score", "name", "\u00fcn\u00efcode" };
+    private final static Class<?>[] CLASSES = new Class<?>[] { Integer.class, Long.class, Double.class, String.class, String.class };
+    private final static Object[][] DATA = new Object[][]
+    {
+        new Object[] { 1,    100L, 1.5,  "foo", "\u00e4" },
+        new Object[] { null, null, null, null,  ""  },
+        new Object[] { 3,    300L, 3.5,  "foo", "\u00f6" },
+        new Object[] { -4,   Long.MIN_VALUE, Double.NaN, "bar", "\u00e4" },
+    };
+
+
+    private static File createTempFile()
+    throws Exception
+    {
+        File file = File.createTempFile("TestDataTableFile", ".dat");
+        file.deleteOnExit();
+        return file;
+    }
+
+
+    private static DataTable writeAndOpen(DataTable table)
+    throws Exception
+    {
+        File file = createTempFile();
+        DataTableFile.write(table, file);
+        return DataTableFile.open(file);
+    }
+
+//------------------------------------------------------------------------------
+//  Test Methods
+//------------------------------------------------------------------------------
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        DataTable mapped = writeAndOpen(new DataTable(NAMES, CLASSES, DATA));
+
+        assertEquals("columns", NAMES.length, mapped.getColumnCount());
+        assertEquals("rows", DATA.length, mapped.size());
+        for (int col = 0 ; col < NAMES.length ; col++)
+        {
+            assertEquals("column " + col + " name",  NAMES[col],   mapped.getColumnName(col));
+            assertEquals("column " + col + " class", CLASSES[col], mapped.getColumnClass(col));
+            for (int row = 0 ; row < DATA.length ; row++)
+            {
+                assertEquals("row " + row + " column " + col, DATA[row][col], mapped.getValue(row, col));
+            }
+        }
+
+        assertTrue("null int",      mapped.isNull(1, 0));
+        assertFalse("non-null int", mapped.isNull(0, 0));
+        assertEquals("getInt()",    -4,  mapped.getInt(3, 0));
+        assertEquals("getLong()",   300L, mapped.getLong(2, 1));
+        assertEquals("getDouble()", 3.5, mapped.getDouble(2, 2), 0.0);
+        assertSame("strings cached", mapped.getValue(0, 3), mapped.getValue(2, 3));
+        assertEquals("lookup by name", 3, mapped.getColumnIndex("name"));
+    }
+
+
+    @Test
+    public void testRewriteMappedTable() throws Exception
+    {
+        // a mapped string column doesn't expose its dictionary, so is re-encoded
+        DataTable mapped = writeAndOpen(new DataTable(NAMES, CLASSES, DATA));
+        DataTable remapped = writeAndOpen(mapped);
+
+        assertEquals("rows", DATA.length, remapped.size());
+        for (int col = 0 ; col < NAMES.length ; col++)
+        {
+            for (int row = 0 ; row < DATA.length ; row++)
+            {
+                assertEquals("row " + row + " column " + col, DATA[row][col], remapped.getValue(row, col));
+            }
+        }
+    }
+
+
+    @Test
+    public void testEmptyTable() throws Exception
+    {
+        DataTable mapped = writeAndOpen(new DataTable(NAMES, CLASSES, 0));
+        assertEquals("columns", NAMES.length, mapped.getColumnCount());
+        assertEquals("rows", 0, mapped.size());
+    }
+
+
+    @Test
+    public void testReadOnly() throws Exception
+    {
+        DataTable mapped = writeAndOpen(new DataTable(NAMES, CLASSES, DATA));
+
+        try
+        {
+            mapped.setValue(0, 0, 12);
+            fail("able to update primitive column");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // success
+        }
+
+        try
+        {
+            mapped.setValue(0, 3, "baz");
+            fail("able to update string column");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // success
+        }
+
+        try
+        {
+            mapped.addRow(DATA[0]);
+            fail("able to add row");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testQueriesOnMappedTable() throws Exception
+    {
+        DataTable table = new DataTable(
+                new String[]   { "key", "value" },
+                new Class<?>[] { String.class, Long.class },
+                null);
+        for (int ii = 0 ; ii < 10000 ; ii++)
+        {
+            table.addRow(new Object[] { "k" + (ii % 7), (ii % 100 == 0) ? null : Long.valueOf(ii) });
+        }
+        DataTable mapped = writeAndOpen(table);
+
+        DataTableIndex.HashIndex hashIndex = mapped.createHashIndex(0);
+        assertArrayEquals("hash index", table.createHashIndex(0).lookup("k3"), hashIndex.lookup("k3"));
+
+        DataTableIndex.SortedIndex sortedIndex = mapped.createSortedIndex(1);
+        assertArrayEquals("sorted index",
+                          table.createSortedIndex(1).range(100L, true, 200L, false),
+                          sortedIndex.range(100L, true, 200L, false));
+
+        assertEquals("scan",
+                     table.scan().whereLong(1, v -> v % 3 == 0).count(),
+                     mapped.scan().whereLong(1, v -> v % 3 == 0).count());
+
+        DataTable expected = table.groupBy(0).count(1).sum(1).execute();
+        DataTable actual = mapped.groupBy(0).count(1).sum(1).execute();
+        assertEquals("groups", expected.size(), actual.size());
+        for (int row = 0 ; row < expected.size() ; row++)
+        {
+            for (int col = 0 ; col < expected.getColumnCount() ; col++)
+            {
+                assertEquals("aggregate row " + row + " column " + col,
+                             expected.getValue(row, col), actual.getValue(row, col));
+            }
+        }
+    }
+
+
+    @Test
+    public void testUnsupportedColumnClass() throws Exception
+    {
+        DataTable table = new DataTable(
+                new String[] { "amount" },
+                new Class<?>[] { BigDecimal.class },
+                new Object[][] { new Object[] { BigDecimal.ONE } });
+        try
+        {
+            DataTableFile.write(table, createTempFile());
+            fail("wrote unsupported column");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testInvalidFile() throws Exception
+    {
+        File file = createTempFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[64]);
+        out.close();
+
+        try
+        {
+            DataTableFile.open(file);
+            fail("opened file with invalid magic number");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+}
@@ -0,0 +1,220 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.math.BigDecimal;
+import java.util.ConcurrentModificationException;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestDataTableIndex
+{
+
+//------------------------------------------------------------------------------
+//  Setup
+//------------------------------------------------------------------------------
+
+    private final static String[] NAMES = new String[]
+    {
+        "int", "long", "double", "string", "decimal"
+    };
+
+    private final static Class<?>[] CLASSES = new Class<?>[]
+    {
+        Integer.class, Long.class, Double.class, String.class, BigDecimal.class
+    };
+
+
+    private static DataTable createTable()
+    {
+        return new DataTable(NAMES, CLASSES, new Object[][]
+        {
+            new Object[] { 3,    30L,  3.5,  "c",  new BigDecimal("3") },
+            new Object[] { 1,    10L,  1.5,  "a",  new BigDecimal("1") },
+            new Object[] { null, null, null, null, null                },
+            new Object[] { 3,    30L,  3.5,  "c",  new BigDecimal("3") },
+            new Object[] { 2,    20L,  2.5,  "b",  new BigDecimal("2") },
+            new Object[] { 1,    10L,  1.5,  "a",  new BigDecimal("1") },
+        });
+    }
+
+//------------------------------------------------------------------------------
+//  Test Methods
+//------------------------------------------------------------------------------
+
+    @Test
+    public void testHashIndexLookup() throws Exception
+    {
+        DataTable table = createTable();
+        Object[][] probes = new Object[][]
+        {
+            new Object[] { 1, 10L, 1.5, "a", new BigDecimal("1") },
+            new Object[] { 3, 30L, 3.5, "c", new BigDecimal("3") },
+            new Object[] { 9, 90L, 9.5, "z", new BigDecimal("9") },
+        };
+        int[][] expected = new int[][] { { 1, 5 }, { 0, 3 }, { } };
+
+        for (int col = 0 ; col < table.getColumnCount() ; col++)
+        {
+            DataTableIndex.HashIndex index = table.createHashIndex(col);
+            for (int pp = 0 ; pp < probes.length ; pp++)
+            {
+                assertArrayEquals("column " + col + ", probe " + probes[pp][col],
+                                  expected[pp], index.lookup(probes[pp][col]));
+                assertEquals("count, column " + col + ", probe " + probes[pp][col],
+                             expected[pp].length, index.count(probes[pp][col]));
+            }
+            assertArrayEquals("column " + col + ", null", new int[] { 2 }, index.lookup(null));
+            assertEquals("distinct values, column " + col, 4, index.distinctCount());
+        }
+    }
+
+
+    @Test
+    public void testHashIndexIncompatibleProbe() throws Exception
+    {
+        DataTable table = createTable();
+
+        assertArrayEquals("Long probe of Integer column", new int[0], table.createHashIndex(0).lookup(Long.valueOf(1)));
+        assertArrayEquals("Integer probe of String column", new int[0], table.createHashIndex(3).lookup(Integer.valueOf(1)));
+    }
+
+
+    @Test
+    public void testHashIndexDistinguishesZeroAndNull() throws Exception
+    {
+        DataTable table = new DataTable(new String[] { "d" }, new Class<?>[] { Double.class }, new Object[][]
+        {
+            new Object[] { 0.0 },
+            new Object[] { null },
+            new Object[] { -0.0 },
+            new Object[] { Double.NaN },
+        });
+        DataTableIndex.HashIndex index = table.createHashIndex(0);
+
+        assertArrayEquals("0.0",  new int[] { 0 }, index.lookup(0.0));
+        assertArrayEquals("null", new int[] { 1 }, index.lookup(null));
+        assertArrayEquals("-0.0", new int[] { 2 }, index.lookup(-0.0));
+        assertArrayEquals("NaN",  new int[] { 3 }, index.lookup(Double.NaN));
+    }
+
+
+    @Test
+    public void testSortedIndexLookup() throws Exception
+    {
+        DataTable table = createTable();
+        for (int col = 0 ; col < table.getColumnCount() ; col++)
+        {
+            DataTableIndex.SortedIndex index = table.createSortedIndex(col);
+            assertArrayEquals("sorted rows, column " + col, new int[] { 2, 1, 5, 4, 0, 3 }, index.sortedRows());
+            assertArrayEquals("lookup, column " + col, new int[] { 0, 3 }, index.lookup(table.getValue(0, col)));
+            assertArrayEquals("null, column " + col, new int[] { 2 }, index.lookup(null));
+        }
+
+        assertArrayEquals("missing value", new int[0], table.createSortedIndex(0).lookup(Integer.valueOf(7)));
+        assertArrayEquals("incompatible value", new int[0], table.createSortedIndex(0).lookup("1"));
+    }
+
+
+    @Test
+    public void testSortedIndexRange() throws Exception
+    {
+        DataTable table = createTable();
+        DataTableIndex.SortedIndex index = table.createSortedIndex(0);
+
+        assertArrayEquals("[1,3]",  new int[] { 1, 5, 4, 0, 3 }, index.range(1, true, 3, true));
+        assertArrayEquals("(1,3)",  new int[] { 4 },             index.range(1, false, 3, false));
+        assertArrayEquals("[2,*)",  new int[] { 4, 0, 3 },       index.range(2, true, null, false));
+        assertArrayEquals("(*,2)",  new int[] { 1, 5 },          index.range(null, false, 2, false));
+        assertArrayEquals("(*,*)",  new int[] { 1, 5, 4, 0, 3 }, index.range(null, false, null, false));
+        assertArrayEquals("[4,9]",  new int[0],                  index.range(4, true, 9, true));
+        assertArrayEquals("[3,1]",  new int[0],                  index.range(3, true, 1, true));
+        assertArrayEquals("[0,0]",  new int[0],                  index.range(0, true, 0, true));
+    }
+
+
+    @Test
+    public void testIndexesMatchScanOfRandomData() throws Exception
+    {
+        Random rnd = new Random(12345);
+        DataTable table = new DataTable(new String[] { "long" }, new Class<?>[] { Long.class }, null);
+        for (int ii = 0 ; ii < 5000 ; ii++)
+        {
+            table.addRow(new Object[] { (ii % 50 == 0) ? null : Long.valueOf(rnd.nextInt(200) - 100) });
+        }
+
+        DataTableIndex.HashIndex hashIndex = table.createHashIndex(0);
+        DataTableIndex.SortedIndex sortedIndex = table.createSortedIndex(0);
+        for (long value = -105 ; value < 105 ; value++)
+        {
+            IntArray expected = new IntArray();
+            for (int row = 0 ; row < table.size() ; row++)
+            {
+                if (! table.isNull(row, 0) && (table.getLong(row, 0) == value))
+                    expected.add(row);
+            }
+            assertArrayEquals("hash lookup " + value,   expected.toArray(), hashIndex.lookup(value));
+            assertArrayEquals("sorted lookup " + value, expected.toArray(), sortedIndex.lookup(value));
+        }
+
+        int[] sorted = sortedIndex.sortedRows();
+        for (int ii = 1 ; ii < sorted.length ; ii++)
+        {
+            Long v1 = (Long)table.getValue(sorted[ii - 1], 0);
+            Long v2 = (Long)table.getValue(sorted[ii], 0);
+            assertTrue("sort order at " + ii, (v1 == null) || ((v2 != null) && (v1.longValue() <= v2.longValue())));
+        }
+    }
+
+
+    @Test
+    public void testIndexInvalidatedByModification() throws Exception
+    {
+        DataTable table = createTable();
+        DataTableIndex.HashIndex hashIndex = table.createHashIndex(0);
+        DataTableIndex.SortedIndex sortedIndex = table.createSortedIndex(0);
+
+        assertTrue("valid before update", hashIndex.isValid());
+        table.setValue(0, 0, 4);
+        assertFalse("invalid after update", hashIndex.isValid());
+
+        try
+        {
+            hashIndex.lookup(1);
+            fail("hash index used after update");
+        }
+        catch (ConcurrentModificationException ex)
+        {
+            // success
+        }
+
+        try
+        {
+            sortedIndex.range(1, true, 2, true);
+            fail("sorted index used after update");
+        }
+        catch (ConcurrentModificationException ex)
+        {
+            // success
+        }
+
+        DataTableIndex.HashIndex newIndex = table.createHashIndex(0);
+        table.addRow();
+        assertFalse("invalid after add", newIndex.isValid());
+    }
+}
@@ -0,0 +1,302 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.kdgregory.kdgcommons.test.SelfMock;
+
+
+public class TestDataTableLoader
+{
+
+//------------------------------------------------------------------------------
+//  Setup
+//------------------------------------------------------------------------------
+
+    private final static String[] RS_LABELS = new String[] { "id", "total", "score", "name", "amount" };
+    private final static int[] RS_TYPES = new int[] { Types.INTEGER, Types.BIGINT, Types.DOUBLE, Types.VARCHAR, Types.DECIMAL };
+    private final static Object[][] RS_DATA = new Object[][]
+    {
+        new Object[] { 1,    100L, 1.5,  "foo", new BigDecimal("1.23") },
+        new Object[] { null, null, null, null,  null                   },
+        new Object[] { 3,    300L, 3.5,  "foo", new BigDecimal("4.56") },
+    };
+
+
+    private static class MockResultSet
+    extends SelfMock<ResultSet>
+    {
+        private int row = -1;
+        private boolean lastWasNull;
+
+        public MockResultSet()
+        {
+            super(ResultSet.class);
+        }
+
+        @SuppressWarnings("unused")
+        public ResultSetMetaData getMetaData()
+        {
+            return new MockResultSetMetaData().getInstance();
+        }
+
+        @SuppressWarnings("unused")
+        public boolean next()
+        {
+            return ++row < RS_DATA.length;
+        }
+
+        @SuppressWarnings("unused")
+        public int getInt(int idx)
+        {
+            Object value = value(idx);
+            return (value == null) ? 0 : ((Number)value).intValue();
+        }
+
+        @SuppressWarnings("unused")
+        public long getLong(int idx)
+        {
+            Object value = value(idx);
+            return (value == null) ? 0 : ((Number)value).longValue();
+        }
+
+        @SuppressWarnings("unused")
+        public double getDouble(int idx)
+        {
+            Object value = value(idx);
+            return (value == null) ? 0 : ((Number)value).doubleValue();
+        }
+
+        @SuppressWarnings("unused")
+        public String getString(int idx)
+        {
+            return (String)value(idx);
+        }
+
+        @SuppressWarnings("unused")
+        public Object getObject(int idx)
+        {
+            return value(idx);
+        }
+
+        @SuppressWarnings("unused")
+        public boolean wasNull()
+        {
+            return lastWasNull;
+        }
+
+        private Object value(int idx)
+        {
+            Object value = RS_DATA[row][idx - 1];
+            lastWasNull = (value == null);
+            return value;
+        }
+    }
+
+
+    private static class MockResultSetMetaData
+    extends SelfMock<ResultSetMetaData>
+    {
+        public MockResultSetMetaData()
+        {
+            super(ResultSetMetaData.class);
+        }
+
+        @SuppressWarnings("unused")
+        public int getColumnCount()
+        {
+            return RS_LABELS.length;
+        }
+
+        @SuppressWarnings("unused")
+        public String getColumnLabel(int idx)
+        {
+            return RS_LABELS[idx - 1];
+        }
+
+        @SuppressWarnings("unused")
+        public int getColumnType(int idx)
+        {
+            return RS_TYPES[idx - 1];
+        }
+    }
+
+//------------------------------------------------------------------------------
+//  Test Methods
+//------------------------------------------------------------------------------
+
+    @Test
+    public void testFromResultSet() throws Exception
+    {
+        MockResultSet mock = new MockResultSet();
+        DataTable table = DataTableLoader.fromResultSet(mock.getInstance(), 2);
+
+        assertEquals("columns", RS_LABELS.length, table.getColumnCount());
+        assertEquals("rows", RS_DATA.length, table.size());
+
+        Class<?>[] expectedClasses = new Class<?>[] { Integer.class, Long.class, Double.class, String.class, null };
+        for (int col = 0 ; col < RS_LABELS.length ; col++)
+        {
+            assertEquals("column " + col + " name",  RS_LABELS[col],       table.getColumnName(col));
+            assertEquals("column " + col + " class", expectedClasses[col], table.getColumnClass(col));
+            for (int row = 0 ; row < RS_DATA.length ; row++)
+            {
+                assertEquals("row " + row + " column " + col, RS_DATA[row][col], table.getValue(row, col));
+            }
+        }
+
+        assertTrue("primitive null", table.isNull(1, 0));
+        assertEquals("getInt() after load", 3, table.getInt(2, 0));
+        assertSame("strings deduplicated", table.getValue(0, 3), table.getValue(2, 3));
+    }
+
+
+    @Test
+    public void testFromCSV() throws Exception
+    {
+        String csv = "id,name,total,score\r\n"
+                   + "1,foo,100,1.5\r\n"
+                   + "\r\n"
+                   + "2,\"bar, \"\"baz\"\"\",-200,\n"
+                   + ",\"\",9223372036854775807,-2.5e3\n"
+                   + "-2147483648,\"multi\nline\",,0\n";
+
+        DataTable table = DataTableLoader.fromCSV(
+                            new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+                            StandardCharsets.UTF_8,
+                            new Class<?>[] { Integer.class, String.class, Long.class, Double.class });
+
+        assertEquals("columns", 4, table.getColumnCount());
+        assertEquals("column name", "score", table.getColumnName(3));
+        assertEquals("column class", Long.class, table.getColumnClass(2));
+        assertEquals("rows (blank line ignored)", 4, table.size());
+
+        assertEquals("row 0", 1,                 table.getValue(0, 0));
+        assertEquals("row 0", "foo",             table.getValue(0, 1));
+        assertEquals("row 0", 100L,              table.getValue(0, 2));
+        assertEquals("row 0", 1.5,               table.getValue(0, 3));
+
+        assertEquals("quoted field",             "bar, \"baz\"", table.getValue(1, 1));
+        assertEquals("negative long",            -200L,          table.getValue(1, 2));
+        assertNull("empty double at end of line",                table.getValue(1, 3));
+
+        assertNull("empty int",                                  table.getValue(2, 0));
+        assertEquals("quoted empty string",      "",             table.getValue(2, 1));
+        assertEquals("max long",                 Long.MAX_VALUE, table.getValue(2, 2));
+        assertEquals("exponent",                 -2500.0,        table.getValue(2, 3));
+
+        assertEquals("min int",                  Integer.MIN_VALUE, table.getValue(3, 0));
+        assertEquals("embedded newline",         "multi\nline",     table.getValue(3, 1));
+        assertNull("empty long",                                    table.getValue(3, 2));
+    }
+
+
+    @Test
+    public void testFromCSVWithoutClasses() throws Exception
+    {
+        DataTable table = DataTableLoader.fromCSV(new StringReader("a\tb\nx\t\ny\tz"), '\t', null, 0);
+
+        assertEquals("rows", 2, table.size());
+        assertEquals("class", String.class, table.getColumnClass(0));
+        assertEquals("value", "x", table.getValue(0, 0));
+        assertNull("empty field", table.getValue(0, 1));
+        assertEquals("last line without terminator", "z", table.getValue(1, 1));
+    }
+
+
+    @Test
+    public void testFromCSVErrors() throws Exception
+    {
+        assertCSVError("wrong field count",  "a,b\n1,2\n3\n",           "line 3");
+        assertCSVError("too many fields",    "a,b\n1,2,3\n",            "line 2");
+        assertCSVError("int overflow",       "a,b\n2147483648,1\n",     "line 2");
+        assertCSVError("not a number",       "a,b\n1,x\n",              "line 2");
+        assertCSVError("sign only",          "a,b\n-,1\n",              "line 2");
+        assertCSVError("unterminated quote", "a,b\n\"1,2\n",            "line 2");
+        assertCSVError("junk after quote",   "a,b\n\"1\"x,2\n",         "line 2");
+
+        try
+        {
+            DataTableLoader.fromCSV(new StringReader("a\n1\n"), ',', new Class<?>[] { BigDecimal.class }, 0);
+            fail("accepted unsupported class");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+
+        try
+        {
+            DataTableLoader.fromCSV(new StringReader("a,b\n1,2\n"), ',', new Class<?>[] { Integer.class }, 0);
+            fail("accepted mismatched class array");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testManyRows() throws Exception
+    {
+        StringBuilder csv = new StringBuilder("id,group,value\n");
+        for (int ii = 0 ; ii < 50000 ; ii++)
+        {
+            csv.append(ii).append(",g").append(ii % 10).append(",").append(ii / 4.0).append("\n");
+        }
+
+        DataTable table = DataTableLoader.fromCSV(
+                            new StringReader(csv.toString()), ',',
+                            new Class<?>[] { Integer.class, String.class, Double.class }, 50000);
+
+        assertEquals("rows", 50000, table.size());
+        for (int ii = 0 ; ii < 50000 ; ii += 997)
+        {
+            assertEquals("id at " + ii,    ii,            table.getInt(ii, 0));
+            assertEquals("group at " + ii, "g" + ii % 10, table.getValue(ii, 1));
+            assertEquals("value at " + ii, ii / 4.0,      table.getDouble(ii, 2), 0.0);
+        }
+    }
+
+//------------------------------------------------------------------------------
+//  Support Code
+//------------------------------------------------------------------------------
+
+    private static void assertCSVError(String message, String csv, String expectedLine)
+    throws Exception
+    {
+        try
+        {
+            DataTableLoader.fromCSV(new StringReader(csv), ',', new Class<?>[] { Integer.class, Integer.class }, 0);
+            fail(message + ": no exception");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertTrue(message + ": exception identifies line (was: " + ex.getMessage() + ")",
+                       ex.getMessage().startsWith(expectedLine + ":"));
+        }
+    }
+}
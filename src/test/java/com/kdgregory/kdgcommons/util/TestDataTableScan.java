@@ -0,0 +1,234 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestDataTableScan
+{
+
+//------------------------------------------------------------------------------
+//  Setup
+//------------------------------------------------------------------------------
+
+    private static DataTable createTable()
+    {
+        return new DataTable(
+                new String[]   { "id", "region", "units", "price", "tag" },
+                new Class<?>[] { Integer.class, String.class, Long.class, Double.class, null },
+                new Object[][]
+                {
+                    new Object[] { 0, "east",  10L,  1.5,  "x"  },
+                    new Object[] { 1, "west",  20L,  2.5,  null },
+                    new Object[] { 2, "east",  null, 3.5,  "w"  },
+                    new Object[] { 3, null,    40L,  null, "y"  },
+                    new Object[] { 4, "north", 50L,  5.5,  "x"  },
+                    new Object[] { 5, "east",  60L,  6.5,  "z"  },
+                });
+    }
+
+//------------------------------------------------------------------------------
+//  Test Methods
+//------------------------------------------------------------------------------
+
+    @Test
+    public void testUnfilteredScan() throws Exception
+    {
+        DataTable table = createTable();
+
+        assertArrayEquals("rows", new int[] { 0, 1, 2, 3, 4, 5 }, table.scan().rows());
+        assertEquals("count", 6, table.scan().count());
+    }
+
+
+    @Test
+    public void testTypedPredicates() throws Exception
+    {
+        DataTable table = createTable();
+
+        assertArrayEquals("whereInt",    new int[] { 4, 5 },    table.scan().whereInt(0, v -> v >= 4).rows());
+        assertArrayEquals("whereLong",   new int[] { 0, 1 },    table.scan().whereLong(2, v -> v < 30).rows());
+        assertArrayEquals("whereDouble", new int[] { 2, 4 },    table.scan().whereDouble(3, v -> v > 3 && v < 6).rows());
+        assertArrayEquals("whereString", new int[] { 0, 2, 5 }, table.scan().whereString(1, "east"::equals).rows());
+
+        assertArrayEquals("whereLong on int column", new int[] { 0 }, table.scan().whereLong(0, v -> v == 0).rows());
+        assertArrayEquals("whereString on untyped column", new int[] { 0, 4 }, table.scan().whereString(4, "x"::equals).rows());
+    }
+
+
+    @Test
+    public void testTypedPredicatesDoNotMatchNull() throws Exception
+    {
+        DataTable table = createTable();
+
+        assertArrayEquals("whereLong",   new int[] { 0, 1, 3, 4, 5 }, table.scan().whereLong(2, v -> true).rows());
+        assertArrayEquals("whereDouble", new int[] { 0, 1, 2, 4, 5 }, table.scan().whereDouble(3, v -> v >= 0).rows());
+        assertArrayEquals("whereString", new int[] { 0, 1, 2, 4, 5 }, table.scan().whereString(1, v -> true).rows());
+        assertArrayEquals("where",       new int[] { 1 },             table.scan().where(4, v -> v == null).rows());
+    }
+
+
+    @Test
+    public void testTypedPredicatesNotCalledForNull() throws Exception
+    {
+        // the stored value for a null row is 0; predicates must never see it
+        DataTable table = new DataTable(
+                new String[]   { "int", "long", "double" },
+                new Class<?>[] { Integer.class, Long.class, Double.class },
+                new Object[][]
+                {
+                    new Object[] { 10,   10L,  10.0 },
+                    new Object[] { null, null, null },
+                    new Object[] { 5,    5L,   5.0  },
+                });
+
+        assertArrayEquals("whereInt",    new int[] { 0, 2 }, table.scan().whereInt(0, v -> 100 / v > 5).rows());
+        assertArrayEquals("whereLong",   new int[] { 0, 2 }, table.scan().whereLong(1, v -> 100 / v > 5).rows());
+        assertArrayEquals("whereDouble", new int[] { 0, 2 }, table.scan().whereDouble(2, v -> assertNonZero(v)).rows());
+    }
+
+
+    @Test
+    public void testCombinedPredicates() throws Exception
+    {
+        DataTable table = createTable();
+
+        int[] rows = table.scan()
+                     .whereString(1, "east"::equals)
+                     .whereLong(2, v -> v > 10)
+                     .rows();
+        assertArrayEquals("rows", new int[] { 5 }, rows);
+    }
+
+
+    @Test
+    public void testStringPredicateEvaluatedPerDistinctValue() throws Exception
+    {
+        DataTable table = new DataTable(new String[] { "s" }, new Class<?>[] { String.class }, null);
+        for (int ii = 0 ; ii < 1000 ; ii++)
+        {
+            table.addRow(new Object[] { "value" + (ii % 3) });
+        }
+
+        final AtomicInteger calls = new AtomicInteger();
+        int count = table.scan().whereString(0, v -> { calls.incrementAndGet(); return v.endsWith("1"); }).count();
+
+        assertEquals("count", 333, count);
+        assertEquals("predicate calls", 3, calls.get());
+    }
+
+
+    @Test
+    public void testRestrictWithIndex() throws Exception
+    {
+        DataTable table = createTable();
+        DataTableIndex.SortedIndex index = table.createSortedIndex(3);
+
+        int[] rows = table.scan()
+                     .restrict(index.range(6.5, true, 1.5, true))
+                     .rows();
+        assertArrayEquals("empty range", new int[0], rows);
+
+        rows = table.scan()
+               .restrict(index.range(2.0, true, null, false))
+               .whereInt(0, v -> v != 4)
+               .rows();
+        assertArrayEquals("restricted rows, in index order", new int[] { 1, 2, 5 }, rows);
+
+        try
+        {
+            table.scan().restrict(new int[] { 6 }).rows();
+            fail("able to restrict to row outside table");
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testToTable() throws Exception
+    {
+        DataTable table = createTable();
+        DataTable result = table.scan()
+                           .whereString(1, "east"::equals)
+                           .select(3, 0)
+                           .toTable();
+
+        assertEquals("columns", 2, result.getColumnCount());
+        assertEquals("column 0 name", "price", result.getColumnName(0));
+        assertEquals("column 0 class", Double.class, result.getColumnClass(0));
+        assertEquals("column 1 name", "id", result.getColumnName(1));
+        assertEquals("rows", 3, result.size());
+
+        assertEquals("row 0", 1.5, result.getDouble(0, 0), 0.0);
+        assertEquals("row 1", 2,   result.getInt(1, 1));
+        assertEquals("row 2", 6.5, result.getDouble(2, 0), 0.0);
+
+        DataTable all = table.scan().toTable();
+        assertEquals("default projection", table.getColumnCount(), all.getColumnCount());
+        assertEquals("default projection size", table.size(), all.size());
+        assertTrue("null preserved", all.isNull(2, 2));
+        assertTrue("null double preserved", all.isNull(3, 3));
+        assertNull("null string preserved", all.getValue(3, 1));
+        for (int row = 0 ; row < table.size() ; row++)
+        {
+            for (int col = 0 ; col < table.getColumnCount() ; col++)
+            {
+                assertEquals("row " + row + ", col " + col, table.getValue(row, col), all.getValue(row, col));
+            }
+        }
+
+        all.addRow(new Object[] { 6, "south", 70L, 7.5, null });
+        assertEquals("result table can be extended", 7, all.size());
+    }
+
+
+    @Test
+    public void testScanSeesLaterChanges() throws Exception
+    {
+        DataTable table = createTable();
+        DataTableScan scan = table.scan().whereString(1, "east"::equals);
+
+        table.addRow(new Object[] { 6, "east", 70L, 7.5, null });
+        assertArrayEquals("rows", new int[] { 0, 2, 5, 6 }, scan.rows());
+    }
+
+
+    @Test
+    public void testGetColumnIndex() throws Exception
+    {
+        DataTable table = createTable();
+
+        assertEquals("existing column", 2, table.getColumnIndex("units"));
+        assertEquals("missing column", -1, table.getColumnIndex("bogus"));
+    }
+
+//------------------------------------------------------------------------------
+//  Support Code
+//------------------------------------------------------------------------------
+
+    private static boolean assertNonZero(double value)
+    {
+        if (value == 0)
+            throw new IllegalArgumentException("predicate called with 0");
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.nio.DoubleBuffer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.kdgregory.kdgcommons.buffer.BufferFacade;
+
+
+// most functionality is tested by TestIntArray; this verifies the type-specific code
+public class TestDoubleArray
+{
+    @Test
+    public void testAddAndEdit() throws Exception
+    {
+        DoubleArray array = new DoubleArray(0, 25);
+        array.add(0.5);
+        array.add(new double[] { 2.5, 5.5 });
+        array.add(DoubleBuffer.wrap(new double[] { 6.5 }));
+        array.insert(2, new double[] { 3.5, 4.5 });
+        array.remove(0);
+        array.set(0, 1.5);
+
+        assertArrayEquals(new double[] { 1.5, 3.5, 4.5, 5.5, 6.5 }, array.toArray(), 0.0);
+    }
+
+
+    @Test
+    public void testSort() throws Exception
+    {
+        DoubleArray array = new DoubleArray(new double[] { 3.0, Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY, 1.0 });
+        array.sort();
+        assertArrayEquals(new double[] { Double.NEGATIVE_INFINITY, -0.0, 0.0, 1.0, 3.0, Double.NaN }, array.toArray(), 0.0);
+
+        array.sort((d1, d2) -> Double.compare(d2, d1));
+        assertTrue("reverse order puts NaN first", Double.isNaN(array.get(0)));
+    }
+
+
+    @Test
+    public void testBufferFacadeRoundTrip() throws Exception
+    {
+        DoubleArray array = new DoubleArray(new double[] { 1.25, -2.5, Double.MAX_VALUE });
+        BufferFacade facade = array.toBufferFacade();
+
+        assertEquals("capacity", 24, facade.capacity());
+        assertEquals("value 1", -2.5, facade.getDouble(8), 0.0);
+
+        DoubleArray copy = new DoubleArray();
+        copy.add(facade, 0, 3);
+        assertArrayEquals(array.toArray(), copy.toArray(), 0.0);
+    }
+}
@@ -0,0 +1,228 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.kdgregory.kdgcommons.buffer.BufferFacade;
+import com.kdgregory.kdgcommons.buffer.BufferFacadeFactory;
+
+
+public class TestIntArray
+{
+    @Test
+    public void testConstructors() throws Exception
+    {
+        assertEquals("default constructor", 0, new IntArray().size());
+        assertEquals("explicit capacity", 0, new IntArray(0, 25).size());
+
+        IntArray array = new IntArray(new int[] { 1, 2, 3 });
+        assertArrayEquals("array constructor", new int[] { 1, 2, 3 }, array.toArray());
+    }
+
+
+    @Test
+    public void testAdd() throws Exception
+    {
+        IntArray array = new IntArray(0, 25);
+        array.add(1);
+        array.add(new int[] { 2, 3 });
+        array.add(new int[] { 9, 4, 5, 9 }, 1, 2);
+        array.add(new IntArray(new int[] { 6 }));
+        array.add(IntBuffer.wrap(new int[] { 7, 8 }));
+
+        assertEquals("size", 8, array.size());
+        assertArrayEquals("contents", new int[] { 1, 2, 3, 4, 5, 6, 7, 8 }, array.toArray());
+        assertEquals("get", 5, array.get(4));
+    }
+
+
+    @Test
+    public void testAddManyValues() throws Exception
+    {
+        IntArray array = new IntArray(1, 25);
+        for (int ii = 0 ; ii < 100000 ; ii++)
+            array.add(ii);
+
+        assertEquals("size", 100000, array.size());
+        for (int ii = 0 ; ii < 100000 ; ii++)
+            assertEquals("value at " + ii, ii, array.get(ii));
+    }
+
+
+    @Test
+    public void testAddFromBufferFacade() throws Exception
+    {
+        ByteBuffer buf = ByteBuffer.allocate(24);
+        buf.asIntBuffer().put(new int[] { 10, 11, 12, 13, 14, 15 });
+
+        IntArray array = new IntArray();
+        array.add(BufferFacadeFactory.create(buf), 8, 3);
+        assertArrayEquals(new int[] { 12, 13, 14 }, array.toArray());
+    }
+
+
+    @Test
+    public void testGetAndSet() throws Exception
+    {
+        IntArray array = new IntArray(new int[] { 1, 2, 3 });
+        array.set(1, 20);
+        assertEquals("after set", 20, array.get(1));
+
+        try
+        {
+            array.get(3);
+            fail("able to get outside array bounds");
+        }
+        catch (ArrayIndexOutOfBoundsException ex)
+        {
+            // success
+        }
+
+        try
+        {
+            array.set(-1, 0);
+            fail("able to set outside array bounds");
+        }
+        catch (ArrayIndexOutOfBoundsException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testToArray() throws Exception
+    {
+        IntArray array = new IntArray(new int[] { 1, 2, 3, 4, 5 });
+
+        assertTrue("getArray() returns backing array", array.getArray().length >= 5);
+        assertArrayEquals("toArray(off,len)", new int[] { 2, 3 }, array.toArray(1, 2));
+
+        try
+        {
+            array.toArray(4, 2);
+            fail("able to copy past end of array");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testInsert() throws Exception
+    {
+        IntArray array = new IntArray(new int[] { 1, 5 });
+        array.insert(1, new int[] { 2, 4 });
+        array.insert(2, new int[] { 0, 3, 0 }, 1, 1);
+        array.insert(0, new IntArray(new int[] { 0 }));
+        array.insert(6, new int[] { 6 });
+
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6 }, array.toArray());
+
+        try
+        {
+            array.insert(8, new int[0]);
+            fail("able to insert past end of array");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        IntArray array = new IntArray(new int[] { 0, 1, 2, 3, 4, 5, 6 });
+        array.remove(1);
+        array.remove(2, 2);
+        array.removeLast();
+        assertArrayEquals("after removes", new int[] { 0, 2, 5 }, array.toArray());
+
+        array.remove(1, 2);
+        assertArrayEquals("after removing tail", new int[] { 0 }, array.toArray());
+
+        try
+        {
+            array.remove(0, 2);
+            fail("able to remove past end of array");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+
+
+    @Test
+    public void testSetSize() throws Exception
+    {
+        IntArray array = new IntArray(new int[] { 1, 2, 3, 4 });
+        array.setSize(2);
+        array.setSize(4);
+        assertArrayEquals(new int[] { 1, 2, 0, 0 }, array.toArray());
+    }
+
+
+    @Test
+    public void testSort() throws Exception
+    {
+        Random rnd = new Random(42);
+        int[] values = new int[1000];
+        for (int ii = 0 ; ii < values.length ; ii++)
+            values[ii] = rnd.nextInt();
+
+        IntArray array = new IntArray(values);
+        array.add(Integer.MIN_VALUE);
+
+        int[] expected = Arrays.copyOf(values, values.length + 1);
+        expected[values.length] = Integer.MIN_VALUE;
+        Arrays.sort(expected);
+
+        array.sort();
+        assertArrayEquals("natural order", expected, array.toArray());
+
+        array.sort((i1, i2) -> Integer.compare(i2, i1));
+        assertEquals("reverse order, first", expected[expected.length - 1], array.get(0));
+        assertEquals("reverse order, last", expected[0], array.get(array.size() - 1));
+    }
+
+
+    @Test
+    public void testToBufferFacade() throws Exception
+    {
+        IntArray array = new IntArray(new int[] { 1, -2, 3 });
+        BufferFacade facade = array.toBufferFacade();
+
+        assertEquals("capacity", 12, facade.capacity());
+        assertEquals("value 0", 1, facade.getInt(0));
+        assertEquals("value 1", -2, facade.getInt(4));
+        assertEquals("value 2", 3, facade.getInt(8));
+
+        IntArray copy = new IntArray();
+        copy.add(facade, 0, array.size());
+        assertArrayEquals("round trip", array.toArray(), copy.toArray());
+    }
+}
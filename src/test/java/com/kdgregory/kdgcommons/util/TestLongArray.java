@@ -0,0 +1,75 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.kdgcommons.util;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.kdgregory.kdgcommons.buffer.BufferFacade;
+
+
+// most functionality is tested by TestIntArray; this verifies the type-specific code
+public class TestLongArray
+{
+    @Test
+    public void testAddAndEdit() throws Exception
+    {
+        LongArray array = new LongArray(0, 25);
+        array.add(Long.MAX_VALUE);
+        array.add(new long[] { 2L, 5L });
+        array.add(LongBuffer.wrap(new long[] { 6L }));
+        array.insert(2, new long[] { 3L, 4L });
+        array.remove(0);
+        array.set(0, 1L << 40);
+
+        assertArrayEquals(new long[] { 1L << 40, 3L, 4L, 5L, 6L }, array.toArray());
+    }
+
+
+    @Test
+    public void testSort() throws Exception
+    {
+        Random rnd = new Random(42);
+        long[] values = new long[1000];
+        for (int ii = 0 ; ii < values.length ; ii++)
+            values[ii] = rnd.nextLong();
+
+        LongArray array = new LongArray(values);
+        array.sort();
+
+        long[] expected = Arrays.copyOf(values, values.length);
+        Arrays.sort(expected);
+        assertArrayEquals(expected, array.toArray());
+    }
+
+
+    @Test
+    public void testBufferFacadeRoundTrip() throws Exception
+    {
+        LongArray array = new LongArray(new long[] { 1L, -2L, Long.MIN_VALUE });
+        BufferFacade facade = array.toBufferFacade();
+
+        assertEquals("capacity", 24, facade.capacity());
+        assertEquals("value 2", Long.MIN_VALUE, facade.getLong(16));
+
+        LongArray copy = new LongArray();
+        copy.add(facade, 8, 2);
+        assertArrayEquals(new long[] { -2L, Long.MIN_VALUE }, copy.toArray());
+    }
+}
@@ -14,14 +14,28 @@
 
 package com.kdgregory.kdgcommons.util;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import com.kdgregory.kdgcommons.collections.MapBuilder;
+import com.kdgregory.kdgcommons.lang.StringUtil;
 import com.kdgregory.kdgcommons.util.ReadThroughCache.Synchronization;
 
 
@@ -171,6 +185,8 @@ public class TestReadThroughCache
         assertTrue("task 1 should have its own object",         task1.result == task1.value);
         assertTrue("task 2 should have task 1's object",        task2.result == task1.value);
         assertTrue("task 3 should have its own object",         task3.result == task3.value);
+
+        assertTrue("recorded time waiting for task 1",          cache.getStatistics().getLockWaitNanos() > 0);
     }
 
 
@@ -264,12 +280,604 @@ public class TestReadThroughCache
         assertTrue("thread 2 should have thread 2's object", task2.result == task2.value);
     }
 
+    @Test
+    public void testEvictionKeepsCacheWithinLimit() throws Exception
+    {
+        ReadThroughCache<Integer,Integer> cache = new ReadThroughCache<Integer,Integer>(100, new DistinctValueRetriever());
+
+        Integer hot = cache.retrieve(-1);
+        for (int ii = 0 ; ii < 10000 ; ii++)
+        {
+            cache.retrieve(ii);
+            assertTrue("frequently used value retained (iteration " + ii + ")", hot == cache.retrieve(-1));
+        }
+
+        assertEquals("size after many retrieves", 100, cache.size());
+    }
+
+
+    @Test
+    public void testConcurrentRetrievalLoadsEachKeyOnce() throws Exception
+    {
+        final int numThreads = 16;
+        final int numKeys = 50;
+        final AtomicInteger loadCount = new AtomicInteger();
+        final ReadThroughCache<Integer,Integer> cache = new ReadThroughCache<Integer,Integer>(numKeys, new Function<Integer,Integer>()
+        {
+            @Override
+            public Integer apply(Integer key)
+            {
+                loadCount.incrementAndGet();
+                return new Integer(key.intValue());
+            }
+        });
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicInteger errorCount = new AtomicInteger();
+        Thread[] threads = new Thread[numThreads];
+        for (int ii = 0 ; ii < numThreads ; ii++)
+        {
+            threads[ii] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        startLatch.await();
+                        for (int rep = 0 ; rep < 1000 ; rep++)
+                        {
+                            Integer key = Integer.valueOf(rep % numKeys);
+                            if (! key.equals(cache.retrieve(key)))
+                                errorCount.incrementAndGet();
+                        }
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        errorCount.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        start(threads);
+        startLatch.countDown();
+        join(threads);
+
+        assertEquals("incorrect values returned", 0, errorCount.get());
+        assertEquals("number of loads", numKeys, loadCount.get());
+        assertEquals("cache size", numKeys, cache.size());
+    }
+
+    @Test
+    public void testRetrieveAll() throws Exception
+    {
+        RecordingBatchRetriever retriever = new RecordingBatchRetriever();
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, retriever, 0);
+
+        assertEquals("single retrieve", "1", cache.retrieve(1));
+        assertEquals("single retrieve invoked batch retriever with one key", Arrays.asList(Collections.singleton(1)), retriever.invocations);
+
+        Map<Integer,String> result = cache.retrieveAll(Arrays.asList(1, 2, 3, 2));
+        assertEquals("bulk retrieve result", new MapBuilder<Integer,String>(new HashMap<Integer,String>()).put(1, "1").put(2, "2").put(3, "3").toMap(), result);
+        assertEquals("number of batch invocations", 2, retriever.invocations.size());
+        assertEquals("bulk retrieve only loaded missing keys", new HashSet<Integer>(Arrays.asList(2, 3)), retriever.invocations.get(1));
+        assertEquals("cache size", 3, cache.size());
+
+        Map<Integer,String> result2 = cache.retrieveAll(Arrays.asList(2, 3));
+        assertEquals("second bulk retrieve result", new MapBuilder<Integer,String>(new HashMap<Integer,String>()).put(2, "2").put(3, "3").toMap(), result2);
+        assertEquals("second bulk retrieve satisfied from cache", 2, retriever.invocations.size());
+    }
+
+
+    @Test
+    public void testRetrieveAllWithSingleKeyRetriever() throws Exception
+    {
+        ReadThroughCache<Integer,Integer> cache = new ReadThroughCache<Integer,Integer>(10, new DistinctValueRetriever());
+
+        Integer v1 = cache.retrieve(1);
+        Map<Integer,Integer> result = cache.retrieveAll(Arrays.asList(1, 2));
+
+        assertTrue("cached value returned",             v1 == result.get(1));
+        assertEquals("retrieved value returned",        Integer.valueOf(2), result.get(2));
+        assertEquals("cache size",                      2, cache.size());
+    }
+
+
+    @Test
+    public void testRetrieveAllMissingKeysAreNull() throws Exception
+    {
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, new Function<Set<Integer>,Map<Integer,String>>()
+        {
+            @Override
+            public Map<Integer,String> apply(Set<Integer> keys)
+            {
+                return Collections.singletonMap(1, "foo");
+            }
+        }, 0);
+
+        Map<Integer,String> result = cache.retrieveAll(Arrays.asList(1, 2));
+        assertEquals("present key",                     "foo", result.get(1));
+        assertTrue("absent key has mapping",            result.containsKey(2));
+        assertNull("absent key has null value",         result.get(2));
+    }
+
+
+    @Test
+    public void testRetrieveAllAfterFailedConcurrentLoad() throws Exception
+    {
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoad = new CountDownLatch(1);
+        final AtomicInteger loadCount = new AtomicInteger();
+        final ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, new Function<Integer,String>()
+        {
+            @Override
+            public String apply(Integer key)
+            {
+                if (loadCount.incrementAndGet() > 1)
+                    return String.valueOf(key);
+
+                loadStarted.countDown();
+                try
+                {
+                    releaseLoad.await();
+                }
+                catch (InterruptedException ignored)
+                {
+                    // fall through to failure
+                }
+                throw new IllegalStateException("oops!");
+            }
+        });
+
+        Thread failingThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    cache.retrieve(1);
+                }
+                catch (Exception ignored)
+                {
+                    // expected
+                }
+            }
+        });
+        Thread releaseThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    // give the main thread time to start waiting on the in-flight load
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException ignored)
+                {
+                    // release immediately
+                }
+                releaseLoad.countDown();
+            }
+        });
+
+        start(failingThread);
+        assertTrue("load started", loadStarted.await(5, TimeUnit.SECONDS));
+        start(releaseThread);
+
+        Map<Integer,String> result = cache.retrieveAll(Arrays.asList(1));
+        join(failingThread, releaseThread);
+
+        assertEquals("retrieved value",             "1", result.get(1));
+        assertEquals("number of loads",             2, loadCount.get());
+
+        // one miss for each caller; the retry is not a second miss
+        ReadThroughCache.Statistics stats = cache.getStatistics();
+        assertEquals("miss count",                  2, stats.getMissCount());
+        assertEquals("hit count",                   0, stats.getHitCount());
+    }
+
+
+    @Test
+    public void testRetrieveAsyncCombinesRequests() throws Exception
+    {
+        RecordingBatchRetriever retriever = new RecordingBatchRetriever();
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, retriever, 200);
+
+        CompletableFuture<String> f1 = cache.retrieveAsync(1);
+        CompletableFuture<String> f2 = cache.retrieveAsync(2);
+        CompletableFuture<String> f3 = cache.retrieveAsync(1);
+
+        assertEquals("f1", "1", f1.get());
+        assertEquals("f2", "2", f2.get());
+        assertEquals("f3", "1", f3.get());
+        assertEquals("retriever invoked once", 1, retriever.invocations.size());
+        assertEquals("retriever given both keys", new HashSet<Integer>(Arrays.asList(1, 2)), retriever.invocations.get(0));
+
+        CompletableFuture<String> f4 = cache.retrieveAsync(1);
+        assertTrue("cached value available immediately", f4.isDone());
+        assertEquals("f4", "1", f4.get());
+    }
+
+
+    @Test
+    public void testRetrieveAsyncMaxBatchSize() throws Exception
+    {
+        RecordingBatchRetriever retriever = new RecordingBatchRetriever();
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, retriever, 60000, 2);
+
+        CompletableFuture<String> f1 = cache.retrieveAsync(1);
+        CompletableFuture<String> f2 = cache.retrieveAsync(2);
+
+        // if the batch waited for the window to expire, this would time out
+        assertEquals("f1", "1", f1.get(5, TimeUnit.SECONDS));
+        assertEquals("f2", "2", f2.get(5, TimeUnit.SECONDS));
+        assertEquals("retriever invoked once", 1, retriever.invocations.size());
+    }
+
+
+    @Test
+    public void testRetrieveAsyncWithException() throws Exception
+    {
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, new Function<Set<Integer>,Map<Integer,String>>()
+        {
+            @Override
+            public Map<Integer,String> apply(Set<Integer> keys)
+            {
+                throw new IllegalStateException("oops!");
+            }
+        }, 0);
+
+        CompletableFuture<String> future = cache.retrieveAsync(1);
+        try
+        {
+            future.get();
+            fail("should have thrown");
+        }
+        catch (ExecutionException ex)
+        {
+            assertEquals("cause", IllegalStateException.class, ex.getCause().getClass());
+        }
+
+        assertEquals("nothing cached", 0, cache.size());
+    }
+
+    @Test
+    public void testWeightBasedEviction() throws Exception
+    {
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(Integer.MAX_VALUE, new StringRetriever())
+                                                 .withMaxWeight(10, (k, v) -> v.length());
+
+        String v1 = cache.retrieve(1);                  // "x"
+        String v4 = cache.retrieve(4);                  // "xxxx"
+        assertEquals("weight after two retrieves", 5, cache.weight());
+
+        cache.retrieve(5);                              // "xxxxx"
+        assertEquals("weight after three retrieves", 10, cache.weight());
+        assertEquals("size after three retrieves", 3, cache.size());
+
+        assertTrue("re-retrieve value 1", v1 == cache.retrieve(1));
+        cache.retrieve(3);                              // pushes weight to 13, should evict value 4
+        assertEquals("weight after eviction", 9, cache.weight());
+        assertEquals("size after eviction", 3, cache.size());
+        assertTrue("most recently used value retained", v1 == cache.retrieve(1));
+        assertFalse("least recently used value evicted", v4 == cache.retrieve(4));
+
+        cache.clear();
+        assertEquals("weight after clear", 0, cache.weight());
+    }
+
+
+    @Test
+    public void testOffHeapStorage() throws Exception
+    {
+        final AtomicInteger loadCount = new AtomicInteger();
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(2, new Function<Integer,String>()
+        {
+            @Override
+            public String apply(Integer key)
+            {
+                loadCount.incrementAndGet();
+                return "value " + key;
+            }
+        }).withOffHeapStorage(1024, v -> v.getBytes(StandardCharsets.UTF_8), b -> new String(b, StandardCharsets.UTF_8));
+
+        cache.retrieve(1);
+        cache.retrieve(2);
+        cache.retrieve(3);
+
+        assertEquals("load count after initial retrieves", 3, loadCount.get());
+        assertEquals("on-heap size", 2, cache.size());
+        assertEquals("off-heap size", 1, cache.offHeapSize());
+
+        assertEquals("value promoted from off-heap", "value 1", cache.retrieve(1));
+        assertEquals("load count after promotion", 3, loadCount.get());
+        assertEquals("on-heap size after promotion", 2, cache.size());
+        assertEquals("off-heap size after promotion", 2, cache.offHeapSize());
+
+        cache.clear();
+        assertEquals("off-heap size after clear", 0, cache.offHeapSize());
+        assertEquals("value after clear", "value 1", cache.retrieve(1));
+        assertEquals("load count after clear", 4, loadCount.get());
+    }
+
+
+    @Test
+    public void testOffHeapStorageOverwritesOldestValues() throws Exception
+    {
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(1, new StringRetriever())
+                                                 .withOffHeapStorage(16, v -> v.getBytes(StandardCharsets.UTF_8), b -> new String(b, StandardCharsets.UTF_8));
+
+        for (int ii = 1 ; ii <= 7 ; ii++)
+        {
+            cache.retrieve(ii);
+        }
+
+        // values 1 through 6 have been evicted; writing 6 wrapped the ring, overwriting 1 through 3
+        assertEquals("off-heap size after wrap", 3, cache.offHeapSize());
+
+        // evicts 7, overwriting 4 and 5
+        cache.retrieve(17);
+        assertEquals("off-heap size after second wrap", 2, cache.offHeapSize());
+
+        // evicts 17, which is too large to store
+        cache.retrieve(2);
+        assertEquals("off-heap size after evicting large value", 2, cache.offHeapSize());
+    }
+
+    @Test
+    public void testStatistics() throws Exception
+    {
+        ReadThroughCache<Integer,Integer> cache = new ReadThroughCache<Integer,Integer>(2, new DistinctValueRetriever());
+
+        ReadThroughCache.Statistics stats0 = cache.getStatistics();
+        assertEquals("initial request count",       0, stats0.getRequestCount());
+        assertEquals("initial hit rate",            1.0, stats0.getHitRate(), 0.0);
+
+        cache.retrieve(1);
+        cache.retrieve(1);
+        cache.retrieve(2);
+        cache.retrieve(3);
+        cache.retrieveAll(Arrays.asList(2, 3, 4));
+
+        ReadThroughCache.Statistics stats1 = cache.getStatistics();
+        assertEquals("hit count",                   3, stats1.getHitCount());
+        assertEquals("miss count",                  4, stats1.getMissCount());
+        assertEquals("request count",               7, stats1.getRequestCount());
+        assertEquals("hit rate",                    3.0 / 7.0, stats1.getHitRate(), 0.0001);
+        assertEquals("load success count",          4, stats1.getLoadSuccessCount());
+        assertEquals("load failure count",          0, stats1.getLoadFailureCount());
+        assertTrue("total load time recorded",      stats1.getTotalLoadNanos() > 0);
+        assertTrue("average load time recorded",    stats1.getAverageLoadNanos() > 0);
+        assertEquals("eviction count",              2, stats1.getEvictionCount());
+
+        assertEquals("earlier snapshot unchanged",  0, stats0.getRequestCount());
+    }
+
+
+    @Test
+    public void testStatisticsWithFailedLoad() throws Exception
+    {
+        ReadThroughCache<Integer,Integer> cache = new ReadThroughCache<Integer,Integer>(2, new Function<Integer,Integer>()
+        {
+            @Override
+            public Integer apply(Integer key)
+            {
+                throw new IllegalStateException("oops!");
+            }
+        });
+
+        try
+        {
+            cache.retrieve(1);
+            fail("should have thrown");
+        }
+        catch (IllegalStateException ex)
+        {
+            // success
+        }
+
+        ReadThroughCache.Statistics stats = cache.getStatistics();
+        assertEquals("miss count",                  1, stats.getMissCount());
+        assertEquals("load success count",          0, stats.getLoadSuccessCount());
+        assertEquals("load failure count",          1, stats.getLoadFailureCount());
+    }
+
+    @Test
+    public void testNegativeCaching() throws Exception
+    {
+        final AtomicInteger loadCount = new AtomicInteger();
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, new Function<Integer,String>()
+        {
+            @Override
+            public String apply(Integer key)
+            {
+                loadCount.incrementAndGet();
+                return (key.intValue() < 0) ? null : String.valueOf(key);
+            }
+        }).withNegativeCaching(DEFAULT_DELAY);
+
+        assertNull("first retrieve of missing key",             cache.retrieve(-1));
+        assertEquals("first retrieve of existing key",          "1", cache.retrieve(1));
+        assertNull("second retrieve of missing key",            cache.retrieve(-1));
+        assertEquals("load count before expiration",            2, loadCount.get());
+
+        Thread.sleep(DEFAULT_DELAY * 2);
+
+        assertNull("retrieve of missing key after expiration",  cache.retrieve(-1));
+        assertEquals("retrieve of existing key after expiration", "1", cache.retrieve(1));
+        assertEquals("load count after expiration",             3, loadCount.get());
+    }
+
+
+    @Test
+    public void testFailureBackoff() throws Exception
+    {
+        final AtomicInteger loadCount = new AtomicInteger();
+        final AtomicBoolean shouldFail = new AtomicBoolean(true);
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, new Function<Integer,String>()
+        {
+            @Override
+            public String apply(Integer key)
+            {
+                loadCount.incrementAndGet();
+                if (shouldFail.get())
+                    throw new IllegalStateException("oops!");
+                return String.valueOf(key);
+            }
+        }).withFailureBackoff(DEFAULT_DELAY, DEFAULT_DELAY * 4);
+
+        try
+        {
+            cache.retrieve(1);
+            fail("first retrieve should have thrown");
+        }
+        catch (IllegalStateException ex)
+        {
+            // success
+        }
+
+        try
+        {
+            cache.retrieve(1);
+            fail("second retrieve should have thrown");
+        }
+        catch (ReadThroughCache.BackoffException ex)
+        {
+            assertEquals("backoff cause", IllegalStateException.class, ex.getCause().getClass());
+        }
+
+        assertEquals("load count after backoff rejection",      1, loadCount.get());
+        assertEquals("rejection count",                         1, cache.getStatistics().getBackoffRejectionCount());
+        assertEquals("other keys unaffected",                   "2", cacheRetrieveIgnoringFailure(cache, shouldFail, 2));
+
+        Thread.sleep(DEFAULT_DELAY * 2);
+
+        assertEquals("retrieve after backoff expired",          "1", cacheRetrieveIgnoringFailure(cache, shouldFail, 1));
+        assertEquals("load count after backoff expired",        3, loadCount.get());
+    }
+
+
+    @Test
+    public void testFailureBackoffWithBatchRetrieval() throws Exception
+    {
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, new Function<Set<Integer>,Map<Integer,String>>()
+        {
+            @Override
+            public Map<Integer,String> apply(Set<Integer> keys)
+            {
+                if (keys.contains(-1))
+                    throw new IllegalStateException("oops!");
+
+                Map<Integer,String> result = new HashMap<Integer,String>();
+                for (Integer key : keys)
+                    result.put(key, String.valueOf(key));
+                return result;
+            }
+        }, 0).withFailureBackoff(60000, 60000);
+
+        try
+        {
+            cache.retrieveAll(Arrays.asList(-1, 1));
+            fail("first retrieve should have thrown");
+        }
+        catch (IllegalStateException ex)
+        {
+            // success
+        }
+
+        try
+        {
+            cache.retrieveAll(Arrays.asList(-1, 2));
+            fail("second retrieve should have thrown");
+        }
+        catch (ReadThroughCache.BackoffException ex)
+        {
+            // success
+        }
+
+        assertEquals("key not in backoff was cached",           1, cache.size());
+        assertEquals("async retrieve of key not in backoff",    "2", cache.retrieveAsync(2).get());
+
+        try
+        {
+            cache.retrieveAsync(1).get();
+            fail("async retrieve of key in backoff should have thrown");
+        }
+        catch (ExecutionException ex)
+        {
+            assertEquals("cause", ReadThroughCache.BackoffException.class, ex.getCause().getClass());
+        }
+    }
+
+
+    @Test
+    public void testFailureRecordsAreBounded() throws Exception
+    {
+        ReadThroughCache<Integer,String> cache = new ReadThroughCache<Integer,String>(10, new Function<Integer,String>()
+        {
+            @Override
+            public String apply(Integer key)
+            {
+                throw new IllegalStateException("oops!");
+            }
+        }).withFailureBackoff(60000, 60000);
+
+        int maxRecords = 0;
+        for (int ii = 0 ; ii < 10000 ; ii++)
+        {
+            try
+            {
+                cache.retrieve(ii);
+                fail("retrieve should have thrown");
+            }
+            catch (IllegalStateException ex)
+            {
+                // success
+            }
+            maxRecords = Math.max(maxRecords, cache.getFailureRecordCount());
+        }
+
+        assertTrue("failure records bounded (was: " + maxRecords + ")", maxRecords <= 64);
+        assertTrue("recent failures retained",                          cache.getFailureRecordCount() > 0);
+
+        try
+        {
+            cache.retrieve(9999);
+            fail("most recent failure should be in backoff");
+        }
+        catch (ReadThroughCache.BackoffException ex)
+        {
+            // success
+        }
+    }
+
 //----------------------------------------------------------------------------
 //  Support code
 //----------------------------------------------------------------------------
 
     private final static long DEFAULT_DELAY = 50;
 
+    /**
+     *  Retrieves a value from a cache whose retriever is controlled by a flag, with
+     *  that flag cleared.
+     */
+    private static String cacheRetrieveIgnoringFailure(ReadThroughCache<Integer,String> cache, AtomicBoolean shouldFail, int key)
+    throws InterruptedException
+    {
+        boolean prev = shouldFail.getAndSet(false);
+        try
+        {
+            return cache.retrieve(key);
+        }
+        finally
+        {
+            shouldFail.set(prev);
+        }
+    }
+
     /**
      *  Convenience function for starting a bunch of threads.
      */
@@ -301,6 +909,40 @@ public class TestReadThroughCache
         }
     }
 
+    /**
+     *  A retriever that returns a string of "x" with length determined by the key.
+     */
+    private static class StringRetriever
+    implements Function<Integer,String>
+    {
+        @Override
+        public String apply(Integer key)
+        {
+            return StringUtil.repeat('x', key.intValue());
+        }
+    }
+
+
+    /**
+     *  A batch retriever that returns the string value of each key, and records
+     *  the keys that it was passed.
+     */
+    private static class RecordingBatchRetriever
+    implements Function<Set<Integer>,Map<Integer,String>>
+    {
+        public List<Set<Integer>> invocations = Collections.synchronizedList(new ArrayList<Set<Integer>>());
+
+        @Override
+        public Map<Integer,String> apply(Set<Integer> keys)
+        {
+            invocations.add(new HashSet<Integer>(keys));
+            Map<Integer,String> result = new HashMap<Integer,String>();
+            for (Integer key : keys)
+                result.put(key, String.valueOf(key));
+            return result;
+        }
+    }
+
     // the following three objects are used for concurrency testing
 
     /**